@@ -24,6 +24,12 @@ class Constants {
         String STOP_SERVICE = "edu.umass.cs.bluedroid.action.stop-service";
         String MINIMIZE_VIDEO = "edu.umass.cs.bluedroid.action.minimize-video";
         String MAXIMIZE_VIDEO = "edu.umass.cs.bluedroid.action.maximize-video";
+        /** Broadcast within the application when a pill bottle event is detected
+         * @see RecordingService */
+        String BOTTLE_EVENT = "edu.umass.cs.bluedroid.action.bottle-event";
+        /** Broadcast within the application when an adherence event is detected
+         * @see RecordingService */
+        String ADHERENCE_EVENT = "edu.umass.cs.bluedroid.action.adherence-event";
     }
 
     public interface NOTIFICATION_ID {
@@ -41,16 +47,66 @@ class Constants {
 
             interface RSSI {
                 String KEY = "rssi";
-                String DEFAULT = "";
+                String DEFAULT = "rssi";
+            }
+
+            interface EVENTS {
+                String KEY = "events-file-name";
+                String DEFAULT = "events";
+            }
+
+            interface DISTANCE {
+                String KEY = "distance-file-name";
+                String DEFAULT = "distance";
+            }
+
+            interface ADHERENCE {
+                String KEY = "adherence-file-name";
+                String DEFAULT = "adherence";
+            }
+
+            interface LABELS {
+                String KEY = "labels-file-name";
+                String DEFAULT = "labels";
             }
         }
 
+        /** Per-device RSSI calibration, stored under the prefix followed by the device address
+         * @see edu.umass.cs.camera.processing.RssiDistanceEstimator */
+        interface CALIBRATION {
+            String REFERENCE_RSSI_KEY_PREFIX = "rssi-reference-";
+            String PATH_LOSS_EXPONENT_KEY_PREFIX = "path-loss-exponent-";
+            /** number of RSSI samples averaged when calibrating the reference RSSI at 1 m */
+            int SAMPLES = 100;
+        }
+
+        /** Trained dose classifier, loaded from the save directory when the service starts
+         * @see edu.umass.cs.camera.processing.DoseClassifier */
+        interface DOSE_MODEL {
+            String FILE_NAME = "dose-model.txt";
+        }
+
         interface SAVE_DIRECTORY {
             String DEFAULT_DIRECTORY_NAME = "bluedroid";
             String DEFAULT = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), DEFAULT_DIRECTORY_NAME).getAbsolutePath();
         }
     }
 
+    /** Daily adherence rollups, persisted in the application's private storage
+     * @see edu.umass.cs.camera.processing.DailyRollups */
+    public interface ROLLUPS {
+        String FILE_NAME = "rollups.bin";
+        /** how often the rollups are saved while the service runs, in milliseconds */
+        long SAVE_INTERVAL = 60 * 1000;
+    }
+
+    /** Ground truth labels, written as "start, end, label" on the same clock as the sensor data
+     * @see SensorService */
+    public interface LABELS {
+        /** a "took dose" tap labels the interval ending at the tap and starting this many milliseconds earlier */
+        long TAP_DURATION = 60 * 1000;
+    }
+
     public interface KEY {
         String STATUS = "edu.umass.cs.bluedroid.key.status";
         String ACCELEROMETER_READING = "edu.umass.cs.bluedroid.key.accelerometer-reading";
@@ -59,6 +115,28 @@ class Constants {
         String SURFACE_HEIGHT = "edu.umass.cs.bluedroid.key.surface-height";
         String SURFACE_X = "edu.umass.cs.bluedroid.key.surface-x";
         String SURFACE_Y = "edu.umass.cs.bluedroid.key.surface-y";
+        String DEVICE_ADDRESS = "edu.umass.cs.bluedroid.key.device-address";
+        String DEVICES = "edu.umass.cs.bluedroid.key.devices";
+        String STREAM = "edu.umass.cs.bluedroid.key.stream";
+        String START_TIME = "edu.umass.cs.bluedroid.key.start-time";
+        String END_TIME = "edu.umass.cs.bluedroid.key.end-time";
+        String AGGREGATION = "edu.umass.cs.bluedroid.key.aggregation";
+        String BUCKET_SIZE = "edu.umass.cs.bluedroid.key.bucket-size";
+        String CHANNELS = "edu.umass.cs.bluedroid.key.channels";
+        String TIMESTAMPS = "edu.umass.cs.bluedroid.key.timestamps";
+        String VALUES = "edu.umass.cs.bluedroid.key.values";
+        String EVENT_TYPE = "edu.umass.cs.bluedroid.key.event-type";
+        String EVENT_TIME = "edu.umass.cs.bluedroid.key.event-time";
+        String DISTANCE = "edu.umass.cs.bluedroid.key.distance";
+        String DAYS = "edu.umass.cs.bluedroid.key.days";
+        String EVENT_COUNTS = "edu.umass.cs.bluedroid.key.event-counts";
+        String ADHERENCE_EVENTS = "edu.umass.cs.bluedroid.key.adherence-events";
+        String FIRST_EVENTS = "edu.umass.cs.bluedroid.key.first-events";
+        String LAST_EVENTS = "edu.umass.cs.bluedroid.key.last-events";
+        String ACTIVE_MINUTES = "edu.umass.cs.bluedroid.key.active-minutes";
+        String GAPS = "edu.umass.cs.bluedroid.key.gaps";
+        String GAP_DURATIONS = "edu.umass.cs.bluedroid.key.gap-durations";
+        String LABEL = "edu.umass.cs.bluedroid.key.label";
     }
 
     public interface MESSAGE {
@@ -69,5 +147,27 @@ class Constants {
         int STATUS = 4;
         int ACCELEROMETER_READING = 5;
         int BATTERY_LEVEL = 6;
+        /** Query recent sensor data held in memory by the sensor service
+         * @see SensorService */
+        int QUERY_HISTORY = 7;
+        /** Reply to {@link #QUERY_HISTORY} */
+        int HISTORY = 8;
+        /** A pill bottle event was detected, see {@link edu.umass.cs.camera.processing.BottleEvent} */
+        int BOTTLE_EVENT = 9;
+        /** Smoothed distance between the phone and a Bean, estimated from the RSSI */
+        int DISTANCE = 10;
+        /** Calibrate the RSSI at 1 m for the given device, or all connected devices if none is given */
+        int CALIBRATE_RSSI = 11;
+        /** A pill bottle event which occurred while the phone was near the bottle
+         * @see edu.umass.cs.camera.processing.AdherenceFusion */
+        int ADHERENCE_EVENT = 12;
+        /** Query the daily rollups of a device
+         * @see edu.umass.cs.camera.processing.DailyRollups */
+        int QUERY_ROLLUPS = 13;
+        /** Reply to {@link #QUERY_ROLLUPS} */
+        int ROLLUPS = 14;
+        /** Record a ground truth label for the interval between the given start and end times,
+         * e.g. when the user took a dose or from reviewing the video */
+        int LABEL = 15;
     }
 }
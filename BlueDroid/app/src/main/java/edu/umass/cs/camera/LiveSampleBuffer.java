@@ -0,0 +1,94 @@
+package edu.umass.cs.camera;
+
+/**
+ * Holds the latest xyz sensor reading and a short history of recent readings for live display.
+ * Readings are written as they arrive from the sensor service, while the UI reads them once per
+ * display frame, so any readings arriving between two frames only update the buffer and are
+ * never rendered individually. Writing a reading does not allocate.
+ *
+ * @see MainActivity
+ * @see SensorPlotView
+ */
+class LiveSampleBuffer {
+
+    /** number of axes per reading */
+    static final int AXES = 3;
+
+    /** number of recent readings retained for plotting */
+    private final int capacity;
+
+    /** recent readings per axis, stored as a ring */
+    private final float[][] recent;
+
+    /** index in {@link #recent} where the next reading is stored */
+    private int next = 0;
+
+    /** number of valid readings in {@link #recent} */
+    private int count = 0;
+
+    private final double[] latest = new double[AXES];
+
+    /** incremented for every reading, so readers can tell whether anything changed */
+    private long sequence = 0;
+
+    /**
+     * @param capacity number of recent readings retained for plotting
+     */
+    LiveSampleBuffer(int capacity) {
+        this.capacity = capacity;
+        this.recent = new float[AXES][capacity];
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Stores a new reading
+     */
+    synchronized void add(double x, double y, double z) {
+        latest[0] = x;
+        latest[1] = y;
+        latest[2] = z;
+        recent[0][next] = (float) x;
+        recent[1][next] = (float) y;
+        recent[2][next] = (float) z;
+        next = (next + 1) % capacity;
+        if (count < capacity) count++;
+        sequence++;
+    }
+
+    /** Returns the sequence number of the latest reading, 0 if there is none */
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Copies the latest reading into the given length-3 array
+     * @return the sequence number of the copied reading
+     */
+    synchronized long getLatest(double[] out) {
+        System.arraycopy(latest, 0, out, 0, AXES);
+        return sequence;
+    }
+
+    /**
+     * Copies the recent readings, oldest first, into the given arrays, one per axis, each of
+     * which must have room for {@link #getCapacity()} values.
+     * @return the number of readings copied
+     */
+    synchronized int copyRecent(float[][] out) {
+        int start = (next - count + capacity) % capacity;
+        int firstPart = Math.min(count, capacity - start);
+        for (int axis = 0; axis < AXES; axis++) {
+            System.arraycopy(recent[axis], start, out[axis], 0, firstPart);
+            System.arraycopy(recent[axis], 0, out[axis], firstPart, count - firstPart);
+        }
+        return count;
+    }
+
+    synchronized void clear() {
+        next = 0;
+        count = 0;
+    }
+}
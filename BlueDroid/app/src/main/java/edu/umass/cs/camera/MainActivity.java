@@ -28,6 +28,7 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.Surface;
@@ -39,6 +40,8 @@ import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
 
+import edu.umass.cs.camera.processing.BottleEvent;
+
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -82,6 +85,47 @@ public class MainActivity extends AppCompatActivity {
     /** Used to display status messages **/
     private TextView tvStatus, tvSensor;
 
+    /** Number of recent accelerometer readings shown in the live plot **/
+    private static final int PLOT_LENGTH = 256;
+
+    /** Latest accelerometer readings received from the sensor service, rendered once per frame **/
+    private final LiveSampleBuffer accelerometerBuffer = new LiveSampleBuffer(PLOT_LENGTH);
+
+    /** Scrolling plot of the recent accelerometer readings **/
+    private SensorPlotView plotSensor;
+
+    /** Format of the accelerometer reading display, loaded once rather than for every frame **/
+    private String sensorReadingFormat;
+
+    /** Sequence number of the accelerometer reading currently displayed **/
+    private long renderedSequence = 0;
+
+    /** Scratch array receiving the latest accelerometer reading when rendering a frame **/
+    private final double[] latestReading = new double[LiveSampleBuffer.AXES];
+
+    /** Whether {@link #frameCallback} is currently scheduled, i.e. the activity is visible **/
+    private boolean isRendering = false;
+
+    /**
+     * Renders the latest accelerometer reading once per display frame. Readings received since
+     * the previous frame only update {@link #accelerometerBuffer}, so the amount of work done on
+     * the UI thread does not depend on the sensor sampling rate.
+     */
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!isRendering)
+                return;
+            long sequence = accelerometerBuffer.getLatest(latestReading);
+            if (sequence != renderedSequence) {
+                renderedSequence = sequence;
+                tvSensor.setText(String.format(sensorReadingFormat, latestReading[0], latestReading[1], latestReading[2]));
+                plotSensor.invalidate();
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
     public static SurfaceView mSurfaceView;
 
     public static ViewGroup mSurfaceLayout;
@@ -144,6 +188,20 @@ public class MainActivity extends AppCompatActivity {
                     mMainActivity.get().updateBatteryLevel(msg.getData().getInt(Constants.KEY.BATTERY_LEVEL));
                     break;
                 }
+                case Constants.MESSAGE.BOTTLE_EVENT:
+                {
+                    Bundle data = msg.getData();
+                    mMainActivity.get().updateStatus(String.format("Bottle %s: %s", data.getString(Constants.KEY.DEVICE_ADDRESS),
+                            BottleEvent.getName(data.getInt(Constants.KEY.EVENT_TYPE))));
+                    break;
+                }
+                case Constants.MESSAGE.ADHERENCE_EVENT:
+                {
+                    Bundle data = msg.getData();
+                    mMainActivity.get().updateStatus(String.format("Adherence %s: %s at %.1f m", data.getString(Constants.KEY.DEVICE_ADDRESS),
+                            BottleEvent.getName(data.getInt(Constants.KEY.EVENT_TYPE)), data.getDouble(Constants.KEY.DISTANCE)));
+                    break;
+                }
                 default:
                     super.handleMessage(msg);
             }
@@ -208,12 +266,32 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         maximizeVideo();
+        startRendering();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         minimizeVideo();
+        stopRendering();
+    }
+
+    /**
+     * Starts rendering accelerometer readings at the display refresh rate
+     */
+    private void startRendering() {
+        if (!isRendering) {
+            isRendering = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * Stops rendering accelerometer readings, e.g. while the activity is not visible
+     */
+    private void stopRendering() {
+        isRendering = false;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
     }
 
 
@@ -338,18 +416,12 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * display the accelerometer readings in the main UI
+     * store the accelerometer readings for display in the main UI; they are displayed on the
+     * next frame by {@link #frameCallback}
      * @param values length-3 array of xyz accelerometer readings
      */
     private void updateAccelerometerReading(final double[] values){
-        final String output = String.format(getString(R.string.initial_sensor_readings), values[0], values[1], values[2]);
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                tvSensor.setText(output);
-            }
-        });
-        Log.d(TAG, output);
+        accelerometerBuffer.add(values[0], values[1], values[2]);
     }
 
     //Callback method called following permissions request
@@ -406,8 +478,12 @@ public class MainActivity extends AppCompatActivity {
         tvStatus = (TextView) findViewById(R.id.status);
         tvStatus.setText(getString(R.string.initial_status));
 
+        sensorReadingFormat = getString(R.string.initial_sensor_readings);
         tvSensor = (TextView) findViewById(R.id.sensor_readings);
-        tvSensor.setText(String.format(getString(R.string.initial_sensor_readings), 0.0, 0.0, 0.0));
+        tvSensor.setText(String.format(sensorReadingFormat, 0.0, 0.0, 0.0));
+
+        plotSensor = (SensorPlotView) findViewById(R.id.sensor_plot);
+        plotSensor.setBuffer(accelerometerBuffer);
 
         doBindService();
 
@@ -561,6 +637,48 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    /**
+     * Asks the {@link SensorService} to calibrate the RSSI at 1 m for all connected Beans
+     */
+    private void requestDistanceCalibration(){
+        if (mService == null) {
+            updateStatus("Start the sensor service before calibrating.");
+            return;
+        }
+        try {
+            Message msg = Message.obtain(null, Constants.MESSAGE.CALIBRATE_RSSI);
+            msg.replyTo = mMessenger;
+            mService.send(msg);
+        } catch (RemoteException e) {
+            // There is nothing special we need to do if the service has crashed.
+        }
+    }
+
+    /**
+     * Asks the {@link SensorService} to record a ground truth label
+     * @param start start of the labeled interval, in milliseconds
+     * @param end end of the labeled interval, in milliseconds
+     * @param label the label
+     */
+    private void sendLabel(long start, long end, String label){
+        if (mService == null) {
+            updateStatus("Start the sensor service before labeling.");
+            return;
+        }
+        try {
+            Bundle b = new Bundle();
+            b.putLong(Constants.KEY.START_TIME, start);
+            b.putLong(Constants.KEY.END_TIME, end);
+            b.putString(Constants.KEY.LABEL, label);
+            Message msg = Message.obtain(null, Constants.MESSAGE.LABEL);
+            msg.setData(b);
+            msg.replyTo = mMessenger;
+            mService.send(msg);
+        } catch (RemoteException e) {
+            // There is nothing special we need to do if the service has crashed.
+        }
+    }
+
     /**
      * Called when the {@link SensorService} has started. This should then start the {@link RecordingService}, if enabled.
      */
@@ -584,6 +702,17 @@ public class MainActivity extends AppCompatActivity {
         // as you specify a parent activity in AndroidManifest.xml.
         int id = item.getItemId();
 
+        if (id == R.id.action_took_dose) {
+            long now = System.currentTimeMillis();
+            sendLabel(now - Constants.LABELS.TAP_DURATION, now, BottleEvent.getName(BottleEvent.TYPE.DOSE_TAKEN));
+            return true;
+        }
+
+        if (id == R.id.action_calibrate) {
+            requestDistanceCalibration();
+            return true;
+        }
+
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
             Intent openSettings = new Intent(MainActivity.this, SettingsActivity.class);
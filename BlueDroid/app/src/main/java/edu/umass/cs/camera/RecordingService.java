@@ -3,16 +3,21 @@ package edu.umass.cs.camera;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.PixelFormat;
 import android.media.MediaRecorder;
+import android.os.Handler;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -33,6 +38,11 @@ import java.io.IOException;
  * which allows the application to place the video surface in the foreground, even above other
  * running applications.
  *
+ * The recording can optionally be split into segments of a maximum duration, each written to
+ * its own file. Bottle events detected by the {@link SensorService} while recording are written
+ * to a {@link VideoIndex}, so that they can be reviewed without loading the whole recording; if
+ * enabled, segments without any events are deleted once they end.
+ *
  * @author snoran
  * @affiliation University of Massachusetts Amherst
  *
@@ -43,6 +53,12 @@ import java.io.IOException;
  */
 public class RecordingService extends Service implements SurfaceHolder.Callback
 {
+    /** Used during debugging to identify logs by class */
+    private static final String TAG = RecordingService.class.getName();
+
+    /** how long to wait for late events before deciding whether to keep an ended segment, in milliseconds */
+    private static final long RETENTION_DELAY = 10000;
+
     /** Holder for the {@link SurfaceView} which displays the recording **/
     private SurfaceHolder sHolder;
 
@@ -66,6 +82,50 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
     /** height in pixels of the {@link SurfaceView} which displays the video recording preview **/
     private int height;
 
+    /** maximum duration of each video file in milliseconds, or 0 to record a single file **/
+    private int segmentDuration;
+
+    /** indicates whether segments during which no events were detected should be deleted **/
+    private boolean keepEventSegmentsOnly;
+
+    /** maps detected events to video files and offsets **/
+    private VideoIndex videoIndex;
+
+    /** used to delay retention decisions; all callbacks run on the main thread **/
+    private final Handler handler = new Handler();
+
+    /**
+     * receives the events detected by the {@link SensorService} while recording, and until the
+     * retention of the last segment has been decided
+     **/
+    private final BroadcastReceiver eventReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (videoIndex == null)
+                return;
+            videoIndex.addEvent(intent.getLongExtra(Constants.KEY.EVENT_TIME, System.currentTimeMillis()),
+                    intent.getStringExtra(Constants.KEY.DEVICE_ADDRESS),
+                    intent.getIntExtra(Constants.KEY.EVENT_TYPE, -1),
+                    Constants.ACTION.ADHERENCE_EVENT.equals(intent.getAction()));
+        }
+    };
+
+    /** closes the index of the stopped recording once late events have arrived, or null **/
+    private Runnable pendingClose;
+
+    /** starts the next segment when the current one reaches its maximum duration **/
+    private final MediaRecorder.OnInfoListener segmentListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder mediaRecorder, int what, int extra) {
+            if (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED && isRecording) {
+                // the recorder has already stopped
+                mMediaRecorder.release();
+                endSegment();
+                startSegment();
+            }
+        }
+    };
+
     /**
      * Loads shared preferences, e.g. the directory where the video data should be saved and
      * whether or not audio recording is enabled.
@@ -77,6 +137,10 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
                 getResources().getBoolean(R.bool.pref_audio_default));
         save_directory = preferences.getString(getString(R.string.pref_directory_key),
                 Constants.PREFERENCES.SAVE_DIRECTORY.DEFAULT);
+        segmentDuration = 60 * 1000 * Integer.parseInt(preferences.getString(getString(R.string.pref_video_segment_duration_key),
+                getString(R.string.pref_video_segment_duration_default)));
+        keepEventSegmentsOnly = preferences.getBoolean(getString(R.string.pref_video_keep_event_segments_key),
+                getResources().getBoolean(R.bool.pref_video_keep_event_segments_default));
     }
 
     @Override
@@ -143,7 +207,15 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
 
         }else if (intent.getAction().equals(Constants.ACTION.STOP_SERVICE) && isRecording){
             stopRecording();
-            stopSelf();
+            // stay alive while late events for the last segment arrive, unless started again meanwhile
+            stopForeground(true);
+            final int stopId = startId;
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    stopSelf(stopId);
+                }
+            }, RETENTION_DELAY);
         }else if (intent.getAction().equals(Constants.ACTION.MINIMIZE_VIDEO) && isRecording){
             //there is no functionality to minimize the video, but setting the surface size to 1x1 pixel should suffice
             sHolder.setFixedSize(1, 1);
@@ -158,10 +230,31 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
     }
 
     /**
-     * Starts the video recording, along with audio if enabled. The video file is
-     * stored in the directory specified in the application preferences.
+     * Starts the video recording, along with audio if enabled. The video files and the event
+     * index are stored in the directory specified in the application preferences.
      */
     public void startRecording(){
+        if (pendingClose != null) {
+            // the previous recording is still waiting for late events; it does not get any more
+            handler.removeCallbacks(pendingClose);
+            pendingClose.run();
+        }
+        try {
+            videoIndex = new VideoIndex(new File(save_directory), System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not create video index", e);
+        }
+        IntentFilter filter = new IntentFilter(Constants.ACTION.BOTTLE_EVENT);
+        filter.addAction(Constants.ACTION.ADHERENCE_EVENT);
+        LocalBroadcastManager.getInstance(this).registerReceiver(eventReceiver, filter);
+        isRecording = true;
+        startSegment();
+    }
+
+    /**
+     * Starts recording a new video file
+     */
+    private void startSegment(){
         mMediaRecorder = new MediaRecorder();
         if (record_audio) {
             mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
@@ -172,9 +265,14 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
             mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.DEFAULT);
         }
         mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.DEFAULT);
-        mMediaRecorder.setOutputFile(new File(save_directory, "VIDEO" + String.valueOf(System.currentTimeMillis()) + ".mp4").getAbsolutePath());
+        File file = new File(save_directory, "VIDEO" + String.valueOf(System.currentTimeMillis()) + ".mp4");
+        mMediaRecorder.setOutputFile(file.getAbsolutePath());
         mMediaRecorder.setVideoFrameRate(30);
         mMediaRecorder.setPreviewDisplay(sHolder.getSurface());
+        if (segmentDuration > 0) {
+            mMediaRecorder.setMaxDuration(segmentDuration);
+            mMediaRecorder.setOnInfoListener(segmentListener);
+        }
         try{
             mMediaRecorder.prepare();
 
@@ -183,11 +281,32 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
         }
 
         mMediaRecorder.start();
-        isRecording = true;
+        if (videoIndex != null)
+            videoIndex.startSegment(file, System.currentTimeMillis());
+    }
+
+    /**
+     * Marks the end of the current video file in the index and, if only segments with events
+     * are kept, deletes it unless an event is indexed in it by the time late events have arrived
+     */
+    private void endSegment(){
+        if (videoIndex == null)
+            return;
+        final VideoIndex.Segment segment = videoIndex.endSegment(System.currentTimeMillis());
+        if (segment == null || !keepEventSegmentsOnly)
+            return;
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (segment.events == 0 && !segment.file.delete())
+                    Log.d(TAG, "Deleting segment failed: " + segment.file.getName());
+            }
+        }, RETENTION_DELAY);
     }
 
     /**
-     * Stops video/audio recording and releases the media recorder.
+     * Stops video/audio recording and releases the media recorder. Events keep being indexed
+     * until the retention of the last segment has been decided, after which the index is closed.
      */
     public void stopRecording(){
         if (mMediaRecorder != null) {
@@ -195,6 +314,20 @@ public class RecordingService extends Service implements SurfaceHolder.Callback
             mMediaRecorder.release();
         }
         isRecording = false;
+        endSegment();
+        // posted after the retention decision with the same delay, so it runs after it
+        pendingClose = new Runnable() {
+            @Override
+            public void run() {
+                LocalBroadcastManager.getInstance(RecordingService.this).unregisterReceiver(eventReceiver);
+                if (videoIndex != null) {
+                    videoIndex.close();
+                    videoIndex = null;
+                }
+                pendingClose = null;
+            }
+        };
+        handler.postDelayed(pendingClose, RETENTION_DELAY);
         sHolder.setFixedSize(1,1);
         sHolder.getSurface().release();
         sHolder = null;
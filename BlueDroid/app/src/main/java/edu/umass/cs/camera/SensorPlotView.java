@@ -0,0 +1,90 @@
+package edu.umass.cs.camera;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Scrolling line plot of the recent xyz readings held in a {@link LiveSampleBuffer}. The view
+ * does not listen for new readings itself; it is invalidated by {@link MainActivity} at most
+ * once per display frame. All drawing buffers are allocated up front, so drawing a frame does
+ * not allocate.
+ */
+public class SensorPlotView extends View {
+
+    /** the plotted range is [-RANGE, RANGE] in g, matching the Bean accelerometer's default range */
+    private static final float RANGE = 2f;
+
+    private static final int[] COLORS = {Color.rgb(255, 96, 96), Color.rgb(96, 255, 160), Color.rgb(96, 176, 255)};
+
+    private final Paint[] linePaints = new Paint[LiveSampleBuffer.AXES];
+
+    private final Paint axisPaint = new Paint();
+
+    private LiveSampleBuffer buffer;
+
+    /** readings copied from the buffer for the current frame, one array per axis */
+    private float[][] readings;
+
+    /** line segment end points passed to {@link Canvas#drawLines(float[], int, int, Paint)} */
+    private float[] points;
+
+    public SensorPlotView(Context context) {
+        super(context);
+        init();
+    }
+
+    public SensorPlotView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        for (int axis = 0; axis < LiveSampleBuffer.AXES; axis++) {
+            linePaints[axis] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            linePaints[axis].setColor(COLORS[axis]);
+            linePaints[axis].setStrokeWidth(3f);
+        }
+        axisPaint.setColor(Color.argb(96, 255, 255, 255));
+        axisPaint.setStrokeWidth(1f);
+    }
+
+    /**
+     * Sets the buffer whose recent readings are plotted
+     */
+    void setBuffer(LiveSampleBuffer buffer) {
+        this.buffer = buffer;
+        this.readings = new float[LiveSampleBuffer.AXES][buffer.getCapacity()];
+        this.points = new float[4 * buffer.getCapacity()];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float width = getWidth(), height = getHeight();
+        float middle = height / 2f;
+        canvas.drawLine(0, middle, width, middle, axisPaint);
+        if (buffer == null)
+            return;
+
+        int n = buffer.copyRecent(readings);
+        if (n < 2)
+            return;
+        float dx = width / (buffer.getCapacity() - 1);
+        float scale = middle / RANGE;
+        for (int axis = 0; axis < LiveSampleBuffer.AXES; axis++) {
+            float[] values = readings[axis];
+            int p = 0;
+            for (int i = 1; i < n; i++) {
+                points[p++] = (i - 1) * dx;
+                points[p++] = middle - values[i - 1] * scale;
+                points[p++] = i * dx;
+                points[p++] = middle - values[i] * scale;
+            }
+            canvas.drawLines(points, 0, p, linePaints[axis]);
+        }
+    }
+}
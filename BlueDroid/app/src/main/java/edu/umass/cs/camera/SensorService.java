@@ -3,7 +3,10 @@ package edu.umass.cs.camera;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -16,6 +19,7 @@ import android.os.Messenger;
 import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.punchthrough.bean.sdk.Bean;
@@ -30,11 +34,27 @@ import com.punchthrough.bean.sdk.message.DeviceInfo;
 import com.punchthrough.bean.sdk.message.LedColor;
 import com.punchthrough.bean.sdk.message.ScratchBank;
 
+import edu.umass.cs.camera.processing.AdherenceFusion;
+import edu.umass.cs.camera.processing.BottleEvent;
+import edu.umass.cs.camera.processing.BottleEventDetector;
+import edu.umass.cs.camera.processing.DailyRollups;
+import edu.umass.cs.camera.processing.DoseClassifier;
+import edu.umass.cs.camera.processing.DoseDetector;
+import edu.umass.cs.camera.processing.RssiDistanceEstimator;
+import edu.umass.cs.camera.processing.RssiFilter;
+import edu.umass.cs.camera.processing.SensorHistory;
+import edu.umass.cs.camera.processing.TimeSeriesBuffer;
+
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * The sensor service is responsible for handling the connection with the bean
@@ -72,11 +92,63 @@ public class SensorService extends Service {
     private int rssiSamplingRate;
     private BufferedWriter accelerometerFileWriter;
     private BufferedWriter rssiFileWriter;
+    private BufferedWriter eventFileWriter;
+    private BufferedWriter distanceFileWriter;
+    private BufferedWriter adherenceFileWriter;
+    private BufferedWriter labelFileWriter;
 
     private boolean turnOnLedWhileRunning;
     private boolean enableAccelerometer;
     private boolean enableRSSI;
 
+    /** Recent sensor data kept in memory, which clients can query via {@link Constants.MESSAGE#QUERY_HISTORY} */
+    private SensorHistory history;
+
+    /** RSSI at 1 m and path loss exponent used for devices which have not been calibrated */
+    private double defaultReferenceRssi, defaultPathLossExponent;
+
+    /** distance in meters within which the phone is considered near the bottle, see {@link AdherenceFusion} */
+    private double nearDistance;
+
+    /** RSSI filter mode (see {@link RssiFilter.MODE}), window size and Hampel threshold */
+    private int rssiFilterMode, rssiFilterWindow;
+    private double rssiHampelThreshold;
+
+    /** Distance estimators keyed by device address; they persist across reconnects */
+    private final Map<String, RssiDistanceEstimator> distanceEstimators = new HashMap<>();
+
+    /** Trained dose classifier loaded from the save directory, or null if there is no model file */
+    private DoseClassifier doseClassifier;
+
+    /** Per-device daily aggregates, which clients can query via {@link Constants.MESSAGE#QUERY_ROLLUPS} */
+    private DailyRollups rollups;
+
+    /** Saves the rollups periodically, off the threads which feed them */
+    private HandlerThread rollupThread;
+    private Handler rollupHandler;
+
+    /** Records the events which other applications report, e.g. cap twists detected by the SensorTag app */
+    private final BroadcastReceiver reportReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String address = intent.getStringExtra(BottleEvent.REPORT.EXTRA_DEVICE_ADDRESS);
+            int type = intent.getIntExtra(BottleEvent.REPORT.EXTRA_EVENT_TYPE, -1);
+            if (address == null || type < 0 || type >= BottleEvent.TYPE.COUNT)
+                return;
+            onReportedBottleEvent(address, intent.getLongExtra(BottleEvent.REPORT.EXTRA_EVENT_TIME,
+                    System.currentTimeMillis()), type);
+        }
+    };
+    private boolean isReportReceiverRegistered;
+
+    private final Runnable saveRollupsTask = new Runnable() {
+        @Override
+        public void run() {
+            saveRollups();
+            rollupHandler.postDelayed(this, Constants.ROLLUPS.SAVE_INTERVAL);
+        }
+    };
+
     /**
      * Handler to handle incoming messages
      */
@@ -96,6 +168,20 @@ public class SensorService extends Service {
                 case Constants.MESSAGE.UNREGISTER_CLIENT:
                     mService.get().mClients.remove(msg.replyTo);
                     break;
+                case Constants.MESSAGE.QUERY_HISTORY:
+                    mService.get().replyToHistoryQuery(msg);
+                    break;
+                case Constants.MESSAGE.QUERY_ROLLUPS:
+                    mService.get().replyToRollupQuery(msg);
+                    break;
+                case Constants.MESSAGE.CALIBRATE_RSSI:
+                    mService.get().startRssiCalibration(msg.getData().getString(Constants.KEY.DEVICE_ADDRESS));
+                    break;
+                case Constants.MESSAGE.LABEL:
+                    Bundle data = msg.getData();
+                    mService.get().recordLabel(data.getLong(Constants.KEY.START_TIME), data.getLong(Constants.KEY.END_TIME),
+                            data.getString(Constants.KEY.LABEL));
+                    break;
                 default:
                     super.handleMessage(msg);
             }
@@ -164,6 +250,113 @@ public class SensorService extends Service {
         }
     }
 
+    /**
+     * Sends a detected pill bottle event to listening clients, i.e. main UI
+     * @param address address of the Bean attached to the bottle
+     * @param time time of the event in milliseconds
+     * @param type event type, see {@link BottleEvent.TYPE}
+     */
+    private void sendBottleEventToClients(String address, long time, int type) {
+        for (int i=mClients.size()-1; i>=0; i--) {
+            try {
+                // Send message value
+                Bundle b = new Bundle();
+                b.putString(Constants.KEY.DEVICE_ADDRESS, address);
+                b.putLong(Constants.KEY.EVENT_TIME, time);
+                b.putInt(Constants.KEY.EVENT_TYPE, type);
+                Message msg = Message.obtain(null, Constants.MESSAGE.BOTTLE_EVENT);
+                msg.setData(b);
+                mClients.get(i).send(msg);
+            } catch (RemoteException e) {
+                // The client is dead. Remove it from the list; we are going through the list from back to front so this is safe to do inside the loop.
+                mClients.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Broadcasts a detected pill bottle or adherence event within the application, so that the
+     * {@link RecordingService} can index it in the video being recorded
+     * @param action {@link Constants.ACTION#BOTTLE_EVENT} or {@link Constants.ACTION#ADHERENCE_EVENT}
+     * @param address address of the Bean attached to the bottle
+     * @param time time of the event in milliseconds
+     * @param type event type, see {@link BottleEvent.TYPE}
+     */
+    private void broadcastEvent(String action, String address, long time, int type) {
+        Intent intent = new Intent(action);
+        intent.putExtra(Constants.KEY.DEVICE_ADDRESS, address);
+        intent.putExtra(Constants.KEY.EVENT_TIME, time);
+        intent.putExtra(Constants.KEY.EVENT_TYPE, type);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    /**
+     * Records an event reported by another application like the events detected from the Beans,
+     * i.e. in the rollups and the event file, and forwards it to clients and the video index.
+     * Reporting sensors have no RSSI, so the events are not fused into adherence events.
+     * @param address address of the sensor which detected the event
+     * @param time time of the event in milliseconds
+     * @param type event type, see {@link BottleEvent.TYPE}
+     */
+    private void onReportedBottleEvent(String address, long time, int type) {
+        rollups.getDevice(address).addEvent(time, type);
+        String line = String.format("%d, %s, %s", time, address, BottleEvent.getName(type));
+        synchronized (eventFileWriter) {
+            FileUtil.writeToFile(line, eventFileWriter);
+        }
+        sendBottleEventToClients(address, time, type);
+        broadcastEvent(Constants.ACTION.BOTTLE_EVENT, address, time, type);
+    }
+
+    /**
+     * Sends the smoothed distance of a Bean to listening clients, i.e. main UI
+     * @param address address of the Bean
+     * @param meters estimated distance in meters
+     */
+    private void sendDistanceToClients(String address, double meters) {
+        for (int i=mClients.size()-1; i>=0; i--) {
+            try {
+                // Send message value
+                Bundle b = new Bundle();
+                b.putString(Constants.KEY.DEVICE_ADDRESS, address);
+                b.putDouble(Constants.KEY.DISTANCE, meters);
+                Message msg = Message.obtain(null, Constants.MESSAGE.DISTANCE);
+                msg.setData(b);
+                mClients.get(i).send(msg);
+            } catch (RemoteException e) {
+                // The client is dead. Remove it from the list; we are going through the list from back to front so this is safe to do inside the loop.
+                mClients.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Sends an adherence event, i.e. a bottle event which occurred while the phone was near, to
+     * listening clients, i.e. main UI
+     * @param address address of the Bean attached to the bottle
+     * @param time time of the event in milliseconds
+     * @param type event type, see {@link BottleEvent.TYPE}
+     * @param meters mean distance around the event in meters
+     */
+    private void sendAdherenceEventToClients(String address, long time, int type, double meters) {
+        for (int i=mClients.size()-1; i>=0; i--) {
+            try {
+                // Send message value
+                Bundle b = new Bundle();
+                b.putString(Constants.KEY.DEVICE_ADDRESS, address);
+                b.putLong(Constants.KEY.EVENT_TIME, time);
+                b.putInt(Constants.KEY.EVENT_TYPE, type);
+                b.putDouble(Constants.KEY.DISTANCE, meters);
+                Message msg = Message.obtain(null, Constants.MESSAGE.ADHERENCE_EVENT);
+                msg.setData(b);
+                mClients.get(i).send(msg);
+            } catch (RemoteException e) {
+                // The client is dead. Remove it from the list; we are going through the list from back to front so this is safe to do inside the loop.
+                mClients.remove(i);
+            }
+        }
+    }
+
     /**
      * Sends a xyz accelerometer readings to listening clients, i.e. main UI
      */
@@ -182,6 +375,303 @@ public class SensorService extends Service {
         }
     }
 
+    /**
+     * Replies to a {@link Constants.MESSAGE#QUERY_HISTORY} request with the recent data of one
+     * device and stream. The request specifies the device address, the stream (see
+     * {@link SensorHistory.STREAM}) and the time range [start, end] in milliseconds; if the end
+     * time is omitted, all data up to now is returned, and if the start time is omitted, all data
+     * held in memory is returned. Optionally an aggregation function (see
+     * {@link TimeSeriesBuffer.AGGREGATION}) and a bucket size in milliseconds may be given, in
+     * which case one aggregated value per bucket and channel is returned instead of the raw samples.
+     * The range is clamped to the data held in memory, and the bucket size is raised where
+     * necessary to at most {@link TimeSeriesBuffer#MAX_BUCKETS} buckets; a missing bucket size
+     * requests the smallest allowed one.
+     *
+     * The reply always contains the addresses of all devices with recorded data, so a request
+     * without a device address can be used to discover them. Samples are returned as a flat
+     * array of values interleaved by channel, along with the corresponding timestamps.
+     *
+     * @param request the request message, whose {@link Message#replyTo} receives the reply
+     */
+    private void replyToHistoryQuery(Message request) {
+        if (request.replyTo == null)
+            return;
+        Bundle query = request.getData();
+        Bundle b = new Bundle();
+        b.putStringArray(Constants.KEY.DEVICES, history == null ? new String[0] : history.getDevices());
+
+        String address = query.getString(Constants.KEY.DEVICE_ADDRESS);
+        int stream = query.getInt(Constants.KEY.STREAM, SensorHistory.STREAM.ACCELEROMETER);
+        TimeSeriesBuffer buffer = (history == null || address == null) ? null : history.findBuffer(address, stream);
+        if (buffer != null) {
+            // there is no data before the oldest sample, and starting there bounds the bucket count
+            long start = Math.max(query.getLong(Constants.KEY.START_TIME, 0), buffer.getOldestTime());
+            long end = query.getLong(Constants.KEY.END_TIME, System.currentTimeMillis());
+            int aggregation = query.getInt(Constants.KEY.AGGREGATION, TimeSeriesBuffer.AGGREGATION.NONE);
+            int channels = buffer.getChannels();
+
+            long[] timestamps;
+            double[] values;
+            if (aggregation != TimeSeriesBuffer.AGGREGATION.NONE) {
+                long bucketSize = TimeSeriesBuffer.limitBucketMillis(start, end,
+                        query.getLong(Constants.KEY.BUCKET_SIZE, 0));
+                int n = TimeSeriesBuffer.bucketCount(start, end, bucketSize);
+                timestamps = new long[n];
+                values = new double[n * channels];
+                buffer.aggregate(start, end, bucketSize, aggregation, timestamps, values);
+            } else {
+                int n = buffer.count(start, end);
+                timestamps = new long[n];
+                values = new double[n * channels];
+                n = buffer.copy(start, end, timestamps, values);
+                if (n < timestamps.length) {
+                    // samples expired between counting and copying
+                    timestamps = Arrays.copyOf(timestamps, n);
+                    values = Arrays.copyOf(values, n * channels);
+                }
+            }
+            b.putString(Constants.KEY.DEVICE_ADDRESS, address);
+            b.putInt(Constants.KEY.STREAM, stream);
+            b.putInt(Constants.KEY.CHANNELS, channels);
+            b.putLongArray(Constants.KEY.TIMESTAMPS, timestamps);
+            b.putDoubleArray(Constants.KEY.VALUES, values);
+        }
+
+        try {
+            Message reply = Message.obtain(null, Constants.MESSAGE.HISTORY);
+            reply.setData(b);
+            request.replyTo.send(reply);
+        } catch (RemoteException e) {
+            // The client is dead, nothing to reply to
+            mClients.remove(request.replyTo);
+        }
+    }
+
+    /**
+     * Replies to a {@link Constants.MESSAGE#QUERY_ROLLUPS} request with the daily rollups of one
+     * device for the local calendar days overlapping [start, end], given in milliseconds; if the
+     * end time is omitted, it is now, and if the start time is omitted, all days are returned.
+     * Days without data are omitted. The reply contains one entry per day in each array, with
+     * the event counts flattened to {@link BottleEvent.TYPE#COUNT} entries per day.
+     *
+     * The reply always contains the addresses of all devices with rollups.
+     *
+     * @param request the request message, whose {@link Message#replyTo} receives the reply
+     */
+    private void replyToRollupQuery(Message request) {
+        if (request.replyTo == null)
+            return;
+        Bundle query = request.getData();
+        Bundle b = new Bundle();
+        b.putStringArray(Constants.KEY.DEVICES, rollups == null ? new String[0] : rollups.getDevices());
+
+        String address = query.getString(Constants.KEY.DEVICE_ADDRESS);
+        if (rollups != null && address != null) {
+            int fromDay = rollups.toDay(query.getLong(Constants.KEY.START_TIME, 0));
+            int toDay = rollups.toDay(query.getLong(Constants.KEY.END_TIME, System.currentTimeMillis()));
+            List<DailyRollups.Day> days = rollups.getDays(address, fromDay, toDay);
+            int n = days.size();
+            int[] dayIndices = new int[n], eventCounts = new int[n * BottleEvent.TYPE.COUNT], adherenceEvents = new int[n];
+            int[] activeMinutes = new int[n], gaps = new int[n];
+            long[] firstEvents = new long[n], lastEvents = new long[n], gapDurations = new long[n];
+            for (int i = 0; i < n; i++) {
+                DailyRollups.Day day = days.get(i);
+                dayIndices[i] = day.day;
+                System.arraycopy(day.eventCounts, 0, eventCounts, i * BottleEvent.TYPE.COUNT, BottleEvent.TYPE.COUNT);
+                adherenceEvents[i] = day.adherenceEvents;
+                firstEvents[i] = day.firstEvent;
+                lastEvents[i] = day.lastEvent;
+                activeMinutes[i] = day.activeMinutes;
+                gaps[i] = day.gaps;
+                gapDurations[i] = day.gapMillis;
+            }
+            b.putString(Constants.KEY.DEVICE_ADDRESS, address);
+            b.putIntArray(Constants.KEY.DAYS, dayIndices);
+            b.putIntArray(Constants.KEY.EVENT_COUNTS, eventCounts);
+            b.putIntArray(Constants.KEY.ADHERENCE_EVENTS, adherenceEvents);
+            b.putLongArray(Constants.KEY.FIRST_EVENTS, firstEvents);
+            b.putLongArray(Constants.KEY.LAST_EVENTS, lastEvents);
+            b.putIntArray(Constants.KEY.ACTIVE_MINUTES, activeMinutes);
+            b.putIntArray(Constants.KEY.GAPS, gaps);
+            b.putLongArray(Constants.KEY.GAP_DURATIONS, gapDurations);
+        }
+
+        try {
+            Message reply = Message.obtain(null, Constants.MESSAGE.ROLLUPS);
+            reply.setData(b);
+            request.replyTo.send(reply);
+        } catch (RemoteException e) {
+            // The client is dead, nothing to reply to
+            mClients.remove(request.replyTo);
+        }
+    }
+
+    /**
+     * Loads the persisted rollups, unless they are already held in memory, and starts saving
+     * them periodically
+     */
+    private void startRollups() {
+        if (rollups == null) {
+            rollups = new DailyRollups(TimeZone.getDefault());
+            try {
+                rollups.load(new File(getFilesDir(), Constants.ROLLUPS.FILE_NAME));
+            } catch (IOException e) {
+                Log.w(TAG, "Could not load rollups, starting over", e);
+            }
+        }
+        if (rollupThread == null) {
+            rollupThread = new HandlerThread("RollupThread");
+            rollupThread.start();
+            rollupHandler = new Handler(rollupThread.getLooper());
+            rollupHandler.postDelayed(saveRollupsTask, Constants.ROLLUPS.SAVE_INTERVAL);
+        }
+    }
+
+    /**
+     * Saves the rollups and stops saving them periodically
+     */
+    private void stopRollups() {
+        if (rollupThread != null) {
+            rollupHandler.removeCallbacks(saveRollupsTask);
+            rollupThread.quit();
+            rollupThread = null;
+        }
+        saveRollups();
+    }
+
+    /**
+     * Saves the rollups if they changed since they were last saved
+     */
+    private void saveRollups() {
+        if (rollups == null || !rollups.isDirty())
+            return;
+        try {
+            rollups.save(new File(getFilesDir(), Constants.ROLLUPS.FILE_NAME));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save rollups", e);
+        }
+    }
+
+    /**
+     * Returns the distance estimator for the given device, creating it with the device's stored
+     * calibration, or the default calibration if the device has not been calibrated.
+     * @param address address of the Bean
+     */
+    private RssiDistanceEstimator getDistanceEstimator(String address) {
+        synchronized (distanceEstimators) {
+            RssiDistanceEstimator estimator = distanceEstimators.get(address);
+            if (estimator == null) {
+                double referenceRssi = preferences.getFloat(Constants.PREFERENCES.CALIBRATION.REFERENCE_RSSI_KEY_PREFIX + address,
+                        (float) defaultReferenceRssi);
+                double pathLossExponent = preferences.getFloat(Constants.PREFERENCES.CALIBRATION.PATH_LOSS_EXPONENT_KEY_PREFIX + address,
+                        (float) defaultPathLossExponent);
+                estimator = new RssiDistanceEstimator(referenceRssi, pathLossExponent);
+                distanceEstimators.put(address, estimator);
+            }
+            return estimator;
+        }
+    }
+
+    /**
+     * Starts calibrating the RSSI at 1 m; the phone should be held 1 m from the Bean meanwhile.
+     * Once enough samples have been averaged, the calibration is stored for the device.
+     * @param address address of the Bean to calibrate, or null to calibrate all connected Beans
+     * @see #saveRssiCalibration(String, RssiDistanceEstimator)
+     */
+    private void startRssiCalibration(String address) {
+        if (!enableRSSI) {
+            sendStatusToClients("Cannot calibrate distance: RSSI is disabled.");
+            return;
+        }
+        for (Bean bean : beans) {
+            String beanAddress = bean.getDevice().getAddress();
+            if (bean.isConnected() && (address == null || address.equals(beanAddress))) {
+                getDistanceEstimator(beanAddress).startCalibration(Constants.PREFERENCES.CALIBRATION.SAMPLES);
+                sendStatusToClients(String.format("Calibrating distance to bean %s, hold the phone 1 m away...", beanAddress));
+            }
+        }
+    }
+
+    /**
+     * Writes a ground truth label to the label file, in the format read by
+     * the offline dose classifier evaluation and training set export
+     * @param start start of the labeled interval, in milliseconds on the clock of the sensor files
+     * @param end end of the labeled interval
+     * @param label the label, e.g. DOSE_TAKEN
+     */
+    private void recordLabel(long start, long end, String label) {
+        if (labelFileWriter == null) {
+            sendStatusToClients("Start the sensor service before labeling.");
+            return;
+        }
+        if (label == null || label.isEmpty() || label.contains(",") || end < start) {
+            Log.w(TAG, "Ignoring malformed label " + label + " from " + start + " to " + end);
+            return;
+        }
+        synchronized (labelFileWriter) {
+            FileUtil.writeToFile(String.format("%d, %d, %s", start, end, label), labelFileWriter);
+            try {
+                // labels are rare and costly to redo, so do not leave them in the buffer
+                labelFileWriter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        sendStatusToClients(String.format("Labeled %s.", label));
+    }
+
+    /**
+     * Stores the calibration of the given device, so that it is used in later sessions
+     * @param address address of the Bean
+     * @param estimator the distance estimator which completed calibration
+     */
+    private void saveRssiCalibration(String address, RssiDistanceEstimator estimator) {
+        float referenceRssi = (float) estimator.getReferenceRssi();
+        preferences.edit()
+                .putFloat(Constants.PREFERENCES.CALIBRATION.REFERENCE_RSSI_KEY_PREFIX + address, referenceRssi)
+                .putFloat(Constants.PREFERENCES.CALIBRATION.PATH_LOSS_EXPONENT_KEY_PREFIX + address, (float) estimator.getPathLossExponent())
+                .apply();
+        sendStatusToClients(String.format("Calibrated bean %s: %.1f dBm at 1 m.", address, referenceRssi));
+    }
+
+    /**
+     * Parses a numeric preference stored as a string, falling back to the default on malformed input
+     */
+    private double getDoublePreference(int keyId, int defaultId) {
+        String defaultValue = getString(defaultId);
+        try {
+            return Double.parseDouble(preferences.getString(getString(keyId), defaultValue));
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(defaultValue);
+        }
+    }
+
+    /**
+     * Loads the dose classifier from the model file in the given directory, if there is one. Models
+     * using RSSI features are refused while RSSI is disabled, since they would never classify a window.
+     * @return the classifier, or null if there is no model file, it is malformed or it needs RSSI
+     * @see DoseClassifier
+     */
+    private DoseClassifier loadDoseClassifier(File directory) {
+        File file = new File(directory, Constants.PREFERENCES.DOSE_MODEL.FILE_NAME);
+        if (!file.exists())
+            return null;
+        try {
+            DoseClassifier classifier = DoseClassifier.load(file);
+            if (classifier.usesRssi() && !enableRSSI) {
+                sendStatusToClients(String.format("Not using dose classifier %s: it needs RSSI, which is disabled.",
+                        file.getName()));
+                return null;
+            }
+            sendStatusToClients(String.format("Loaded dose classifier from %s.", file.getName()));
+            return classifier;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load dose classifier", e);
+            sendStatusToClients(String.format("Could not load dose classifier: %s", e.getMessage()));
+            return null;
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return mMessenger.getBinder();
@@ -194,12 +684,17 @@ public class SensorService extends Service {
     @Override
     public void onDestroy() {
         Log.d(TAG, "onDestroy()");
+        if (isReportReceiverRegistered) {
+            unregisterReceiver(reportReceiver);
+            isReportReceiverRegistered = false;
+        }
         super.onDestroy();
     }
 
     /**
      * Load all relevant shared preferences; these include the accelerometer and RSSI sampling rates,
-     * the filenames and the directory where data should be written.
+     * the duration of recent data kept in memory, the filenames and the directory where data
+     * should be written.
      */
     private void loadSharedPreferences(){
         preferences = PreferenceManager.getDefaultSharedPreferences(this);
@@ -207,11 +702,34 @@ public class SensorService extends Service {
                 getString(R.string.pref_accelerometer_sampling_rate_default)));
         rssiSamplingRate = Integer.parseInt(preferences.getString(getString(R.string.pref_rssi_sampling_rate_key),
                 getString(R.string.pref_rssi_sampling_rate_default)));
+        int historyMinutes = Integer.parseInt(preferences.getString(getString(R.string.pref_history_duration_key),
+                getString(R.string.pref_history_duration_default)));
+        history = new SensorHistory(historyMinutes * 60 * 1000L, accelerometerSamplingRate, rssiSamplingRate);
+        defaultReferenceRssi = getDoublePreference(R.string.pref_rssi_reference_key, R.string.pref_rssi_reference_default);
+        defaultPathLossExponent = getDoublePreference(R.string.pref_path_loss_exponent_key, R.string.pref_path_loss_exponent_default);
+        nearDistance = getDoublePreference(R.string.pref_near_distance_key, R.string.pref_near_distance_default);
+        rssiFilterMode = Integer.parseInt(preferences.getString(getString(R.string.pref_rssi_filter_key),
+                getString(R.string.pref_rssi_filter_default)));
+        rssiFilterWindow = Integer.parseInt(preferences.getString(getString(R.string.pref_rssi_filter_window_key),
+                getString(R.string.pref_rssi_filter_window_default)));
+        rssiHampelThreshold = getDoublePreference(R.string.pref_rssi_hampel_threshold_key, R.string.pref_rssi_hampel_threshold_default);
+        synchronized (distanceEstimators) {
+            // recreate the estimators in case the default calibration changed
+            distanceEstimators.clear();
+        }
 
         String accelerometerFileName = preferences.getString(Constants.PREFERENCES.FILE_NAME.ACCELEROMETER.KEY,
                 Constants.PREFERENCES.FILE_NAME.ACCELEROMETER.DEFAULT);
         String rssiFileName = preferences.getString(Constants.PREFERENCES.FILE_NAME.RSSI.KEY,
                 Constants.PREFERENCES.FILE_NAME.RSSI.DEFAULT);
+        String eventFileName = preferences.getString(Constants.PREFERENCES.FILE_NAME.EVENTS.KEY,
+                Constants.PREFERENCES.FILE_NAME.EVENTS.DEFAULT);
+        String distanceFileName = preferences.getString(Constants.PREFERENCES.FILE_NAME.DISTANCE.KEY,
+                Constants.PREFERENCES.FILE_NAME.DISTANCE.DEFAULT);
+        String adherenceFileName = preferences.getString(Constants.PREFERENCES.FILE_NAME.ADHERENCE.KEY,
+                Constants.PREFERENCES.FILE_NAME.ADHERENCE.DEFAULT);
+        String labelFileName = preferences.getString(Constants.PREFERENCES.FILE_NAME.LABELS.KEY,
+                Constants.PREFERENCES.FILE_NAME.LABELS.DEFAULT);
 
         String path = preferences.getString(getString(R.string.pref_directory_key),
                 Constants.PREFERENCES.SAVE_DIRECTORY.DEFAULT);
@@ -221,6 +739,10 @@ public class SensorService extends Service {
 
         accelerometerFileWriter = FileUtil.getFileWriter(accelerometerFileName, directory);
         rssiFileWriter = FileUtil.getFileWriter(rssiFileName, directory);
+        eventFileWriter = FileUtil.getFileWriter(eventFileName, directory);
+        distanceFileWriter = FileUtil.getFileWriter(distanceFileName, directory);
+        adherenceFileWriter = FileUtil.getFileWriter(adherenceFileName, directory);
+        labelFileWriter = FileUtil.getFileWriter(labelFileName, directory);
 
         turnOnLedWhileRunning = preferences.getBoolean(getString(R.string.pref_led_key),
                 getResources().getBoolean(R.bool.pref_led_default));
@@ -230,6 +752,8 @@ public class SensorService extends Service {
 
         enableRSSI = preferences.getBoolean(getString(R.string.pref_rssi_key),
                 getResources().getBoolean(R.bool.pref_rssi_default));
+
+        doseClassifier = loadDoseClassifier(directory);
     }
 
     //Called when passing in an intent via startService(), i.e. start/stop command
@@ -240,7 +764,13 @@ public class SensorService extends Service {
             stopSelf();
         } else if (intent.getAction().equals(Constants.ACTION.START_SERVICE)) {
             loadSharedPreferences();
+            startRollups();
             registerSensors();
+            if (!isReportReceiverRegistered) {
+                registerReceiver(reportReceiver, new IntentFilter(BottleEvent.REPORT.ACTION),
+                        BottleEvent.REPORT.PERMISSION, null);
+                isReportReceiverRegistered = true;
+            }
         } else if (intent.getAction().equals(Constants.ACTION.NOTIFY)) {
 
             // create option to stop the service from the notification
@@ -281,10 +811,21 @@ public class SensorService extends Service {
 
             //unregister the accelerometer sensor
             unregisterSensors();
+            if (isReportReceiverRegistered) {
+                unregisterReceiver(reportReceiver);
+                isReportReceiverRegistered = false;
+            }
 
             //close and flush the file writer. Flush ensures that the data is written to the file
             FileUtil.closeWriter(accelerometerFileWriter);
             FileUtil.closeWriter(rssiFileWriter);
+            FileUtil.closeWriter(eventFileWriter);
+            FileUtil.closeWriter(distanceFileWriter);
+            FileUtil.closeWriter(adherenceFileWriter);
+            FileUtil.closeWriter(labelFileWriter);
+            labelFileWriter = null;
+
+            stopRollups();
 
             //remove the service from the foreground
             stopForeground(true);
@@ -313,6 +854,63 @@ public class SensorService extends Service {
 
                     private Handler handlerAccelerometer, handlerRSSI;
                     private Runnable readAccelerometerTask, readRSSITask;
+                    private final TimeSeriesBuffer accelerometerHistory =
+                            history.getBuffer(bean.getDevice().getAddress(), SensorHistory.STREAM.ACCELEROMETER);
+                    private final TimeSeriesBuffer rssiHistory =
+                            history.getBuffer(bean.getDevice().getAddress(), SensorHistory.STREAM.RSSI);
+                    private final TimeSeriesBuffer distanceHistory =
+                            history.getBuffer(bean.getDevice().getAddress(), SensorHistory.STREAM.DISTANCE);
+
+                    /** removes spikes and dropouts from the RSSI before it is used */
+                    private final RssiFilter rssiFilter = new RssiFilter(rssiFilterMode, rssiFilterWindow,
+                            rssiHampelThreshold, rssiSamplingRate);
+
+                    /** converts the RSSI to a smoothed distance in real time */
+                    private final RssiDistanceEstimator distanceEstimator = getDistanceEstimator(bean.getDevice().getAddress());
+
+                    /** daily aggregates of this device's events and data */
+                    private final DailyRollups.Device rollup = rollups.getDevice(bean.getDevice().getAddress());
+
+                    /** reports bottle events which coincide with the phone being near, if RSSI is enabled */
+                    private final AdherenceFusion adherenceFusion = !enableRSSI ? null :
+                            new AdherenceFusion(rssiSamplingRate, nearDistance, new AdherenceFusion.Listener() {
+                                @Override
+                                public void onAdherenceEvent(long timestamp, int type, double distance) {
+                                    String address = bean.getDevice().getAddress();
+                                    rollup.addAdherenceEvent(timestamp);
+                                    String line = String.format("%d, %s, %s, %.3f", timestamp, address, BottleEvent.getName(type), distance);
+                                    synchronized (adherenceFileWriter) {
+                                        FileUtil.writeToFile(line, adherenceFileWriter);
+                                    }
+                                    sendAdherenceEventToClients(address, timestamp, type, distance);
+                                    broadcastEvent(Constants.ACTION.ADHERENCE_EVENT, address, timestamp, type);
+                                }
+                            });
+
+                    /** writes detected pill bottle events to their own file and forwards them to clients */
+                    private final BottleEvent.Listener bottleEventListener = new BottleEvent.Listener() {
+                        @Override
+                        public void onBottleEvent(long timestamp, int type) {
+                            String address = bean.getDevice().getAddress();
+                            rollup.addEvent(timestamp, type);
+                            String line = String.format("%d, %s, %s", timestamp, address, BottleEvent.getName(type));
+                            synchronized (eventFileWriter) {
+                                FileUtil.writeToFile(line, eventFileWriter);
+                            }
+                            sendBottleEventToClients(address, timestamp, type);
+                            broadcastEvent(Constants.ACTION.BOTTLE_EVENT, address, timestamp, type);
+                            if (adherenceFusion != null)
+                                adherenceFusion.addEvent(timestamp, type, System.currentTimeMillis());
+                        }
+                    };
+
+                    /** detects pill bottle events from the accelerometer stream */
+                    private final BottleEventDetector eventDetector = new BottleEventDetector(accelerometerSamplingRate,
+                            bottleEventListener);
+
+                    /** classifies windows of accelerometer and RSSI data as dose taken, if a model was loaded */
+                    private final DoseDetector doseDetector = doseClassifier == null ? null :
+                            new DoseDetector(doseClassifier, accelerometerSamplingRate, rssiSamplingRate, bottleEventListener);
 
                     @Override
                     public void onConnected() {
@@ -350,6 +948,16 @@ public class SensorService extends Service {
                                             double x = acceleration.x();
                                             double y = acceleration.y();
                                             double z = acceleration.z();
+                                            accelerometerHistory.add(time, x, y, z);
+                                            eventDetector.addSample(time, x, y, z);
+                                            rollup.addSample(time, eventDetector.isHandled());
+                                            if (doseDetector != null) {
+                                                synchronized (doseDetector) {
+                                                    doseDetector.addAcceleration(time, x, y, z);
+                                                }
+                                            }
+                                            if (adherenceFusion != null)
+                                                adherenceFusion.advanceTo(time);
                                             sendAccelerometerValuesToClients(x, y, z);
                                             String line = String.format("%d, %f, %f, %f", time, x, y, z);
                                             synchronized (accelerometerFileWriter) {
@@ -402,6 +1010,16 @@ public class SensorService extends Service {
                         if (handlerRSSI != null && readRSSITask != null) {
                             handlerRSSI.removeCallbacksAndMessages(readRSSITask);
                         }
+                        eventDetector.reset();
+                        distanceEstimator.reset();
+                        rssiFilter.reset();
+                        if (doseDetector != null) {
+                            synchronized (doseDetector) {
+                                doseDetector.reset();
+                            }
+                        }
+                        if (adherenceFusion != null)
+                            adherenceFusion.reset();
                         sendStatusToClients(String.format("Disconnected from bean %s.", bean.getDevice().getAddress()));
                         beans.remove(bean);
                     }
@@ -424,11 +1042,38 @@ public class SensorService extends Service {
                     @Override
                     public void onReadRemoteRssi(int r) {
                         long time = System.currentTimeMillis();
-                        String line = String.format("%d, %d", time, r);
+                        double filtered = rssiFilter.add(time, r);
+                        int flags = rssiFilter.getFlags();
+                        // the raw reading comes first, so older tools reading "time, rssi" still work
+                        String line = String.format("%d, %d, %.1f, %d", time, r, filtered, flags);
                         synchronized (rssiFileWriter) {
                             FileUtil.writeToFile(line, rssiFileWriter);
                         }
                         sendStatusToClients(String.format("RSSI data for Bean %s: %s", bean.getDevice().getAddress(), String.valueOf(r)));
+                        if ((flags & RssiFilter.FLAG.DROPOUT) != 0)
+                            return;
+
+                        rssiHistory.add(time, filtered);
+                        if (doseDetector != null) {
+                            synchronized (doseDetector) {
+                                doseDetector.addRssi(time, filtered);
+                            }
+                        }
+
+                        String address = bean.getDevice().getAddress();
+                        boolean calibrating = distanceEstimator.isCalibrating();
+                        double meters = distanceEstimator.addSample(time, filtered);
+                        if (calibrating && !distanceEstimator.isCalibrating()) {
+                            saveRssiCalibration(address, distanceEstimator);
+                        }
+                        distanceHistory.add(time, meters);
+                        if (adherenceFusion != null)
+                            adherenceFusion.addDistance(time, meters);
+                        line = String.format("%d, %s, %.2f, %.3f", time, address, distanceEstimator.getFilteredRssi(), meters);
+                        synchronized (distanceFileWriter) {
+                            FileUtil.writeToFile(line, distanceFileWriter);
+                        }
+                        sendDistanceToClients(address, meters);
                     }
                 };
 
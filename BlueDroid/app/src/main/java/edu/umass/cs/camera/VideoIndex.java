@@ -0,0 +1,100 @@
+package edu.umass.cs.camera;
+
+import edu.umass.cs.camera.processing.BottleEvent;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sidecar index of a video recording, mapping the sensor events detected during the recording
+ * to the video file and the offset within that file at which they occurred, so that an event
+ * can be reviewed without scrubbing through the whole recording. A recording consists of one or
+ * more segments, i.e. video files; each line of the index has the form
+ * <pre>
+ * event time (ms), device address, event name, video file name, offset in the video (ms)
+ * </pre>
+ * where the names of adherence events (see {@link edu.umass.cs.camera.processing.AdherenceFusion})
+ * are those of the underlying bottle events prefixed with ADHERENCE_.
+ * The index of the recording started at time t is written to VIDEO&lt;t&gt;-index.csv.
+ *
+ * @see RecordingService
+ */
+class VideoIndex {
+
+    /** A video file of the recording */
+    static class Segment {
+        final File file;
+        /** start and end time of the segment in milliseconds; end is 0 while recording */
+        final long start;
+        long end = 0;
+        /** number of events indexed in this segment */
+        int events = 0;
+
+        Segment(File file, long start) {
+            this.file = file;
+            this.start = start;
+        }
+    }
+
+    private final BufferedWriter writer;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * @param directory the directory where the video is saved
+     * @param start the start time of the recording in milliseconds
+     */
+    VideoIndex(File directory, long start) throws IOException {
+        writer = new BufferedWriter(new FileWriter(new File(directory, "VIDEO" + start + "-index.csv")));
+    }
+
+    /**
+     * Marks the start of a new segment
+     */
+    void startSegment(File file, long start) {
+        segments.add(new Segment(file, start));
+    }
+
+    /**
+     * Marks the end of the current segment
+     * @return the segment, or null if no segment is being recorded
+     */
+    Segment endSegment(long end) {
+        if (segments.isEmpty())
+            return null;
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.end == 0)
+            segment.end = end;
+        return segment;
+    }
+
+    /**
+     * Adds an event to the index. Events are assigned to the latest segment which started at or
+     * before the event, which may be a segment which has already ended, since some events are
+     * only reported once they are complete.
+     * @param adherence whether this is an adherence event rather than a bottle event
+     * @return the segment the event was assigned to, or null if it occurred before the recording
+     */
+    Segment addEvent(long time, String address, int type, boolean adherence) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.start <= time) {
+                segment.events++;
+                String name = adherence ? "ADHERENCE_" + BottleEvent.getName(type) : BottleEvent.getName(type);
+                String line = String.format("%d, %s, %s, %s, %d", time, address, name,
+                        segment.file.getName(), time - segment.start);
+                FileUtil.writeToFile(line, writer);
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    void close() {
+        FileUtil.closeWriter(writer);
+    }
+}
@@ -0,0 +1,195 @@
+package edu.umass.cs.camera.offline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser for the sensor CSV files written by the sensor service, one sample per line
+ * starting with the timestamp in milliseconds followed by the channel values, e.g.
+ * "1463078866935, 0.012, -0.98, 0.07". Lines are parsed directly from a byte buffer without
+ * creating strings, and the current sample is overwritten by {@link #next()}, so reading a file
+ * allocates nothing per line. Both LF and bare CR line endings are accepted, and lines which do
+ * not start with enough numbers, such as headers, are skipped.
+ */
+class CsvSampleReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** powers of ten which are exactly representable as doubles */
+    private static final double[] POWERS_OF_TEN = new double[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /** mantissas below this bound are exactly representable as doubles, even after another digit */
+    private static final long MAX_EXACT_MANTISSA = (1L << 53) / 10;
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0, limit = 0;
+
+    private final int channels;
+
+    private long time;
+    private final double[] values;
+
+    private long bytesRead = 0;
+
+    /** text of the number being parsed, for the rare numbers which are not parsed exactly */
+    private final StringBuilder text = new StringBuilder(32);
+
+    /** set by {@link #parseNumber()} when no number could be parsed */
+    private boolean malformed;
+
+    /**
+     * @param in the stream to read, which is closed by {@link #close()}
+     * @param channels number of values following the timestamp
+     */
+    CsvSampleReader(InputStream in, int channels) {
+        this.in = in;
+        this.channels = channels;
+        this.values = new double[channels];
+    }
+
+    /**
+     * Advances to the next sample
+     * @return false at the end of the stream
+     */
+    boolean next() throws IOException {
+        while (true) {
+            if (!skipLineBreaks())
+                return false;
+            malformed = false;
+            double t = parseNumber();
+            for (int c = 0; c < channels && !malformed; c++) {
+                if (!skipSeparator()) {
+                    malformed = true;
+                    break;
+                }
+                values[c] = parseNumber();
+            }
+            skipRestOfLine();
+            if (!malformed) {
+                time = (long) t;
+                return true;
+            }
+        }
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    double getValue(int channel) {
+        return values[channel];
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Returns the next byte without consuming it, or -1 at the end of the stream */
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+            bytesRead += limit;
+        }
+        return buffer[position];
+    }
+
+    private boolean skipLineBreaks() throws IOException {
+        int b;
+        while ((b = peek()) == '\n' || b == '\r')
+            position++;
+        return b != -1;
+    }
+
+    private void skipSpaces() throws IOException {
+        int b;
+        while ((b = peek()) == ' ' || b == '\t')
+            position++;
+    }
+
+    private boolean skipSeparator() throws IOException {
+        skipSpaces();
+        if (peek() != ',')
+            return false;
+        position++;
+        return true;
+    }
+
+    private void skipRestOfLine() throws IOException {
+        int b;
+        while ((b = peek()) != -1 && b != '\n' && b != '\r')
+            position++;
+    }
+
+    /**
+     * Parses a decimal number such as "-12.345" at the current position; numbers with an
+     * exponent or too many digits to be exact are handed to {@link Double#parseDouble(String)}
+     */
+    private double parseNumber() throws IOException {
+        skipSpaces();
+        text.setLength(0);
+        boolean negative = false;
+        int b = peek();
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean fraction = false, exact = true;
+        while (true) {
+            b = peek();
+            if (b >= '0' && b <= '9') {
+                digits++;
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (fraction) scale++;
+                } else {
+                    exact = false;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else if ((b == 'e' || b == 'E' || b == '-' || b == '+') && digits > 0) {
+                exact = false;
+            } else {
+                break;
+            }
+            text.append((char) b);
+            position++;
+        }
+        if (digits == 0) {
+            malformed = true;
+            return 0;
+        }
+        double value;
+        if (exact && scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[scale];
+        } else {
+            try {
+                value = Double.parseDouble(text.toString());
+            } catch (NumberFormatException e) {
+                malformed = true;
+                return 0;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,225 @@
+package edu.umass.cs.camera.offline;
+
+import edu.umass.cs.camera.processing.BottleEvent;
+import edu.umass.cs.camera.processing.DoseClassifier;
+import edu.umass.cs.camera.processing.DoseDetector;
+import edu.umass.cs.camera.processing.RssiFilter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Batch evaluation of a {@link DoseClassifier} over recorded sessions. Each session is replayed
+ * through a {@link DoseDetector} exactly as in the sensor service, with the raw RSSI passed
+ * through an {@link RssiFilter} first, and every classified window is compared with the labels,
+ * reporting the accuracy and the per-window inference latency.
+ * <pre>
+ * evaluate-dose-classifier [options] model.txt \
+ *     accelerometer1463078866935.csv rssi1463078866935.csv labels1.csv [...]
+ *   -rssi-filter &lt;mode&gt;        none, median or hampel (hampel)
+ *   -rssi-window &lt;n&gt;           RSSI filter window size (9)
+ *   -hampel-threshold &lt;k&gt;      Hampel outlier threshold (3.0)
+ * </pre>
+ * The filter defaults match the defaults of the app's preferences, and should match the settings
+ * the model was trained with.
+ *
+ * Sessions are given as triples of accelerometer, RSSI and label files; pass "-" for sessions
+ * recorded without RSSI. Each line of a label file gives the start and end, in milliseconds, of
+ * an interval in which a dose was taken, optionally followed by a label; only intervals labeled
+ * DOSE_TAKEN, or unlabeled, count. A window is positive if its center lies within such an interval.
+ */
+public class DoseClassifierEvaluation {
+
+    /** confusion matrix entries */
+    private long truePositives, falsePositives, falseNegatives, trueNegatives;
+
+    /** detected and labeled doses */
+    private long detections, doses;
+
+    private long[] latencies = new long[1024];
+    private int windows = 0;
+
+    /** RSSI filter settings, see {@link RssiFilter} */
+    private int rssiFilterMode = RssiFilter.MODE.HAMPEL;
+    private int rssiFilterWindow = 9;
+    private double rssiHampelThreshold = 3.0;
+
+    public static void main(String[] args) throws IOException {
+        DoseClassifierEvaluation settings = new DoseClassifierEvaluation();
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+                switch (args[first]) {
+                    case "-rssi-filter":
+                        settings.rssiFilterMode = RssiFilter.parseMode(args[++first]);
+                        break;
+                    case "-rssi-window":
+                        settings.rssiFilterWindow = Integer.parseInt(args[++first]);
+                        break;
+                    case "-hampel-threshold":
+                        settings.rssiHampelThreshold = Double.parseDouble(args[++first]);
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage();
+        }
+        int sessions = args.length - first - 1;
+        if (sessions < 3 || sessions % 3 != 0)
+            usage();
+        DoseClassifier classifier = DoseClassifier.load(new File(args[first]));
+        DoseClassifierEvaluation total = new DoseClassifierEvaluation();
+        for (int i = first + 1; i < args.length; i += 3) {
+            DoseClassifierEvaluation session = new DoseClassifierEvaluation();
+            session.rssiFilterMode = settings.rssiFilterMode;
+            session.rssiFilterWindow = settings.rssiFilterWindow;
+            session.rssiHampelThreshold = settings.rssiHampelThreshold;
+            session.evaluate(classifier, new File(args[i]), "-".equals(args[i + 1]) ? null : new File(args[i + 1]),
+                    new File(args[i + 2]));
+            session.print(args[i], System.out);
+            total.add(session);
+        }
+        if (sessions > 3)
+            total.print("total", System.out);
+    }
+
+    private static void usage() {
+        System.err.println("usage: evaluate-dose-classifier [-rssi-filter none|median|hampel] [-rssi-window n] "
+                + "[-hampel-threshold k] <model> (<accelerometer.csv> <rssi.csv|-> <labels.csv>)...");
+        System.exit(2);
+    }
+
+    /**
+     * Replays one session and accumulates the results
+     */
+    void evaluate(DoseClassifier classifier, File accelerometerFile, File rssiFile, File labelFile) throws IOException {
+        SensorLog accelerometer = SensorLog.read(accelerometerFile, 3);
+        SensorLog rssi = rssiFile == null ? null : SensorLog.read(rssiFile, 1);
+        RssiFilter rssiFilter = rssi == null ? null : new RssiFilter(rssiFilterMode, rssiFilterWindow,
+                rssiHampelThreshold, rssi.getSamplingRate());
+        long[] intervals = readLabels(labelFile);
+        doses += intervals.length / 2;
+
+        DoseDetector detector = new DoseDetector(classifier, accelerometer.getSamplingRate(),
+                rssi == null ? 1 : rssi.getSamplingRate(), new BottleEvent.Listener() {
+            @Override
+            public void onBottleEvent(long timestamp, int type) {
+                detections++;
+            }
+        });
+
+        long halfWindow = classifier.getWindowMillis() / 2;
+        int r = 0;
+        for (int a = 0; a < accelerometer.size(); a++) {
+            long time = accelerometer.getTimestamp(a);
+            // merge the RSSI samples up to this time, filtered and without dropouts as on the device
+            while (rssi != null && r < rssi.size() && rssi.getTimestamp(r) <= time) {
+                double filtered = rssiFilter.add(rssi.getTimestamp(r), rssi.getValue(r, 0));
+                if ((rssiFilter.getFlags() & RssiFilter.FLAG.DROPOUT) == 0)
+                    detector.addRssi(rssi.getTimestamp(r), filtered);
+                r++;
+            }
+            if (!detector.addAcceleration(time, accelerometer.getValue(a, 0), accelerometer.getValue(a, 1),
+                    accelerometer.getValue(a, 2)))
+                continue;
+            if (Double.isNaN(detector.getLastProbability()))
+                continue;
+            addLatency(detector.getLastInferenceNanos());
+            boolean predicted = detector.isPositive();
+            boolean actual = contains(intervals, time - halfWindow);
+            if (predicted && actual) truePositives++;
+            else if (predicted) falsePositives++;
+            else if (actual) falseNegatives++;
+            else trueNegatives++;
+        }
+    }
+
+    /**
+     * Reads the dose intervals of a label file as a flat array of start and end times
+     */
+    static long[] readLabels(File file) throws IOException {
+        long[] intervals = new long[16];
+        int n = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split(",");
+                if (tokens.length < 2)
+                    continue;
+                if (tokens.length >= 3 && !BottleEvent.getName(BottleEvent.TYPE.DOSE_TAKEN).equals(tokens[2].trim()))
+                    continue;
+                try {
+                    long start = (long) Double.parseDouble(tokens[0].trim());
+                    long end = (long) Double.parseDouble(tokens[1].trim());
+                    if (n == intervals.length)
+                        intervals = Arrays.copyOf(intervals, 2 * n);
+                    intervals[n++] = start;
+                    intervals[n++] = end;
+                } catch (NumberFormatException e) {
+                    // header
+                }
+            }
+        }
+        return Arrays.copyOf(intervals, n);
+    }
+
+    private static boolean contains(long[] intervals, long time) {
+        for (int i = 0; i < intervals.length; i += 2) {
+            if (time >= intervals[i] && time <= intervals[i + 1])
+                return true;
+        }
+        return false;
+    }
+
+    private void addLatency(long nanos) {
+        if (windows == latencies.length)
+            latencies = Arrays.copyOf(latencies, 2 * windows);
+        latencies[windows++] = nanos;
+    }
+
+    private void add(DoseClassifierEvaluation other) {
+        truePositives += other.truePositives;
+        falsePositives += other.falsePositives;
+        falseNegatives += other.falseNegatives;
+        trueNegatives += other.trueNegatives;
+        detections += other.detections;
+        doses += other.doses;
+        for (int i = 0; i < other.windows; i++)
+            addLatency(other.latencies[i]);
+    }
+
+    private void print(String name, PrintStream out) {
+        out.println(name);
+        if (windows == 0) {
+            out.println("  no windows classified");
+            return;
+        }
+        double accuracy = (double) (truePositives + trueNegatives) / windows;
+        double precision = ratio(truePositives, truePositives + falsePositives);
+        double recall = ratio(truePositives, truePositives + falseNegatives);
+        double f1 = 2 * precision * recall / (precision + recall);
+        out.printf("  windows    %d (tp %d, fp %d, fn %d, tn %d)%n", windows, truePositives, falsePositives,
+                falseNegatives, trueNegatives);
+        out.printf("  accuracy   %.3f%n", accuracy);
+        out.printf("  precision  %.3f  recall %.3f  f1 %.3f%n", precision, recall, f1);
+        out.printf("  doses      %d detected, %d labeled%n", detections, doses);
+
+        long[] sorted = Arrays.copyOf(latencies, windows);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long nanos : sorted)
+            sum += nanos;
+        out.printf("  latency    mean %d ns, p50 %d ns, p99 %d ns, max %d ns per window%n", sum / windows,
+                sorted[windows / 2], sorted[Math.min(windows - 1, (int) (0.99 * windows))], sorted[windows - 1]);
+    }
+
+    private static double ratio(long numerator, long denominator) {
+        return denominator == 0 ? Double.NaN : (double) numerator / denominator;
+    }
+}
@@ -0,0 +1,131 @@
+package edu.umass.cs.camera.offline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Ground truth labels, i.e. labeled time intervals, read from the label files written by the
+ * sensor service or produced by reviewing the video. Each line of a label file gives the start
+ * and end of an interval in milliseconds, on the clock of the sensor files, followed by the label,
+ * e.g. "1463078900000, 1463078960000, DOSE_TAKEN"; lines without a label are labeled
+ * {@link #DEFAULT_LABEL}, as in {@link DoseClassifierEvaluation}.
+ */
+class Labels {
+
+    /** label files written by the sensor service, e.g. labels1463078866935.csv */
+    static final Pattern LABEL_FILE = Pattern.compile("labels\\d+\\.csv");
+
+    /** label of intervals given without a label */
+    static final String DEFAULT_LABEL = "DOSE_TAKEN";
+
+    /** label of times which lie in no interval */
+    static final String NO_LABEL = "NONE";
+
+    /** distinct labels, the first being {@link #NO_LABEL} */
+    private final List<String> names = new ArrayList<>();
+
+    /** start and end times and label indices of the intervals, sorted by start after {@link #sort()} */
+    private long[] starts = new long[16], ends = new long[16];
+    private int[] labels = new int[16];
+    private int size = 0;
+
+    Labels() {
+        names.add(NO_LABEL);
+    }
+
+    /**
+     * Reads the label files written by the sensor service in the given directory
+     */
+    void readDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (LABEL_FILE.matcher(file.getName()).matches())
+                read(file);
+        }
+    }
+
+    void read(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split(",");
+                if (tokens.length < 2)
+                    continue;
+                long start, end;
+                try {
+                    start = (long) Double.parseDouble(tokens[0].trim());
+                    end = (long) Double.parseDouble(tokens[1].trim());
+                } catch (NumberFormatException e) {
+                    // header
+                    continue;
+                }
+                add(start, end, tokens.length >= 3 ? tokens[2].trim() : DEFAULT_LABEL);
+            }
+        }
+        sort();
+    }
+
+    private void add(long start, long end, String name) {
+        int label = names.indexOf(name);
+        if (label < 0) {
+            label = names.size();
+            names.add(name);
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * size);
+            ends = Arrays.copyOf(ends, 2 * size);
+            labels = Arrays.copyOf(labels, 2 * size);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        labels[size] = label;
+        size++;
+    }
+
+    /** Sorts the intervals by start time, by insertion since there are few of them */
+    private void sort() {
+        for (int i = 1; i < size; i++) {
+            long start = starts[i], end = ends[i];
+            int label = labels[i];
+            int j = i - 1;
+            for (; j >= 0 && starts[j] > start; j--) {
+                starts[j + 1] = starts[j];
+                ends[j + 1] = ends[j];
+                labels[j + 1] = labels[j];
+            }
+            starts[j + 1] = start;
+            ends[j + 1] = end;
+            labels[j + 1] = label;
+        }
+    }
+
+    /** Number of intervals */
+    int size() {
+        return size;
+    }
+
+    /** Returns the distinct labels, indexed by label index */
+    List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Returns the index of the label of the given time, i.e. of the earliest starting interval
+     * containing it, or 0 ({@link #NO_LABEL}) if there is none
+     */
+    int labelAt(long time) {
+        for (int i = 0; i < size && starts[i] <= time; i++) {
+            if (time <= ends[i])
+                return labels[i];
+        }
+        return 0;
+    }
+}
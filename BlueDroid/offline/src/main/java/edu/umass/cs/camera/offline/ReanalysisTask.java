@@ -0,0 +1,51 @@
+package edu.umass.cs.camera.offline;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Analyzes a range of sessions, splitting it in halves until each task analyzes a single
+ * session, so that the fork-join pool spreads the files over its threads. Results are combined
+ * in session order.
+ */
+class ReanalysisTask extends RecursiveTask<SessionAnalysis.Result> {
+
+    // ForkJoinTask is Serializable, but the tasks never leave the pool
+    private static final long serialVersionUID = 1L;
+
+    private final List<Session> sessions;
+    private final int from, to;
+    private final SessionAnalysis.Settings settings;
+
+    ReanalysisTask(List<Session> sessions, int from, int to, SessionAnalysis.Settings settings) {
+        this.sessions = sessions;
+        this.from = from;
+        this.to = to;
+        this.settings = settings;
+    }
+
+    @Override
+    protected SessionAnalysis.Result compute() {
+        if (to - from == 1) {
+            Session session = sessions.get(from);
+            try {
+                return new SessionAnalysis(session).run(settings);
+            } catch (IOException e) {
+                System.err.println("Could not analyze " + session.accelerometerFile + ": " + e.getMessage());
+                SessionAnalysis.Result result = new SessionAnalysis.Result();
+                result.failures = 1;
+                return result;
+            }
+        }
+        int middle = (from + to) >>> 1;
+        ReanalysisTask left = new ReanalysisTask(sessions, from, middle, settings);
+        ReanalysisTask right = new ReanalysisTask(sessions, middle, to, settings);
+        left.fork();
+        SessionAnalysis.Result result = new SessionAnalysis.Result();
+        SessionAnalysis.Result rightResult = right.compute();
+        result.add(left.join());
+        result.add(rightResult);
+        return result;
+    }
+}
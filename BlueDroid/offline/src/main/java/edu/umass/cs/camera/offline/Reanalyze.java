@@ -0,0 +1,126 @@
+package edu.umass.cs.camera.offline;
+
+import edu.umass.cs.camera.processing.DoseClassifier;
+import edu.umass.cs.camera.processing.RssiFilter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command-line tool re-running the on-device detectors over the sessions recorded in a directory,
+ * analyzing the sessions in parallel and reporting the throughput:
+ * <pre>
+ * reanalyze [options] &lt;directory&gt;
+ *   -accelerometer-rate &lt;Hz&gt;   nominal accelerometer sampling rate (60)
+ *   -rssi-rate &lt;Hz&gt;            nominal RSSI sampling rate (60)
+ *   -reference-rssi &lt;dBm&gt;      RSSI at 1 m (free-space path loss)
+ *   -path-loss-exponent &lt;n&gt;    path loss exponent (2.0)
+ *   -near &lt;m&gt;                  near distance for adherence events (1.5)
+ *   -rssi-filter &lt;mode&gt;        none, median or hampel (hampel)
+ *   -rssi-window &lt;n&gt;           RSSI filter window size (9)
+ *   -hampel-threshold &lt;k&gt;      Hampel outlier threshold (3.0)
+ *   -model &lt;file&gt;              dose classifier model file
+ *   -threads &lt;n&gt;               number of threads (available processors)
+ *   -out &lt;directory&gt;           write the detected events to this directory
+ * </pre>
+ * The defaults match the defaults of the app's preferences.
+ *
+ * @see SessionAnalysis
+ */
+public class Reanalyze {
+
+    public static void main(String[] args) throws IOException {
+        SessionAnalysis.Settings settings = new SessionAnalysis.Settings();
+        int threads = Runtime.getRuntime().availableProcessors();
+        File directory = null, out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-accelerometer-rate":
+                        settings.accelerometerSamplingRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rssi-rate":
+                        settings.rssiSamplingRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "-reference-rssi":
+                        settings.referenceRssi = Double.parseDouble(args[++i]);
+                        break;
+                    case "-path-loss-exponent":
+                        settings.pathLossExponent = Double.parseDouble(args[++i]);
+                        break;
+                    case "-near":
+                        settings.nearDistance = Double.parseDouble(args[++i]);
+                        break;
+                    case "-rssi-filter":
+                        settings.rssiFilterMode = RssiFilter.parseMode(args[++i]);
+                        break;
+                    case "-rssi-window":
+                        settings.rssiFilterWindow = Integer.parseInt(args[++i]);
+                        break;
+                    case "-hampel-threshold":
+                        settings.rssiHampelThreshold = Double.parseDouble(args[++i]);
+                        break;
+                    case "-model":
+                        settings.doseClassifier = DoseClassifier.load(new File(args[++i]));
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-out":
+                        out = new File(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || directory != null)
+                            usage();
+                        directory = new File(args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (directory == null)
+            usage();
+
+        List<Session> sessions = Session.find(directory);
+        if (sessions.isEmpty()) {
+            System.err.println("No sessions found in " + directory);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        SessionAnalysis.Result result = pool.invoke(new ReanalysisTask(sessions, 0, sessions.size(), settings));
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (out != null) {
+            if (!out.isDirectory() && !out.mkdirs())
+                throw new IOException("Could not create " + out);
+            write(new File(out, "events.csv"), result.eventLines);
+            write(new File(out, "adherence.csv"), result.adherenceLines);
+        }
+
+        System.out.printf(Locale.US, "%d sessions (%d failed), %d samples, %.1f MB in %.2f s on %d threads%n",
+                result.sessions, result.failures, result.samples, result.bytes / 1e6, seconds, threads);
+        System.out.printf(Locale.US, "%.0f samples/s, %.1f MB/s%n", result.samples / seconds, result.bytes / 1e6 / seconds);
+        System.out.printf(Locale.US, "%d bottle events, %d adherence events%n", result.events, result.adherenceEvents);
+    }
+
+    private static void write(File file, CharSequence lines) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.append(lines);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: reanalyze [-accelerometer-rate Hz] [-rssi-rate Hz] [-reference-rssi dBm] "
+                + "[-path-loss-exponent n] [-near m] [-rssi-filter none|median|hampel] [-rssi-window n] "
+                + "[-hampel-threshold k] [-model file] [-threads n] [-out directory] <directory>");
+        System.exit(2);
+    }
+}
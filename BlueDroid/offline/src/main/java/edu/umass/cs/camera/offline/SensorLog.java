@@ -0,0 +1,90 @@
+package edu.umass.cs.camera.offline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A sensor stream recorded to a CSV file by the sensor service, one sample per line starting
+ * with the timestamp in milliseconds, followed by the channel values, e.g. "time, x, y, z" for
+ * the accelerometer or "time, rssi" for the RSSI. Lines which cannot be parsed, such as headers,
+ * are skipped. Samples are held in primitive arrays, with the values interleaved by channel.
+ */
+class SensorLog {
+
+    private final int channels;
+
+    private long[] timestamps;
+
+    private double[] values;
+
+    private int size = 0;
+
+    private SensorLog(int channels, int capacity) {
+        this.channels = channels;
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity * channels];
+    }
+
+    /**
+     * Reads the first {@code channels} values of each line of the given file
+     * @throws IOException if the file cannot be read
+     */
+    static SensorLog read(File file, int channels) throws IOException {
+        SensorLog log = new SensorLog(channels, 1024);
+        // readLine() also accepts the bare carriage returns found in some exported files
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                log.parse(line);
+        }
+        return log;
+    }
+
+    private void parse(String line) {
+        String[] tokens = line.split(",");
+        if (tokens.length < channels + 1)
+            return;
+        try {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, 2 * size);
+                values = Arrays.copyOf(values, 2 * size * channels);
+            }
+            // timestamps are sometimes exported as decimals, e.g. "1463078866935.00"
+            timestamps[size] = (long) Double.parseDouble(tokens[0].trim());
+            for (int c = 0; c < channels; c++)
+                values[size * channels + c] = Double.parseDouble(tokens[c + 1].trim());
+            size++;
+        } catch (NumberFormatException e) {
+            // not a sample, e.g. a header
+        }
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    /** Number of samples */
+    int size() {
+        return size;
+    }
+
+    long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    double getValue(int index, int channel) {
+        return values[index * channels + channel];
+    }
+
+    /**
+     * Returns the mean sampling rate in Hz, or 0 if there are fewer than two samples
+     */
+    double getSamplingRate() {
+        if (size < 2 || timestamps[size - 1] <= timestamps[0])
+            return 0;
+        return (size - 1) * 1000.0 / (timestamps[size - 1] - timestamps[0]);
+    }
+}
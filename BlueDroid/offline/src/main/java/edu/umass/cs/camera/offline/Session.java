@@ -0,0 +1,89 @@
+package edu.umass.cs.camera.offline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A recorded session, i.e. the accelerometer file written by the sensor service and the RSSI
+ * file started along with it. The service names each file by its prefix followed by the time at
+ * which recording started, e.g. accelerometer1463078866935.csv and rssi1463078866937.csv; older
+ * versions wrote the RSSI file without a prefix, e.g. 1463078866937.csv.
+ */
+class Session {
+
+    private static final Pattern ACCELEROMETER_FILE = Pattern.compile("accelerometer(\\d+)\\.csv");
+
+    private static final Pattern RSSI_FILE = Pattern.compile("(?:rssi)?(\\d+)\\.csv");
+
+    /** files of one session are created within this many milliseconds of each other */
+    private static final long MAX_START_DIFFERENCE = 10000;
+
+    final long start;
+
+    final File accelerometerFile;
+
+    /** the RSSI file, or null if RSSI was not recorded */
+    final File rssiFile;
+
+    Session(long start, File accelerometerFile, File rssiFile) {
+        this.start = start;
+        this.accelerometerFile = accelerometerFile;
+        this.rssiFile = rssiFile;
+    }
+
+    /** Returns the total size of the session's files in bytes */
+    long length() {
+        return accelerometerFile.length() + (rssiFile == null ? 0 : rssiFile.length());
+    }
+
+    /**
+     * Finds the sessions in the given directory, pairing each accelerometer file with the RSSI
+     * file started closest to it, and returns them ordered by start time
+     */
+    static List<Session> find(File directory) {
+        List<Session> sessions = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null)
+            return sessions;
+
+        List<File> rssiFiles = new ArrayList<>();
+        List<Long> rssiStarts = new ArrayList<>();
+        for (File file : files) {
+            Matcher matcher = RSSI_FILE.matcher(file.getName());
+            if (matcher.matches()) {
+                rssiFiles.add(file);
+                rssiStarts.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+
+        for (File file : files) {
+            Matcher matcher = ACCELEROMETER_FILE.matcher(file.getName());
+            if (!matcher.matches())
+                continue;
+            long start = Long.parseLong(matcher.group(1));
+            File rssiFile = null;
+            long best = MAX_START_DIFFERENCE + 1;
+            for (int i = 0; i < rssiFiles.size(); i++) {
+                long difference = Math.abs(rssiStarts.get(i) - start);
+                if (difference < best) {
+                    best = difference;
+                    rssiFile = rssiFiles.get(i);
+                }
+            }
+            sessions.add(new Session(start, file, rssiFile));
+        }
+
+        Collections.sort(sessions, new Comparator<Session>() {
+            @Override
+            public int compare(Session a, Session b) {
+                return a.start < b.start ? -1 : (a.start == b.start ? 0 : 1);
+            }
+        });
+        return sessions;
+    }
+}
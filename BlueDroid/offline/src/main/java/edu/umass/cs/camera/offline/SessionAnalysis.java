@@ -0,0 +1,144 @@
+package edu.umass.cs.camera.offline;
+
+import edu.umass.cs.camera.processing.AdherenceFusion;
+import edu.umass.cs.camera.processing.BottleEvent;
+import edu.umass.cs.camera.processing.BottleEventDetector;
+import edu.umass.cs.camera.processing.DoseClassifier;
+import edu.umass.cs.camera.processing.DoseDetector;
+import edu.umass.cs.camera.processing.RssiDistanceEstimator;
+import edu.umass.cs.camera.processing.RssiFilter;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Replays one recorded session through the same detectors which run in the sensor service:
+ * the {@link BottleEventDetector}, the {@link DoseDetector} if a model is given, and the
+ * {@link RssiFilter} and {@link RssiDistanceEstimator} feeding the {@link AdherenceFusion}. The
+ * RSSI is filtered from the raw readings, so the filter settings may differ from the recording.
+ * The accelerometer and RSSI files are streamed and merged by timestamp, so memory does not
+ * depend on the session length.
+ * The detected events are collected in the format of the service's event and adherence files,
+ * with the session start in place of the device address.
+ */
+class SessionAnalysis implements BottleEvent.Listener, AdherenceFusion.Listener {
+
+    /** Settings shared by all sessions of one run */
+    static class Settings {
+        int accelerometerSamplingRate = 60;
+        int rssiSamplingRate = 60;
+        double referenceRssi = RssiDistanceEstimator.freeSpaceReferenceRssi(RssiDistanceEstimator.DEFAULT_FREQUENCY_MHZ);
+        double pathLossExponent = RssiDistanceEstimator.FREE_SPACE_PATH_LOSS_EXPONENT;
+        double nearDistance = 1.5;
+        int rssiFilterMode = RssiFilter.MODE.HAMPEL;
+        int rssiFilterWindow = 9;
+        double rssiHampelThreshold = 3.0;
+        /** may be null */
+        DoseClassifier doseClassifier;
+    }
+
+    /** Results of one or more sessions */
+    static class Result {
+        int sessions, failures;
+        long samples, bytes, events, adherenceEvents;
+        final StringBuilder eventLines = new StringBuilder();
+        final StringBuilder adherenceLines = new StringBuilder();
+
+        void add(Result other) {
+            sessions += other.sessions;
+            failures += other.failures;
+            samples += other.samples;
+            bytes += other.bytes;
+            events += other.events;
+            adherenceEvents += other.adherenceEvents;
+            eventLines.append(other.eventLines);
+            adherenceLines.append(other.adherenceLines);
+        }
+    }
+
+    private final Session session;
+
+    private final Result result = new Result();
+
+    /** null if the session has no RSSI file */
+    private AdherenceFusion fusion;
+
+    /** time of the latest accelerometer sample */
+    private long now;
+
+    SessionAnalysis(Session session) {
+        this.session = session;
+    }
+
+    Result run(Settings settings) throws IOException {
+        BottleEventDetector eventDetector = new BottleEventDetector(settings.accelerometerSamplingRate, this);
+        DoseDetector doseDetector = settings.doseClassifier == null ? null : new DoseDetector(settings.doseClassifier,
+                settings.accelerometerSamplingRate, settings.rssiSamplingRate, this);
+        RssiFilter rssiFilter = new RssiFilter(settings.rssiFilterMode, settings.rssiFilterWindow,
+                settings.rssiHampelThreshold, settings.rssiSamplingRate);
+        RssiDistanceEstimator distanceEstimator = new RssiDistanceEstimator(settings.referenceRssi, settings.pathLossExponent);
+        fusion = session.rssiFile == null ? null :
+                new AdherenceFusion(settings.rssiSamplingRate, settings.nearDistance, this);
+
+        try (CsvSampleReader accelerometer = new CsvSampleReader(
+                new BufferedInputStream(new FileInputStream(session.accelerometerFile), 1 << 16), 3);
+             CsvSampleReader rssi = session.rssiFile == null ? null : new CsvSampleReader(
+                     new BufferedInputStream(new FileInputStream(session.rssiFile), 1 << 16), 1)) {
+            boolean hasRssi = rssi != null && rssi.next();
+            while (accelerometer.next()) {
+                long time = accelerometer.getTime();
+                // merge the RSSI samples up to this time
+                while (hasRssi && rssi.getTime() <= time) {
+                    long rssiTime = rssi.getTime();
+                    double filtered = rssiFilter.add(rssiTime, rssi.getValue(0));
+                    if ((rssiFilter.getFlags() & RssiFilter.FLAG.DROPOUT) == 0) {
+                        double meters = distanceEstimator.addSample(rssiTime, filtered);
+                        if (doseDetector != null)
+                            doseDetector.addRssi(rssiTime, filtered);
+                        fusion.addDistance(rssiTime, meters);
+                    }
+                    result.samples++;
+                    hasRssi = rssi.next();
+                }
+                now = time;
+                double x = accelerometer.getValue(0), y = accelerometer.getValue(1), z = accelerometer.getValue(2);
+                eventDetector.addSample(time, x, y, z);
+                if (doseDetector != null)
+                    doseDetector.addAcceleration(time, x, y, z);
+                if (fusion != null)
+                    fusion.advanceTo(time);
+                result.samples++;
+            }
+            // the remaining RSSI samples cannot be joined with any more motion, but are still counted
+            while (hasRssi) {
+                double filtered = rssiFilter.add(rssi.getTime(), rssi.getValue(0));
+                if ((rssiFilter.getFlags() & RssiFilter.FLAG.DROPOUT) == 0)
+                    fusion.addDistance(rssi.getTime(), distanceEstimator.addSample(rssi.getTime(), filtered));
+                result.samples++;
+                hasRssi = rssi.next();
+            }
+            if (fusion != null)
+                fusion.advanceTo(Long.MAX_VALUE);
+            result.bytes = accelerometer.getBytesRead() + (rssi == null ? 0 : rssi.getBytesRead());
+        }
+        result.sessions = 1;
+        return result;
+    }
+
+    @Override
+    public void onBottleEvent(long timestamp, int type) {
+        result.events++;
+        result.eventLines.append(String.format(Locale.US, "%d, %d, %s%n", timestamp, session.start, BottleEvent.getName(type)));
+        if (fusion != null)
+            fusion.addEvent(timestamp, type, now);
+    }
+
+    @Override
+    public void onAdherenceEvent(long timestamp, int type, double distance) {
+        result.adherenceEvents++;
+        result.adherenceLines.append(String.format(Locale.US, "%d, %d, %s, %.3f%n", timestamp, session.start,
+                BottleEvent.getName(type), distance));
+    }
+}
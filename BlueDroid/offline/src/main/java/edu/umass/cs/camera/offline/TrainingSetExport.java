@@ -0,0 +1,254 @@
+package edu.umass.cs.camera.offline;
+
+import edu.umass.cs.camera.processing.RssiFilter;
+import edu.umass.cs.camera.processing.WindowFeatures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command-line tool cutting the sessions recorded in a directory into windowed training examples,
+ * i.e. the {@link WindowFeatures} of each window together with the ground truth label at its
+ * center, for training a {@link edu.umass.cs.camera.processing.DoseClassifier}:
+ * <pre>
+ * export-training-set [options] &lt;directory&gt; &lt;output&gt;
+ *   -accelerometer-rate &lt;Hz&gt;   nominal accelerometer sampling rate (60)
+ *   -rssi-rate &lt;Hz&gt;            nominal RSSI sampling rate (60)
+ *   -rssi-filter &lt;mode&gt;        none, median or hampel (hampel)
+ *   -rssi-window &lt;n&gt;           RSSI filter window size (9)
+ *   -hampel-threshold &lt;k&gt;      Hampel outlier threshold (3.0)
+ *   -window &lt;ms&gt;               window length (2000)
+ *   -hop &lt;ms&gt;                  time between windows (500)
+ *   -labels &lt;file&gt;             additional label file, e.g. from video review; may be repeated
+ *   -format &lt;csv|binary&gt;       output format (csv)
+ * </pre>
+ * Labels are read from the label files written by the sensor service in the directory and from
+ * the files given by -labels, see {@link Labels}. The features are computed exactly as in the
+ * {@link edu.umass.cs.camera.processing.DoseDetector}, from the RSSI filtered as in the sensor
+ * service, so a model trained on the examples sees the same inputs on the device.
+ *
+ * Each session is streamed once, merging the accelerometer and RSSI files by timestamp, and the
+ * examples are written as they are cut, so memory does not depend on the amount of data. The CSV
+ * format has a header naming the columns, "session, time", the features and "label". The binary
+ * format is a big-endian stream of
+ * <pre>
+ * int magic 0x50425453 ("PBTS"), int version 1
+ * int feature count, followed by the feature names (modified UTF-8)
+ * int label count, followed by the label names, the first being NONE
+ * per example: long session start, long window end time, float[feature count] features
+ *              (NaN if missing), short label index
+ * </pre>
+ */
+public class TrainingSetExport {
+
+    /** identifies the binary format */
+    static final int MAGIC = 0x50425453;
+
+    static final int VERSION = 1;
+
+    private final SessionAnalysis.Settings settings;
+
+    private final Labels labels;
+
+    private final long windowMillis, hopMillis;
+
+    private final double[] features = new double[WindowFeatures.FEATURE.COUNT];
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    /** number of examples written, by label index */
+    private final long[] counts;
+
+    TrainingSetExport(SessionAnalysis.Settings settings, Labels labels, long windowMillis, long hopMillis) {
+        this.settings = settings;
+        this.labels = labels;
+        this.windowMillis = windowMillis;
+        this.hopMillis = hopMillis;
+        this.counts = new long[labels.getNames().size()];
+    }
+
+    public static void main(String[] args) throws IOException {
+        SessionAnalysis.Settings settings = new SessionAnalysis.Settings();
+        Labels labels = new Labels();
+        long windowMillis = 2000, hopMillis = 500;
+        boolean binary = false;
+        File directory = null, out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-accelerometer-rate":
+                        settings.accelerometerSamplingRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rssi-rate":
+                        settings.rssiSamplingRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rssi-filter":
+                        settings.rssiFilterMode = RssiFilter.parseMode(args[++i]);
+                        break;
+                    case "-rssi-window":
+                        settings.rssiFilterWindow = Integer.parseInt(args[++i]);
+                        break;
+                    case "-hampel-threshold":
+                        settings.rssiHampelThreshold = Double.parseDouble(args[++i]);
+                        break;
+                    case "-window":
+                        windowMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "-hop":
+                        hopMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "-labels":
+                        labels.read(new File(args[++i]));
+                        break;
+                    case "-format":
+                        String format = args[++i];
+                        if (!format.equals("csv") && !format.equals("binary"))
+                            usage();
+                        binary = format.equals("binary");
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || out != null)
+                            usage();
+                        if (directory == null)
+                            directory = new File(args[i]);
+                        else
+                            out = new File(args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (out == null || windowMillis <= 0 || hopMillis <= 0)
+            usage();
+
+        List<Session> sessions = Session.find(directory);
+        if (sessions.isEmpty()) {
+            System.err.println("No sessions found in " + directory);
+            System.exit(1);
+        }
+        labels.readDirectory(directory);
+        if (labels.size() == 0)
+            System.err.println("Warning: no labels found, all examples are labeled " + Labels.NO_LABEL);
+
+        long start = System.nanoTime();
+        TrainingSetExport export = new TrainingSetExport(settings, labels, windowMillis, hopMillis);
+        long bytes = 0;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 1 << 16))) {
+            if (binary)
+                export.writeBinaryHeader(output);
+            else
+                export.writeCsvHeader(output);
+            for (Session session : sessions) {
+                export.export(session, output, binary);
+                bytes += session.length();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.US, "%d sessions, %.1f MB in %.2f s (%.1f MB/s)%n", sessions.size(), bytes / 1e6,
+                seconds, bytes / 1e6 / seconds);
+        List<String> names = labels.getNames();
+        for (int label = 0; label < names.size(); label++)
+            System.out.printf(Locale.US, "%d examples labeled %s%n", export.counts[label], names.get(label));
+    }
+
+    private void writeCsvHeader(DataOutputStream out) throws IOException {
+        line.setLength(0);
+        line.append("session, time");
+        for (int feature = 0; feature < WindowFeatures.FEATURE.COUNT; feature++)
+            line.append(", ").append(WindowFeatures.getName(feature));
+        line.append(", label\n");
+        out.writeBytes(line.toString());
+    }
+
+    private void writeBinaryHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(WindowFeatures.FEATURE.COUNT);
+        for (int feature = 0; feature < WindowFeatures.FEATURE.COUNT; feature++)
+            out.writeUTF(WindowFeatures.getName(feature));
+        List<String> names = labels.getNames();
+        out.writeInt(names.size());
+        for (String name : names)
+            out.writeUTF(name);
+    }
+
+    /**
+     * Streams one session, writing an example every hop once the first window is full
+     */
+    void export(Session session, DataOutputStream out, boolean binary) throws IOException {
+        WindowFeatures windowFeatures = new WindowFeatures(samples(windowMillis, settings.accelerometerSamplingRate),
+                samples(windowMillis, settings.rssiSamplingRate));
+        RssiFilter rssiFilter = new RssiFilter(settings.rssiFilterMode, settings.rssiFilterWindow,
+                settings.rssiHampelThreshold, settings.rssiSamplingRate);
+        int hopSize = samples(hopMillis, settings.accelerometerSamplingRate);
+        int samplesSinceLastWindow = 0;
+
+        try (CsvSampleReader accelerometer = new CsvSampleReader(
+                new BufferedInputStream(new FileInputStream(session.accelerometerFile), 1 << 16), 3);
+             CsvSampleReader rssi = session.rssiFile == null ? null : new CsvSampleReader(
+                     new BufferedInputStream(new FileInputStream(session.rssiFile), 1 << 16), 1)) {
+            boolean hasRssi = rssi != null && rssi.next();
+            while (accelerometer.next()) {
+                long time = accelerometer.getTime();
+                // merge the RSSI samples up to this time
+                while (hasRssi && rssi.getTime() <= time) {
+                    double filtered = rssiFilter.add(rssi.getTime(), rssi.getValue(0));
+                    if ((rssiFilter.getFlags() & RssiFilter.FLAG.DROPOUT) == 0)
+                        windowFeatures.addRssi(filtered);
+                    hasRssi = rssi.next();
+                }
+                windowFeatures.addAcceleration(accelerometer.getValue(0), accelerometer.getValue(1), accelerometer.getValue(2));
+                if (++samplesSinceLastWindow < hopSize || !windowFeatures.isReady())
+                    continue;
+                samplesSinceLastWindow = 0;
+
+                windowFeatures.extract(features);
+                int label = labels.labelAt(time - windowMillis / 2);
+                counts[label]++;
+                if (binary)
+                    writeBinary(out, session.start, time, label);
+                else
+                    writeCsv(out, session.start, time, label);
+            }
+        }
+    }
+
+    private static int samples(long millis, double samplingRate) {
+        return (int) Math.max(1, Math.round(millis * samplingRate / 1000.0));
+    }
+
+    private void writeBinary(DataOutputStream out, long session, long time, int label) throws IOException {
+        out.writeLong(session);
+        out.writeLong(time);
+        for (double feature : features)
+            out.writeFloat((float) feature);
+        out.writeShort(label);
+    }
+
+    private void writeCsv(DataOutputStream out, long session, long time, int label) throws IOException {
+        line.setLength(0);
+        line.append(session).append(", ").append(time);
+        for (double feature : features) {
+            line.append(", ");
+            if (!Double.isNaN(feature))
+                line.append((float) feature);
+        }
+        line.append(", ").append(labels.getNames().get(label)).append('\n');
+        out.writeBytes(line.toString());
+    }
+
+    private static void usage() {
+        System.err.println("usage: export-training-set [-accelerometer-rate Hz] [-rssi-rate Hz] "
+                + "[-rssi-filter none|median|hampel] [-rssi-window n] [-hampel-threshold k] [-window ms] [-hop ms] "
+                + "[-labels file]... [-format csv|binary] <directory> <output>");
+        System.exit(2);
+    }
+}
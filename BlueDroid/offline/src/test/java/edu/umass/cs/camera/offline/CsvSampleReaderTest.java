@@ -0,0 +1,115 @@
+package edu.umass.cs.camera.offline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CsvSampleReaderTest {
+
+    /** size of the reader's buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static CsvSampleReader reader(String text, int channels) {
+        return new CsvSampleReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)), channels);
+    }
+
+    /** parses a single value as the only channel of a sample */
+    private static double parse(String number) throws IOException {
+        CsvSampleReader reader = reader("0, " + number + "\n", 1);
+        assertTrue(number, reader.next());
+        return reader.getValue(0);
+    }
+
+    @Test
+    public void parsesSignedDecimals() throws IOException {
+        assertEquals(-12.345, parse("-12.345"), 0);
+        assertEquals(12.345, parse("+12.345"), 0);
+        assertEquals(0.5, parse(".5"), 0);
+        assertEquals(7, parse("7."), 0);
+        assertEquals(-0.98, parse("-0.98"), 0);
+        assertEquals(1463078866935.0, parse("1463078866935"), 0);
+    }
+
+    @Test
+    public void parsesExponents() throws IOException {
+        assertEquals(1.5e3, parse("1.5e3"), 0);
+        assertEquals(-2.5E-4, parse("-2.5E-4"), 0);
+        assertEquals(3e+2, parse("3e+2"), 0);
+    }
+
+    @Test
+    public void parsesDecimalsExactly() throws IOException {
+        for (String number : new String[]{"0.1", "0.3", "-9.80665", "123456.789012", "0.000001"})
+            assertEquals(number, Double.parseDouble(number), parse(number), 0);
+    }
+
+    @Test
+    public void fallsBackForMoreThanFifteenSignificantDigits() throws IOException {
+        for (String number : new String[]{"0.12345678901234567", "-98765432109876543.21",
+                "3.141592653589793238", "12345678901234567890"})
+            assertEquals(number, Double.parseDouble(number), parse(number), 0);
+    }
+
+    @Test
+    public void readsTimestampsAndChannels() throws IOException {
+        CsvSampleReader reader = reader("1463078866935, 0.012, -0.98, 0.07\n1463078866952.00,1,2,3\n", 3);
+        assertTrue(reader.next());
+        assertEquals(1463078866935L, reader.getTime());
+        assertEquals(0.012, reader.getValue(0), 0);
+        assertEquals(-0.98, reader.getValue(1), 0);
+        assertEquals(0.07, reader.getValue(2), 0);
+        assertTrue(reader.next());
+        assertEquals(1463078866952L, reader.getTime());
+        assertEquals(3, reader.getValue(2), 0);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void acceptsAllLineEndings() throws IOException {
+        CsvSampleReader reader = reader("1, -1\r2, -2\r\n3, -3\n\n4, -4", 1);
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(reader.next());
+            assertEquals(i, reader.getTime());
+            assertEquals(-i, reader.getValue(0), 0);
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void skipsHeadersAndShortLines() throws IOException {
+        CsvSampleReader reader = reader("timestamp, x, y, z\n1, 2, 3\n4, 5, 6, 7, 8\n9,,10,11\n12, a, 13, 14\n15, 16, 17, 18\n", 3);
+        assertTrue(reader.next());
+        assertEquals(4, reader.getTime());
+        assertEquals(7, reader.getValue(2), 0);
+        assertTrue(reader.next());
+        assertEquals(15, reader.getTime());
+        assertEquals(16, reader.getValue(0), 0);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void readsLinesSplitAcrossTheBuffer() throws IOException {
+        String line = "1463078866935, -12.345678, 1.5e-3\r\n";
+        for (int split = 0; split <= line.length(); split++) {
+            // a header ending split bytes before the end of the buffer, so that the line is split there
+            char[] header = new char[BUFFER_SIZE - split - 1];
+            Arrays.fill(header, 'x');
+            CsvSampleReader reader = reader(new String(header) + "\n" + line + "1, 2, 3\n", 2);
+            assertTrue(reader.next());
+            assertEquals(1463078866935L, reader.getTime());
+            assertEquals(-12.345678, reader.getValue(0), 0);
+            assertEquals(1.5e-3, reader.getValue(1), 0);
+            assertTrue(reader.next());
+            assertEquals(1, reader.getTime());
+            assertFalse(reader.next());
+            assertEquals(BUFFER_SIZE - split + line.length() + 8, reader.getBytesRead());
+        }
+    }
+}
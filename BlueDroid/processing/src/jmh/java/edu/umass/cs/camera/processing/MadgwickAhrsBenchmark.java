@@ -0,0 +1,69 @@
+package edu.umass.cs.camera.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of one orientation update, as paid on every SensorTag movement
+ * notification, with and without the magnetometer. The samples imitate a bottle resting on a
+ * table with sensor noise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MadgwickAhrsBenchmark {
+
+    /** number of precomputed samples; a power of two so the index can be masked */
+    private static final int SAMPLES = 1 << 14;
+
+    private final MadgwickAhrs ahrs = new MadgwickAhrs(MadgwickAhrs.DEFAULT_BETA);
+
+    /** gyroscope (rad/s), accelerometer (g) and magnetometer (uT) axes, 9 values per sample */
+    private final double[] samples = new double[9 * SAMPLES];
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            int j = 9 * i;
+            for (int k = 0; k < 3; k++) samples[j + k] = 0.01 * random.nextGaussian();
+            samples[j + 3] = 0.01 * random.nextGaussian();
+            samples[j + 4] = 0.01 * random.nextGaussian();
+            samples[j + 5] = 1 + 0.01 * random.nextGaussian();
+            samples[j + 6] = 20 + random.nextGaussian();
+            samples[j + 7] = random.nextGaussian();
+            samples[j + 8] = -40 + random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double update9() {
+        int j = 9 * (next++ & (SAMPLES - 1));
+        ahrs.update(samples[j], samples[j + 1], samples[j + 2], samples[j + 3], samples[j + 4], samples[j + 5],
+                samples[j + 6], samples[j + 7], samples[j + 8], 0.01);
+        return ahrs.getTiltAngle();
+    }
+
+    @Benchmark
+    public double update6() {
+        int j = 9 * (next++ & (SAMPLES - 1));
+        ahrs.update(samples[j], samples[j + 1], samples[j + 2], samples[j + 3], samples[j + 4], samples[j + 5], 0.01);
+        return ahrs.getTiltAngle();
+    }
+}
@@ -0,0 +1,61 @@
+package edu.umass.cs.camera.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of filtering one RSSI reading, as paid on the Bluetooth callback thread,
+ * for each filter mode and several window sizes. The readings imitate the recorded RSSI: whole
+ * dBm values around -72 dBm with occasional deep spikes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RssiFilterBenchmark {
+
+    /** number of precomputed readings; a power of two so the index can be masked */
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"0", "1", "2"})
+    public int mode;
+
+    @Param({"5", "9", "15", "31"})
+    public int windowSize;
+
+    private RssiFilter filter;
+
+    private final double[] readings = new double[SAMPLES];
+
+    private int next = 0;
+
+    private long time = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++)
+            readings[i] = Math.round(-72 + 3 * random.nextGaussian() - (random.nextInt(8) == 0 ? 15 : 0));
+        filter = new RssiFilter(mode, windowSize, 3, 60);
+    }
+
+    @Benchmark
+    public double add() {
+        time += 16;
+        return filter.add(time, readings[next++ & (SAMPLES - 1)]);
+    }
+}
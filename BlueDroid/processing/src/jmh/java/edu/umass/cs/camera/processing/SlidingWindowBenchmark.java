@@ -0,0 +1,64 @@
+package edu.umass.cs.camera.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of adding one sample to a full {@link SlidingWindow} and reading all of its
+ * statistics, for several window lengths. The cost per sample should not depend on the window
+ * length. Run with {@code gradle :processing:jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlidingWindowBenchmark {
+
+    /** number of precomputed samples; a power of two so the index can be masked */
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"16", "256", "4096", "65536"})
+    public int windowSize;
+
+    private SlidingWindow window;
+
+    private final double[] samples = new double[SAMPLES];
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++)
+            samples[i] = Math.sin(i * 0.05) + 0.1 * random.nextGaussian();
+        window = new SlidingWindow(windowSize);
+        for (int i = 0; i < windowSize; i++)
+            window.add(samples[i & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public double addAndQuery() {
+        window.add(samples[next++ & (SAMPLES - 1)]);
+        return window.getMean() + window.getVariance() + window.getMin() + window.getMax()
+                + window.getEnergy() + window.getZeroCrossings();
+    }
+
+    @Benchmark
+    public void add() {
+        window.add(samples[next++ & (SAMPLES - 1)]);
+    }
+}
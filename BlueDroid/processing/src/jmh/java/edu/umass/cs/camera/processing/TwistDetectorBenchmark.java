@@ -0,0 +1,69 @@
+package edu.umass.cs.camera.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of processing one gyroscope sample, as paid on every SensorTag movement
+ * notification. The samples are sensor noise with a twist stroke about the cap axis every
+ * second, at a 100 ms notification period.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TwistDetectorBenchmark {
+
+    /** number of precomputed samples; a power of two so the index can be masked */
+    private static final int SAMPLES = 1 << 14;
+
+    /** notification period in milliseconds */
+    private static final long PERIOD = 100;
+
+    private TwistDetector detector;
+
+    /** angular velocity about the x, y and z axes in degrees per second, 3 values per sample */
+    private final double[] samples = new double[3 * SAMPLES];
+
+    private int next = 0;
+
+    private long time = 0;
+
+    public int events = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[3 * i] = 3 * random.nextGaussian();
+            samples[3 * i + 1] = 3 * random.nextGaussian();
+            samples[3 * i + 2] = 3 * random.nextGaussian() + (i % 10 < 3 ? 300 : 0);
+        }
+        detector = new TwistDetector(TwistDetector.AXIS.Z, new BottleEvent.Listener() {
+            @Override
+            public void onBottleEvent(long timestamp, int type) {
+                events++;
+            }
+        });
+    }
+
+    @Benchmark
+    public void addSample() {
+        time += PERIOD;
+        int j = 3 * (next++ & (SAMPLES - 1));
+        detector.addSample(time, samples[j], samples[j + 1], samples[j + 2]);
+    }
+}
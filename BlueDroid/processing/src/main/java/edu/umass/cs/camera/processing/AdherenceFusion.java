@@ -0,0 +1,182 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Fuses the motion events detected on a pill bottle with the estimated distance between the
+ * bottle and the phone: a motion event only counts as an adherence event if the phone, and so
+ * presumably the patient carrying it, was near the bottle when it happened. Motion alone cannot
+ * tell who handled the bottle, and a single RSSI reading is too noisy to decide proximity.
+ *
+ * The two streams are joined on their timestamps. For a motion event at time t, the distance is
+ * the mean of the distance samples within {@link #JOIN_TOLERANCE} of t, so the streams may be
+ * sampled at different rates. Since distance samples may arrive after the event which they are
+ * joined with, events are held until the distance stream has passed t + {@link #JOIN_TOLERANCE},
+ * or until {@link #MAX_WAIT} has elapsed, in which case the samples received so far are used.
+ *
+ * Both the distance samples and the pending events are held in fixed-size rings, so memory does
+ * not grow with the session length: distance samples older than the join window are overwritten,
+ * and if more events are pending than fit, the oldest is dropped (see {@link #getDroppedEvents()}).
+ *
+ * All methods are synchronized, since the streams are usually fed from different threads.
+ */
+public class AdherenceFusion {
+
+    /** distance samples within this many milliseconds of an event are joined with it */
+    public static final long JOIN_TOLERANCE = 2000;
+
+    /** how long an event waits for distance samples, in milliseconds of event stream time */
+    public static final long MAX_WAIT = 5000;
+
+    /** maximum number of events waiting for distance samples */
+    public static final int MAX_PENDING_EVENTS = 32;
+
+    /**
+     * Receives fused events
+     */
+    public interface Listener {
+        /**
+         * Called when a motion event coincided with the phone being near the bottle
+         * @param timestamp time of the motion event in milliseconds
+         * @param type the event type, see {@link BottleEvent.TYPE}
+         * @param distance mean distance around the event in meters
+         */
+        void onAdherenceEvent(long timestamp, int type, double distance);
+    }
+
+    private final Listener listener;
+
+    private final double nearDistance;
+
+    /** ring of recent distance samples */
+    private final long[] distanceTimes;
+    private final double[] distances;
+    private int distanceNext = 0, distanceCount = 0;
+
+    /** pending events, unordered */
+    private final long[] pendingTimes = new long[MAX_PENDING_EVENTS];
+    private final long[] pendingSince = new long[MAX_PENDING_EVENTS];
+    private final int[] pendingTypes = new int[MAX_PENDING_EVENTS];
+    private int pendingCount = 0;
+
+    private long latestDistanceTime = Long.MIN_VALUE;
+
+    private long droppedEvents = 0;
+
+    /**
+     * @param distanceSamplingRate nominal rate of the distance stream in Hz, used to size the join buffer
+     * @param nearDistance distance in meters at or below which the phone is considered near the bottle
+     * @param listener receives the fused events
+     */
+    public AdherenceFusion(double distanceSamplingRate, double nearDistance, Listener listener) {
+        this.listener = listener;
+        this.nearDistance = nearDistance;
+        // the join window, plus the time an event may wait, plus some slack for rate jitter
+        int capacity = (int) Math.ceil(distanceSamplingRate * (2 * JOIN_TOLERANCE + MAX_WAIT) / 1000.0 * 1.5) + 1;
+        this.distanceTimes = new long[capacity];
+        this.distances = new double[capacity];
+    }
+
+    /**
+     * Adds a motion event, which is reported once enough distance samples have been received
+     * @param timestamp time of the event in milliseconds
+     * @param type the event type, see {@link BottleEvent.TYPE}
+     * @param now the current time of the event stream, in milliseconds; this may be later than the
+     *            event timestamp for events which are only recognized after they began
+     */
+    public synchronized void addEvent(long timestamp, int type, long now) {
+        if (pendingCount == MAX_PENDING_EVENTS) {
+            int oldest = 0;
+            for (int i = 1; i < pendingCount; i++) {
+                if (pendingSince[i] < pendingSince[oldest]) oldest = i;
+            }
+            removePending(oldest);
+            droppedEvents++;
+        }
+        pendingTimes[pendingCount] = timestamp;
+        pendingSince[pendingCount] = now;
+        pendingTypes[pendingCount] = type;
+        pendingCount++;
+        resolve(now);
+    }
+
+    /**
+     * Adds a distance sample; samples must be added in time order
+     */
+    public synchronized void addDistance(long time, double meters) {
+        distanceTimes[distanceNext] = time;
+        distances[distanceNext] = meters;
+        distanceNext = (distanceNext + 1) % distanceTimes.length;
+        if (distanceCount < distanceTimes.length) distanceCount++;
+        latestDistanceTime = time;
+        resolve(Long.MIN_VALUE);
+    }
+
+    /**
+     * Advances the event stream time, reporting the events which waited longer than {@link #MAX_WAIT}
+     * @param now the current time of the event stream, in milliseconds
+     */
+    public synchronized void advanceTo(long now) {
+        resolve(now);
+    }
+
+    /**
+     * Decides the pending events whose join window has been covered by the distance stream, or
+     * which have waited too long by the given event stream time
+     */
+    private void resolve(long now) {
+        for (int i = pendingCount - 1; i >= 0; i--) {
+            boolean covered = latestDistanceTime >= pendingTimes[i] + JOIN_TOLERANCE;
+            boolean expired = now != Long.MIN_VALUE && now - pendingSince[i] >= MAX_WAIT;
+            if (!covered && !expired)
+                continue;
+            long time = pendingTimes[i];
+            int type = pendingTypes[i];
+            removePending(i);
+            double distance = meanDistance(time - JOIN_TOLERANCE, time + JOIN_TOLERANCE);
+            if (distance <= nearDistance)
+                listener.onAdherenceEvent(time, type, distance);
+        }
+    }
+
+    private void removePending(int index) {
+        pendingCount--;
+        pendingTimes[index] = pendingTimes[pendingCount];
+        pendingSince[index] = pendingSince[pendingCount];
+        pendingTypes[index] = pendingTypes[pendingCount];
+    }
+
+    /**
+     * Returns the mean distance of the samples in [from, to], or NaN if there are none
+     */
+    private double meanDistance(long from, long to) {
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < distanceCount; i++) {
+            int index = (distanceNext - 1 - i + distanceTimes.length) % distanceTimes.length;
+            long time = distanceTimes[index];
+            if (time < from)
+                break;
+            if (time <= to) {
+                sum += distances[index];
+                n++;
+            }
+        }
+        return n == 0 ? Double.NaN : sum / n;
+    }
+
+    /** Returns the number of events dropped because too many were pending */
+    public synchronized long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /** Returns the number of distance samples the join buffer holds */
+    public int getCapacity() {
+        return distanceTimes.length;
+    }
+
+    public synchronized void reset() {
+        distanceNext = 0;
+        distanceCount = 0;
+        pendingCount = 0;
+        latestDistanceTime = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,84 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Pill bottle events detected from the sensor streams, identified by {@link TYPE} constants so
+ * that they can be passed around and written to disk without allocating objects.
+ *
+ * @see BottleEventDetector
+ * @see TwistDetector
+ */
+public final class BottleEvent {
+
+    /** Event types */
+    public interface TYPE {
+        /** the bottle started moving after resting */
+        int PICKED_UP = 0;
+        /** the bottle was held tilted, e.g. while pouring pills */
+        int TILTED = 1;
+        /** the bottle came to rest again */
+        int PUT_DOWN = 2;
+        /** a trained classifier recognized taking a dose, see {@link DoseDetector} */
+        int DOSE_TAKEN = 3;
+        /** the cap was twisted counterclockwise, i.e. opened, see {@link TwistDetector} */
+        int TWIST_OPEN = 4;
+        /** the cap was twisted clockwise, i.e. closed, see {@link TwistDetector} */
+        int TWIST_CLOSE = 5;
+        int COUNT = 6;
+    }
+
+    /**
+     * Broadcast with which other applications, e.g. the SensorTag app detecting cap twists, report
+     * events to the BlueDroid sensor service, which records them like the events of its Beans. The
+     * sender must hold {@link #PERMISSION}, which only applications signed with the same key get.
+     */
+    public interface REPORT {
+        /** package of the BlueDroid application, to which the broadcast is restricted */
+        String PACKAGE = "edu.umass.cs.bluedroid";
+        String ACTION = "edu.umass.cs.bluedroid.action.report-bottle-event";
+        String PERMISSION = "edu.umass.cs.bluedroid.permission.REPORT_BOTTLE_EVENTS";
+        /** address of the sensor which detected the event (String) */
+        String EXTRA_DEVICE_ADDRESS = "edu.umass.cs.bluedroid.key.device-address";
+        /** time of the event in milliseconds (long) */
+        String EXTRA_EVENT_TIME = "edu.umass.cs.bluedroid.key.event-time";
+        /** event type, see {@link TYPE} (int) */
+        String EXTRA_EVENT_TYPE = "edu.umass.cs.bluedroid.key.event-type";
+    }
+
+    /** event names, indexed by type, as written to the event files */
+    private static final String[] NAMES = {"PICKED_UP", "TILTED", "PUT_DOWN", "DOSE_TAKEN", "TWIST_OPEN", "TWIST_CLOSE"};
+
+    /**
+     * Receives detected events
+     */
+    public interface Listener {
+        /**
+         * Called when an event is detected
+         * @param timestamp the time at which the event occurred, in milliseconds
+         * @param type the event type, see {@link TYPE}
+         */
+        void onBottleEvent(long timestamp, int type);
+    }
+
+    private BottleEvent() {
+    }
+
+    /**
+     * Returns the name of the given event type, see {@link TYPE}
+     */
+    public static String getName(int type) {
+        if (type < 0 || type >= NAMES.length)
+            return "UNKNOWN";
+        return NAMES[type];
+    }
+
+    /**
+     * Returns the event type with the given name, or -1 if there is none
+     */
+    public static int fromName(String name) {
+        for (int type = 0; type < NAMES.length; type++) {
+            if (NAMES[type].equals(name))
+                return type;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,225 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Streaming detector for pill bottle handling, fed one accelerometer sample at a time. It keeps
+ * only fixed-size sliding windows of per-sample features, never the session itself, and reports
+ * {@link BottleEvent.TYPE#PICKED_UP}, {@link BottleEvent.TYPE#TILTED} and
+ * {@link BottleEvent.TYPE#PUT_DOWN} events to a {@link BottleEvent.Listener}.
+ *
+ * The features are
+ * <ul>
+ *     <li>dynamic acceleration, i.e. the deviation of the acceleration magnitude from 1 g,</li>
+ *     <li>jerk, i.e. the magnitude of the change in acceleration per second, and</li>
+ *     <li>orientation change, i.e. the angle between the current gravity direction (estimated by
+ *     low-pass filtering the acceleration) and the gravity direction while the bottle last rested.</li>
+ * </ul>
+ * The first two are averaged over a sliding window; the bottle is considered moving when either
+ * average exceeds its threshold and still when both stay below a lower threshold.
+ *
+ * Events are detected by a small state machine: a resting bottle which starts moving is picked
+ * up; a moving bottle whose orientation stays far from its resting orientation is tilted; and a
+ * moving or tilted bottle which stays still for long enough is put down, which also establishes
+ * the new resting orientation. No events are reported until the bottle has first been still.
+ *
+ * This class is not thread-safe; samples must be passed in from a single thread.
+ */
+public class BottleEventDetector {
+
+    /** length of the sliding feature windows, in milliseconds */
+    public static final long WINDOW_MILLIS = 500;
+
+    /** mean dynamic acceleration (g) above which the bottle is considered moving */
+    public static final double MOTION_THRESHOLD = 0.05;
+
+    /** mean jerk (g/s) above which the bottle is considered moving */
+    public static final double JERK_THRESHOLD = 3.0;
+
+    /** mean dynamic acceleration (g) below which the bottle is considered still */
+    public static final double STILL_THRESHOLD = 0.02;
+
+    /** mean jerk (g/s) below which the bottle is considered still */
+    public static final double STILL_JERK_THRESHOLD = 0.75;
+
+    /** angle (degrees) from the resting orientation above which the bottle is considered tilted */
+    public static final double TILT_THRESHOLD = 60;
+
+    /** the tilt ends once the angle falls below {@link #TILT_THRESHOLD} minus this many degrees */
+    public static final double TILT_HYSTERESIS = 15;
+
+    /** how long the bottle must stay tilted before a tilt event is reported, in milliseconds */
+    public static final long TILT_DURATION = 300;
+
+    /** how long the bottle must stay still before it is considered put down, in milliseconds */
+    public static final long STILL_DURATION = 1000;
+
+    /** time constant of the low-pass filter estimating the gravity direction, in milliseconds */
+    public static final double GRAVITY_TIME_CONSTANT = 250;
+
+    private interface STATE {
+        /** no resting orientation known yet */
+        int UNKNOWN = 0;
+        int RESTING = 1;
+        int MOVING = 2;
+        int TILTED = 3;
+    }
+
+    private final BottleEvent.Listener listener;
+
+    /** sliding windows of the dynamic acceleration and jerk of recent samples */
+    private final SlidingWindow dynamicWindow, jerkWindow;
+
+    private int state = STATE.UNKNOWN;
+
+    private boolean hasPrevious = false;
+    private long previousTime;
+    private double previousX, previousY, previousZ;
+
+    /** low-pass filtered acceleration, i.e. the estimated gravity vector */
+    private double gravityX, gravityY, gravityZ;
+
+    /** unit gravity vector while the bottle last rested */
+    private double restX, restY, restZ;
+
+    /** start of the current still/tilted period, or -1 if the bottle is not currently still/tilted */
+    private long stillSince = -1, tiltedSince = -1;
+
+    /**
+     * @param samplingRate the accelerometer sampling rate in Hz, used to size the sliding windows
+     * @param listener receives the detected events
+     */
+    public BottleEventDetector(int samplingRate, BottleEvent.Listener listener) {
+        this.listener = listener;
+        int windowSize = (int) Math.max(2, Math.round(samplingRate * WINDOW_MILLIS / 1000.0));
+        this.dynamicWindow = new SlidingWindow(windowSize);
+        this.jerkWindow = new SlidingWindow(windowSize);
+    }
+
+    /**
+     * Processes an accelerometer sample
+     * @param time timestamp in milliseconds
+     * @param x acceleration along the x axis in g
+     * @param y acceleration along the y axis in g
+     * @param z acceleration along the z axis in g
+     */
+    public void addSample(long time, double x, double y, double z) {
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        double dynamic = Math.abs(magnitude - 1.0);
+
+        double jerk = 0;
+        if (hasPrevious) {
+            long dt = time - previousTime;
+            if (dt > 0) {
+                double dx = x - previousX, dy = y - previousY, dz = z - previousZ;
+                jerk = Math.sqrt(dx * dx + dy * dy + dz * dz) * 1000.0 / dt;
+            }
+            double alpha = dt <= 0 ? 0 : dt / (GRAVITY_TIME_CONSTANT + dt);
+            gravityX += alpha * (x - gravityX);
+            gravityY += alpha * (y - gravityY);
+            gravityZ += alpha * (z - gravityZ);
+        } else {
+            gravityX = x;
+            gravityY = y;
+            gravityZ = z;
+            hasPrevious = true;
+        }
+        previousTime = time;
+        previousX = x;
+        previousY = y;
+        previousZ = z;
+
+        dynamicWindow.add(dynamic);
+        jerkWindow.add(jerk);
+        if (!dynamicWindow.isFull())
+            return;
+
+        double meanDynamic = dynamicWindow.getMean();
+        double meanJerk = jerkWindow.getMean();
+        boolean moving = meanDynamic > MOTION_THRESHOLD || meanJerk > JERK_THRESHOLD;
+        boolean still = meanDynamic < STILL_THRESHOLD && meanJerk < STILL_JERK_THRESHOLD;
+        if (still) {
+            if (stillSince < 0) stillSince = time;
+        } else {
+            stillSince = -1;
+        }
+        boolean settled = still && time - stillSince >= STILL_DURATION;
+
+        switch (state) {
+            case STATE.UNKNOWN:
+                if (settled) {
+                    setRestingOrientation();
+                    state = STATE.RESTING;
+                }
+                break;
+            case STATE.RESTING:
+                if (moving) {
+                    state = STATE.MOVING;
+                    tiltedSince = -1;
+                    listener.onBottleEvent(time, BottleEvent.TYPE.PICKED_UP);
+                } else if (settled) {
+                    // follow slow drift of the resting orientation
+                    setRestingOrientation();
+                }
+                break;
+            case STATE.MOVING:
+                if (settled) {
+                    putDown();
+                } else if (getTiltAngle() > TILT_THRESHOLD) {
+                    if (tiltedSince < 0) tiltedSince = time;
+                    if (time - tiltedSince >= TILT_DURATION) {
+                        state = STATE.TILTED;
+                        listener.onBottleEvent(tiltedSince, BottleEvent.TYPE.TILTED);
+                    }
+                } else {
+                    tiltedSince = -1;
+                }
+                break;
+            case STATE.TILTED:
+                if (settled) {
+                    putDown();
+                } else if (getTiltAngle() < TILT_THRESHOLD - TILT_HYSTERESIS) {
+                    state = STATE.MOVING;
+                    tiltedSince = -1;
+                }
+                break;
+        }
+    }
+
+    /** Returns true while the bottle is picked up, i.e. between pick-up and put-down */
+    public boolean isHandled() {
+        return state == STATE.MOVING || state == STATE.TILTED;
+    }
+
+    private void putDown() {
+        setRestingOrientation();
+        state = STATE.RESTING;
+        listener.onBottleEvent(stillSince, BottleEvent.TYPE.PUT_DOWN);
+    }
+
+    private void setRestingOrientation() {
+        double norm = Math.sqrt(gravityX * gravityX + gravityY * gravityY + gravityZ * gravityZ);
+        if (norm == 0) return;
+        restX = gravityX / norm;
+        restY = gravityY / norm;
+        restZ = gravityZ / norm;
+    }
+
+    /**
+     * Returns the angle in degrees between the current gravity direction and the resting orientation
+     */
+    private double getTiltAngle() {
+        double norm = Math.sqrt(gravityX * gravityX + gravityY * gravityY + gravityZ * gravityZ);
+        if (norm == 0) return 0;
+        double cos = (gravityX * restX + gravityY * restY + gravityZ * restZ) / norm;
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cos))));
+    }
+
+    /** Forgets all state, e.g. after the sensor reconnects */
+    public void reset() {
+        state = STATE.UNKNOWN;
+        hasPrevious = false;
+        dynamicWindow.clear();
+        jerkWindow.clear();
+        stillSince = -1;
+        tiltedSince = -1;
+    }
+}
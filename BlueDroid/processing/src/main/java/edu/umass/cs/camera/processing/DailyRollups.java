@@ -0,0 +1,275 @@
+package edu.umass.cs.camera.processing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Per-device, per-day adherence aggregates, updated incrementally as samples and events arrive,
+ * so that summaries such as "how many doses this week" take time proportional to the number of
+ * days instead of re-reading the raw sensor files. For each device and local calendar day the
+ * rollups hold
+ * <ul>
+ *     <li>the number of events of each {@link BottleEvent.TYPE} and of adherence events,</li>
+ *     <li>the times of the first and last event,</li>
+ *     <li>the number of distinct minutes during which the bottle was handled, and</li>
+ *     <li>the number and total duration of gaps in the sensor data longer than {@link #GAP_THRESHOLD}.</li>
+ * </ul>
+ * The rollups are persisted in a compact binary file (see {@link #save(File)}) of 64 bytes per
+ * device and day, plus the address of each device.
+ *
+ * All methods are synchronized, since samples and events arrive on different threads.
+ */
+public class DailyRollups {
+
+    /** gaps between consecutive samples longer than this many milliseconds count as data gaps */
+    public static final long GAP_THRESHOLD = 5000;
+
+    private static final int MAGIC = 0x524f4c4c; // "ROLL"
+    private static final int VERSION = 1;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    /** Aggregates of one device on one day */
+    public static class Day {
+        /** days since the epoch in local time */
+        public final int day;
+        public final int[] eventCounts = new int[BottleEvent.TYPE.COUNT];
+        public int adherenceEvents;
+        /** time of the first and last event in milliseconds, or 0 if there were none */
+        public long firstEvent, lastEvent;
+        public int activeMinutes;
+        public int gaps;
+        public long gapMillis;
+
+        Day(int day) {
+            this.day = day;
+        }
+
+        private void addEvent(long time) {
+            if (firstEvent == 0 || time < firstEvent) firstEvent = time;
+            if (time > lastEvent) lastEvent = time;
+        }
+    }
+
+    /**
+     * Accumulates the rollups of one device. Obtain one per device with {@link #getDevice(String)}
+     * and keep it, so that the per-sample path does not look up the device.
+     */
+    public class Device {
+        private final TreeMap<Integer, Day> days = new TreeMap<>();
+
+        /** the day of the latest sample, cached to avoid a map lookup per sample */
+        private Day current;
+
+        private long lastSampleTime = 0;
+        private long lastActiveMinute = -1;
+
+        /**
+         * Adds a sensor sample, updating the active minutes and data gaps
+         * @param time timestamp in milliseconds
+         * @param handled whether the bottle is currently handled, see {@link BottleEventDetector#isHandled()}
+         */
+        public void addSample(long time, boolean handled) {
+            synchronized (DailyRollups.this) {
+                int dayIndex = toDay(time);
+                if (current == null || current.day != dayIndex)
+                    current = getDay(dayIndex);
+                if (lastSampleTime > 0 && time - lastSampleTime > GAP_THRESHOLD) {
+                    current.gaps++;
+                    current.gapMillis += time - lastSampleTime;
+                    dirty = true;
+                }
+                lastSampleTime = time;
+                long minute = time / MILLIS_PER_MINUTE;
+                if (handled && minute != lastActiveMinute) {
+                    lastActiveMinute = minute;
+                    current.activeMinutes++;
+                    dirty = true;
+                }
+            }
+        }
+
+        /**
+         * Adds a detected event
+         * @param time time of the event in milliseconds
+         * @param type event type, see {@link BottleEvent.TYPE}
+         */
+        public void addEvent(long time, int type) {
+            synchronized (DailyRollups.this) {
+                Day day = getDay(toDay(time));
+                if (type >= 0 && type < BottleEvent.TYPE.COUNT)
+                    day.eventCounts[type]++;
+                day.addEvent(time);
+                dirty = true;
+            }
+        }
+
+        /**
+         * Adds an adherence event, see {@link AdherenceFusion}
+         * @param time time of the event in milliseconds
+         */
+        public void addAdherenceEvent(long time) {
+            synchronized (DailyRollups.this) {
+                Day day = getDay(toDay(time));
+                day.adherenceEvents++;
+                day.addEvent(time);
+                dirty = true;
+            }
+        }
+
+        private Day getDay(int dayIndex) {
+            Day day = days.get(dayIndex);
+            if (day == null) {
+                day = new Day(dayIndex);
+                days.put(dayIndex, day);
+            }
+            return day;
+        }
+    }
+
+    private final Map<String, Device> devices = new HashMap<>();
+
+    private final TimeZone timeZone;
+
+    /** whether anything changed since the rollups were last loaded or saved */
+    private boolean dirty = false;
+
+    /**
+     * @param timeZone the time zone defining the calendar days
+     */
+    public DailyRollups(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Returns the index of the local calendar day containing the given time, i.e. the number of
+     * days since the epoch in local time
+     */
+    public int toDay(long time) {
+        return (int) ((time + timeZone.getOffset(time)) / MILLIS_PER_DAY);
+    }
+
+    /**
+     * Returns the rollups of the given device, creating them if necessary
+     */
+    public synchronized Device getDevice(String address) {
+        Device device = devices.get(address);
+        if (device == null) {
+            device = new Device();
+            devices.put(address, device);
+        }
+        return device;
+    }
+
+    public synchronized String[] getDevices() {
+        return devices.keySet().toArray(new String[devices.size()]);
+    }
+
+    /**
+     * Returns copies of the rollups of the given device for the days in [fromDay, toDay], in
+     * order; days without any data are omitted
+     */
+    public synchronized List<Day> getDays(String address, int fromDay, int toDay) {
+        List<Day> result = new ArrayList<>();
+        Device device = devices.get(address);
+        if (device == null || fromDay > toDay)
+            return result;
+        for (Day day : device.days.subMap(fromDay, true, toDay, true).values()) {
+            Day copy = new Day(day.day);
+            System.arraycopy(day.eventCounts, 0, copy.eventCounts, 0, day.eventCounts.length);
+            copy.adherenceEvents = day.adherenceEvents;
+            copy.firstEvent = day.firstEvent;
+            copy.lastEvent = day.lastEvent;
+            copy.activeMinutes = day.activeMinutes;
+            copy.gaps = day.gaps;
+            copy.gapMillis = day.gapMillis;
+            result.add(copy);
+        }
+        return result;
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the rollups to the given file, replacing it atomically
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BottleEvent.TYPE.COUNT);
+            out.writeInt(devices.size());
+            for (Map.Entry<String, Device> entry : devices.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().days.size());
+                for (Day day : entry.getValue().days.values()) {
+                    out.writeInt(day.day);
+                    for (int count : day.eventCounts)
+                        out.writeInt(count);
+                    out.writeInt(day.adherenceEvents);
+                    out.writeLong(day.firstEvent);
+                    out.writeLong(day.lastEvent);
+                    out.writeInt(day.activeMinutes);
+                    out.writeInt(day.gaps);
+                    out.writeLong(day.gapMillis);
+                }
+            }
+        }
+        if (!temporary.renameTo(file))
+            throw new IOException("could not replace " + file);
+        dirty = false;
+    }
+
+    /**
+     * Replaces the rollups held in memory by those in the given file, if it exists
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public synchronized void load(File file) throws IOException {
+        devices.clear();
+        dirty = false;
+        if (!file.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not a rollup file: " + file);
+            int types = in.readInt();
+            int deviceCount = in.readInt();
+            for (int d = 0; d < deviceCount; d++) {
+                Device device = getDevice(in.readUTF());
+                int dayCount = in.readInt();
+                for (int i = 0; i < dayCount; i++) {
+                    Day day = device.getDay(in.readInt());
+                    for (int type = 0; type < types; type++) {
+                        int count = in.readInt();
+                        // event types added in later versions are dropped
+                        if (type < BottleEvent.TYPE.COUNT)
+                            day.eventCounts[type] = count;
+                    }
+                    day.adherenceEvents = in.readInt();
+                    day.firstEvent = in.readLong();
+                    day.lastEvent = in.readLong();
+                    day.activeMinutes = in.readInt();
+                    day.gaps = in.readInt();
+                    day.gapMillis = in.readLong();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package edu.umass.cs.camera.processing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Logistic regression model classifying a window of sensor data as "dose taken" from the
+ * features computed by {@link WindowFeatures}. Models are trained offline and loaded from a
+ * small text file, one directive per line; blank lines and lines starting with '#' are ignored:
+ * <pre>
+ * # dose classifier trained on 12 sessions
+ * model logistic
+ * window 2000        # window length in milliseconds
+ * hop 500            # time between classified windows in milliseconds
+ * threshold 0.5      # probability at or above which a window is positive
+ * bias -3.1
+ * feature acc_std 2.4 0.05 0.04    # name, weight and optionally the mean and standard
+ * feature rssi_change -0.8         # deviation used to standardize the feature in training
+ * </pre>
+ * Features which are not listed have weight 0. Standardization is folded into the weights when
+ * the model is loaded, so {@link #predict(double[])} is a single dot product and does not allocate.
+ */
+public class DoseClassifier {
+
+    /** the only model type supported so far */
+    public static final String TYPE_LOGISTIC = "logistic";
+
+    private final long windowMillis, hopMillis;
+
+    private final double threshold;
+
+    /** indices of the features used by the model, see {@link WindowFeatures.FEATURE} */
+    private final int[] features;
+
+    /** weights of the unstandardized features, parallel to {@link #features} */
+    private final double[] weights;
+
+    private final double bias;
+
+    /**
+     * @param windowMillis window length in milliseconds
+     * @param hopMillis time between classified windows in milliseconds
+     * @param threshold probability at or above which a window is positive
+     * @param features indices of the features used, see {@link WindowFeatures.FEATURE}
+     * @param weights weights of the unstandardized features
+     * @param bias intercept
+     */
+    public DoseClassifier(long windowMillis, long hopMillis, double threshold, int[] features, double[] weights, double bias) {
+        if (windowMillis <= 0 || hopMillis <= 0)
+            throw new IllegalArgumentException("window and hop must be positive");
+        if (features.length != weights.length)
+            throw new IllegalArgumentException("expected one weight per feature");
+        this.windowMillis = windowMillis;
+        this.hopMillis = hopMillis;
+        this.threshold = threshold;
+        this.features = features.clone();
+        this.weights = weights.clone();
+        this.bias = bias;
+    }
+
+    /**
+     * Loads a model file in the format described above
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static DoseClassifier load(File file) throws IOException {
+        try (Reader reader = new FileReader(file)) {
+            return load(reader);
+        } catch (IOException e) {
+            throw new IOException(file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a model in the format described above
+     * @throws IOException if the model cannot be read or is malformed
+     */
+    public static DoseClassifier load(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        String type = null;
+        long windowMillis = 0, hopMillis = 0;
+        double threshold = 0.5, bias = 0;
+        int[] features = new int[WindowFeatures.FEATURE.COUNT];
+        double[] weights = new double[WindowFeatures.FEATURE.COUNT];
+        int count = 0;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            String[] tokens = line.split("\\s+");
+            try {
+                switch (tokens[0]) {
+                    case "model":
+                        type = tokens[1];
+                        if (!TYPE_LOGISTIC.equals(type))
+                            throw new IOException("line " + lineNumber + ": unsupported model type " + type);
+                        break;
+                    case "window":
+                        windowMillis = Long.parseLong(tokens[1]);
+                        break;
+                    case "hop":
+                        hopMillis = Long.parseLong(tokens[1]);
+                        break;
+                    case "threshold":
+                        threshold = Double.parseDouble(tokens[1]);
+                        break;
+                    case "bias":
+                        bias += Double.parseDouble(tokens[1]);
+                        break;
+                    case "feature":
+                        int feature = WindowFeatures.fromName(tokens[1]);
+                        if (feature < 0)
+                            throw new IOException("line " + lineNumber + ": unknown feature " + tokens[1]);
+                        double weight = Double.parseDouble(tokens[2]);
+                        if (tokens.length >= 5) {
+                            // fold the standardization (x - mean) / std into the weight and bias
+                            double mean = Double.parseDouble(tokens[3]);
+                            double std = Double.parseDouble(tokens[4]);
+                            if (std <= 0)
+                                throw new IOException("line " + lineNumber + ": standard deviation must be positive");
+                            weight /= std;
+                            bias -= weight * mean;
+                        }
+                        for (int i = 0; i < count; i++) {
+                            if (features[i] == feature)
+                                throw new IOException("line " + lineNumber + ": duplicate feature " + tokens[1]);
+                        }
+                        features[count] = feature;
+                        weights[count] = weight;
+                        count++;
+                        break;
+                    default:
+                        throw new IOException("line " + lineNumber + ": unknown directive " + tokens[0]);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("line " + lineNumber + ": malformed directive: " + line);
+            }
+        }
+        if (type == null)
+            throw new IOException("missing model type");
+        if (windowMillis <= 0 || hopMillis <= 0)
+            throw new IOException("window and hop must be given and positive");
+        return new DoseClassifier(windowMillis, hopMillis, threshold,
+                Arrays.copyOf(features, count), Arrays.copyOf(weights, count), bias);
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getHopMillis() {
+        return hopMillis;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /** Returns true if the model uses any of the RSSI features */
+    public boolean usesRssi() {
+        for (int feature : features) {
+            if (feature >= WindowFeatures.FEATURE.RSSI_MEAN)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the probability that the window with the given features, indexed by
+     * {@link WindowFeatures.FEATURE}, is positive, or NaN if a feature used is missing
+     */
+    public double predict(double[] values) {
+        double z = bias;
+        for (int i = 0; i < features.length; i++)
+            z += weights[i] * values[features[i]];
+        return 1 / (1 + Math.exp(-z));
+    }
+
+    /**
+     * Returns true if the window with the given features is classified as positive
+     */
+    public boolean classify(double[] values) {
+        return predict(values) >= threshold;
+    }
+}
@@ -0,0 +1,109 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Runs a {@link DoseClassifier} over the accelerometer and RSSI streams of one device. The
+ * features of the most recent window are classified once per hop of accelerometer samples, and
+ * a {@link BottleEvent.TYPE#DOSE_TAKEN} event is reported whenever a positive window follows a
+ * negative one, so that one dose spanning several overlapping windows is reported once.
+ *
+ * The window and hop lengths of the model are converted to sample counts using the nominal
+ * sampling rates. Classifying a window does not allocate.
+ *
+ * This class is not thread-safe; samples must be passed in from a single thread.
+ */
+public class DoseDetector {
+
+    private final DoseClassifier classifier;
+
+    private final BottleEvent.Listener listener;
+
+    private final WindowFeatures windowFeatures;
+
+    private final double[] features = new double[WindowFeatures.FEATURE.COUNT];
+
+    /** number of accelerometer samples between classified windows */
+    private final int hopSize;
+
+    private int samplesSinceLastWindow = 0;
+
+    private boolean positive = false;
+
+    private double lastProbability = Double.NaN;
+
+    private long lastInferenceNanos = 0;
+
+    /**
+     * @param classifier the trained model
+     * @param accelerometerSamplingRate nominal accelerometer sampling rate in Hz
+     * @param rssiSamplingRate nominal RSSI sampling rate in Hz
+     * @param listener receives the detected doses
+     */
+    public DoseDetector(DoseClassifier classifier, double accelerometerSamplingRate, double rssiSamplingRate,
+                        BottleEvent.Listener listener) {
+        this.classifier = classifier;
+        this.listener = listener;
+        int accelerometerWindowSize = samples(classifier.getWindowMillis(), accelerometerSamplingRate);
+        int rssiWindowSize = samples(classifier.getWindowMillis(), rssiSamplingRate);
+        this.windowFeatures = new WindowFeatures(accelerometerWindowSize, rssiWindowSize);
+        this.hopSize = samples(classifier.getHopMillis(), accelerometerSamplingRate);
+    }
+
+    private static int samples(long millis, double samplingRate) {
+        return (int) Math.max(1, Math.round(millis * samplingRate / 1000.0));
+    }
+
+    public void addRssi(long time, double rssi) {
+        windowFeatures.addRssi(rssi);
+    }
+
+    /**
+     * Adds an accelerometer sample, classifying the current window if a hop has elapsed
+     * @return true if a window was classified
+     */
+    public boolean addAcceleration(long time, double x, double y, double z) {
+        windowFeatures.addAcceleration(x, y, z);
+        if (++samplesSinceLastWindow < hopSize || !windowFeatures.isReady())
+            return false;
+        samplesSinceLastWindow = 0;
+
+        long start = System.nanoTime();
+        windowFeatures.extract(features);
+        double probability = classifier.predict(features);
+        lastInferenceNanos = System.nanoTime() - start;
+        lastProbability = probability;
+
+        if (Double.isNaN(probability))
+            return true;
+        boolean wasPositive = positive;
+        positive = probability >= classifier.getThreshold();
+        if (positive && !wasPositive)
+            listener.onBottleEvent(time, BottleEvent.TYPE.DOSE_TAKEN);
+        return true;
+    }
+
+    /** Returns true if the last classified window was positive */
+    public boolean isPositive() {
+        return positive;
+    }
+
+    /** Returns the probability of the last classified window, NaN if there is none or features were missing */
+    public double getLastProbability() {
+        return lastProbability;
+    }
+
+    /** Returns the time taken to extract the features of and classify the last window, in nanoseconds */
+    public long getLastInferenceNanos() {
+        return lastInferenceNanos;
+    }
+
+    public DoseClassifier getClassifier() {
+        return classifier;
+    }
+
+    public void reset() {
+        windowFeatures.reset();
+        samplesSinceLastWindow = 0;
+        positive = false;
+        lastProbability = Double.NaN;
+    }
+}
@@ -0,0 +1,204 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Streaming attitude and heading reference system (AHRS) estimating the orientation of a sensor
+ * from its gyroscope, accelerometer and magnetometer using Madgwick's gradient descent filter:
+ * the orientation quaternion is integrated from the angular rate and corrected, at a rate set by
+ * {@link #getBeta()}, toward the orientation in which the measured gravity and magnetic field
+ * directions match their references. Without magnetometer data, only the inclination is
+ * corrected and the heading drifts with the gyroscope bias.
+ *
+ * The quaternion q = (q0, q1, q2, q3) rotates vectors from the sensor frame to the earth frame,
+ * whose z axis points up. The state is four doubles and no method allocates, so the filter can
+ * run at the notification rate on the Bluetooth callback thread.
+ *
+ * This class is not thread-safe.
+ *
+ * @see <a href="http://x-io.co.uk/open-source-imu-and-ahrs-algorithms/">Madgwick's IMU and AHRS algorithms</a>
+ */
+public class MadgwickAhrs {
+
+    /** default filter gain, trading gyroscope drift against accelerometer noise */
+    public static final double DEFAULT_BETA = 0.1;
+
+    private final double beta;
+
+    private double q0 = 1, q1 = 0, q2 = 0, q3 = 0;
+
+    /**
+     * @param beta filter gain, i.e. the rate of convergence toward the accelerometer and
+     *             magnetometer orientation, in radians per second
+     */
+    public MadgwickAhrs(double beta) {
+        this.beta = beta;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    /**
+     * Updates the orientation with one 9-axis sample. Accelerometer and magnetometer values may
+     * be in any unit, since only their directions are used; if the magnetometer reading is zero,
+     * this is the same as {@link #update(double, double, double, double, double, double, double)}.
+     * @param gx angular rate about the x axis in radians per second, likewise gy and gz
+     * @param ax acceleration along the x axis, likewise ay and az
+     * @param mx magnetic field along the x axis, likewise my and mz
+     * @param dt time since the previous sample in seconds
+     */
+    public void update(double gx, double gy, double gz, double ax, double ay, double az,
+                       double mx, double my, double mz, double dt) {
+        if (mx == 0 && my == 0 && mz == 0) {
+            update(gx, gy, gz, ax, ay, az, dt);
+            return;
+        }
+
+        // rate of change of the quaternion from the gyroscope
+        double qDot1 = 0.5 * (-q1 * gx - q2 * gy - q3 * gz);
+        double qDot2 = 0.5 * (q0 * gx + q2 * gz - q3 * gy);
+        double qDot3 = 0.5 * (q0 * gy - q1 * gz + q3 * gx);
+        double qDot4 = 0.5 * (q0 * gz + q1 * gy - q2 * gx);
+
+        double aNorm = Math.sqrt(ax * ax + ay * ay + az * az);
+        if (aNorm > 0) {
+            ax /= aNorm;
+            ay /= aNorm;
+            az /= aNorm;
+            double mNorm = Math.sqrt(mx * mx + my * my + mz * mz);
+            mx /= mNorm;
+            my /= mNorm;
+            mz /= mNorm;
+
+            double _2q0mx = 2 * q0 * mx, _2q0my = 2 * q0 * my, _2q0mz = 2 * q0 * mz, _2q1mx = 2 * q1 * mx;
+            double _2q0 = 2 * q0, _2q1 = 2 * q1, _2q2 = 2 * q2, _2q3 = 2 * q3;
+            double _2q0q2 = 2 * q0 * q2, _2q2q3 = 2 * q2 * q3;
+            double q0q0 = q0 * q0, q0q1 = q0 * q1, q0q2 = q0 * q2, q0q3 = q0 * q3;
+            double q1q1 = q1 * q1, q1q2 = q1 * q2, q1q3 = q1 * q3;
+            double q2q2 = q2 * q2, q2q3 = q2 * q3, q3q3 = q3 * q3;
+
+            // reference direction of the earth's magnetic field
+            double hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3 - mx * q2q2 - mx * q3q3;
+            double hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2 + _2q2 * mz * q3 - my * q3q3;
+            double _2bx = Math.sqrt(hx * hx + hy * hy);
+            double _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3 - mz * q2q2 + mz * q3q3;
+            double _4bx = 2 * _2bx, _4bz = 2 * _2bz;
+
+            // gradient descent corrective step
+            double s0 = -_2q2 * (2 * q1q3 - _2q0q2 - ax) + _2q1 * (2 * q0q1 + _2q2q3 - ay)
+                    - _2bz * q2 * (_2bx * (0.5 - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (-_2bx * q3 + _2bz * q1) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + _2bx * q2 * (_2bx * (q0q2 + q1q3) + _2bz * (0.5 - q1q1 - q2q2) - mz);
+            double s1 = _2q3 * (2 * q1q3 - _2q0q2 - ax) + _2q0 * (2 * q0q1 + _2q2q3 - ay)
+                    - 4 * q1 * (1 - 2 * q1q1 - 2 * q2q2 - az)
+                    + _2bz * q3 * (_2bx * (0.5 - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (_2bx * q2 + _2bz * q0) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + (_2bx * q3 - _4bz * q1) * (_2bx * (q0q2 + q1q3) + _2bz * (0.5 - q1q1 - q2q2) - mz);
+            double s2 = -_2q0 * (2 * q1q3 - _2q0q2 - ax) + _2q3 * (2 * q0q1 + _2q2q3 - ay)
+                    - 4 * q2 * (1 - 2 * q1q1 - 2 * q2q2 - az)
+                    + (-_4bx * q2 - _2bz * q0) * (_2bx * (0.5 - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (_2bx * q1 + _2bz * q3) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + (_2bx * q0 - _4bz * q2) * (_2bx * (q0q2 + q1q3) + _2bz * (0.5 - q1q1 - q2q2) - mz);
+            double s3 = _2q1 * (2 * q1q3 - _2q0q2 - ax) + _2q2 * (2 * q0q1 + _2q2q3 - ay)
+                    + (-_4bx * q3 + _2bz * q1) * (_2bx * (0.5 - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (-_2bx * q0 + _2bz * q2) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + _2bx * q1 * (_2bx * (q0q2 + q1q3) + _2bz * (0.5 - q1q1 - q2q2) - mz);
+            double sNorm = Math.sqrt(s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3);
+            if (sNorm > 0) {
+                qDot1 -= beta * s0 / sNorm;
+                qDot2 -= beta * s1 / sNorm;
+                qDot3 -= beta * s2 / sNorm;
+                qDot4 -= beta * s3 / sNorm;
+            }
+        }
+
+        integrate(qDot1, qDot2, qDot3, qDot4, dt);
+    }
+
+    /**
+     * Updates the orientation with one 6-axis sample, without a magnetometer
+     * @param gx angular rate about the x axis in radians per second, likewise gy and gz
+     * @param ax acceleration along the x axis in any unit, likewise ay and az
+     * @param dt time since the previous sample in seconds
+     */
+    public void update(double gx, double gy, double gz, double ax, double ay, double az, double dt) {
+        double qDot1 = 0.5 * (-q1 * gx - q2 * gy - q3 * gz);
+        double qDot2 = 0.5 * (q0 * gx + q2 * gz - q3 * gy);
+        double qDot3 = 0.5 * (q0 * gy - q1 * gz + q3 * gx);
+        double qDot4 = 0.5 * (q0 * gz + q1 * gy - q2 * gx);
+
+        double aNorm = Math.sqrt(ax * ax + ay * ay + az * az);
+        if (aNorm > 0) {
+            ax /= aNorm;
+            ay /= aNorm;
+            az /= aNorm;
+
+            double _2q0 = 2 * q0, _2q1 = 2 * q1, _2q2 = 2 * q2, _2q3 = 2 * q3;
+            double _4q0 = 4 * q0, _4q1 = 4 * q1, _4q2 = 4 * q2;
+            double _8q1 = 8 * q1, _8q2 = 8 * q2;
+            double q0q0 = q0 * q0, q1q1 = q1 * q1, q2q2 = q2 * q2, q3q3 = q3 * q3;
+
+            double s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+            double s1 = _4q1 * q3q3 - _2q3 * ax + 4 * q0q0 * q1 - _2q0 * ay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+            double s2 = 4 * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+            double s3 = 4 * q1q1 * q3 - _2q1 * ax + 4 * q2q2 * q3 - _2q2 * ay;
+            double sNorm = Math.sqrt(s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3);
+            if (sNorm > 0) {
+                qDot1 -= beta * s0 / sNorm;
+                qDot2 -= beta * s1 / sNorm;
+                qDot3 -= beta * s2 / sNorm;
+                qDot4 -= beta * s3 / sNorm;
+            }
+        }
+
+        integrate(qDot1, qDot2, qDot3, qDot4, dt);
+    }
+
+    private void integrate(double qDot1, double qDot2, double qDot3, double qDot4, double dt) {
+        q0 += qDot1 * dt;
+        q1 += qDot2 * dt;
+        q2 += qDot3 * dt;
+        q3 += qDot4 * dt;
+        double norm = Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 /= norm;
+        q1 /= norm;
+        q2 /= norm;
+        q3 /= norm;
+    }
+
+    /**
+     * Copies the orientation quaternion (q0, q1, q2, q3) into the given length-4 array
+     */
+    public void getQuaternion(double[] out) {
+        out[0] = q0;
+        out[1] = q1;
+        out[2] = q2;
+        out[3] = q3;
+    }
+
+    /**
+     * Copies the orientation as roll, pitch and yaw angles in degrees into the given length-3 array
+     */
+    public void getEulerAngles(double[] out) {
+        out[0] = Math.toDegrees(Math.atan2(2 * (q0 * q1 + q2 * q3), 1 - 2 * (q1 * q1 + q2 * q2)));
+        out[1] = Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, 2 * (q0 * q2 - q3 * q1)))));
+        out[2] = Math.toDegrees(Math.atan2(2 * (q0 * q3 + q1 * q2), 1 - 2 * (q2 * q2 + q3 * q3)));
+    }
+
+    /**
+     * Returns the tilt in degrees, i.e. the angle between the sensor's z axis and the vertical,
+     * which is 0 for a bottle standing upright with the sensor z axis up and 180 upside down
+     */
+    public double getTiltAngle() {
+        // z component of the sensor z axis rotated into the earth frame
+        double zz = 1 - 2 * (q1 * q1 + q2 * q2);
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, zz))));
+    }
+
+    /**
+     * Sets the orientation to the identity, so that it converges anew
+     */
+    public void reset() {
+        q0 = 1;
+        q1 = q2 = q3 = 0;
+    }
+}
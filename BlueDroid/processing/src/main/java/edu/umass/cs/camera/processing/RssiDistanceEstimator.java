@@ -0,0 +1,144 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Streaming estimate of the distance between the phone and a Bean from its signal strength.
+ *
+ * The RSSI, after spikes and dropouts have been removed by an {@link RssiFilter}, is smoothed by
+ * a one-dimensional Kalman filter (random walk model, which allows for irregular sampling
+ * intervals) and converted to meters with the log-distance path loss model
+ * <pre>
+ *     d = 10 ^ ((referenceRssi - rssi) / (10 * pathLossExponent))
+ * </pre>
+ * where the reference RSSI is the signal strength measured at 1 m. With a path loss exponent of 2
+ * and the reference RSSI given by {@link #freeSpaceReferenceRssi(double)}, this is the free-space
+ * path loss conversion used in {@code analysis/read_data.py}. Filtering is done on the RSSI rather
+ * than on the distance because the measurement noise is roughly Gaussian in dB.
+ *
+ * The reference RSSI can be calibrated per device by placing the phone 1 m from the Bean and
+ * calling {@link #startCalibration(int)}; the mean of the next filtered samples becomes the new
+ * reference, so it is fitted to the same readings it is later applied to.
+ */
+public class RssiDistanceEstimator {
+
+    /** default Bluetooth LE channel frequency in MHz, as assumed in {@code analysis/read_data.py} */
+    public static final double DEFAULT_FREQUENCY_MHZ = 2462;
+
+    /** free-space path loss exponent */
+    public static final double FREE_SPACE_PATH_LOSS_EXPONENT = 2.0;
+
+    /** variance of the RSSI measurement noise, in dB^2 */
+    public static final double MEASUREMENT_VARIANCE = 36.0;
+
+    /** variance added to the RSSI estimate per second, in dB^2/s, i.e. how quickly the true signal may change */
+    public static final double PROCESS_VARIANCE_PER_SECOND = 20.0;
+
+    private double referenceRssi;
+    private double pathLossExponent;
+
+    /** filtered RSSI and its variance */
+    private double estimate, variance;
+    private long lastTime;
+    private boolean initialized = false;
+
+    private int calibrationRemaining = 0, calibrationCount = 0;
+    private double calibrationSum = 0;
+
+    /**
+     * @param referenceRssi RSSI measured at a distance of 1 m, in dBm
+     * @param pathLossExponent path loss exponent, 2 in free space and typically 2-4 indoors
+     */
+    public RssiDistanceEstimator(double referenceRssi, double pathLossExponent) {
+        this.referenceRssi = referenceRssi;
+        this.pathLossExponent = pathLossExponent;
+    }
+
+    /**
+     * Returns the RSSI at 1 m predicted by the free-space path loss model, i.e.
+     * {@code 27.55 - 20 * log10(f)} for the frequency f in MHz.
+     */
+    public static double freeSpaceReferenceRssi(double frequencyMHz) {
+        return 27.55 - 20 * Math.log10(frequencyMHz);
+    }
+
+    /**
+     * Converts an RSSI value to a distance in meters using the given calibration
+     */
+    public static double toMeters(double rssi, double referenceRssi, double pathLossExponent) {
+        return Math.pow(10, (referenceRssi - rssi) / (10 * pathLossExponent));
+    }
+
+    /**
+     * Processes an RSSI sample, as output by an {@link RssiFilter} and excluding dropouts
+     * @param time timestamp in milliseconds
+     * @param rssi filtered signal strength in dBm
+     * @return the smoothed distance in meters
+     */
+    public synchronized double addSample(long time, double rssi) {
+        if (calibrationRemaining > 0) {
+            calibrationSum += rssi;
+            calibrationCount++;
+            if (--calibrationRemaining == 0) {
+                referenceRssi = calibrationSum / calibrationCount;
+            }
+        }
+
+        if (!initialized) {
+            estimate = rssi;
+            variance = MEASUREMENT_VARIANCE;
+            initialized = true;
+        } else {
+            double dt = Math.max(0, time - lastTime) / 1000.0;
+            // predict: the true RSSI performs a random walk
+            variance += PROCESS_VARIANCE_PER_SECOND * dt;
+            // update
+            double gain = variance / (variance + MEASUREMENT_VARIANCE);
+            estimate += gain * (rssi - estimate);
+            variance *= (1 - gain);
+        }
+        lastTime = time;
+        return getDistance();
+    }
+
+    /** Returns the smoothed RSSI in dBm, or NaN if no sample has been processed */
+    public synchronized double getFilteredRssi() {
+        return initialized ? estimate : Double.NaN;
+    }
+
+    /** Returns the smoothed distance in meters, or NaN if no sample has been processed */
+    public synchronized double getDistance() {
+        return initialized ? toMeters(estimate, referenceRssi, pathLossExponent) : Double.NaN;
+    }
+
+    /**
+     * Starts calibrating the reference RSSI: the mean of the next filtered samples becomes the RSSI
+     * at 1 m. The phone should be held 1 m from the Bean until {@link #isCalibrating()} returns false.
+     * @param samples number of samples to average
+     */
+    public synchronized void startCalibration(int samples) {
+        calibrationRemaining = samples;
+        calibrationCount = 0;
+        calibrationSum = 0;
+    }
+
+    public synchronized boolean isCalibrating() {
+        return calibrationRemaining > 0;
+    }
+
+    public synchronized double getReferenceRssi() {
+        return referenceRssi;
+    }
+
+    public synchronized double getPathLossExponent() {
+        return pathLossExponent;
+    }
+
+    public synchronized void setCalibration(double referenceRssi, double pathLossExponent) {
+        this.referenceRssi = referenceRssi;
+        this.pathLossExponent = pathLossExponent;
+    }
+
+    /** Forgets the filter state, e.g. after the sensor reconnects; the calibration is kept */
+    public synchronized void reset() {
+        initialized = false;
+    }
+}
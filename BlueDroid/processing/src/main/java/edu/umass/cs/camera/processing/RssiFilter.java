@@ -0,0 +1,232 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Streaming filter removing spikes and dropouts from the RSSI stream before it is recorded and
+ * converted to a distance. Each reading is filtered over a window of the most recent readings,
+ * including itself, so no delay is introduced:
+ * <ul>
+ *     <li>{@link MODE#MEDIAN} replaces every reading by the median of the window;</li>
+ *     <li>{@link MODE#HAMPEL} keeps readings which are within {@link #getHampelThreshold()}
+ *     scaled median absolute deviations of the window median, and replaces outliers by the
+ *     median, so that the signal is only altered where it is spiky.</li>
+ * </ul>
+ * Readings of 0 dBm or above cannot be measured and are reported by the Bluetooth stack when a
+ * reading failed; they are flagged as {@link FLAG#DROPOUT}, left out of the window and replaced
+ * by the last filtered reading. A reading following a gap of more than {@link #getGapMillis()}
+ * milliseconds is flagged as {@link FLAG#GAP}, and {@link #getMissingSamples()} estimates how
+ * many readings were missed, so that consumers can tell interpolated stretches from measured ones.
+ *
+ * The window is kept sorted incrementally, and the median absolute deviation is found by
+ * merging outward from the median, so filtering a reading takes O(n) time for a window of n
+ * readings and does not allocate.
+ *
+ * This class is not thread-safe.
+ */
+public class RssiFilter {
+
+    /** Filter modes */
+    public interface MODE {
+        int NONE = 0;
+        int MEDIAN = 1;
+        int HAMPEL = 2;
+    }
+
+    /** Flags describing the last reading, combined bitwise */
+    public interface FLAG {
+        /** the reading was replaced by the window median */
+        int OUTLIER = 1;
+        /** the reading follows a gap in the stream */
+        int GAP = 2;
+        /** the reading was invalid and replaced by the last filtered reading */
+        int DROPOUT = 4;
+    }
+
+    /** scales the median absolute deviation to a consistent estimate of the standard deviation */
+    private static final double MAD_SCALE = 1.4826;
+
+    /**
+     * lower bound of the median absolute deviation in dB; readings are whole dBm, so in steady
+     * stretches the deviation is often 0 and every change would otherwise be an outlier
+     */
+    public static final double MIN_DEVIATION = 1.0;
+
+    private final int mode;
+
+    private final double hampelThreshold;
+
+    private final long gapMillis, intervalMillis;
+
+    /** window readings in arrival order, stored as a ring */
+    private final double[] window;
+    private int next = 0, size = 0;
+
+    /** window readings in ascending order */
+    private final double[] sorted;
+
+    private long lastTime = -1;
+
+    private double filtered = Double.NaN;
+    private int flags = 0;
+    private int missingSamples = 0;
+
+    /**
+     * @param mode the filter mode, see {@link MODE}
+     * @param windowSize number of readings in the window
+     * @param hampelThreshold number of scaled median absolute deviations from the median beyond
+     *                        which a reading is an outlier, for {@link MODE#HAMPEL}
+     * @param samplingRate nominal sampling rate in Hz; readings more than three nominal intervals
+     *                     apart are considered a gap
+     */
+    public RssiFilter(int mode, int windowSize, double hampelThreshold, double samplingRate) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("window size must be positive");
+        this.mode = mode;
+        this.hampelThreshold = hampelThreshold;
+        this.intervalMillis = Math.max(1, Math.round(1000.0 / samplingRate));
+        this.gapMillis = 3 * intervalMillis;
+        this.window = new double[windowSize];
+        this.sorted = new double[windowSize];
+    }
+
+    /**
+     * Returns the mode with the given name, i.e. none, median or hampel, as given on command lines
+     * @throws NumberFormatException if there is no such mode
+     */
+    public static int parseMode(String name) {
+        switch (name) {
+            case "none":
+                return MODE.NONE;
+            case "median":
+                return MODE.MEDIAN;
+            case "hampel":
+                return MODE.HAMPEL;
+            default:
+                throw new NumberFormatException("unknown RSSI filter " + name);
+        }
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public double getHampelThreshold() {
+        return hampelThreshold;
+    }
+
+    public long getGapMillis() {
+        return gapMillis;
+    }
+
+    /**
+     * Filters a reading
+     * @param time timestamp in milliseconds
+     * @param rssi the raw reading in dBm
+     * @return the filtered reading, which is NaN for dropouts before any valid reading
+     */
+    public double add(long time, double rssi) {
+        flags = 0;
+        missingSamples = 0;
+        if (lastTime >= 0 && time - lastTime > gapMillis) {
+            flags |= FLAG.GAP;
+            missingSamples = (int) ((time - lastTime + intervalMillis / 2) / intervalMillis) - 1;
+        }
+        lastTime = time;
+
+        if (rssi >= 0 || Double.isNaN(rssi)) {
+            flags |= FLAG.DROPOUT;
+            return filtered;
+        }
+
+        if (mode == MODE.NONE) {
+            filtered = rssi;
+            return filtered;
+        }
+        insert(rssi);
+        double median = median();
+        if (mode == MODE.MEDIAN) {
+            filtered = median;
+        } else if (Math.abs(rssi - median) > hampelThreshold * MAD_SCALE
+                * Math.max(MIN_DEVIATION, medianAbsoluteDeviation(median))) {
+            filtered = median;
+            flags |= FLAG.OUTLIER;
+        } else {
+            filtered = rssi;
+        }
+        return filtered;
+    }
+
+    /** Returns the last filtered reading, NaN if there is none */
+    public double getFiltered() {
+        return filtered;
+    }
+
+    /** Returns the flags of the last reading, see {@link FLAG} */
+    public int getFlags() {
+        return flags;
+    }
+
+    /** Returns the estimated number of readings missed before the last reading */
+    public int getMissingSamples() {
+        return missingSamples;
+    }
+
+    /**
+     * Adds a reading to the window, evicting the oldest reading if the window is full
+     */
+    private void insert(double value) {
+        int n = size;
+        if (size == window.length) {
+            // remove the oldest reading from the sorted window
+            double oldest = window[next];
+            int i = 0;
+            while (sorted[i] != oldest) i++;
+            System.arraycopy(sorted, i + 1, sorted, i, n - i - 1);
+            n--;
+        } else {
+            size++;
+        }
+        window[next] = value;
+        next = (next + 1) % window.length;
+
+        int i = n;
+        while (i > 0 && sorted[i - 1] > value) {
+            sorted[i] = sorted[i - 1];
+            i--;
+        }
+        sorted[i] = value;
+    }
+
+    private double median() {
+        int middle = size / 2;
+        return size % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    /**
+     * Returns the median of the absolute deviations of the window from the given median. The
+     * deviations of the readings below the median increase downward from the middle of the
+     * sorted window, and those above increase upward, so the two runs are merged outward.
+     */
+    private double medianAbsoluteDeviation(double median) {
+        int left = size / 2 - 1, right = size / 2;
+        int lower = (size - 1) / 2, upper = size / 2;
+        double lowerValue = 0, deviation = 0;
+        for (int k = 0; k <= upper; k++) {
+            if (right >= size || (left >= 0 && median - sorted[left] <= sorted[right] - median)) {
+                deviation = median - sorted[left--];
+            } else {
+                deviation = sorted[right++] - median;
+            }
+            if (k == lower) lowerValue = deviation;
+        }
+        return (lowerValue + deviation) / 2;
+    }
+
+    public void reset() {
+        next = 0;
+        size = 0;
+        lastTime = -1;
+        filtered = Double.NaN;
+        flags = 0;
+        missingSamples = 0;
+    }
+}
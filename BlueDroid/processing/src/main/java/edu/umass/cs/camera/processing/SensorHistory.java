@@ -0,0 +1,89 @@
+package edu.umass.cs.camera.processing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory history of the most recent sensor data, keeping one {@link TimeSeriesBuffer} per
+ * device and stream. This allows other application components to query recent data without
+ * reading the CSV files written to disk.
+ *
+ * @see TimeSeriesBuffer
+ */
+public class SensorHistory {
+
+    /** Streams recorded for each device */
+    public interface STREAM {
+        /** xyz acceleration in g */
+        int ACCELEROMETER = 0;
+        /** received signal strength in dBm */
+        int RSSI = 1;
+        /** smoothed distance in meters, estimated from the RSSI */
+        int DISTANCE = 2;
+        int COUNT = 3;
+    }
+
+    /** number of channels of each stream, indexed by stream */
+    private static final int[] CHANNELS = {3, 1, 1};
+
+    /** length of the retained time window in milliseconds */
+    private final long windowMillis;
+
+    /** maximum expected sampling rate of each stream in Hz, used to size the buffers */
+    private final int[] samplingRates;
+
+    private final Map<String, TimeSeriesBuffer[]> devices = new HashMap<>();
+
+    /**
+     * @param windowMillis length of the time window to retain, in milliseconds
+     * @param accelerometerSamplingRate accelerometer sampling rate in Hz
+     * @param rssiSamplingRate RSSI sampling rate in Hz
+     */
+    public SensorHistory(long windowMillis, int accelerometerSamplingRate, int rssiSamplingRate) {
+        this.windowMillis = windowMillis;
+        this.samplingRates = new int[]{accelerometerSamplingRate, rssiSamplingRate, rssiSamplingRate};
+    }
+
+    public static int getChannels(int stream) {
+        return CHANNELS[stream];
+    }
+
+    /**
+     * Returns the buffer for the given device and stream, creating it if necessary. The buffer
+     * capacity allows for samples arriving at up to twice the configured sampling rate, since
+     * callbacks are not perfectly periodic.
+     */
+    public synchronized TimeSeriesBuffer getBuffer(String address, int stream) {
+        TimeSeriesBuffer[] buffers = devices.get(address);
+        if (buffers == null) {
+            buffers = new TimeSeriesBuffer[STREAM.COUNT];
+            devices.put(address, buffers);
+        }
+        if (buffers[stream] == null) {
+            int capacity = (int) Math.max(1, 2 * samplingRates[stream] * windowMillis / 1000);
+            buffers[stream] = new TimeSeriesBuffer(CHANNELS[stream], capacity, windowMillis);
+        }
+        return buffers[stream];
+    }
+
+    /**
+     * Returns the buffer for the given device and stream, or null if no data has been recorded.
+     */
+    public synchronized TimeSeriesBuffer findBuffer(String address, int stream) {
+        TimeSeriesBuffer[] buffers = devices.get(address);
+        if (buffers == null || stream < 0 || stream >= STREAM.COUNT) return null;
+        return buffers[stream];
+    }
+
+    /** Returns the addresses of all devices for which data has been recorded */
+    public synchronized String[] getDevices() {
+        Set<String> addresses = devices.keySet();
+        return addresses.toArray(new String[addresses.size()]);
+    }
+
+    /** Discards all recorded data */
+    public synchronized void clear() {
+        devices.clear();
+    }
+}
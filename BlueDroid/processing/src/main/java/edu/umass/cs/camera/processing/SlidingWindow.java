@@ -0,0 +1,170 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Sliding window over the most recent {@code n} double values with constant-time statistics.
+ * Each {@link #add(double)} updates, in O(1) amortized time and without allocating,
+ * <ul>
+ *     <li>the mean and variance, using Welford-style updates for adding and removing a value,</li>
+ *     <li>the minimum and maximum, using monotonic deques of the window positions,</li>
+ *     <li>the number of zero crossings between consecutive values, and</li>
+ *     <li>the energy, i.e. the mean of the squared values.</li>
+ * </ul>
+ * so the per-sample cost does not depend on the window length. Until the window is full, the
+ * statistics cover the values added so far.
+ *
+ * This class is not thread-safe.
+ */
+public class SlidingWindow {
+
+    private final int capacity;
+
+    /** window values, stored as a ring indexed by sequence number modulo capacity */
+    private final double[] values;
+
+    /** total number of values ever added; the newest value has sequence number count - 1 */
+    private long count = 0;
+
+    /** number of values currently in the window */
+    private int size = 0;
+
+    private double mean = 0;
+
+    /** sum of squared deviations from the mean */
+    private double m2 = 0;
+
+    private double sumOfSquares = 0;
+
+    private int zeroCrossings = 0;
+
+    /** sequence numbers of candidate minima (increasing values) and maxima (decreasing values) */
+    private final long[] minDeque, maxDeque;
+    private int minHead = 0, minSize = 0, maxHead = 0, maxSize = 0;
+
+    /**
+     * @param capacity number of values in the window
+     */
+    public SlidingWindow(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.values = new double[capacity];
+        this.minDeque = new long[capacity];
+        this.maxDeque = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Number of values currently in the window */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Adds a value, evicting the oldest value if the window is full
+     */
+    public void add(double value) {
+        if (size == capacity) {
+            double oldest = values[(int) ((count - capacity) % capacity)];
+            double next = values[(int) ((count - capacity + 1) % capacity)];
+            if (capacity > 1 && crossesZero(oldest, next)) zeroCrossings--;
+
+            // replace the oldest value by the new one: the size stays the same
+            double oldMean = mean;
+            mean += (value - oldest) / capacity;
+            m2 += (value - oldest) * (value - mean + oldest - oldMean);
+            if (m2 < 0) m2 = 0; // guard against rounding
+            sumOfSquares += value * value - oldest * oldest;
+
+            long evicted = count - capacity;
+            if (minSize > 0 && minDeque[minHead] == evicted) {
+                minHead = (minHead + 1) % capacity;
+                minSize--;
+            }
+            if (maxSize > 0 && maxDeque[maxHead] == evicted) {
+                maxHead = (maxHead + 1) % capacity;
+                maxSize--;
+            }
+        } else {
+            size++;
+            double delta = value - mean;
+            mean += delta / size;
+            m2 += delta * (value - mean);
+            sumOfSquares += value * value;
+        }
+
+        if (size > 1 && crossesZero(values[(int) ((count - 1) % capacity)], value)) zeroCrossings++;
+
+        // drop candidates which can no longer be the minimum/maximum
+        while (minSize > 0 && values[(int) (minDeque[(minHead + minSize - 1) % capacity] % capacity)] >= value) minSize--;
+        minDeque[(minHead + minSize) % capacity] = count;
+        minSize++;
+        while (maxSize > 0 && values[(int) (maxDeque[(maxHead + maxSize - 1) % capacity] % capacity)] <= value) maxSize--;
+        maxDeque[(maxHead + maxSize) % capacity] = count;
+        maxSize++;
+
+        values[(int) (count % capacity)] = value;
+        count++;
+    }
+
+    private static boolean crossesZero(double a, double b) {
+        return (a < 0 && b >= 0) || (a >= 0 && b < 0);
+    }
+
+    /** Returns the most recently added value, or NaN if the window is empty */
+    public double getLast() {
+        return size == 0 ? Double.NaN : values[(int) ((count - 1) % capacity)];
+    }
+
+    /** Returns the oldest value in the window, or NaN if the window is empty */
+    public double getFirst() {
+        return size == 0 ? Double.NaN : values[(int) ((count - size) % capacity)];
+    }
+
+    public double getMean() {
+        return size == 0 ? Double.NaN : mean;
+    }
+
+    /** Returns the population variance of the values in the window */
+    public double getVariance() {
+        return size == 0 ? Double.NaN : m2 / size;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMin() {
+        return minSize == 0 ? Double.NaN : values[(int) (minDeque[minHead] % capacity)];
+    }
+
+    public double getMax() {
+        return maxSize == 0 ? Double.NaN : values[(int) (maxDeque[maxHead] % capacity)];
+    }
+
+    /** Returns the number of sign changes between consecutive values in the window */
+    public int getZeroCrossings() {
+        return zeroCrossings;
+    }
+
+    /** Returns the mean of the squared values in the window */
+    public double getEnergy() {
+        return size == 0 ? Double.NaN : Math.max(0, sumOfSquares) / size;
+    }
+
+    /** Removes all values */
+    public void clear() {
+        count = 0;
+        size = 0;
+        mean = 0;
+        m2 = 0;
+        sumOfSquares = 0;
+        zeroCrossings = 0;
+        minHead = minSize = maxHead = maxSize = 0;
+    }
+}
@@ -0,0 +1,279 @@
+package edu.umass.cs.camera.processing;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity ring buffer of timestamped multi-channel samples, stored in primitive arrays so
+ * that adding a sample never allocates or boxes. Samples older than the configured time window
+ * are dropped as new samples arrive, and once the buffer is full the oldest sample is overwritten.
+ *
+ * Timestamps are expected to be non-decreasing (they come from {@link System#currentTimeMillis()}
+ * in the sensor callbacks), which allows time range queries to use binary search.
+ *
+ * All methods are synchronized, because samples are added from the sensor callback threads
+ * while queries are served from the main thread.
+ */
+public class TimeSeriesBuffer {
+
+    /** Aggregation functions which can be applied to each time bucket of a query */
+    public interface AGGREGATION {
+        int NONE = 0;
+        int MEAN = 1;
+        int MIN = 2;
+        int MAX = 3;
+        int COUNT = 4;
+    }
+
+    /** maximum number of buckets of one aggregation, which bounds the size of a query result */
+    public static final int MAX_BUCKETS = 10000;
+
+    /** number of values per sample, e.g. 3 for xyz accelerometer readings */
+    private final int channels;
+
+    /** maximum number of samples held in the buffer */
+    private final int capacity;
+
+    /** samples older than this (relative to the most recent sample) are evicted, in milliseconds */
+    private final long windowMillis;
+
+    private final long[] timestamps;
+
+    /** sample values, interleaved by channel, i.e. sample i occupies [i*channels, (i+1)*channels) */
+    private final double[] values;
+
+    /** index of the oldest sample */
+    private int head = 0;
+
+    /** number of samples currently held */
+    private int size = 0;
+
+    /**
+     * @param channels number of values per sample
+     * @param capacity maximum number of samples held
+     * @param windowMillis length of the time window to retain, in milliseconds
+     */
+    public TimeSeriesBuffer(int channels, int capacity, long windowMillis) {
+        if (channels <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("channels and capacity must be positive");
+        this.channels = channels;
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity * channels];
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the timestamp of the oldest sample held, or {@link Long#MAX_VALUE} if the buffer is empty
+     */
+    public synchronized long getOldestTime() {
+        return size == 0 ? Long.MAX_VALUE : timestamps[head];
+    }
+
+    /**
+     * Adds a single-channel sample
+     * @param time timestamp in milliseconds
+     * @param value sample value
+     */
+    public synchronized void add(long time, double value) {
+        int i = nextSlot(time);
+        values[i * channels] = value;
+    }
+
+    /**
+     * Adds a three-channel sample, e.g. an xyz accelerometer reading
+     * @param time timestamp in milliseconds
+     * @param x value of the first channel
+     * @param y value of the second channel
+     * @param z value of the third channel
+     */
+    public synchronized void add(long time, double x, double y, double z) {
+        int offset = nextSlot(time) * channels;
+        values[offset] = x;
+        if (channels > 1) values[offset + 1] = y;
+        if (channels > 2) values[offset + 2] = z;
+    }
+
+    /**
+     * Evicts expired samples and reserves the slot for a new sample at the given time.
+     * @return the physical index of the reserved slot
+     */
+    private int nextSlot(long time) {
+        long cutoff = time - windowMillis;
+        while (size > 0 && timestamps[head] < cutoff) {
+            head = (head + 1) % capacity;
+            size--;
+        }
+        int i;
+        if (size == capacity) {
+            // full: overwrite the oldest sample
+            i = head;
+            head = (head + 1) % capacity;
+        } else {
+            i = (head + size) % capacity;
+            size++;
+        }
+        timestamps[i] = time;
+        return i;
+    }
+
+    /** Removes all samples */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the logical index of the first sample with timestamp >= time.
+     */
+    private int lowerBound(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[(head + mid) % capacity] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the logical index of the first sample with timestamp > time.
+     */
+    private int upperBound(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[(head + mid) % capacity] <= time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Counts the samples in the time range [from, to]
+     */
+    public synchronized int count(long from, long to) {
+        if (to < from) return 0;
+        return upperBound(to) - lowerBound(from);
+    }
+
+    /**
+     * Copies the samples in the time range [from, to] into the given arrays. The arrays must
+     * have room for at least {@link #count(long, long)} timestamps and {@code count * channels}
+     * values, otherwise only as many samples as fit are copied.
+     *
+     * @return the number of samples copied
+     */
+    public synchronized int copy(long from, long to, long[] timesOut, double[] valuesOut) {
+        if (to < from) return 0;
+        int start = lowerBound(from);
+        int end = upperBound(to);
+        int n = Math.min(end - start, Math.min(timesOut.length, valuesOut.length / channels));
+        for (int k = 0; k < n; k++) {
+            int i = (head + start + k) % capacity;
+            timesOut[k] = timestamps[i];
+            System.arraycopy(values, i * channels, valuesOut, k * channels, channels);
+        }
+        return n;
+    }
+
+    /**
+     * Number of buckets produced by {@link #aggregate(long, long, long, int, long[], double[])}
+     * for the given range and bucket size, saturating at {@link Integer#MAX_VALUE}.
+     */
+    public static int bucketCount(long from, long to, long bucketMillis) {
+        if (to < from || bucketMillis <= 0) return 0;
+        return (int) Math.min((to - from) / bucketMillis, Integer.MAX_VALUE - 1) + 1;
+    }
+
+    /**
+     * Returns the given bucket size, raised where necessary so that the range [from, to] is
+     * divided into at most {@link #MAX_BUCKETS} buckets. This also turns a bucket size that is
+     * not positive into the smallest one allowed for the range.
+     */
+    public static long limitBucketMillis(long from, long to, long bucketMillis) {
+        if (to < from) return Math.max(bucketMillis, 1);
+        return Math.max(bucketMillis, (to - from) / MAX_BUCKETS + 1);
+    }
+
+    /**
+     * Aggregates the samples in [from, to] into buckets of fixed duration, applying the given
+     * function to each channel independently. Bucket k covers
+     * [from + k * bucketMillis, from + (k+1) * bucketMillis). Empty buckets yield NaN, except for
+     * {@link AGGREGATION#COUNT} which yields 0. {@link AGGREGATION#NONE} is treated as
+     * {@link AGGREGATION#MEAN}; use {@link #copy(long, long, long[], double[])} for raw samples.
+     *
+     * @param bucketTimesOut receives the start time of each bucket, must hold {@link #bucketCount} entries
+     * @param valuesOut receives the aggregates, must hold {@code bucketCount * channels} entries
+     * @return the number of buckets
+     */
+    public synchronized int aggregate(long from, long to, long bucketMillis, int function,
+                                      long[] bucketTimesOut, double[] valuesOut) {
+        int buckets = bucketCount(from, to, bucketMillis);
+        buckets = Math.min(buckets, Math.min(bucketTimesOut.length, valuesOut.length / channels));
+        if (buckets <= 0) return 0;
+
+        for (int b = 0; b < buckets; b++) {
+            bucketTimesOut[b] = from + b * bucketMillis;
+        }
+        Arrays.fill(valuesOut, 0, buckets * channels, function == AGGREGATION.COUNT ? 0 : Double.NaN);
+
+        int start = lowerBound(from);
+        int end = upperBound(to);
+        int currentBucket = -1, countInBucket = 0;
+        for (int k = start; k < end; k++) {
+            int i = (head + k) % capacity;
+            int b = (int) ((timestamps[i] - from) / bucketMillis);
+            if (b >= buckets) break;
+            int out = b * channels, in = i * channels;
+            if (b != currentBucket) {
+                finishBucket(currentBucket, countInBucket, function, valuesOut);
+                currentBucket = b;
+                countInBucket = 0;
+                double initial;
+                switch (function) {
+                    case AGGREGATION.MIN: initial = Double.POSITIVE_INFINITY; break;
+                    case AGGREGATION.MAX: initial = Double.NEGATIVE_INFINITY; break;
+                    default: initial = 0; break;
+                }
+                Arrays.fill(valuesOut, out, out + channels, initial);
+            }
+            countInBucket++;
+            for (int c = 0; c < channels; c++) {
+                double v = values[in + c];
+                switch (function) {
+                    case AGGREGATION.MIN:
+                        if (v < valuesOut[out + c]) valuesOut[out + c] = v;
+                        break;
+                    case AGGREGATION.MAX:
+                        if (v > valuesOut[out + c]) valuesOut[out + c] = v;
+                        break;
+                    case AGGREGATION.COUNT:
+                        valuesOut[out + c] += 1;
+                        break;
+                    default:
+                        valuesOut[out + c] += v;
+                        break;
+                }
+            }
+        }
+        finishBucket(currentBucket, countInBucket, function, valuesOut);
+        return buckets;
+    }
+
+    private void finishBucket(int bucket, int count, int function, double[] valuesOut) {
+        if (bucket < 0) return;
+        if (function == AGGREGATION.MEAN || function == AGGREGATION.NONE) {
+            for (int c = 0; c < channels; c++) {
+                valuesOut[bucket * channels + c] /= count;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Streaming detector for twisting the cap of a pill bottle, fed one gyroscope sample at a time,
+ * which reports {@link BottleEvent.TYPE#TWIST_OPEN} and {@link BottleEvent.TYPE#TWIST_CLOSE}
+ * events to a {@link BottleEvent.Listener}.
+ *
+ * The angular velocity about each axis is integrated by a leaky integrator, i.e. the rotation
+ * angle over roughly the last {@link #TIME_CONSTANT} milliseconds, which needs no sample buffer
+ * and tolerates irregular notification intervals. A twist is recognized when the angle about the
+ * cap axis exceeds {@link #TWIST_ANGLE} while rotation about the other axes stays small in
+ * comparison, which rejects the bottle being turned over or swung around. Counterclockwise
+ * rotation, seen looking down the cap axis toward the sensor, opens the cap.
+ *
+ * Opening a child-proof cap usually takes several strokes with regrips in between, so twists in
+ * the same direction less than {@link #MERGE_DURATION} apart are reported as a single event.
+ *
+ * This class is not thread-safe; samples must be passed in from a single thread.
+ */
+public class TwistDetector {
+
+    /** Sensor axes, used to select the cap axis */
+    public interface AXIS {
+        int X = 0;
+        int Y = 1;
+        int Z = 2;
+    }
+
+    /** time constant of the leaky angle integrators, in milliseconds */
+    public static final double TIME_CONSTANT = 500;
+
+    /** integrated angle (degrees) about the cap axis above which a twist is recognized */
+    public static final double TWIST_ANGLE = 45;
+
+    /** how many times the angle about the cap axis must exceed the angle about the other axes */
+    public static final double DOMINANCE = 2.0;
+
+    /** sampling gaps longer than this many milliseconds, or time going backwards, reset the integrators */
+    public static final long MAX_INTERVAL = 1000;
+
+    /** twists in the same direction closer together than this many milliseconds form one event */
+    public static final long MERGE_DURATION = 2000;
+
+    private final int axis;
+
+    private final BottleEvent.Listener listener;
+
+    /** integrated angles about the x, y and z axes, in degrees */
+    private double angleX, angleY, angleZ;
+
+    private long previousTime = -1;
+
+    /** type and time of the last twist stroke, or -1 if none */
+    private int lastType = -1;
+    private long lastTwist = -1;
+
+    /**
+     * @param axis the sensor axis along the cap axis, pointing out of the cap, see {@link AXIS}
+     * @param listener receives the detected events
+     */
+    public TwistDetector(int axis, BottleEvent.Listener listener) {
+        if (axis < AXIS.X || axis > AXIS.Z)
+            throw new IllegalArgumentException("invalid axis: " + axis);
+        this.axis = axis;
+        this.listener = listener;
+    }
+
+    public int getAxis() {
+        return axis;
+    }
+
+    /**
+     * Processes a gyroscope sample. Samples stamped with the same time as the previous one, e.g.
+     * several notifications delivered in one batch, are skipped.
+     * @param time arrival time of the sample in milliseconds
+     * @param x angular velocity about the x axis in degrees per second
+     * @param y angular velocity about the y axis in degrees per second
+     * @param z angular velocity about the z axis in degrees per second
+     */
+    public void addSample(long time, double x, double y, double z) {
+        if (time == previousTime)
+            return;
+        long dt = previousTime < 0 ? 0 : time - previousTime;
+        previousTime = time;
+        if (dt <= 0 || dt > MAX_INTERVAL) {
+            angleX = angleY = angleZ = 0;
+            return;
+        }
+
+        double decay = Math.exp(-dt / TIME_CONSTANT);
+        double seconds = dt / 1000.0;
+        angleX = angleX * decay + x * seconds;
+        angleY = angleY * decay + y * seconds;
+        angleZ = angleZ * decay + z * seconds;
+
+        double twist, other;
+        switch (axis) {
+            case AXIS.X:
+                twist = angleX;
+                other = Math.sqrt(angleY * angleY + angleZ * angleZ);
+                break;
+            case AXIS.Y:
+                twist = angleY;
+                other = Math.sqrt(angleX * angleX + angleZ * angleZ);
+                break;
+            default:
+                twist = angleZ;
+                other = Math.sqrt(angleX * angleX + angleY * angleY);
+                break;
+        }
+        if (Math.abs(twist) < TWIST_ANGLE || Math.abs(twist) < DOMINANCE * other)
+            return;
+
+        int type = twist > 0 ? BottleEvent.TYPE.TWIST_OPEN : BottleEvent.TYPE.TWIST_CLOSE;
+        if (type != lastType || time - lastTwist > MERGE_DURATION)
+            listener.onBottleEvent(time, type);
+        lastType = type;
+        lastTwist = time;
+        // start integrating the next stroke from scratch
+        angleX = angleY = angleZ = 0;
+    }
+
+    /** Forgets all state, e.g. after the sensor reconnects */
+    public void reset() {
+        angleX = angleY = angleZ = 0;
+        previousTime = -1;
+        lastType = -1;
+        lastTwist = -1;
+    }
+}
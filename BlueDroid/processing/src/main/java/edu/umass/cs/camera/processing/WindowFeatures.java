@@ -0,0 +1,105 @@
+package edu.umass.cs.camera.processing;
+
+/**
+ * Extracts a fixed-length feature vector from sliding windows over the accelerometer and RSSI
+ * streams of one device, as input to a {@link DoseClassifier}. Features are identified by
+ * {@link FEATURE} constants and named in model files by {@link #getName(int)}.
+ *
+ * All windows are updated incrementally, so adding a sample and extracting the features take
+ * constant time and do not allocate.
+ *
+ * This class is not thread-safe.
+ */
+public class WindowFeatures {
+
+    /** Feature indices */
+    public interface FEATURE {
+        /** mean acceleration magnitude (g) */
+        int ACC_MEAN = 0;
+        /** standard deviation of the acceleration magnitude (g) */
+        int ACC_STD = 1;
+        int ACC_MIN = 2;
+        int ACC_MAX = 3;
+        /** mean squared dynamic acceleration, i.e. magnitude minus 1 g */
+        int ACC_ENERGY = 4;
+        /** number of times the acceleration magnitude crosses 1 g */
+        int ACC_CROSSINGS = 5;
+        /** mean RSSI (dBm) */
+        int RSSI_MEAN = 6;
+        int RSSI_STD = 7;
+        /** difference between the newest and oldest RSSI in the window (dB) */
+        int RSSI_CHANGE = 8;
+        int COUNT = 9;
+    }
+
+    /** feature names, indexed by feature, as used in model files */
+    private static final String[] NAMES = {"acc_mean", "acc_std", "acc_min", "acc_max", "acc_energy",
+            "acc_crossings", "rssi_mean", "rssi_std", "rssi_change"};
+
+    private final SlidingWindow magnitudeWindow, dynamicWindow, rssiWindow;
+
+    /**
+     * @param accelerometerWindowSize number of accelerometer samples per window
+     * @param rssiWindowSize number of RSSI samples per window
+     */
+    public WindowFeatures(int accelerometerWindowSize, int rssiWindowSize) {
+        magnitudeWindow = new SlidingWindow(accelerometerWindowSize);
+        dynamicWindow = new SlidingWindow(accelerometerWindowSize);
+        rssiWindow = new SlidingWindow(rssiWindowSize);
+    }
+
+    /**
+     * Returns the name of the given feature, see {@link FEATURE}
+     */
+    public static String getName(int feature) {
+        return NAMES[feature];
+    }
+
+    /**
+     * Returns the feature with the given name, or -1 if there is none
+     */
+    public static int fromName(String name) {
+        for (int feature = 0; feature < NAMES.length; feature++) {
+            if (NAMES[feature].equals(name))
+                return feature;
+        }
+        return -1;
+    }
+
+    public void addAcceleration(double x, double y, double z) {
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        magnitudeWindow.add(magnitude);
+        dynamicWindow.add(magnitude - 1);
+    }
+
+    public void addRssi(double rssi) {
+        rssiWindow.add(rssi);
+    }
+
+    /** Returns true once the accelerometer window is full */
+    public boolean isReady() {
+        return magnitudeWindow.isFull();
+    }
+
+    /**
+     * Writes the current features into the given array of length {@link FEATURE#COUNT}. The
+     * RSSI features are NaN if no RSSI has been added.
+     */
+    public void extract(double[] out) {
+        out[FEATURE.ACC_MEAN] = magnitudeWindow.getMean();
+        out[FEATURE.ACC_STD] = magnitudeWindow.getStandardDeviation();
+        out[FEATURE.ACC_MIN] = magnitudeWindow.getMin();
+        out[FEATURE.ACC_MAX] = magnitudeWindow.getMax();
+        out[FEATURE.ACC_ENERGY] = dynamicWindow.getEnergy();
+        out[FEATURE.ACC_CROSSINGS] = dynamicWindow.getZeroCrossings();
+        out[FEATURE.RSSI_MEAN] = rssiWindow.getMean();
+        out[FEATURE.RSSI_STD] = rssiWindow.getStandardDeviation();
+        out[FEATURE.RSSI_CHANGE] = rssiWindow.getLast() - rssiWindow.getFirst();
+    }
+
+    public void reset() {
+        magnitudeWindow.clear();
+        dynamicWindow.clear();
+        rssiWindow.clear();
+    }
+}
@@ -0,0 +1,101 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdherenceFusionTest {
+
+    private static final double NEAR = 2.0;
+
+    /** timestamps and distances of the reported events */
+    private final List<Long> timestamps = new ArrayList<>();
+    private final List<Double> distances = new ArrayList<>();
+
+    private final AdherenceFusion fusion = new AdherenceFusion(1, NEAR, new AdherenceFusion.Listener() {
+        @Override
+        public void onAdherenceEvent(long timestamp, int type, double distance) {
+            assertEquals(BottleEvent.TYPE.PICKED_UP, type);
+            timestamps.add(timestamp);
+            distances.add(distance);
+        }
+    });
+
+    @Test
+    public void joinsDistancesWithinTheTolerance() {
+        fusion.addDistance(7999, 10);
+        fusion.addDistance(8000, 1);
+        fusion.addEvent(10000, BottleEvent.TYPE.PICKED_UP, 10000);
+        fusion.addDistance(10000, 1.5);
+        fusion.addDistance(11999, 0.5);
+        // the distance stream has not yet passed the end of the join window
+        assertTrue(timestamps.isEmpty());
+        fusion.addDistance(12000, 1);
+        assertEquals(1, timestamps.size());
+        assertEquals(10000, (long) timestamps.get(0));
+        assertEquals(1, distances.get(0), 1e-9);
+        // later samples do not report it again
+        fusion.addDistance(12001, 1);
+        assertEquals(1, timestamps.size());
+    }
+
+    @Test
+    public void ignoresEventsWhileThePhoneIsFar() {
+        fusion.addEvent(10000, BottleEvent.TYPE.PICKED_UP, 10000);
+        fusion.addDistance(9000, 1);
+        fusion.addDistance(11000, 4);
+        fusion.addDistance(12000, 4);
+        assertTrue(timestamps.isEmpty());
+        fusion.advanceTo(20000);
+        assertTrue(timestamps.isEmpty());
+    }
+
+    @Test
+    public void stopsWaitingAfterTheMaximumWait() {
+        fusion.addDistance(9000, 1);
+        // recognized a second after it began
+        fusion.addEvent(10000, BottleEvent.TYPE.PICKED_UP, 11000);
+        fusion.advanceTo(11000 + AdherenceFusion.MAX_WAIT - 1);
+        assertTrue(timestamps.isEmpty());
+        fusion.advanceTo(11000 + AdherenceFusion.MAX_WAIT);
+        assertEquals(1, timestamps.size());
+        assertEquals(1, distances.get(0), 0);
+    }
+
+    @Test
+    public void reportsNothingWithoutDistances() {
+        // a NaN distance is never near
+        fusion.addDistance(1000, 1);
+        fusion.addEvent(10000, BottleEvent.TYPE.PICKED_UP, 10000);
+        fusion.advanceTo(10000 + AdherenceFusion.MAX_WAIT);
+        assertTrue(timestamps.isEmpty());
+        // the event is decided, so the distances arriving late do not report it
+        fusion.addDistance(10000, 1);
+        fusion.addDistance(12000, 1);
+        assertTrue(timestamps.isEmpty());
+    }
+
+    @Test
+    public void dropsTheOldestEventWhenTooManyArePending() {
+        for (int i = 0; i <= AdherenceFusion.MAX_PENDING_EVENTS; i++)
+            fusion.addEvent(10000 + i, BottleEvent.TYPE.PICKED_UP, 10000 + i);
+        assertEquals(1, fusion.getDroppedEvents());
+        for (long time = 9000; time <= 13000; time += 1000)
+            fusion.addDistance(time, 1);
+        assertEquals(AdherenceFusion.MAX_PENDING_EVENTS, timestamps.size());
+        assertFalse(timestamps.contains(10000L));
+        assertTrue(timestamps.contains(10000L + AdherenceFusion.MAX_PENDING_EVENTS));
+    }
+
+    @Test
+    public void holdsTheJoinWindowPlusTheMaximumWait() {
+        long window = 2 * AdherenceFusion.JOIN_TOLERANCE + AdherenceFusion.MAX_WAIT;
+        AdherenceFusion fast = new AdherenceFusion(10, NEAR, null);
+        assertTrue(fast.getCapacity() > window * 10 / 1000);
+    }
+}
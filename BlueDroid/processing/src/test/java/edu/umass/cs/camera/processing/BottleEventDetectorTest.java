@@ -0,0 +1,110 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BottleEventDetectorTest {
+
+    private static final int RATE = 50;
+    private static final long PERIOD = 1000 / RATE;
+
+    /** types, timestamps and times of reporting of the reported events */
+    private final List<Integer> types = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+    private final List<Long> reportTimes = new ArrayList<>();
+
+    private long time = 0;
+
+    private final BottleEventDetector detector = new BottleEventDetector(RATE, new BottleEvent.Listener() {
+        @Override
+        public void onBottleEvent(long timestamp, int type) {
+            types.add(type);
+            timestamps.add(timestamp);
+            reportTimes.add(time);
+        }
+    });
+
+    /** feeds a constant acceleration for the given duration */
+    private void hold(long millis, double x, double y, double z) {
+        for (long end = time + millis; time < end; time += PERIOD)
+            detector.addSample(time, x, y, z);
+    }
+
+    /** feeds an upright bottle being shaken along its axis for the given duration */
+    private void shake(long millis) {
+        for (long end = time + millis; time < end; time += PERIOD)
+            detector.addSample(time, 0, 0, (time / PERIOD) % 2 == 0 ? 1.3 : 0.7);
+    }
+
+    @Test
+    public void reportsNothingBeforeTheBottleFirstRests() {
+        shake(2000);
+        assertTrue(types.isEmpty());
+        assertFalse(detector.isHandled());
+    }
+
+    @Test
+    public void reportsPickUpAndPutDown() {
+        hold(2000, 0, 0, 1);
+        assertTrue(types.isEmpty());
+        long pickUp = time;
+        shake(1000);
+        assertEquals(1, types.size());
+        assertEquals(BottleEvent.TYPE.PICKED_UP, (int) types.get(0));
+        assertTrue(timestamps.get(0) >= pickUp && timestamps.get(0) < pickUp + BottleEventDetector.WINDOW_MILLIS);
+        assertTrue(detector.isHandled());
+
+        hold(3000, 0, 0, 1);
+        assertEquals(2, types.size());
+        assertEquals(BottleEvent.TYPE.PUT_DOWN, (int) types.get(1));
+        assertFalse(detector.isHandled());
+    }
+
+    @Test
+    public void stampsPutDownWhenTheBottleBecameStill() {
+        hold(2000, 0, 0, 1);
+        shake(1000);
+        long lastShake = time;
+        hold(3000, 0, 0, 1);
+        assertEquals(BottleEvent.TYPE.PUT_DOWN, (int) types.get(1));
+        long putDown = timestamps.get(1);
+        // the event is reported once the bottle has been still long enough, but dated to when it
+        // became still, i.e. once the shaking left the feature window
+        assertEquals(BottleEventDetector.STILL_DURATION, reportTimes.get(1) - putDown);
+        assertTrue(putDown > lastShake);
+        assertTrue(putDown <= lastShake + BottleEventDetector.WINDOW_MILLIS + PERIOD);
+    }
+
+    @Test
+    public void reportsTiltBeforePutDown() {
+        hold(2000, 0, 0, 1);
+        shake(500);
+        // the bottle is laid on its side
+        hold(3000, 1, 0, 0);
+        assertEquals(3, types.size());
+        assertEquals(BottleEvent.TYPE.PICKED_UP, (int) types.get(0));
+        assertEquals(BottleEvent.TYPE.TILTED, (int) types.get(1));
+        assertEquals(BottleEvent.TYPE.PUT_DOWN, (int) types.get(2));
+        // the tilt is dated to when it started, which was long enough before it was reported
+        assertTrue(reportTimes.get(1) - timestamps.get(1) >= BottleEventDetector.TILT_DURATION);
+        assertTrue(timestamps.get(1) < timestamps.get(2));
+
+        // lying on its side is the new resting orientation
+        hold(2000, 1, 0, 0);
+        assertEquals(3, types.size());
+    }
+
+    @Test
+    public void resetForgetsTheRestingState() {
+        hold(2000, 0, 0, 1);
+        detector.reset();
+        shake(1000);
+        assertTrue(types.isEmpty());
+    }
+}
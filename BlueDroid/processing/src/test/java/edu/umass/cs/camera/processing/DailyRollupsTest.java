@@ -0,0 +1,154 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DailyRollupsTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    /** 2016-03-01 00:00 UTC */
+    private static final long MIDNIGHT = 1456790400000L;
+
+    @Test
+    public void countsEventsPerDay() {
+        DailyRollups rollups = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        DailyRollups.Device device = rollups.getDevice("A");
+        device.addEvent(MIDNIGHT + 8 * HOUR, BottleEvent.TYPE.PICKED_UP);
+        device.addEvent(MIDNIGHT + 9 * HOUR, BottleEvent.TYPE.PUT_DOWN);
+        device.addAdherenceEvent(MIDNIGHT + 7 * HOUR);
+        device.addEvent(MIDNIGHT + DAY + HOUR, BottleEvent.TYPE.TWIST_OPEN);
+
+        int today = rollups.toDay(MIDNIGHT);
+        List<DailyRollups.Day> days = rollups.getDays("A", today, today + 1);
+        assertEquals(2, days.size());
+
+        DailyRollups.Day first = days.get(0);
+        assertEquals(today, first.day);
+        assertArrayEquals(new int[]{1, 0, 1, 0, 0, 0}, first.eventCounts);
+        assertEquals(1, first.adherenceEvents);
+        assertEquals(MIDNIGHT + 7 * HOUR, first.firstEvent);
+        assertEquals(MIDNIGHT + 9 * HOUR, first.lastEvent);
+
+        DailyRollups.Day second = days.get(1);
+        assertEquals(today + 1, second.day);
+        assertEquals(1, second.eventCounts[BottleEvent.TYPE.TWIST_OPEN]);
+        assertEquals(0, second.adherenceEvents);
+    }
+
+    @Test
+    public void daysFollowTheTimeZone() {
+        DailyRollups utc = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        DailyRollups behind = new DailyRollups(TimeZone.getTimeZone("GMT-05:00"));
+        // 02:00 UTC is still the previous day five hours behind
+        assertEquals(utc.toDay(MIDNIGHT), utc.toDay(MIDNIGHT + 2 * HOUR));
+        assertEquals(utc.toDay(MIDNIGHT) - 1, behind.toDay(MIDNIGHT + 2 * HOUR));
+    }
+
+    @Test
+    public void countsActiveMinutesAndGaps() {
+        DailyRollups rollups = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        DailyRollups.Device device = rollups.getDevice("A");
+        long t = MIDNIGHT + 10 * HOUR;
+        // handled for two minutes at 1 Hz
+        for (int i = 0; i < 120; i++)
+            device.addSample(t + 1000 * i, true);
+        // resting, then a gap of 30 s in the data
+        device.addSample(t + 121000, false);
+        device.addSample(t + 151000, false);
+
+        DailyRollups.Day day = rollups.getDays("A", rollups.toDay(t), rollups.toDay(t)).get(0);
+        assertEquals(2, day.activeMinutes);
+        assertEquals(1, day.gaps);
+        assertEquals(30000, day.gapMillis);
+    }
+
+    @Test
+    public void returnsCopiesAndOmitsEmptyDays() {
+        DailyRollups rollups = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        rollups.getDevice("A").addEvent(MIDNIGHT, BottleEvent.TYPE.TILTED);
+        int today = rollups.toDay(MIDNIGHT);
+
+        rollups.getDays("A", today, today).get(0).eventCounts[BottleEvent.TYPE.TILTED] = 42;
+        assertEquals(1, rollups.getDays("A", today, today).get(0).eventCounts[BottleEvent.TYPE.TILTED]);
+        assertTrue(rollups.getDays("A", today + 1, today + 10).isEmpty());
+        assertTrue(rollups.getDays("A", today, today - 1).isEmpty());
+        assertTrue(rollups.getDays("B", today, today).isEmpty());
+    }
+
+    @Test
+    public void savesAndLoads() throws IOException {
+        DailyRollups rollups = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        assertFalse(rollups.isDirty());
+        DailyRollups.Device device = rollups.getDevice("A");
+        device.addEvent(MIDNIGHT + HOUR, BottleEvent.TYPE.DOSE_TAKEN);
+        device.addAdherenceEvent(MIDNIGHT + 2 * HOUR);
+        device.addSample(MIDNIGHT + HOUR, true);
+        device.addSample(MIDNIGHT + 2 * HOUR, true);
+        rollups.getDevice("B").addEvent(MIDNIGHT + 3 * DAY, BottleEvent.TYPE.PICKED_UP);
+        assertTrue(rollups.isDirty());
+
+        File file = File.createTempFile("rollups", ".bin");
+        try {
+            rollups.save(file);
+            assertFalse(rollups.isDirty());
+
+            DailyRollups loaded = new DailyRollups(TimeZone.getTimeZone("UTC"));
+            loaded.load(file);
+            assertFalse(loaded.isDirty());
+            assertEquals(2, loaded.getDevices().length);
+
+            int today = loaded.toDay(MIDNIGHT);
+            DailyRollups.Day day = loaded.getDays("A", today, today).get(0);
+            assertEquals(1, day.eventCounts[BottleEvent.TYPE.DOSE_TAKEN]);
+            assertEquals(1, day.adherenceEvents);
+            assertEquals(MIDNIGHT + HOUR, day.firstEvent);
+            assertEquals(MIDNIGHT + 2 * HOUR, day.lastEvent);
+            assertEquals(2, day.activeMinutes);
+            assertEquals(1, day.gaps);
+            assertEquals(HOUR, day.gapMillis);
+            assertEquals(1, loaded.getDays("B", today + 3, today + 3).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void storesSixtyFourBytesPerDay() throws IOException {
+        DailyRollups rollups = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        DailyRollups.Device device = rollups.getDevice("A");
+        File file = File.createTempFile("rollups", ".bin");
+        try {
+            rollups.save(file);
+            long empty = file.length();
+            device.addEvent(MIDNIGHT, BottleEvent.TYPE.PICKED_UP);
+            rollups.save(file);
+            long oneDay = file.length();
+            for (int i = 1; i <= 10; i++)
+                device.addEvent(MIDNIGHT + i * DAY, BottleEvent.TYPE.PICKED_UP);
+            rollups.save(file);
+            assertEquals(64, oneDay - empty);
+            assertEquals(64 * 10, file.length() - oneDay);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void loadingMissingFileClearsRollups() throws IOException {
+        DailyRollups rollups = new DailyRollups(TimeZone.getTimeZone("UTC"));
+        rollups.getDevice("A").addEvent(MIDNIGHT, BottleEvent.TYPE.PICKED_UP);
+        rollups.load(new File("does-not-exist"));
+        assertEquals(0, rollups.getDevices().length);
+    }
+}
@@ -0,0 +1,124 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RssiDistanceEstimatorTest {
+
+    /** the conversion of analysis/read_data.py: (27.55 - 20 * log10(f) + |rssi|) / 20, as a power of 10 */
+    private static double readDataMeters(double rssi, double frequencyMHz) {
+        double result = (27.55 - (20 * Math.log10(frequencyMHz)) + Math.abs(rssi)) / 20.0;
+        return Math.pow(10, result);
+    }
+
+    private static RssiDistanceEstimator freeSpace() {
+        return new RssiDistanceEstimator(
+                RssiDistanceEstimator.freeSpaceReferenceRssi(RssiDistanceEstimator.DEFAULT_FREQUENCY_MHZ),
+                RssiDistanceEstimator.FREE_SPACE_PATH_LOSS_EXPONENT);
+    }
+
+    @Test
+    public void freeSpaceConversionMatchesReadData() {
+        double reference = RssiDistanceEstimator.freeSpaceReferenceRssi(RssiDistanceEstimator.DEFAULT_FREQUENCY_MHZ);
+        for (double rssi = -100; rssi <= -30; rssi += 0.5) {
+            double expected = readDataMeters(rssi, RssiDistanceEstimator.DEFAULT_FREQUENCY_MHZ);
+            assertEquals(expected, RssiDistanceEstimator.toMeters(rssi, reference,
+                    RssiDistanceEstimator.FREE_SPACE_PATH_LOSS_EXPONENT), expected * 1e-12);
+        }
+        // 2462 MHz at -60 dBm is about 9.7 m
+        assertEquals(9.69, RssiDistanceEstimator.toMeters(-60, reference, 2), 0.01);
+    }
+
+    @Test
+    public void pathLossIsTheInverseOfTheDistance() {
+        double reference = -59, exponent = 2.7;
+        for (double meters = 0.25; meters <= 16; meters *= 2) {
+            double rssi = reference - 10 * exponent * Math.log10(meters);
+            assertEquals(meters, RssiDistanceEstimator.toMeters(rssi, reference, exponent), meters * 1e-12);
+        }
+        assertEquals(1, RssiDistanceEstimator.toMeters(reference, reference, exponent), 0);
+    }
+
+    @Test
+    public void firstSampleInitializesTheEstimate() {
+        RssiDistanceEstimator estimator = freeSpace();
+        assertTrue(Double.isNaN(estimator.getDistance()));
+        double distance = estimator.addSample(0, -60);
+        assertEquals(-60, estimator.getFilteredRssi(), 0);
+        assertEquals(readDataMeters(-60, RssiDistanceEstimator.DEFAULT_FREQUENCY_MHZ), distance, 1e-9);
+        estimator.reset();
+        assertTrue(Double.isNaN(estimator.getFilteredRssi()));
+    }
+
+    @Test
+    public void convergesAfterAStep() {
+        RssiDistanceEstimator estimator = freeSpace();
+        long time = 0;
+        for (int i = 0; i < 100; i++, time += 100)
+            estimator.addSample(time, -60);
+        assertEquals(-60, estimator.getFilteredRssi(), 1e-9);
+
+        estimator.addSample(time, -70);
+        time += 100;
+        // a single reading moves the estimate less than half way
+        double error = estimator.getFilteredRssi() + 70;
+        assertTrue(error > 5 && error < 10);
+        for (int i = 1; i < 10; i++, time += 100)
+            estimator.addSample(time, -70);
+        assertEquals(-70, estimator.getFilteredRssi(), 1.5);
+        for (int i = 10; i < 50; i++, time += 100)
+            estimator.addSample(time, -70);
+        assertEquals(-70, estimator.getFilteredRssi(), 0.01);
+    }
+
+    @Test
+    public void trustsReadingsMoreAfterLongGaps() {
+        RssiDistanceEstimator soon = freeSpace(), late = freeSpace();
+        for (int i = 0; i < 100; i++) {
+            soon.addSample(100L * i, -60);
+            late.addSample(100L * i, -60);
+        }
+        soon.addSample(10000, -70);
+        late.addSample(60000, -70);
+        assertTrue(late.getFilteredRssi() < soon.getFilteredRssi());
+    }
+
+    @Test
+    public void smoothsNoise() {
+        RssiDistanceEstimator estimator = freeSpace();
+        Random random = new Random(1);
+        double sum = 0, sumOfSquares = 0;
+        int n = 0;
+        for (int i = 0; i < 2000; i++) {
+            estimator.addSample(100L * i, -65 + 6 * random.nextGaussian());
+            if (i < 100) continue;
+            double deviation = estimator.getFilteredRssi() + 65;
+            sum += deviation;
+            sumOfSquares += deviation * deviation;
+            n++;
+        }
+        assertEquals(0, sum / n, 1);
+        // the readings deviate by 6 dB; the estimate by far less
+        assertTrue(Math.sqrt(sumOfSquares / n) < 3);
+    }
+
+    @Test
+    public void calibrationSetsTheReferenceToTheMeanReading() {
+        RssiDistanceEstimator estimator = freeSpace();
+        estimator.startCalibration(4);
+        estimator.addSample(0, -55);
+        estimator.addSample(100, -57);
+        estimator.addSample(200, -59);
+        assertTrue(estimator.isCalibrating());
+        estimator.addSample(300, -61);
+        assertFalse(estimator.isCalibrating());
+        assertEquals(-58, estimator.getReferenceRssi(), 1e-9);
+        estimator.reset();
+        assertEquals(1, estimator.addSample(400, -58), 1e-9);
+    }
+}
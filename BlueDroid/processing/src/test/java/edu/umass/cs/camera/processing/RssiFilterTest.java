@@ -0,0 +1,141 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RssiFilterTest {
+
+    private static final double THRESHOLD = 2.0;
+
+    /** recent readings, oldest first, kept alongside the filter */
+    private double[] recent = new double[0];
+
+    @Test
+    public void medianMatchesSortedWindowForOddWindows() {
+        checkMedian(5);
+        checkMedian(9);
+    }
+
+    @Test
+    public void medianMatchesSortedWindowForEvenWindows() {
+        checkMedian(4);
+        checkMedian(10);
+    }
+
+    @Test
+    public void outliersMatchSortedMedianAbsoluteDeviationForOddWindows() {
+        checkHampel(5);
+        checkHampel(9);
+    }
+
+    @Test
+    public void outliersMatchSortedMedianAbsoluteDeviationForEvenWindows() {
+        checkHampel(4);
+        checkHampel(10);
+    }
+
+    @Test
+    public void flagsGapsAndEstimatesMissingSamples() {
+        RssiFilter filter = new RssiFilter(RssiFilter.MODE.MEDIAN, 5, THRESHOLD, 10);
+        assertEquals(300, filter.getGapMillis());
+        filter.add(0, -60);
+        filter.add(100, -60);
+        assertEquals(0, filter.getFlags());
+        filter.add(400, -60);
+        assertEquals(0, filter.getFlags());
+        assertEquals(0, filter.getMissingSamples());
+        filter.add(900, -60);
+        assertEquals(RssiFilter.FLAG.GAP, filter.getFlags());
+        assertEquals(4, filter.getMissingSamples());
+        filter.add(1000, -60);
+        assertEquals(0, filter.getFlags());
+        assertEquals(0, filter.getMissingSamples());
+    }
+
+    @Test
+    public void replacesDropoutsByTheLastFilteredReading() {
+        RssiFilter filter = new RssiFilter(RssiFilter.MODE.HAMPEL, 5, THRESHOLD, 10);
+        assertTrue(Double.isNaN(filter.add(0, 0)));
+        assertEquals(RssiFilter.FLAG.DROPOUT, filter.getFlags());
+        assertEquals(-61, filter.add(100, -61), 0);
+        assertEquals(-61, filter.add(200, 0), 0);
+        assertEquals(RssiFilter.FLAG.DROPOUT, filter.getFlags());
+        assertEquals(-61, filter.add(800, Double.NaN), 0);
+        assertEquals(RssiFilter.FLAG.DROPOUT | RssiFilter.FLAG.GAP, filter.getFlags());
+        assertEquals(5, filter.getMissingSamples());
+    }
+
+    @Test
+    public void dropoutsStayOutOfTheWindow() {
+        RssiFilter filter = new RssiFilter(RssiFilter.MODE.MEDIAN, 3, THRESHOLD, 10);
+        filter.add(0, -70);
+        filter.add(100, -50);
+        filter.add(200, 0);
+        filter.add(300, 0);
+        // the window holds -70, -50 and -60, not the dropouts
+        assertEquals(-60, filter.add(400, -60), 0);
+    }
+
+    private void checkMedian(int windowSize) {
+        RssiFilter filter = new RssiFilter(RssiFilter.MODE.MEDIAN, windowSize, THRESHOLD, 10);
+        Random random = new Random(windowSize);
+        recent = new double[0];
+        for (int i = 0; i < 500; i++) {
+            double rssi = reading(random);
+            double filtered = filter.add(100L * i, rssi);
+            double[] window = push(rssi, windowSize);
+            assertEquals("reading " + i, median(window), filtered, 1e-9);
+        }
+    }
+
+    private void checkHampel(int windowSize) {
+        RssiFilter filter = new RssiFilter(RssiFilter.MODE.HAMPEL, windowSize, THRESHOLD, 10);
+        Random random = new Random(windowSize);
+        recent = new double[0];
+        int outliers = 0;
+        for (int i = 0; i < 2000; i++) {
+            double rssi = reading(random);
+            double filtered = filter.add(100L * i, rssi);
+            double[] window = push(rssi, windowSize);
+            double median = median(window);
+            double[] deviations = new double[window.length];
+            for (int j = 0; j < window.length; j++)
+                deviations[j] = Math.abs(window[j] - median);
+            double limit = THRESHOLD * 1.4826 * Math.max(RssiFilter.MIN_DEVIATION, median(deviations));
+            boolean outlier = Math.abs(rssi - median) > limit;
+            assertEquals("reading " + i, outlier, (filter.getFlags() & RssiFilter.FLAG.OUTLIER) != 0);
+            assertEquals("reading " + i, outlier ? median : rssi, filtered, 1e-9);
+            if (outlier)
+                outliers++;
+        }
+        // the comparison is only meaningful if both branches were taken
+        assertTrue(outliers > 0 && outliers < 2000);
+    }
+
+    /** a noisy reading with occasional spikes, not restricted to whole dBm */
+    private static double reading(Random random) {
+        double rssi = -65 + 4 * random.nextGaussian();
+        if (random.nextInt(10) == 0)
+            rssi -= 25 * random.nextDouble();
+        return Math.min(rssi, -1);
+    }
+
+    /** appends a reading to the recent readings and returns the last windowSize of them */
+    private double[] push(double rssi, int windowSize) {
+        recent = Arrays.copyOf(recent, recent.length + 1);
+        recent[recent.length - 1] = rssi;
+        return Arrays.copyOfRange(recent, Math.max(0, recent.length - windowSize), recent.length);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
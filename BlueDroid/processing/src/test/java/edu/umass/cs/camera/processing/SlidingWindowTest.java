@@ -0,0 +1,103 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowTest {
+
+    @Test
+    public void matchesBruteForceOnRandomValues() {
+        for (int capacity : new int[]{1, 2, 5, 16, 61}) {
+            Random random = new Random(capacity);
+            double[] values = new double[5000];
+            for (int i = 0; i < values.length; i++)
+                values[i] = random.nextGaussian() * 3 + 0.5;
+            check(capacity, values);
+        }
+    }
+
+    @Test
+    public void matchesBruteForceOnMonotonicRuns() {
+        // long rising and falling runs exercise the eviction of the deque heads
+        double[] values = new double[400];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (i / 50) % 2 == 0 ? i % 50 : 50 - i % 50;
+        check(7, values);
+        check(64, values);
+    }
+
+    @Test
+    public void matchesBruteForceWithRepeatedValues() {
+        Random random = new Random(3);
+        double[] values = new double[2000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = random.nextInt(5) - 2;
+        check(8, values);
+    }
+
+    @Test
+    public void varianceDoesNotDriftOverLongStreams() {
+        SlidingWindow window = new SlidingWindow(50);
+        Random random = new Random(5);
+        for (int i = 0; i < 1000000; i++)
+            window.add(1000 + random.nextGaussian());
+        for (int i = 0; i < 50; i++)
+            window.add(i % 2 == 0 ? 999 : 1001);
+        assertEquals(1000, window.getMean(), 1e-6);
+        assertEquals(1, window.getVariance(), 1e-6);
+        assertEquals(999, window.getMin(), 0);
+        assertEquals(1001, window.getMax(), 0);
+    }
+
+    @Test
+    public void clearEmptiesTheWindow() {
+        SlidingWindow window = new SlidingWindow(4);
+        for (int i = 0; i < 10; i++)
+            window.add(i - 5);
+        window.clear();
+        assertEquals(0, window.size());
+        assertTrue(Double.isNaN(window.getMean()));
+        assertTrue(Double.isNaN(window.getMin()));
+        assertTrue(Double.isNaN(window.getMax()));
+        assertEquals(0, window.getZeroCrossings());
+        check(4, new double[]{3, -1, 2, 2, -7, 0});
+    }
+
+    /** feeds the values to a window and compares its statistics with those of the last values after each */
+    private static void check(int capacity, double[] values) {
+        SlidingWindow window = new SlidingWindow(capacity);
+        for (int i = 0; i < values.length; i++) {
+            window.add(values[i]);
+            int from = Math.max(0, i + 1 - capacity), n = i + 1 - from;
+            double sum = 0, sumOfSquares = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            int crossings = 0;
+            for (int j = from; j <= i; j++) {
+                sum += values[j];
+                sumOfSquares += values[j] * values[j];
+                min = Math.min(min, values[j]);
+                max = Math.max(max, values[j]);
+                if (j > from && (values[j - 1] < 0) != (values[j] < 0))
+                    crossings++;
+            }
+            double mean = sum / n, variance = 0;
+            for (int j = from; j <= i; j++)
+                variance += (values[j] - mean) * (values[j] - mean);
+            variance /= n;
+
+            String at = "capacity " + capacity + ", value " + i;
+            assertEquals(at, n, window.size());
+            assertEquals(at, values[from], window.getFirst(), 0);
+            assertEquals(at, values[i], window.getLast(), 0);
+            assertEquals(at, mean, window.getMean(), 1e-9 * (1 + Math.abs(mean)));
+            assertEquals(at, variance, window.getVariance(), 1e-9 * (1 + variance));
+            assertEquals(at, min, window.getMin(), 0);
+            assertEquals(at, max, window.getMax(), 0);
+            assertEquals(at, crossings, window.getZeroCrossings());
+            assertEquals(at, sumOfSquares / n, window.getEnergy(), 1e-9 * (1 + sumOfSquares / n));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesBufferTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void copiesSamplesInRange() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(3, 10, 10000);
+        for (int i = 0; i < 5; i++)
+            buffer.add(1000 + 100 * i, i, 10 * i, 100 * i);
+
+        assertEquals(3, buffer.count(1100, 1300));
+        long[] times = new long[3];
+        double[] values = new double[9];
+        assertEquals(3, buffer.copy(1100, 1300, times, values));
+        assertArrayEquals(new long[]{1100, 1200, 1300}, times);
+        assertArrayEquals(new double[]{1, 10, 100, 2, 20, 200, 3, 30, 300}, values, DELTA);
+    }
+
+    @Test
+    public void evictsSamplesOutsideWindow() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(1, 100, 1000);
+        for (int i = 0; i <= 20; i++)
+            buffer.add(100 * i, i);
+
+        // samples older than 1000 ms before the latest one (t = 2000) are gone
+        assertEquals(11, buffer.size());
+        assertEquals(1000, buffer.getOldestTime());
+        assertEquals(0, buffer.count(0, 999));
+    }
+
+    @Test
+    public void overwritesOldestSampleWhenFull() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(1, 4, 100000);
+        for (int i = 0; i < 6; i++)
+            buffer.add(i, i);
+
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getOldestTime());
+        long[] times = new long[4];
+        double[] values = new double[4];
+        assertEquals(4, buffer.copy(0, 10, times, values));
+        assertArrayEquals(new long[]{2, 3, 4, 5}, times);
+        assertArrayEquals(new double[]{2, 3, 4, 5}, values, DELTA);
+    }
+
+    @Test
+    public void emptyBufferHasNoOldestTime() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(1, 4, 1000);
+        assertEquals(Long.MAX_VALUE, buffer.getOldestTime());
+        buffer.add(5, 1);
+        buffer.clear();
+        assertEquals(Long.MAX_VALUE, buffer.getOldestTime());
+        assertEquals(0, buffer.count(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void countsUpToLatestPossibleTime() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(1, 4, 1000);
+        buffer.add(10, 1);
+        buffer.add(20, 2);
+        assertEquals(2, buffer.count(0, Long.MAX_VALUE));
+        assertEquals(0, buffer.count(30, 20));
+    }
+
+    @Test
+    public void aggregatesEachFunctionPerBucket() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(1, 10, 10000);
+        buffer.add(0, 1);
+        buffer.add(5, 3);
+        buffer.add(10, 10);
+        // no samples in [20, 30)
+        buffer.add(30, -2);
+        buffer.add(39, 4);
+
+        int n = TimeSeriesBuffer.bucketCount(0, 39, 10);
+        assertEquals(4, n);
+        long[] times = new long[n];
+        double[] values = new double[n];
+
+        assertEquals(4, buffer.aggregate(0, 39, 10, TimeSeriesBuffer.AGGREGATION.MEAN, times, values));
+        assertArrayEquals(new long[]{0, 10, 20, 30}, times);
+        assertArrayEquals(new double[]{2, 10, Double.NaN, 1}, values, DELTA);
+
+        buffer.aggregate(0, 39, 10, TimeSeriesBuffer.AGGREGATION.MIN, times, values);
+        assertArrayEquals(new double[]{1, 10, Double.NaN, -2}, values, DELTA);
+
+        buffer.aggregate(0, 39, 10, TimeSeriesBuffer.AGGREGATION.MAX, times, values);
+        assertArrayEquals(new double[]{3, 10, Double.NaN, 4}, values, DELTA);
+
+        buffer.aggregate(0, 39, 10, TimeSeriesBuffer.AGGREGATION.COUNT, times, values);
+        assertArrayEquals(new double[]{2, 1, 0, 2}, values, DELTA);
+    }
+
+    @Test
+    public void aggregatesChannelsIndependently() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(3, 10, 10000);
+        buffer.add(0, 1, 2, 3);
+        buffer.add(1, 3, 4, 5);
+        long[] times = new long[1];
+        double[] values = new double[3];
+        assertEquals(1, buffer.aggregate(0, 1, 10, TimeSeriesBuffer.AGGREGATION.MEAN, times, values));
+        assertArrayEquals(new double[]{2, 3, 4}, values, DELTA);
+    }
+
+    @Test
+    public void aggregateStopsAtOutputCapacity() {
+        TimeSeriesBuffer buffer = new TimeSeriesBuffer(1, 10, 10000);
+        for (int i = 0; i < 5; i++)
+            buffer.add(10 * i, i);
+        long[] times = new long[2];
+        double[] values = new double[2];
+        assertEquals(2, buffer.aggregate(0, 40, 10, TimeSeriesBuffer.AGGREGATION.MEAN, times, values));
+        assertArrayEquals(new double[]{0, 1}, values, DELTA);
+    }
+
+    @Test
+    public void bucketCountSaturates() {
+        assertEquals(0, TimeSeriesBuffer.bucketCount(10, 0, 1));
+        assertEquals(0, TimeSeriesBuffer.bucketCount(0, 10, 0));
+        assertEquals(Integer.MAX_VALUE, TimeSeriesBuffer.bucketCount(0, Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void limitsBucketSizeToMaxBuckets() {
+        long now = 1500000000000L;
+        long bucket = TimeSeriesBuffer.limitBucketMillis(0, now, 1000);
+        assertTrue(TimeSeriesBuffer.bucketCount(0, now, bucket) <= TimeSeriesBuffer.MAX_BUCKETS);
+
+        // sizes that are not positive become the smallest allowed one
+        assertEquals(1, TimeSeriesBuffer.limitBucketMillis(0, 100, 0));
+        assertEquals(1, TimeSeriesBuffer.limitBucketMillis(0, 100, -5));
+        bucket = TimeSeriesBuffer.limitBucketMillis(0, 600000, 0);
+        assertTrue(TimeSeriesBuffer.bucketCount(0, 600000, bucket) <= TimeSeriesBuffer.MAX_BUCKETS);
+
+        // sizes which already yield few enough buckets are kept
+        assertEquals(1000, TimeSeriesBuffer.limitBucketMillis(0, 600000, 1000));
+    }
+}
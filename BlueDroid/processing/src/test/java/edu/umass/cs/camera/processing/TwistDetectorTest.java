@@ -0,0 +1,68 @@
+package edu.umass.cs.camera.processing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TwistDetectorTest {
+
+    /** records the types of the reported events */
+    private final List<Integer> events = new ArrayList<>();
+
+    private final TwistDetector detector = new TwistDetector(TwistDetector.AXIS.Z, new BottleEvent.Listener() {
+        @Override
+        public void onBottleEvent(long timestamp, int type) {
+            events.add(type);
+        }
+    });
+
+    @Test
+    public void recognizesTwistsInBothDirections() {
+        for (long t = 0; t <= 300; t += 100)
+            detector.addSample(t, 0, 0, 300);
+        for (long t = 3000; t <= 3300; t += 100)
+            detector.addSample(t, 0, 0, -300);
+        assertEquals(2, events.size());
+        assertEquals(BottleEvent.TYPE.TWIST_OPEN, (int) events.get(0));
+        assertEquals(BottleEvent.TYPE.TWIST_CLOSE, (int) events.get(1));
+    }
+
+    @Test
+    public void ignoresRotationAboutOtherAxes() {
+        for (long t = 0; t <= 500; t += 100)
+            detector.addSample(t, 300, 0, 200);
+        assertEquals(0, events.size());
+    }
+
+    @Test
+    public void skipsSamplesWithTheSameTime() {
+        // a batch of notifications stamped with the same time must not reset the integrators
+        detector.addSample(0, 0, 0, 300);
+        detector.addSample(100, 0, 0, 300);
+        detector.addSample(100, 0, 0, 300);
+        detector.addSample(100, 0, 0, 300);
+        assertEquals(0, events.size());
+        detector.addSample(200, 0, 0, 300);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void longGapsResetTheIntegrators() {
+        detector.addSample(0, 0, 0, 300);
+        detector.addSample(100, 0, 0, 300);
+        detector.addSample(100 + TwistDetector.MAX_INTERVAL + 1, 0, 0, 300);
+        assertEquals(0, events.size());
+    }
+
+    @Test
+    public void mergesStrokesInTheSameDirection() {
+        for (long t = 0; t <= 300; t += 100)
+            detector.addSample(t, 0, 0, 300);
+        for (long t = 400; t <= 700; t += 100)
+            detector.addSample(t, 0, 0, 300);
+        assertEquals(1, events.size());
+    }
+}
@@ -138,20 +138,14 @@ public class DeviceInformationServiceProfile extends GenericBluetoothProfile {
 	}
 	@Override
 	public void enableService () {
-		// Read all values
-		this.mBTLeService.readCharacteristic(this.systemIDc);
-		mBTLeService.waitIdle(GATT_TIMEOUT);
-		this.mBTLeService.readCharacteristic(this.modelNRc);
-		mBTLeService.waitIdle(GATT_TIMEOUT);
-		this.mBTLeService.readCharacteristic(this.serialNRc);
-		mBTLeService.waitIdle(GATT_TIMEOUT);
-		this.mBTLeService.readCharacteristic(this.firmwareREVc);
-		mBTLeService.waitIdle(GATT_TIMEOUT);
-		this.mBTLeService.readCharacteristic(this.hardwareREVc);
-		mBTLeService.waitIdle(GATT_TIMEOUT);
-		this.mBTLeService.readCharacteristic(this.softwareREVc);
-		mBTLeService.waitIdle(GATT_TIMEOUT);
-		this.mBTLeService.readCharacteristic(this.ManifacturerNAMEc);
+		// Read all values; the results arrive through didReadValueForCharacteristic
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.systemIDc);
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.modelNRc);
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.serialNRc);
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.firmwareREVc);
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.hardwareREVc);
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.softwareREVc);
+		this.mBTLeService.readCharacteristicAsync(this.mBTDevice.getAddress(), this.ManifacturerNAMEc);
 	}
 	@Override
 	public void disableService () {
@@ -222,7 +216,7 @@ public class DeviceInformationServiceProfile extends GenericBluetoothProfile {
 			}
 		}
 	}
-	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
+	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 
 	}
 	@Override
@@ -53,16 +53,18 @@
 package com.example.ti.ble.common;
 
 import java.lang.reflect.Method;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
@@ -71,13 +73,13 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
-import com.example.ti.util.PreferenceWR;
-
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import com.example.ti.util.SharedScheduler;
 
 // import android.util.Log;
 
@@ -91,30 +93,25 @@ public class BluetoothLeService extends Service {
 	public final static String ACTION_GATT_CONNECTED = "com.example.ti.ble.common.ACTION_GATT_CONNECTED";
 	public final static String ACTION_GATT_DISCONNECTED = "com.example.ti.ble.common.ACTION_GATT_DISCONNECTED";
 	public final static String ACTION_GATT_SERVICES_DISCOVERED = "com.example.ti.ble.common.ACTION_GATT_SERVICES_DISCOVERED";
-	public final static String ACTION_DATA_READ = "com.example.ti.ble.common.ACTION_DATA_READ";
-	public final static String ACTION_DATA_NOTIFY = "com.example.ti.ble.common.ACTION_DATA_NOTIFY";
-	public final static String ACTION_DATA_WRITE = "com.example.ti.ble.common.ACTION_DATA_WRITE";
-	public final static String EXTRA_DATA = "com.example.ti.ble.common.EXTRA_DATA";
-	public final static String EXTRA_UUID = "com.example.ti.ble.common.EXTRA_UUID";
 	public final static String EXTRA_STATUS = "com.example.ti.ble.common.EXTRA_STATUS";
 	public final static String EXTRA_ADDRESS = "com.example.ti.ble.common.EXTRA_ADDRESS";
+    /** Milliseconds to wait for the GATT callback of a queued request before it times out */
     public final static int GATT_TIMEOUT = 150;
+    /** Milliseconds a queued request must wait to count as one priority lane more urgent */
+    public final static int PRIORITY_AGING_MS = 200;
 
 	// BLE
 	private BluetoothManager mBluetoothManager = null;
 	private BluetoothAdapter mBtAdapter = null;
-	private BluetoothGatt mBluetoothGatt = null;
 	private static BluetoothLeService mThis = null;
-	private String mBluetoothDeviceAddress;
-    private PreferenceWR mDevicePrefs = null;
-
-	public Timer disconnectionTimer;
-    private final Lock lock = new ReentrantLock();
-
-    private volatile boolean blocking = false;
-    private volatile int lastGattStatus = 0; //Success
+	/** the device last connected, used by the methods which take no address */
+	private volatile String mBluetoothDeviceAddress;
+	/** GATT sessions by device address */
+	private final ConcurrentHashMap<String, GattSession> sessions = new ConcurrentHashMap<String, GattSession>();
+	/** latency and outcome of the requests of all sessions */
+	private final GattStatistics statistics = new GattStatistics();
 
-    private volatile bleRequest curBleRequest = null;
+	private SharedScheduler.Handle disconnectionTask;
 
     public enum bleRequestOperation {
         wrBlocking,
@@ -122,6 +119,8 @@ public class BluetoothLeService extends Service {
         rdBlocking,
         rd,
         nsBlocking,
+        /** negotiates the MTU given by bleRequest.mtu; needs API 21 */
+        mtu,
     }
 
     public enum bleRequestStatus {
@@ -134,130 +133,274 @@ public class BluetoothLeService extends Service {
         failed,
     }
 
-    public class bleRequest {
+    /**
+     * The lanes of a device's request queue, most urgent first. A queued request
+     * goes before those of less urgent lanes, but every {@link #PRIORITY_AGING_MS}
+     * it waits counts as one lane more urgent, so a busy lane cannot starve the
+     * others. Within a lane requests are sent in order.
+     */
+    public enum bleRequestPriority {
+        /** notification settings and other time-critical control, the default for nsBlocking */
+        control,
+        /** sensor configuration and period writes, the default for wrBlocking */
+        streaming,
+        /** bulk transfers such as firmware images, the default for wr */
+        bulk,
+        /** reads of values such as the device information, the default for rd and rdBlocking */
+        background,
+    }
+
+    /**
+     * Receives a request once it has finished
+     *
+     * @see bleRequest#setRequestListener(RequestListener, Executor)
+     */
+    public interface RequestListener {
+        void onRequestFinished(bleRequest request);
+    }
+
+    /**
+     * A queued GATT operation, which also serves as its completion handle: callers of the
+     * asynchronous API may poll it, wait for it or register a {@link RequestListener}.
+     */
+    public static class bleRequest {
         public int id;
         public BluetoothGattCharacteristic characteristic;
         public bleRequestOperation operation;
         public volatile bleRequestStatus status;
+        /**
+         * milliseconds to wait for the GATT callback; if 0, {@link #GATT_TIMEOUT}, or
+         * {@link ConnectionTuner#LOW_POWER_GATT_TIMEOUT} while the connection runs at low power
+         */
         public int timeout;
-        public int curTimeout;
         public boolean notifyenable;
-    }
+        /** the MTU to request, for the mtu operation */
+        int mtu;
+        /** the queue lane, or null for the default of the operation */
+        public bleRequestPriority priority;
+        /** the value to write, copied when the request is created, or the value read */
+        volatile byte[] value;
+        /** whether a later write to the same characteristic may replace the value while queued */
+        boolean coalesce;
+        volatile int gattStatus = -1;
+        /** System.nanoTime() when the request was queued, sent and finished */
+        volatile long queueTime, sendTime, finishTime;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private RequestListener listener;
+        private Executor listenerExecutor;
+
+        public boolean isDone() {
+            return this.finished.getCount() == 0;
+        }
+
+        /**
+         * Waits until the request has finished
+         *
+         * @return the final status
+         */
+        public bleRequestStatus await() throws InterruptedException {
+            this.finished.await();
+            return this.status;
+        }
+
+        /**
+         * Waits until the request has finished or the given time has passed
+         *
+         * @return the final status, or the current one if the request has not finished yet
+         */
+        public bleRequestStatus await(long timeout, TimeUnit unit) throws InterruptedException {
+            this.finished.await(timeout, unit);
+            return this.status;
+        }
+
+        /**
+         * Returns the result code of the blocking calls: 0 if the request was done, -3 if it timed
+         * out and -2 if it failed or has not finished
+         */
+        public int getResult() {
+            switch (this.status) {
+                case done:
+                    return 0;
+                case timeout:
+                    return -3;
+                default:
+                    return -2;
+            }
+        }
+
+        /** Returns the status reported by the GATT callback, or -1 if there was none */
+        public int getGattStatus() {
+            return this.gattStatus;
+        }
 
-    // Queuing for fast application response.
-    private volatile LinkedList<bleRequest> procQueue;
-    private volatile LinkedList<bleRequest> nonBlockQueue;
+        /** Returns the value read, or the value written; it must not be modified */
+        public byte[] getValue() {
+            return this.value;
+        }
 
-    //
+        /** Returns the milliseconds from queuing the request until it finished, or -1 if it has not */
+        public double getLatencyMillis() {
+            if (!isDone()) return -1;
+            return (this.finishTime - this.queueTime) / 1e6;
+        }
+
+        /**
+         * Calls the listener once the request has finished, immediately if it already has
+         *
+         * @param executor runs the listener, e.g. {@link #MAIN_THREAD_EXECUTOR}
+         */
+        public void setRequestListener(RequestListener listener, Executor executor) {
+            synchronized (this) {
+                this.listener = listener;
+                this.listenerExecutor = executor;
+            }
+            if (isDone()) notifyListener();
+        }
+
+        void finish(bleRequestStatus status) {
+            this.status = status;
+            this.finishTime = System.nanoTime();
+            this.finished.countDown();
+            notifyListener();
+        }
+
+        private void notifyListener() {
+            final RequestListener l;
+            Executor executor;
+            synchronized (this) {
+                l = this.listener;
+                executor = this.listenerExecutor;
+                this.listener = null;
+            }
+            if (l == null) return;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    l.onRequestFinished(bleRequest.this);
+                }
+            });
+        }
+    }
 
 	/**
-	 * GATT client callbacks
+	 * Receives characteristic values directly from the GATT callbacks. Unlike the broadcasts used
+	 * for connection state changes, this allocates no Intent and does not copy the value, so it is
+	 * used for the per-notification data path.
+	 *
+	 * @see #addGattListener(GattListener, Executor)
 	 */
-	private BluetoothGattCallback mGattCallbacks = new BluetoothGattCallback() {
+	public interface GattListener {
+		/**
+		 * A notification or indication was received
+		 *
+		 * @param value the value received, which the Bluetooth stack does not reuse; it must not be modified
+		 */
+		void onCharacteristicChanged(String address, BluetoothGattCharacteristic characteristic, byte[] value);
 
-		@Override
-		public void onConnectionStateChange(BluetoothGatt gatt, int status,
-		    int newState) {
-			if (mBluetoothGatt == null) {
-				// Log.e(TAG, "mBluetoothGatt not created!");
-				return;
-			}
+		void onCharacteristicRead(String address, BluetoothGattCharacteristic characteristic, byte[] value, int status);
 
-			BluetoothDevice device = gatt.getDevice();
-			String address = device.getAddress();
-			// Log.d(TAG, "onConnectionStateChange (" + address + ") " + newState +
-			// " status: " + status);
-
-			try {
-				switch (newState) {
-				case BluetoothProfile.STATE_CONNECTED:
-					broadcastUpdate(ACTION_GATT_CONNECTED, address, status);
-					break;
-				case BluetoothProfile.STATE_DISCONNECTED:
-					broadcastUpdate(ACTION_GATT_DISCONNECTED, address, status);
-					break;
-				default:
-					// Log.e(TAG, "New state not processed: " + newState);
-					break;
-				}
-			} catch (NullPointerException e) {
-				e.printStackTrace();
-			}
-		}
+		void onCharacteristicWrite(String address, BluetoothGattCharacteristic characteristic, int status);
+	}
 
+	/** Calls listeners directly on the Bluetooth binder thread, without allocating a task per callback */
+	public static final Executor DIRECT_EXECUTOR = new Executor() {
 		@Override
-		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-			BluetoothDevice device = gatt.getDevice();
-			broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED, device.getAddress(),
-			    status);
+		public void execute(Runnable command) {
+			command.run();
 		}
+	};
 
-		@Override
-		public void onCharacteristicChanged(BluetoothGatt gatt,
-		    BluetoothGattCharacteristic characteristic) {
-			broadcastUpdate(ACTION_DATA_NOTIFY, characteristic,
-			    BluetoothGatt.GATT_SUCCESS);
-		}
+	/**
+	 * Calls listeners on the main thread, like a broadcast receiver. GATT callbacks arriving in a
+	 * burst are delivered to these listeners together, in one message to the main thread.
+	 */
+	public static final Executor MAIN_THREAD_EXECUTOR = new Executor() {
+		private final Handler handler = new Handler(Looper.getMainLooper());
 
 		@Override
-		public void onCharacteristicRead(BluetoothGatt gatt,
-		    BluetoothGattCharacteristic characteristic, int status) {
-            if (blocking)unlockBlockingThread(status);
-            if (nonBlockQueue.size() > 0) {
-                lock.lock();
-                for (int ii = 0; ii < nonBlockQueue.size(); ii++) {
-                    bleRequest req = nonBlockQueue.get(ii);
-                    if (req.characteristic == characteristic) {
-                        req.status = bleRequestStatus.done;
-                        nonBlockQueue.remove(ii);
-                        break;
-                    }
-                }
-                lock.unlock();
-            }
-			broadcastUpdate(ACTION_DATA_READ, characteristic, status);
+		public void execute(Runnable command) {
+			handler.post(command);
 		}
+	};
 
-		@Override
-		public void onCharacteristicWrite(BluetoothGatt gatt,
-		    BluetoothGattCharacteristic characteristic, int status) {
-            if (blocking)unlockBlockingThread(status);
-            if (nonBlockQueue.size() > 0) {
-                lock.lock();
-                for (int ii = 0; ii < nonBlockQueue.size(); ii++) {
-                    bleRequest req = nonBlockQueue.get(ii);
-                    if (req.characteristic == characteristic) {
-                        req.status = bleRequestStatus.done;
-                        nonBlockQueue.remove(ii);
-                        break;
-                    }
-                }
-                lock.unlock();
-            }
-			broadcastUpdate(ACTION_DATA_WRITE, characteristic, status);
+	private static class GattListenerRegistration {
+		final GattListener listener;
+		final Executor executor;
+
+		GattListenerRegistration(GattListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
 		}
+	}
 
-		@Override
-		public void onDescriptorRead(BluetoothGatt gatt,
-		    BluetoothGattDescriptor descriptor, int status) {
-            if (blocking)unlockBlockingThread(status);
-            unlockBlockingThread(status);
+	/** Registered listeners, replaced on every change so that dispatching needs no lock or iterator */
+	private volatile GattListenerRegistration[] gattListeners = new GattListenerRegistration[0];
+	private final Object gattListenerLock = new Object();
+
+	/** A GATT callback waiting to be delivered to the listeners on the main thread */
+	private static class PendingGattEvent {
+		static final int CHANGED = 0;
+		static final int READ = 1;
+		static final int WRITE = 2;
+
+		final int kind;
+		final String address;
+		final BluetoothGattCharacteristic characteristic;
+		final byte[] value;
+		final int status;
+
+		PendingGattEvent(int kind, String address, BluetoothGattCharacteristic characteristic, byte[] value, int status) {
+			this.kind = kind;
+			this.address = address;
+			this.characteristic = characteristic;
+			this.value = value;
+			this.status = status;
 		}
+	}
 
+	/**
+	 * Callbacks waiting for the main thread, and the list being delivered, which are swapped so
+	 * that a burst of callbacks costs a single message to the main thread
+	 */
+	private ArrayList<PendingGattEvent> mainThreadEvents = new ArrayList<PendingGattEvent>();
+	private ArrayList<PendingGattEvent> deliveredEvents = new ArrayList<PendingGattEvent>();
+	private boolean mainThreadDeliveryPosted;
+	private final Object mainThreadEventLock = new Object();
+	private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+	private final Runnable deliverMainThreadEvents = new Runnable() {
 		@Override
-		public void onDescriptorWrite(BluetoothGatt gatt,
-		    BluetoothGattDescriptor descriptor, int status) {
-            if (blocking)unlockBlockingThread(status);
-			// Log.i(TAG, "onDescriptorWrite: " + descriptor.getUuid().toString());
+		public void run() {
+			ArrayList<PendingGattEvent> events;
+			synchronized (mainThreadEventLock) {
+				events = mainThreadEvents;
+				mainThreadEvents = deliveredEvents;
+				deliveredEvents = events;
+				mainThreadDeliveryPosted = false;
+			}
+			GattListenerRegistration[] listeners = gattListeners;
+			for (int i = 0; i < events.size(); i++) {
+				PendingGattEvent e = events.get(i);
+				for (GattListenerRegistration r : listeners) {
+					if (r.executor != MAIN_THREAD_EXECUTOR) continue;
+					switch (e.kind) {
+						case PendingGattEvent.CHANGED:
+							r.listener.onCharacteristicChanged(e.address, e.characteristic, e.value);
+							break;
+						case PendingGattEvent.READ:
+							r.listener.onCharacteristicRead(e.address, e.characteristic, e.value, e.status);
+							break;
+						default:
+							r.listener.onCharacteristicWrite(e.address, e.characteristic, e.status);
+							break;
+					}
+				}
+			}
+			events.clear();
 		}
 	};
 
-    private void unlockBlockingThread(int status) {
-        this.lastGattStatus = status;
-        this.blocking = false;
-    }
-
-	private void broadcastUpdate(final String action, final String address,
+	void broadcastUpdate(final String action, final String address,
 	    final int status) {
 		final Intent intent = new Intent(action);
 		intent.putExtra(EXTRA_ADDRESS, address);
@@ -265,28 +408,131 @@ public class BluetoothLeService extends Service {
 		sendBroadcast(intent);
 	}
 
-	private void broadcastUpdate(final String action,
+	/**
+	 * Registers a listener for characteristic notifications, reads and writes
+	 *
+	 * @param executor runs the callbacks, e.g. {@link #MAIN_THREAD_EXECUTOR} to update views, or
+	 *                 {@link #DIRECT_EXECUTOR} for listeners which return quickly and are thread-safe
+	 */
+	public void addGattListener(GattListener listener, Executor executor) {
+		synchronized (this.gattListenerLock) {
+			GattListenerRegistration[] listeners = this.gattListeners;
+			for (GattListenerRegistration r : listeners) {
+				if (r.listener == listener) return;
+			}
+			GattListenerRegistration[] updated = new GattListenerRegistration[listeners.length + 1];
+			System.arraycopy(listeners, 0, updated, 0, listeners.length);
+			updated[listeners.length] = new GattListenerRegistration(listener, executor);
+			this.gattListeners = updated;
+		}
+	}
+
+	public void removeGattListener(GattListener listener) {
+		synchronized (this.gattListenerLock) {
+			GattListenerRegistration[] listeners = this.gattListeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].listener == listener) {
+					GattListenerRegistration[] updated = new GattListenerRegistration[listeners.length - 1];
+					System.arraycopy(listeners, 0, updated, 0, i);
+					System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+					this.gattListeners = updated;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a callback for the main thread listeners, posting a delivery unless one is pending
+	 */
+	private void postToMainThread(PendingGattEvent event) {
+		synchronized (this.mainThreadEventLock) {
+			this.mainThreadEvents.add(event);
+			if (this.mainThreadDeliveryPosted) return;
+			this.mainThreadDeliveryPosted = true;
+		}
+		this.mainThreadHandler.post(this.deliverMainThreadEvents);
+	}
+
+	void dispatchCharacteristicChanged(final String address,
+	    final BluetoothGattCharacteristic characteristic, final byte[] value) {
+		boolean toMainThread = false;
+		for (final GattListenerRegistration r : this.gattListeners) {
+			if (r.executor == DIRECT_EXECUTOR) {
+				r.listener.onCharacteristicChanged(address, characteristic, value);
+			} else if (r.executor == MAIN_THREAD_EXECUTOR) {
+				toMainThread = true;
+			} else {
+				r.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						r.listener.onCharacteristicChanged(address, characteristic, value);
+					}
+				});
+			}
+		}
+		if (toMainThread) {
+			postToMainThread(new PendingGattEvent(PendingGattEvent.CHANGED, address, characteristic, value, 0));
+		}
+	}
+
+	void dispatchCharacteristicRead(final String address,
+	    final BluetoothGattCharacteristic characteristic, final byte[] value, final int status) {
+		boolean toMainThread = false;
+		for (final GattListenerRegistration r : this.gattListeners) {
+			if (r.executor == DIRECT_EXECUTOR) {
+				r.listener.onCharacteristicRead(address, characteristic, value, status);
+			} else if (r.executor == MAIN_THREAD_EXECUTOR) {
+				toMainThread = true;
+			} else {
+				r.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						r.listener.onCharacteristicRead(address, characteristic, value, status);
+					}
+				});
+			}
+		}
+		if (toMainThread) {
+			postToMainThread(new PendingGattEvent(PendingGattEvent.READ, address, characteristic, value, status));
+		}
+	}
+
+	void dispatchCharacteristicWrite(final String address,
 	    final BluetoothGattCharacteristic characteristic, final int status) {
-		final Intent intent = new Intent(action);
-		intent.putExtra(EXTRA_UUID, characteristic.getUuid().toString());
-		intent.putExtra(EXTRA_DATA, characteristic.getValue());
-		intent.putExtra(EXTRA_STATUS, status);
-		sendBroadcast(intent);
+		boolean toMainThread = false;
+		for (final GattListenerRegistration r : this.gattListeners) {
+			if (r.executor == DIRECT_EXECUTOR) {
+				r.listener.onCharacteristicWrite(address, characteristic, status);
+			} else if (r.executor == MAIN_THREAD_EXECUTOR) {
+				toMainThread = true;
+			} else {
+				r.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						r.listener.onCharacteristicWrite(address, characteristic, status);
+					}
+				});
+			}
+		}
+		if (toMainThread) {
+			postToMainThread(new PendingGattEvent(PendingGattEvent.WRITE, address, characteristic, null, status));
+		}
 	}
 
 	public boolean checkGatt() {
+		return checkGatt(mBluetoothDeviceAddress);
+	}
+
+	public boolean checkGatt(String address) {
 		if (mBtAdapter == null) {
 			// Log.w(TAG, "BluetoothAdapter not initialized");
 			return false;
 		}
-		if (mBluetoothGatt == null) {
+		if (getBtGatt(address) == null) {
 			// Log.w(TAG, "BluetoothGatt not initialized");
 			return false;
 		}
-        if (this.blocking) {
-            Log.d(TAG,"Cannot start operation : Blocked");
-            return false;
-        }
 		return true;
 
 	}
@@ -340,27 +586,6 @@ public class BluetoothLeService extends Service {
 			// Log.e(TAG, "Unable to obtain a BluetoothAdapter.");
 			return false;
 		}
-
-        procQueue = new LinkedList<bleRequest>();
-        nonBlockQueue = new LinkedList<bleRequest>();
-
-
-        Thread queueThread = new Thread() {
-            @Override
-            public void run() {
-                while (true) {
-                    executeQueue();
-                    try {
-                        Thread.sleep(0,100000);
-                    }
-                    catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        };
-
-        queueThread.start();
 		return true;
 	}
 
@@ -376,182 +601,256 @@ public class BluetoothLeService extends Service {
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
-		if (mBluetoothGatt != null) {
-			mBluetoothGatt.close();
-			mBluetoothGatt = null;
-		}
+		abortTimedDisconnect();
+		close();
+	}
+
+	/**
+	 * Returns the latency histograms, timeouts and GATT status codes of the
+	 * requests sent so far, by operation
+	 */
+	public GattStatistics getStatistics() {
+		return statistics;
 	}
 
 	//
 	// GATT API
 	//
+	// The methods taking no address act on the device last connected. Those
+	// taking an address act on the session of that device; requests to
+	// different devices are sent in parallel.
+	//
 
 	/**
-	 * Request a read on a given {@code BluetoothGattCharacteristic}. The read
-	 * result is reported asynchronously through the
-	 * {@code BluetoothGattCallback#onCharacteristicRead(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
-	 * callback.
-	 * 
+	 * Returns the GATT session of the given device, or null if it is not
+	 * connected
+	 */
+	public GattSession getSession(String address) {
+		if (address == null)
+			return null;
+		return sessions.get(address);
+	}
+
+	/**
+	 * Returns the addresses of all devices with a GATT session
+	 */
+	public List<String> getSessionAddresses() {
+		return new ArrayList<String>(sessions.keySet());
+	}
+
+	/**
+	 * Returns the number of requests queued or awaiting their callback over
+	 * all sessions
+	 *
+	 * @see GattSession#getQueueDepth()
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (GattSession session : sessions.values()) {
+			depth += session.getQueueDepth();
+		}
+		return depth;
+	}
+
+	/**
+	 * Request a read on a given {@code BluetoothGattCharacteristic}, waiting
+	 * for the result. The value read is also reported through
+	 * {@link GattListener#onCharacteristicRead}.
+	 *
 	 * @param characteristic
 	 *          The characteristic to read from.
+	 * @return 0 on success, -3 on timeout and -2 on failure
 	 */
 	public int readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return waitForRequest(readCharacteristicAsync(characteristic));
+	}
+
+	/**
+	 * Queues a read on a given {@code BluetoothGattCharacteristic} without
+	 * waiting for it. The returned request holds the value once it is done.
+	 */
+	public bleRequest readCharacteristicAsync(BluetoothGattCharacteristic characteristic) {
+        return readCharacteristicAsync(mBluetoothDeviceAddress, characteristic);
+	}
+
+	public bleRequest readCharacteristicAsync(String address, BluetoothGattCharacteristic characteristic) {
         bleRequest req = new bleRequest();
         req.status = bleRequestStatus.not_queued;
         req.characteristic = characteristic;
         req.operation = bleRequestOperation.rdBlocking;
-        addRequestToQueue(req);
-        boolean finished = false;
-        while (!finished) {
-            bleRequestStatus stat = pollForStatusofRequest(req);
-            if (stat == bleRequestStatus.done) {
-                finished = true;
-                return 0;
-            }
-            else if (stat == bleRequestStatus.timeout) {
-                finished = true;
-                return -3;
-            }
-        }
-        return -2;
+        addRequestToQueue(address, req);
+        return req;
 	}
 
 	public int writeCharacteristic(
 	    BluetoothGattCharacteristic characteristic, byte b) {
-
-
-        byte[] val = new byte[1];
-        val[0] = b;
-        characteristic.setValue(val);
-
-        bleRequest req = new bleRequest();
-        req.status = bleRequestStatus.not_queued;
-        req.characteristic = characteristic;
-        req.operation = bleRequestOperation.wrBlocking;
-        addRequestToQueue(req);
-        boolean finished = false;
-        while (!finished) {
-            bleRequestStatus stat = pollForStatusofRequest(req);
-            if (stat == bleRequestStatus.done) {
-                finished = true;
-                return 0;
-            }
-            else if (stat == bleRequestStatus.timeout) {
-                finished = true;
-                return -3;
-            }
-        }
-        return -2;
+        return waitForRequest(writeCharacteristicAsync(characteristic, new byte[] {b}));
 	}
 	public int writeCharacteristic(
 		    BluetoothGattCharacteristic characteristic, byte[] b) {
-        characteristic.setValue(b);
-        bleRequest req = new bleRequest();
-        req.status = bleRequestStatus.not_queued;
-        req.characteristic = characteristic;
-        req.operation = bleRequestOperation.wrBlocking;
-        addRequestToQueue(req);
-        boolean finished = false;
-        while (!finished) {
-            bleRequestStatus stat = pollForStatusofRequest(req);
-            if (stat == bleRequestStatus.done) {
-                finished = true;
-                return 0;
-            }
-            else if (stat == bleRequestStatus.timeout) {
-                finished = true;
-                return -3;
-            }
-        }
-        return -2;
+        return waitForRequest(writeCharacteristicAsync(characteristic, b));
 		}
+	public int writeCharacteristic(String address,
+	    BluetoothGattCharacteristic characteristic, byte b) {
+        return waitForRequest(writeCharacteristicAsync(address, characteristic, new byte[] {b}));
+	}
+	public int writeCharacteristic(String address,
+	    BluetoothGattCharacteristic characteristic, byte[] b) {
+        return waitForRequest(writeCharacteristicAsync(address, characteristic, b));
+	}
 	public int writeCharacteristic(BluetoothGattCharacteristic characteristic) {
-        bleRequest req = new bleRequest();
-        req.status = bleRequestStatus.not_queued;
-        req.characteristic = characteristic;
-        req.operation = bleRequestOperation.wrBlocking;
-        addRequestToQueue(req);
-        boolean finished = false;
-        while (!finished) {
-            bleRequestStatus stat = pollForStatusofRequest(req);
-            if (stat == bleRequestStatus.done) {
-                finished = true;
-                return 0;
-            }
-            else if (stat == bleRequestStatus.timeout) {
-                finished = true;
-                return -3;
-            }
-        }
-        return -2;
+        return waitForRequest(writeCharacteristicAsync(characteristic,
+                characteristic == null ? null : characteristic.getValue()));
+	}
+
+	public bleRequest writeCharacteristicAsync(
+	    BluetoothGattCharacteristic characteristic, byte b) {
+        return writeCharacteristicAsync(characteristic, new byte[] {b});
+	}
+
+	public bleRequest writeCharacteristicAsync(String address,
+	    BluetoothGattCharacteristic characteristic, byte b) {
+        return writeCharacteristicAsync(address, characteristic, new byte[] {b});
+	}
+
+	/**
+	 * Queues a write on a given {@code BluetoothGattCharacteristic} without
+	 * waiting for it. The value is copied, so the caller may reuse the array
+	 * and queue further writes to the same characteristic right away.
+	 */
+	public bleRequest writeCharacteristicAsync(
+	    BluetoothGattCharacteristic characteristic, byte[] b) {
+        return writeCharacteristicAsync(mBluetoothDeviceAddress, characteristic, b);
+	}
+
+	public bleRequest writeCharacteristicAsync(String address,
+	    BluetoothGattCharacteristic characteristic, byte[] b) {
+        return queueWrite(address, characteristic, b, bleRequestOperation.wrBlocking, false);
+	}
+
+	public bleRequest writeCharacteristicCoalesced(
+	    BluetoothGattCharacteristic characteristic, byte b) {
+        return writeCharacteristicCoalesced(mBluetoothDeviceAddress, characteristic, new byte[] {b});
+	}
+
+	public bleRequest writeCharacteristicCoalesced(
+	    BluetoothGattCharacteristic characteristic, byte[] b) {
+        return writeCharacteristicCoalesced(mBluetoothDeviceAddress, characteristic, b);
+	}
+
+	public bleRequest writeCharacteristicCoalesced(String address,
+	    BluetoothGattCharacteristic characteristic, byte b) {
+        return writeCharacteristicCoalesced(address, characteristic, new byte[] {b});
+	}
+
+	/**
+	 * Queues a write like {@link #writeCharacteristicAsync(String, BluetoothGattCharacteristic, byte[])},
+	 * but if another coalesced write to the same characteristic is still
+	 * waiting in the queue, only replaces its value, i.e. the last writer wins,
+	 * and finishes together with it. A burst of writes, e.g. from dragging the
+	 * period slider, thus costs one radio operation. Use it only for settings
+	 * such as sensor configuration or period, whose intermediate values do not
+	 * matter.
+	 */
+	public bleRequest writeCharacteristicCoalesced(String address,
+	    BluetoothGattCharacteristic characteristic, byte[] b) {
+        return queueWrite(address, characteristic, b, bleRequestOperation.wrBlocking, true);
 	}
 
     public boolean writeCharacteristicNonBlock(BluetoothGattCharacteristic characteristic) {
+        queueWrite(mBluetoothDeviceAddress, characteristic,
+                characteristic == null ? null : characteristic.getValue(), bleRequestOperation.wr, false);
+        return true;
+    }
+
+    private bleRequest queueWrite(String address, BluetoothGattCharacteristic characteristic,
+                                  byte[] b, bleRequestOperation operation, boolean coalesce) {
         bleRequest req = new bleRequest();
         req.status = bleRequestStatus.not_queued;
         req.characteristic = characteristic;
-        req.operation = bleRequestOperation.wr;
-        addRequestToQueue(req);
-        return true;
+        req.operation = operation;
+        req.value = b == null ? null : b.clone();
+        req.coalesce = coalesce;
+        addRequestToQueue(address, req);
+        return req;
     }
 
 	/**
 	 * Retrieves the number of GATT services on the connected device. This should
 	 * be invoked only after {@code BluetoothGatt#discoverServices()} completes
 	 * successfully.
-	 * 
+	 *
 	 * @return A {@code integer} number of supported services.
 	 */
 	public int getNumServices() {
-		if (mBluetoothGatt == null)
+		return getNumServices(mBluetoothDeviceAddress);
+	}
+
+	public int getNumServices(String address) {
+		BluetoothGatt gatt = getBtGatt(address);
+		if (gatt == null)
 			return 0;
 
-		return mBluetoothGatt.getServices().size();
+		return gatt.getServices().size();
 	}
 
 	/**
 	 * Retrieves a list of supported GATT services on the connected device. This
 	 * should be invoked only after {@code BluetoothGatt#discoverServices()}
 	 * completes successfully.
-	 * 
+	 *
 	 * @return A {@code List} of supported services.
 	 */
 	public List<BluetoothGattService> getSupportedGattServices() {
-		if (mBluetoothGatt == null)
+		return getSupportedGattServices(mBluetoothDeviceAddress);
+	}
+
+	public List<BluetoothGattService> getSupportedGattServices(String address) {
+		BluetoothGatt gatt = getBtGatt(address);
+		if (gatt == null)
 			return null;
 
-		return mBluetoothGatt.getServices();
+		return gatt.getServices();
 	}
 
 	/**
-	 * Enables or disables notification on a give characteristic.
-	 * 
+	 * Enables or disables notification on a give characteristic, waiting until
+	 * the client configuration descriptor has been written.
+	 *
 	 * @param characteristic
 	 *          Characteristic to act on.
-	 * @param enabled
+	 * @param enable
 	 *          If true, enable notification. False otherwise.
+	 * @return 0 on success, -3 on timeout and -2 on failure
 	 */
 	public int setCharacteristicNotification(
 	    BluetoothGattCharacteristic characteristic, boolean enable) {
+        return waitForRequest(setCharacteristicNotificationAsync(characteristic, enable));
+	}
+
+	public int setCharacteristicNotification(String address,
+	    BluetoothGattCharacteristic characteristic, boolean enable) {
+        return waitForRequest(setCharacteristicNotificationAsync(address, characteristic, enable));
+	}
+
+	/**
+	 * Queues enabling or disabling notification on a given characteristic
+	 * without waiting for it.
+	 */
+	public bleRequest setCharacteristicNotificationAsync(
+	    BluetoothGattCharacteristic characteristic, boolean enable) {
+        return setCharacteristicNotificationAsync(mBluetoothDeviceAddress, characteristic, enable);
+	}
+
+	public bleRequest setCharacteristicNotificationAsync(String address,
+	    BluetoothGattCharacteristic characteristic, boolean enable) {
         bleRequest req = new bleRequest();
         req.status = bleRequestStatus.not_queued;
         req.characteristic = characteristic;
         req.operation = bleRequestOperation.nsBlocking;
         req.notifyenable = enable;
-        addRequestToQueue(req);
-        boolean finished = false;
-        while (!finished) {
-            bleRequestStatus stat = pollForStatusofRequest(req);
-            if (stat == bleRequestStatus.done) {
-                finished = true;
-                return 0;
-            }
-            else if (stat == bleRequestStatus.timeout) {
-                finished = true;
-                return -3;
-            }
-        }
-        return -2;
+        addRequestToQueue(address, req);
+        return req;
 	}
 
 	public boolean isNotificationEnabled(
@@ -571,15 +870,15 @@ public class BluetoothLeService extends Service {
 	}
 
 	/**
-	 * Connects to the GATT server hosted on the Bluetooth LE device.
-	 * 
+	 * Connects to the GATT server hosted on the Bluetooth LE device. Several
+	 * devices may be connected at the same time, each with its own session.
+	 *
 	 * @param address
 	 *          The device address of the destination device.
-	 * 
+	 *
 	 * @return Return true if the connection is initiated successfully. The
 	 *         connection result is reported asynchronously through the
-	 *         {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-	 *         callback.
+	 *         {@link #ACTION_GATT_CONNECTED} broadcast.
 	 */
 	public boolean connect(final String address) {
 		if (mBtAdapter == null || address == null) {
@@ -587,17 +886,21 @@ public class BluetoothLeService extends Service {
 			return false;
 		}
 		final BluetoothDevice device = mBtAdapter.getRemoteDevice(address);
-        this.mDevicePrefs = new PreferenceWR(device.getAddress(),this.getApplicationContext());
+		if (device == null) {
+			// Log.w(TAG, "Device not found.  Unable to connect.");
+			return false;
+		}
 		int connectionState = mBluetoothManager.getConnectionState(device,
                 BluetoothProfile.GATT);
 
 		if (connectionState == BluetoothProfile.STATE_DISCONNECTED) {
 
 			// Previously connected device. Try to reconnect.
-			if (mBluetoothDeviceAddress != null
-			    && address.equals(mBluetoothDeviceAddress) && mBluetoothGatt != null) {
+			GattSession session = sessions.get(address);
+			if (session != null && session.getGatt() != null) {
 				// Log.d(TAG, "Re-use GATT connection");
-				if (mBluetoothGatt.connect()) {
+				mBluetoothDeviceAddress = address;
+				if (session.getGatt().connect()) {
 					return true;
 				} else {
 					// Log.w(TAG, "GATT re-connect failed.");
@@ -605,14 +908,16 @@ public class BluetoothLeService extends Service {
 				}
 			}
 
-			if (device == null) {
-				// Log.w(TAG, "Device not found.  Unable to connect.");
-				return false;
-			}
 			// We want to directly connect to the device, so we are setting the
 			// autoConnect parameter to false.
 			// Log.d(TAG, "Create a new GATT connection.");
-			mBluetoothGatt = device.connectGatt(this, false, mGattCallbacks);
+			session = new GattSession(this, address);
+			GattSession previous = sessions.put(address, session);
+			if (previous != null) {
+				previous.close();
+			}
+			session.start();
+			session.setGatt(device.connectGatt(this, false, session.callback));
 			mBluetoothDeviceAddress = address;
 		} else {
 			// Log.w(TAG, "Attempt to connect in state: " + connectionState);
@@ -624,43 +929,60 @@ public class BluetoothLeService extends Service {
 	/**
 	 * Disconnects an existing connection or cancel a pending connection. The
 	 * disconnection result is reported asynchronously through the
-	 * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-	 * callback.
+	 * {@link #ACTION_GATT_DISCONNECTED} broadcast.
+	 *
+	 * @param address the device to disconnect, or null for the device last connected
 	 */
 	public void disconnect(String address) {
 		if (mBtAdapter == null) {
 			// Log.w(TAG, "disconnect: BluetoothAdapter not initialized");
 			return;
 		}
+		if (address == null) {
+			address = mBluetoothDeviceAddress;
+		}
+		BluetoothGatt gatt = getBtGatt(address);
+		if (gatt == null) {
+			return;
+		}
 		final BluetoothDevice device = mBtAdapter.getRemoteDevice(address);
 		int connectionState = mBluetoothManager.getConnectionState(device,
 		    BluetoothProfile.GATT);
 
-		if (mBluetoothGatt != null) {
-			if (connectionState != BluetoothProfile.STATE_DISCONNECTED) {
-				mBluetoothGatt.disconnect();
-			} else {
-				// Log.w(TAG, "Attempt to disconnect in state: " + connectionState);
-			}
+		if (connectionState != BluetoothProfile.STATE_DISCONNECTED) {
+			gatt.disconnect();
+		} else {
+			// Log.w(TAG, "Attempt to disconnect in state: " + connectionState);
 		}
 	}
 
 	/**
-	 * After using a given BLE device, the app must call this method to ensure
-	 * resources are released properly.
+	 * After using the BLE devices, the app must call this method to ensure
+	 * resources are released properly. Closes the sessions of all devices.
 	 */
 	public void close() {
-		if (mBluetoothGatt != null) {
-			// Log.i(TAG, "close");
-			mBluetoothGatt.close();
-			mBluetoothGatt = null;
+		for (String address : sessions.keySet()) {
+			close(address);
 		}
   }
 
+	/**
+	 * Closes the session of the given device, failing its pending requests
+	 */
+	public void close(String address) {
+		if (address == null)
+			return;
+		GattSession session = sessions.remove(address);
+		if (session != null) {
+			// Log.i(TAG, "close");
+			session.close();
+		}
+	}
+
 	public int numConnectedDevices() {
 		int n = 0;
 
-		if (mBluetoothGatt != null) {
+		if (!sessions.isEmpty()) {
 			List<BluetoothDevice> devList;
 			devList = mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT);
 			n = devList.size();
@@ -672,7 +994,12 @@ public class BluetoothLeService extends Service {
 	// Utility functions
 	//
 	public static BluetoothGatt getBtGatt() {
-		return mThis.mBluetoothGatt;
+		return mThis.getBtGatt(mThis.mBluetoothDeviceAddress);
+	}
+
+	public BluetoothGatt getBtGatt(String address) {
+		GattSession session = getSession(address);
+		return session == null ? null : session.getGatt();
 	}
 
 	public static BluetoothManager getBtManager() {
@@ -701,251 +1028,102 @@ public class BluetoothLeService extends Service {
 	           boolean bool = ((Boolean) localMethod.invoke(localBluetoothGatt, new Object[0])).booleanValue();
 	            return bool;
 	         }
-	    } 
+	    }
 	    catch (Exception localException) {
 	        Log.e(TAG, "An exception occured while refreshing device");
 	    }
 	    return false;
 	}
-	
-	public void timedDisconnect() {
-		disconnectTimerTask disconnectionTimerTask;
-		this.disconnectionTimer = new Timer();
-		disconnectionTimerTask = new disconnectTimerTask(this);
-		this.disconnectionTimer.schedule(disconnectionTimerTask, 20000);
+
+	public synchronized void timedDisconnect() {
+		abortTimedDisconnect();
+		this.disconnectionTask = SharedScheduler.getInstance().schedule("Timed disconnect",
+		    new disconnectTimerTask(this, mBluetoothDeviceAddress), 20000);
 	}
-	public void abortTimedDisconnect() {
-		if (this.disconnectionTimer != null) {
-			this.disconnectionTimer.cancel();
+	public synchronized void abortTimedDisconnect() {
+		if (this.disconnectionTask != null) {
+			this.disconnectionTask.cancel();
+			this.disconnectionTask = null;
 		}
 	}
-	class disconnectTimerTask extends TimerTask  {
+	class disconnectTimerTask implements Runnable  {
 		BluetoothLeService param;
+		String address;
 
-	     public disconnectTimerTask(final BluetoothLeService param) {
+	     public disconnectTimerTask(final BluetoothLeService param, String address) {
 	    	 this.param = param;
+	    	 this.address = address;
 	     }
 
 	     @Override
 	     public void run() {
-	    	 this.param.disconnect(mBluetoothDeviceAddress);
+	    	 this.param.disconnect(this.address);
 	     }
 	}
 
     public boolean requestConnectionPriority(int connectionPriority) {
-        return this.mBluetoothGatt.requestConnectionPriority(connectionPriority);
+        return requestConnectionPriority(mBluetoothDeviceAddress, connectionPriority);
     }
 
-    public boolean addRequestToQueue(bleRequest req) {
-        lock.lock();
-        if (procQueue.peekLast() != null) {
-            req.id = procQueue.peek().id++;
-        }
-        else {
-            req.id = 0;
-            procQueue.add(req);
+    /**
+     * Requests a connection priority, which stays until the connection tuner
+     * of the device sees a different workload
+     *
+     * @return false if the request failed or connection priorities need API 21
+     * @see ConnectionTuner
+     */
+    @TargetApi(21)
+    public boolean requestConnectionPriority(String address, int connectionPriority) {
+        GattSession session = getSession(address);
+        BluetoothGatt gatt = session == null ? null : session.getGatt();
+        if (Build.VERSION.SDK_INT < 21 || gatt == null || !gatt.requestConnectionPriority(connectionPriority)) {
+            return false;
         }
-        lock.unlock();
+        session.getTuner().priorityRequested(connectionPriority);
         return true;
     }
 
-    public bleRequestStatus pollForStatusofRequest(bleRequest req) {
-        lock.lock();
-        if (req == curBleRequest) {
-            bleRequestStatus stat = curBleRequest.status;
-            if (stat == bleRequestStatus.done) {
-                curBleRequest = null;
-            }
-            if (stat == bleRequestStatus.timeout) {
-                curBleRequest = null;
-            }
-            lock.unlock();
-            return stat;
-        }
-        else {
-            lock.unlock();
-            return bleRequestStatus.no_such_request;
-        }
-    }
-    private void executeQueue() {
-        // Everything here is done on the queue
-        lock.lock();
-        if (curBleRequest != null) {
-                Log.d(TAG, "executeQueue, curBleRequest running");
-                try {
-                    curBleRequest.curTimeout++;
-                    if (curBleRequest.curTimeout > GATT_TIMEOUT) {
-                        curBleRequest.status = bleRequestStatus.timeout;
-                        curBleRequest = null;
-                    }
-                    Thread.sleep(10, 0);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            lock.unlock();
-                return;
-        }
-        if (procQueue == null) {
-            lock.unlock();
-            return;
-        }
-        if (procQueue.size() == 0) {
-            lock.unlock();
-            return;
-        }
-        bleRequest procReq = procQueue.removeFirst();
-
-        switch (procReq.operation) {
-            case rd:
-                //Read, do non blocking read
-                break;
-            case rdBlocking:
-                //Normal (blocking) read
-                if (procReq.timeout == 0) {
-                    procReq.timeout = GATT_TIMEOUT;
-                }
-                procReq.curTimeout = 0;
-                curBleRequest = procReq;
-                int stat = sendBlockingReadRequest(procReq);
-                if (stat == -2) {
-                    Log.d(TAG,"executeQueue rdBlocking: error, BLE was busy or device disconnected");
-                    lock.unlock();
-                    return;
-                }
-                break;
-            case wr:
-                //Write, do non blocking write (Ex: OAD)
-                nonBlockQueue.add(procReq);
-                sendNonBlockingWriteRequest(procReq);
-                break;
-            case wrBlocking:
-                //Normal (blocking) write
-                if (procReq.timeout == 0) {
-                    procReq.timeout = GATT_TIMEOUT;
-                }
-                curBleRequest = procReq;
-                stat = sendBlockingWriteRequest(procReq);
-                if (stat == -2) {
-                    Log.d(TAG,"executeQueue wrBlocking: error, BLE was busy or device disconnected");
-                    lock.unlock();
-                    return;
-                }
-                break;
-            case nsBlocking:
-                if (procReq.timeout == 0) {
-                    procReq.timeout = GATT_TIMEOUT;
-                }
-                curBleRequest = procReq;
-                stat = sendBlockingNotifySetting(procReq);
-                if (stat == -2) {
-                    Log.d(TAG,"executeQueue nsBlocking: error, BLE was busy or device disconnected");
-                    lock.unlock();
-                    return;
-                }
-                break;
-            default:
-                break;
-
-        }
-        lock.unlock();
-    }
-
-    public int sendNonBlockingReadRequest(bleRequest request) {
-        request.status = bleRequestStatus.processing;
-        if (!checkGatt()) {
-            request.status = bleRequestStatus.failed;
-            return -2;
-        }
-        mBluetoothGatt.readCharacteristic(request.characteristic);
-        return 0;
+    public boolean addRequestToQueue(bleRequest req) {
+        return addRequestToQueue(mBluetoothDeviceAddress, req);
     }
 
-    public int sendNonBlockingWriteRequest(bleRequest request) {
-        request.status = bleRequestStatus.processing;
-        if (!checkGatt()) {
-            request.status = bleRequestStatus.failed;
-            return -2;
+    /**
+     * Queues a request on the session of the given device. The request fails
+     * at once if the device is not connected.
+     */
+    public boolean addRequestToQueue(String address, bleRequest req) {
+        GattSession session = getSession(address);
+        if (session == null) {
+            req.queueTime = System.nanoTime();
+            req.finish(bleRequestStatus.failed);
+            return false;
         }
-        mBluetoothGatt.writeCharacteristic(request.characteristic);
-        return 0;
+        return session.addRequest(req);
     }
 
-    public int sendBlockingReadRequest(bleRequest request) {
-        request.status = bleRequestStatus.processing;
-        int timeout = 0;
-        if (!checkGatt()) {
-            request.status = bleRequestStatus.failed;
-            return -2;
-        }
-        mBluetoothGatt.readCharacteristic(request.characteristic);
-        this.blocking = true; // Set read to be blocking
-        while (this.blocking) {
-            timeout ++;
-            waitIdle(1);
-            if (timeout > GATT_TIMEOUT) {this.blocking = false; request.status = bleRequestStatus.timeout; return -1;}  //Read failed TODO: Fix this to follow connection interval !
-        }
-        request.status = bleRequestStatus.done;
-        return lastGattStatus;
+    /**
+     * Queues a request on the session of the given device in the given lane
+     */
+    public boolean addRequestToQueue(String address, bleRequest req, bleRequestPriority priority) {
+        req.priority = priority;
+        return addRequestToQueue(address, req);
     }
 
-    public int sendBlockingWriteRequest(bleRequest request) {
-        request.status = bleRequestStatus.processing;
-        int timeout = 0;
-        if (!checkGatt()) {
-            request.status = bleRequestStatus.failed;
+    /**
+     * Blocks until the given request has finished, without polling
+     *
+     * @return 0 if the request was done, -3 if it timed out and -2 if it failed
+     */
+    private int waitForRequest(bleRequest req) {
+        try {
+            req.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return -2;
         }
-        mBluetoothGatt.writeCharacteristic(request.characteristic);
-        this.blocking = true; // Set read to be blocking
-        while (this.blocking) {
-            timeout ++;
-            waitIdle(1);
-            if (timeout > GATT_TIMEOUT) {this.blocking = false; request.status = bleRequestStatus.timeout; return -1;}  //Read failed TODO: Fix this to follow connection interval !
-        }
-        request.status = bleRequestStatus.done;
-        return lastGattStatus;
+        return req.getResult();
     }
-    public int sendBlockingNotifySetting(bleRequest request) {
-        request.status = bleRequestStatus.processing;
-        int timeout = 0;
-        if (request.characteristic == null) {
-            return -1;
-        }
-        if (!checkGatt())
-            return -2;
 
-        if (mBluetoothGatt.setCharacteristicNotification(request.characteristic, request.notifyenable)) {
-
-            BluetoothGattDescriptor clientConfig = request.characteristic
-                    .getDescriptor(GattInfo.CLIENT_CHARACTERISTIC_CONFIG);
-            if (clientConfig != null) {
-
-                if (request.notifyenable) {
-                    // Log.i(TAG, "Enable notification: " +
-                    // characteristic.getUuid().toString());
-                    clientConfig
-                            .setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                } else {
-                    // Log.i(TAG, "Disable notification: " +
-                    // characteristic.getUuid().toString());
-                    clientConfig
-                            .setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                }
-                mBluetoothGatt.writeDescriptor(clientConfig);
-                // Log.i(TAG, "writeDescriptor: " +
-                // characteristic.getUuid().toString());
-                this.blocking = true; // Set read to be blocking
-                while (this.blocking) {
-                    timeout ++;
-                    waitIdle(1);
-                    if (timeout > GATT_TIMEOUT) {this.blocking = false; request.status = bleRequestStatus.timeout; return -1;}  //Read failed TODO: Fix this to follow connection interval !
-                }
-                request.status = bleRequestStatus.done;
-                return lastGattStatus;
-            }
-        }
-        return -3; // Set notification to android was wrong ...
-    }
     public String getConnectedDeviceAddress() {
         return this.mBluetoothDeviceAddress;
     }
@@ -0,0 +1,358 @@
+package com.example.ti.ble.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothGatt;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.ti.ble.common.BluetoothLeService.bleRequestPriority;
+import com.example.ti.util.SharedScheduler;
+
+/**
+ * Adapts the connection priority of one device to its workload. Once a second it looks at the
+ * queue depth, the bulk lane and the notification rate of the session: bulk transfers, high rate
+ * streaming and a deep queue raise the priority to high and negotiate a larger MTU, while an idle
+ * connection drops to low power. The priority rises at once but only falls after
+ * {@link #LOWER_AFTER_SAMPLES} quieter samples, so that it does not flap. Queueing a request on a
+ * low power connection raises it to balanced right away, and requests wait longer for their GATT
+ * callbacks until the faster connection interval has taken effect.
+ * <p>
+ * Connection priority and MTU requests need Android 5.0 (API 21); on older versions the tuner does
+ * nothing.
+ *
+ * @see GattSession#getTuner()
+ */
+public class ConnectionTuner {
+	static final String TAG = "ConnectionTuner";
+
+	/** Milliseconds between samples of the workload */
+	public static final int SAMPLE_PERIOD_MS = 1000;
+	/** Notifications per second from which streaming counts as high rate */
+	public static final int HIGH_NOTIFICATION_RATE = 40;
+	/** Queue depth from which the queue counts as backed up */
+	public static final int HIGH_QUEUE_DEPTH = 8;
+	/** Quieter samples before the priority is lowered */
+	public static final int LOWER_AFTER_SAMPLES = 3;
+	/** Idle samples before the connection drops to low power */
+	public static final int IDLE_SAMPLES = 10;
+	/**
+	 * Milliseconds to wait for a GATT callback at low power, where the connection interval of 100
+	 * to 125 ms plus slave latency leaves {@link BluetoothLeService#GATT_TIMEOUT} too short
+	 */
+	public static final int LOW_POWER_GATT_TIMEOUT = 600;
+	/** Milliseconds until a raised priority takes effect, several connection events after the request */
+	public static final int PRIORITY_UPDATE_MS = 1500;
+	/** The MTU requested when the priority is raised to high; the default is 23 */
+	public static final int PREFERRED_MTU = 247;
+	/** The number of priority changes kept for {@link #getChanges()} */
+	private static final int MAX_CHANGES = 16;
+
+	/**
+	 * A change of the connection priority, with the throughput of the connection in the sample
+	 * before and after it
+	 */
+	public static class Change {
+		/** System.currentTimeMillis() of the change */
+		public final long time;
+		public final int fromPriority, toPriority;
+		public final String reason;
+		/** bytes per second notified, read and written in the sample before the change */
+		public final double bytesPerSecondBefore;
+		/** the same in the sample after the change, or -1 until it has been taken */
+		volatile double bytesPerSecondAfter = -1;
+
+		Change(long time, int fromPriority, int toPriority, String reason, double bytesPerSecondBefore) {
+			this.time = time;
+			this.fromPriority = fromPriority;
+			this.toPriority = toPriority;
+			this.reason = reason;
+			this.bytesPerSecondBefore = bytesPerSecondBefore;
+		}
+
+		public double getBytesPerSecondAfter() {
+			return this.bytesPerSecondAfter;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s -> %s (%s): %.0f B/s before, %.0f B/s after",
+			    priorityName(this.fromPriority), priorityName(this.toPriority), this.reason,
+			    this.bytesPerSecondBefore, this.bytesPerSecondAfter);
+		}
+	}
+
+	private final GattSession session;
+	private volatile boolean enabled = true;
+	/** The priority last requested; Android starts connections at balanced */
+	private volatile int priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+	/** System.nanoTime() until which the connection may still run at the low power interval */
+	private volatile long slowUntilNanos = 0;
+	private volatile int mtu = 23;
+	private volatile boolean mtuRequested = false;
+	private SharedScheduler.Handle sampler;
+	/** Guards the priority changes, which both the sampler and queueing a request make */
+	private final Object priorityLock = new Object();
+
+	// the previous sample, only touched by the sampler
+	private long lastNanos, lastNotifications, lastBytes, lastBulkRequests, lastRequests;
+	private int quietSamples = 0, idleSamples = 0;
+	private volatile double notificationRate = 0, bytesPerSecond = 0;
+	private final List<Change> changes = new ArrayList<Change>();
+	private Change pendingChange;
+
+	ConnectionTuner(GattSession session) {
+		this.session = session;
+	}
+
+	/** Turns automatic tuning on or off; the current priority is kept */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/** Returns the connection priority last requested, one of BluetoothGatt.CONNECTION_PRIORITY_* */
+	public int getConnectionPriority() {
+		return this.priority;
+	}
+
+	/** Returns the negotiated MTU */
+	public int getMtu() {
+		return this.mtu;
+	}
+
+	/** Returns the notifications per second in the last sample */
+	public double getNotificationRate() {
+		return this.notificationRate;
+	}
+
+	/** Returns the bytes per second notified, read and written in the last sample */
+	public double getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+
+	/** Returns the most recent priority changes, oldest first */
+	public List<Change> getChanges() {
+		synchronized (this.changes) {
+			return new ArrayList<Change>(this.changes);
+		}
+	}
+
+	synchronized void start() {
+		if (this.sampler != null || Build.VERSION.SDK_INT < 21) {
+			return;
+		}
+		this.lastNanos = System.nanoTime();
+		this.sampler = SharedScheduler.getInstance().scheduleAtFixedRate("Connection tuner", new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, SAMPLE_PERIOD_MS, SAMPLE_PERIOD_MS);
+	}
+
+	synchronized void stop() {
+		if (this.sampler != null) {
+			this.sampler.cancel();
+			this.sampler = null;
+		}
+	}
+
+	/** Records a priority requested from outside, e.g. by the firmware update */
+	void priorityRequested(int priority) {
+		synchronized (this.priorityLock) {
+			setPriority(priority);
+		}
+	}
+
+	/**
+	 * Raises a low power connection to balanced when a request is queued, rather than at the next
+	 * sample, so that the first request after an idle period does not wait for seconds
+	 */
+	void requestQueued() {
+		if (this.priority != BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER) {
+			return;
+		}
+		synchronized (this.priorityLock) {
+			if (this.priority != BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER || !this.enabled
+			    || !this.session.isConnected() || Build.VERSION.SDK_INT < 21) {
+				return;
+			}
+			this.idleSamples = 0;
+			changePriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED, "request queued");
+		}
+	}
+
+	/**
+	 * Returns the milliseconds to wait for the GATT callback of a request: {@link #LOW_POWER_GATT_TIMEOUT}
+	 * while the connection may run at low power, else {@link BluetoothLeService#GATT_TIMEOUT}
+	 */
+	int getRequestTimeout() {
+		if (this.priority == BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER
+		    || System.nanoTime() - this.slowUntilNanos < 0) {
+			return LOW_POWER_GATT_TIMEOUT;
+		}
+		return BluetoothLeService.GATT_TIMEOUT;
+	}
+
+	void mtuChanged(int mtu, int status) {
+		if (status == BluetoothGatt.GATT_SUCCESS) {
+			this.mtu = mtu;
+		}
+		Log.d(TAG, this.session.getAddress() + " MTU " + mtu + " status " + status);
+	}
+
+	private void sample() {
+		synchronized (this.priorityLock) {
+			sampleLocked();
+		}
+	}
+
+	private void sampleLocked() {
+		long now = System.nanoTime();
+		double seconds = (now - this.lastNanos) / 1e9;
+		if (seconds <= 0) return;
+		long notifications = this.session.getNotificationCount();
+		long bytes = this.session.getBytesTransferred();
+		GattSession.LaneStats bulk = this.session.getLaneStats(bleRequestPriority.bulk);
+		long requests = 0;
+		for (bleRequestPriority p : bleRequestPriority.values()) {
+			requests += this.session.getLaneStats(p).requests;
+		}
+		this.notificationRate = (notifications - this.lastNotifications) / seconds;
+		this.bytesPerSecond = (bytes - this.lastBytes) / seconds;
+		boolean bulkActive = bulk.queued > 0 || bulk.requests != this.lastBulkRequests;
+		boolean busy = requests != this.lastRequests || this.session.getQueueDepth() > 0
+		    || notifications != this.lastNotifications;
+		this.lastNanos = now;
+		this.lastNotifications = notifications;
+		this.lastBytes = bytes;
+		this.lastBulkRequests = bulk.requests;
+		this.lastRequests = requests;
+
+		Change change = this.pendingChange;
+		if (change != null) {
+			change.bytesPerSecondAfter = this.bytesPerSecond;
+			this.pendingChange = null;
+			Log.d(TAG, this.session.getAddress() + " " + change);
+		}
+		if (!this.enabled || !this.session.isConnected()) {
+			return;
+		}
+
+		String reason = null;
+		int target;
+		if (bulkActive) {
+			target = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+			reason = "bulk transfer";
+		} else if (this.notificationRate >= HIGH_NOTIFICATION_RATE) {
+			target = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+			reason = String.format("%.0f notifications/s", this.notificationRate);
+		} else if (this.session.getQueueDepth() >= HIGH_QUEUE_DEPTH) {
+			target = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+			reason = "queue depth " + this.session.getQueueDepth();
+		} else {
+			this.idleSamples = busy ? 0 : this.idleSamples + 1;
+			if (this.idleSamples >= IDLE_SAMPLES) {
+				target = BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+				reason = "idle";
+			} else {
+				target = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+				reason = "light load";
+			}
+		}
+		if (target == this.priority) {
+			this.quietSamples = 0;
+		} else if (rank(target) > rank(this.priority) || ++this.quietSamples >= LOWER_AFTER_SAMPLES) {
+			this.quietSamples = 0;
+			changePriority(target, reason);
+		}
+		if (target == BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+			// after raising the priority, so that queueing the request does not raise it on its own
+			this.idleSamples = 0;
+			requestMtu();
+		}
+	}
+
+	/** Requests the given priority and records the change; call with the priority lock held */
+	@TargetApi(21)
+	private void changePriority(int target, String reason) {
+		BluetoothGatt gatt = this.session.getGatt();
+		if (Build.VERSION.SDK_INT < 21 || gatt == null || !gatt.requestConnectionPriority(target)) {
+			return;
+		}
+		Change change = new Change(System.currentTimeMillis(), this.priority, target, reason, this.bytesPerSecond);
+		setPriority(target);
+		this.pendingChange = change;
+		synchronized (this.changes) {
+			if (this.changes.size() == MAX_CHANGES) {
+				this.changes.remove(0);
+			}
+			this.changes.add(change);
+		}
+	}
+
+	/** Sets the priority last requested, keeping the long timeout until a raise from low power takes effect */
+	private void setPriority(int priority) {
+		if (this.priority == BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER
+		    && priority != BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER) {
+			this.slowUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PRIORITY_UPDATE_MS);
+		}
+		this.priority = priority;
+	}
+
+	/** Negotiates the preferred MTU once per connection, through the request queue */
+	private void requestMtu() {
+		if (this.mtuRequested || this.mtu >= PREFERRED_MTU) {
+			return;
+		}
+		this.mtuRequested = true;
+		BluetoothLeService.bleRequest req = new BluetoothLeService.bleRequest();
+		req.status = BluetoothLeService.bleRequestStatus.not_queued;
+		req.operation = BluetoothLeService.bleRequestOperation.mtu;
+		req.mtu = PREFERRED_MTU;
+		req.timeout = 1000; // the exchange may take several connection events
+		this.session.addRequest(req);
+	}
+
+	/** Resets the state which a new connection starts over with */
+	void connectionChanged() {
+		synchronized (this.priorityLock) {
+			this.priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+			this.slowUntilNanos = 0;
+			this.mtu = 23;
+			this.mtuRequested = false;
+			this.idleSamples = 0;
+			this.quietSamples = 0;
+		}
+	}
+
+	/** Orders the priorities from low power to high */
+	private static int rank(int priority) {
+		switch (priority) {
+			case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+				return 0;
+			case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+				return 2;
+			default:
+				return 1;
+		}
+	}
+
+	static String priorityName(int priority) {
+		switch (priority) {
+			case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+				return "low power";
+			case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+				return "high";
+			default:
+				return "balanced";
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.example.ti.ble.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The request bookkeeping of a {@link GattSession}, kept free of Android types so that it can be
+ * unit tested: the queued requests, one FIFO lane per priority; the coalescing writes whose value
+ * later writes may still replace; and the sent requests awaiting their callback, one FIFO per
+ * characteristic. Not thread-safe; the session guards it with its lock.
+ *
+ * @param <R> the request type
+ * @param <K> the characteristic type, by which writes coalesce and callbacks find their request;
+ *            requests without a characteristic use the null key
+ */
+abstract class GattRequestQueue<R, K> {
+
+	/** Queued requests, one FIFO per lane in order of urgency */
+	private final List<ArrayDeque<R>> lanes;
+	private final long agingNanos;
+	private int queuedCount = 0;
+
+	/** The queued coalescing write of each characteristic, into which later writes coalesce */
+	private final HashMap<K, R> pendingWrites = new HashMap<K, R>();
+	/** Requests whose value a pending write took over, which finish with it */
+	private final HashMap<R, List<R>> coalesced = new HashMap<R, List<R>>();
+
+	/** Sent requests awaiting their callback, per characteristic, oldest first */
+	private final HashMap<K, ArrayDeque<R>> outstanding = new HashMap<K, ArrayDeque<R>>();
+	private int outstandingCount = 0;
+
+	/**
+	 * @param laneCount number of lanes, most urgent first
+	 * @param agingNanos nanoseconds a queued request must wait to count as one lane more urgent
+	 */
+	GattRequestQueue(int laneCount, long agingNanos) {
+		this.lanes = new ArrayList<ArrayDeque<R>>(laneCount);
+		for (int i = 0; i < laneCount; i++) {
+			this.lanes.add(new ArrayDeque<R>());
+		}
+		this.agingNanos = agingNanos;
+	}
+
+	/** Returns the characteristic of the request, or null if it has none */
+	abstract K keyOf(R request);
+
+	/** Returns the System.nanoTime() at which the request was queued */
+	abstract long queueTimeOf(R request);
+
+	/** Appends a request to the given lane */
+	void add(R request, int lane) {
+		this.lanes.get(lane).addLast(request);
+		this.queuedCount++;
+	}
+
+	/** Returns the number of queued requests */
+	int size() {
+		return this.queuedCount;
+	}
+
+	/** Returns the number of requests queued in the given lane */
+	int laneSize(int lane) {
+		return this.lanes.get(lane).size();
+	}
+
+	/** Returns the number of sent requests awaiting their callback */
+	int outstandingSize() {
+		return this.outstandingCount;
+	}
+
+	/**
+	 * Removes the most urgent queued request: the head of the lane with the smallest rank, where
+	 * a lane ranks by its order less the time its head has waited in units of the aging time
+	 *
+	 * @param now the current System.nanoTime()
+	 * @return the request, or null if none is queued
+	 */
+	R take(long now) {
+		ArrayDeque<R> next = null;
+		long bestRank = Long.MAX_VALUE;
+		for (int i = 0; i < this.lanes.size(); i++) {
+			R head = this.lanes.get(i).peekFirst();
+			if (head == null) continue;
+			long rank = i * this.agingNanos - (now - queueTimeOf(head));
+			if (rank < bestRank) {
+				bestRank = rank;
+				next = this.lanes.get(i);
+			}
+		}
+		if (next == null) {
+			return null;
+		}
+		this.queuedCount--;
+		return next.pollFirst();
+	}
+
+	/**
+	 * Lets a coalescing write take over the value of the pending write to the same
+	 * characteristic, if there is one, or else makes it the pending write
+	 *
+	 * @return the pending write, which must receive the value of the request and finish it, or
+	 *         null if the request must be queued
+	 */
+	R coalesce(R request) {
+		K key = keyOf(request);
+		if (key == null) {
+			return null;
+		}
+		R pending = this.pendingWrites.get(key);
+		if (pending == null) {
+			this.pendingWrites.put(key, request);
+			return null;
+		}
+		List<R> requests = this.coalesced.get(pending);
+		if (requests == null) {
+			requests = new ArrayList<R>(2);
+			this.coalesced.put(pending, requests);
+		}
+		requests.add(request);
+		return pending;
+	}
+
+	/**
+	 * Records that a taken request was sent: its value is fixed from now on, and it awaits its
+	 * callback behind the earlier requests on its characteristic
+	 */
+	void sent(R request) {
+		K key = keyOf(request);
+		if (key != null && this.pendingWrites.get(key) == request) {
+			this.pendingWrites.remove(key);
+		}
+		ArrayDeque<R> requests = this.outstanding.get(key);
+		if (requests == null) {
+			requests = new ArrayDeque<R>(2);
+			this.outstanding.put(key, requests);
+		}
+		requests.addLast(request);
+		this.outstandingCount++;
+	}
+
+	/** Returns the oldest sent request on the given characteristic awaiting its callback, or null */
+	R peekOutstanding(K key) {
+		ArrayDeque<R> requests = this.outstanding.get(key);
+		return requests == null ? null : requests.peekFirst();
+	}
+
+	/**
+	 * Forgets a request which finished, whether queued, pending or sent
+	 *
+	 * @return the requests which coalesced into it and finish with it, or null if there are none
+	 */
+	List<R> finish(R request) {
+		K key = keyOf(request);
+		if (key != null && this.pendingWrites.get(key) == request) {
+			this.pendingWrites.remove(key);
+		}
+		ArrayDeque<R> requests = this.outstanding.get(key);
+		// the request is normally the oldest, so this takes constant time
+		if (requests != null && requests.remove(request)) {
+			this.outstandingCount--;
+			if (requests.isEmpty()) {
+				this.outstanding.remove(key);
+			}
+		}
+		return this.coalesced.isEmpty() ? null : this.coalesced.remove(request);
+	}
+
+	/**
+	 * Empties the lanes
+	 *
+	 * @return the queued and the sent requests, which the caller must finish
+	 */
+	List<R> clear() {
+		List<R> pending = new ArrayList<R>();
+		for (ArrayDeque<R> lane : this.lanes) {
+			pending.addAll(lane);
+			lane.clear();
+		}
+		this.queuedCount = 0;
+		for (ArrayDeque<R> requests : this.outstanding.values()) {
+			pending.addAll(requests);
+		}
+		return pending;
+	}
+}
@@ -0,0 +1,572 @@
+package com.example.ti.ble.common;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.ti.ble.common.BluetoothLeService.bleRequest;
+import com.example.ti.ble.common.BluetoothLeService.bleRequestOperation;
+import com.example.ti.ble.common.BluetoothLeService.bleRequestPriority;
+import com.example.ti.ble.common.BluetoothLeService.bleRequestStatus;
+import com.example.ti.util.SharedScheduler;
+
+/**
+ * The GATT connection to one device, with its own request queue and queue thread. Requests to
+ * the same device are sent one at a time, as Android requires, while requests to different
+ * devices proceed in parallel.
+ *
+ * @see BluetoothLeService#getSession(String)
+ */
+public class GattSession {
+	static final String TAG = "GattSession";
+
+	private final BluetoothLeService service;
+	private final String address;
+	private volatile BluetoothGatt gatt;
+	private volatile boolean closed = false;
+	private volatile boolean connected = false;
+	private final ConnectionTuner tuner = new ConnectionTuner(this);
+	/** Notifications received, and bytes notified, read and written, for the tuner */
+	private final AtomicLong notificationCount = new AtomicLong(), bytesTransferred = new AtomicLong();
+
+	private final Lock lock = new ReentrantLock();
+	private volatile int lastGattStatus = 0; //Success
+
+	/**
+	 * Queued requests, one lane per bleRequestPriority, and sent requests awaiting their callback,
+	 * keyed by characteristic instance, so that a callback finds its request in constant time and
+	 * a late or unsolicited callback cannot finish a request on another characteristic. Guarded by
+	 * lock.
+	 */
+	private final GattRequestQueue<bleRequest, BluetoothGattCharacteristic> queue;
+	/** Requests queued and awaiting their callback, readable without the lock */
+	private volatile int queuedCount = 0, outstandingCount = 0;
+	private volatile int maxQueueDepth = 0;
+	private volatile int coalescedWrites = 0;
+
+	// The queue thread waits on requestQueued while idle and on the outstanding request while it
+	// waits for its callback, so it uses no CPU between requests.
+	private final Condition requestQueued = this.lock.newCondition();
+	/** Per lane: requests sent, nanoseconds waited in the queue, longest wait and total latency. Guarded by lock. */
+	private final long[] laneRequests, laneWaitNanos, laneMaxWaitNanos, laneLatencyNanos;
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	private Thread queueThread;
+
+	GattSession(BluetoothLeService service, String address) {
+		this.service = service;
+		this.address = address;
+		int n = bleRequestPriority.values().length;
+		this.queue = new GattRequestQueue<bleRequest, BluetoothGattCharacteristic>(n,
+		    TimeUnit.MILLISECONDS.toNanos(BluetoothLeService.PRIORITY_AGING_MS)) {
+			@Override
+			BluetoothGattCharacteristic keyOf(bleRequest req) {
+				return req.characteristic;
+			}
+
+			@Override
+			long queueTimeOf(bleRequest req) {
+				return req.queueTime;
+			}
+		};
+		this.laneRequests = new long[n];
+		this.laneWaitNanos = new long[n];
+		this.laneMaxWaitNanos = new long[n];
+		this.laneLatencyNanos = new long[n];
+	}
+
+	public String getAddress() {
+		return this.address;
+	}
+
+	/** Returns the tuner which adapts the connection priority and MTU to the workload */
+	public ConnectionTuner getTuner() {
+		return this.tuner;
+	}
+
+	public boolean isConnected() {
+		return this.connected;
+	}
+
+	public long getNotificationCount() {
+		return this.notificationCount.get();
+	}
+
+	/** Returns the bytes notified, successfully read and successfully written */
+	public long getBytesTransferred() {
+		return this.bytesTransferred.get();
+	}
+
+	/** Returns the GATT connection, or null if it has been closed */
+	public BluetoothGatt getGatt() {
+		return this.gatt;
+	}
+
+	void setGatt(BluetoothGatt gatt) {
+		this.gatt = gatt;
+	}
+
+	/** Returns the status of the last GATT callback which finished a request */
+	public int getLastGattStatus() {
+		return this.lastGattStatus;
+	}
+
+	/** Returns the number of requests queued or awaiting their callback */
+	public int getQueueDepth() {
+		return this.queuedCount + this.outstandingCount;
+	}
+
+	/** Returns the largest queue depth seen since the session was created */
+	public int getMaxQueueDepth() {
+		return this.maxQueueDepth;
+	}
+
+	/** Returns the number of writes which replaced the value of a queued write instead of being sent */
+	public int getCoalescedWrites() {
+		return this.coalescedWrites;
+	}
+
+	/**
+	 * Latency of the requests sent from one lane of the queue
+	 */
+	public static class LaneStats {
+		public final bleRequestPriority priority;
+		/** requests currently queued in the lane */
+		public final int queued;
+		/** requests sent since the session was created */
+		public final long requests;
+		/** milliseconds from queuing to sending */
+		public final double meanWaitMillis, maxWaitMillis;
+		/** milliseconds from queuing to finishing */
+		public final double meanLatencyMillis;
+
+		LaneStats(bleRequestPriority priority, int queued, long requests, long waitNanos,
+		    long maxWaitNanos, long latencyNanos) {
+			this.priority = priority;
+			this.queued = queued;
+			this.requests = requests;
+			this.meanWaitMillis = requests == 0 ? 0 : waitNanos / 1e6 / requests;
+			this.maxWaitMillis = maxWaitNanos / 1e6;
+			this.meanLatencyMillis = requests == 0 ? 0 : latencyNanos / 1e6 / requests;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d queued, %d sent, wait %.1f ms (max %.1f ms), latency %.1f ms",
+			    this.priority, this.queued, this.requests, this.meanWaitMillis, this.maxWaitMillis,
+			    this.meanLatencyMillis);
+		}
+	}
+
+	/** Returns the latency of the requests sent from the given lane */
+	public LaneStats getLaneStats(bleRequestPriority priority) {
+		int i = priority.ordinal();
+		this.lock.lock();
+		try {
+			return new LaneStats(priority, this.queue.laneSize(i), this.laneRequests[i],
+			    this.laneWaitNanos[i], this.laneMaxWaitNanos[i], this.laneLatencyNanos[i]);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/** Returns the lane of the request, the default of its operation if it has none */
+	static bleRequestPriority priorityOf(bleRequest req) {
+		if (req.priority != null) {
+			return req.priority;
+		}
+		if (req.operation == null) {
+			return bleRequestPriority.control;
+		}
+		switch (req.operation) {
+			case nsBlocking:
+			case mtu:
+				return bleRequestPriority.control;
+			case wrBlocking:
+				return bleRequestPriority.streaming;
+			case wr:
+				return bleRequestPriority.bulk;
+			default:
+				return bleRequestPriority.background;
+		}
+	}
+
+	/**
+	 * GATT client callbacks of this device
+	 */
+	final BluetoothGattCallback callback = new BluetoothGattCallback() {
+
+		@Override
+		public void onConnectionStateChange(BluetoothGatt gatt, int status,
+		    int newState) {
+			if (closed) {
+				return;
+			}
+			// Log.d(TAG, "onConnectionStateChange (" + address + ") " + newState +
+			// " status: " + status);
+
+			switch (newState) {
+			case BluetoothProfile.STATE_CONNECTED:
+				connected = true;
+				tuner.connectionChanged();
+				service.broadcastUpdate(BluetoothLeService.ACTION_GATT_CONNECTED, address, status);
+				break;
+			case BluetoothProfile.STATE_DISCONNECTED:
+				connected = false;
+				service.broadcastUpdate(BluetoothLeService.ACTION_GATT_DISCONNECTED, address, status);
+				break;
+			default:
+				// Log.e(TAG, "New state not processed: " + newState);
+				break;
+			}
+		}
+
+		@Override
+		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+			service.broadcastUpdate(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED, address, status);
+		}
+
+		@Override
+		public void onCharacteristicChanged(BluetoothGatt gatt,
+		    BluetoothGattCharacteristic characteristic) {
+			notificationCount.incrementAndGet();
+			countBytes(characteristic, BluetoothGatt.GATT_SUCCESS);
+			service.dispatchCharacteristicChanged(address, characteristic, characteristic.getValue());
+		}
+
+		@Override
+		public void onCharacteristicRead(BluetoothGatt gatt,
+		    BluetoothGattCharacteristic characteristic, int status) {
+			countBytes(characteristic, status);
+			finishRequest(characteristic, bleRequestOperation.rdBlocking, bleRequestOperation.rd,
+			    status, characteristic.getValue());
+			service.dispatchCharacteristicRead(address, characteristic, characteristic.getValue(), status);
+		}
+
+		@Override
+		public void onCharacteristicWrite(BluetoothGatt gatt,
+		    BluetoothGattCharacteristic characteristic, int status) {
+			countBytes(characteristic, status);
+			finishRequest(characteristic, bleRequestOperation.wrBlocking, bleRequestOperation.wr,
+			    status, null);
+			service.dispatchCharacteristicWrite(address, characteristic, status);
+		}
+
+		@Override
+		public void onDescriptorRead(BluetoothGatt gatt,
+		    BluetoothGattDescriptor descriptor, int status) {
+			// No request reads descriptors
+		}
+
+		@Override
+		public void onDescriptorWrite(BluetoothGatt gatt,
+		    BluetoothGattDescriptor descriptor, int status) {
+			finishRequest(descriptor.getCharacteristic(), bleRequestOperation.nsBlocking,
+			    bleRequestOperation.nsBlocking, status, null);
+			// Log.i(TAG, "onDescriptorWrite: " + descriptor.getUuid().toString());
+		}
+
+		@Override
+		public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+			tuner.mtuChanged(mtu, status);
+			finishRequest(null, bleRequestOperation.mtu, bleRequestOperation.mtu, status, null);
+		}
+	};
+
+	private void countBytes(BluetoothGattCharacteristic characteristic, int status) {
+		byte[] value = characteristic.getValue();
+		if (status == BluetoothGatt.GATT_SUCCESS && value != null) {
+			this.bytesTransferred.addAndGet(value.length);
+		}
+	}
+
+	/**
+	 * Starts the queue thread
+	 */
+	synchronized void start() {
+		if (this.queueThread != null) {
+			return;
+		}
+		this.queueThread = new Thread("BleRequestQueue " + this.address) {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						executeRequest(takeRequest());
+					}
+				} catch (InterruptedException e) {
+					// The session has been closed
+				}
+			}
+		};
+		this.queueThread.start();
+		this.tuner.start();
+	}
+
+	/**
+	 * Closes the GATT connection, stops the queue thread and fails all pending requests
+	 */
+	synchronized void close() {
+		this.closed = true;
+		this.tuner.stop();
+		if (this.gatt != null) {
+			this.gatt.close();
+			this.gatt = null;
+		}
+		if (this.queueThread != null) {
+			this.queueThread.interrupt();
+			this.queueThread = null;
+		}
+		failPendingRequests();
+	}
+
+	boolean addRequest(bleRequest req) {
+		req.id = this.nextRequestId.getAndIncrement();
+		req.status = bleRequestStatus.queued;
+		req.queueTime = System.nanoTime();
+		if (req.coalesce && !this.closed && coalesce(req)) {
+			return true;
+		}
+		boolean queued = false;
+		this.lock.lock();
+		try {
+			if (!this.closed) {
+				this.queue.add(req, priorityOf(req).ordinal());
+				this.queuedCount = this.queue.size();
+				int depth = getQueueDepth();
+				if (depth > this.maxQueueDepth) {
+					this.maxQueueDepth = depth;
+				}
+				this.requestQueued.signal();
+				queued = true;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+		if (queued) {
+			this.tuner.requestQueued();
+			return true;
+		}
+		completeRequest(req, bleRequestStatus.failed);
+		return false;
+	}
+
+	/**
+	 * Waits for a queued request and removes the most urgent one, where every
+	 * {@link BluetoothLeService#PRIORITY_AGING_MS} a request has waited counts as one lane more
+	 * urgent, see {@link GattRequestQueue#take(long)}
+	 */
+	private bleRequest takeRequest() throws InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			while (this.queue.size() == 0) {
+				this.requestQueued.await();
+			}
+			bleRequest req = this.queue.take(System.nanoTime());
+			this.queuedCount = this.queue.size();
+			return req;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the value of a coalescing write to the queued write to the same characteristic, if
+	 * there is one, or else makes it the write that later ones coalesce into
+	 *
+	 * @return true if the value was handed over, so that the request must not be queued
+	 */
+	private boolean coalesce(bleRequest req) {
+		if (req.characteristic == null) {
+			return false;
+		}
+		this.lock.lock();
+		try {
+			bleRequest pending = this.queue.coalesce(req);
+			if (pending == null) {
+				return false;
+			}
+			pending.value = req.value;
+			this.coalescedWrites++;
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Finishes the oldest outstanding request on the given characteristic, if it is one of the
+	 * given operations, i.e. the kind of request the callback answers
+	 */
+	private void finishRequest(BluetoothGattCharacteristic characteristic,
+	    bleRequestOperation operation, bleRequestOperation otherOperation, int status, byte[] value) {
+		bleRequest req;
+		this.lock.lock();
+		try {
+			req = this.queue.peekOutstanding(characteristic);
+			if (req == null || (req.operation != operation && req.operation != otherOperation)) {
+				return;
+			}
+			this.lastGattStatus = status;
+			req.gattStatus = status;
+			if (value != null) req.value = value;
+		} finally {
+			this.lock.unlock();
+		}
+		completeRequest(req, bleRequestStatus.done);
+	}
+
+	/**
+	 * Moves a queued or outstanding request to a final status and wakes everyone waiting for it.
+	 * Only the first completion counts, so a GATT callback arriving after the request timed out
+	 * is ignored.
+	 */
+	private void completeRequest(bleRequest req, bleRequestStatus status) {
+		List<bleRequest> coalesced;
+		this.lock.lock();
+		try {
+			if (req.status != bleRequestStatus.queued && req.status != bleRequestStatus.processing)
+				return;
+			coalesced = this.queue.finish(req);
+			this.outstandingCount = this.queue.outstandingSize();
+			req.status = status;
+		} finally {
+			this.lock.unlock();
+		}
+		req.finish(status);
+		if (coalesced != null) {
+			for (bleRequest r : coalesced) {
+				r.gattStatus = req.gattStatus;
+				r.finish(status);
+			}
+		}
+	}
+
+	/**
+	 * Sends a request and waits for its GATT callback or timeout. Runs on the queue thread, which
+	 * thus keeps at most one operation outstanding.
+	 */
+	private void executeRequest(final bleRequest req) throws InterruptedException {
+		if (req.timeout == 0) {
+			req.timeout = this.tuner.getRequestTimeout();
+		}
+		this.lock.lock();
+		try {
+			if (req.status != bleRequestStatus.queued) {
+				return;
+			}
+			req.status = bleRequestStatus.processing;
+			req.sendTime = System.nanoTime();
+			// requests without a characteristic, such as mtu, go under the null key
+			this.queue.sent(req);
+			this.outstandingCount = this.queue.outstandingSize();
+		} finally {
+			this.lock.unlock();
+		}
+		SharedScheduler.Handle timeout = SharedScheduler.getInstance().schedule("GATT timeout", new Runnable() {
+			@Override
+			public void run() {
+				completeRequest(req, bleRequestStatus.timeout);
+			}
+		}, req.timeout);
+		if (!sendRequest(req)) {
+			Log.d(TAG, "executeRequest " + req.operation + ": error, BLE was busy or device " + this.address + " disconnected");
+			completeRequest(req, bleRequestStatus.failed);
+		}
+		req.await();
+		timeout.cancel();
+		this.service.getStatistics().record(req);
+		int lane = priorityOf(req).ordinal();
+		long wait = req.sendTime - req.queueTime;
+		this.lock.lock();
+		try {
+			this.laneRequests[lane]++;
+			this.laneWaitNanos[lane] += wait;
+			if (wait > this.laneMaxWaitNanos[lane]) {
+				this.laneMaxWaitNanos[lane] = wait;
+			}
+			this.laneLatencyNanos[lane] += req.finishTime - req.queueTime;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Fails all queued and outstanding requests, so that callers waiting for them return
+	 */
+	private void failPendingRequests() {
+		List<bleRequest> pending;
+		this.lock.lock();
+		try {
+			pending = this.queue.clear();
+			this.queuedCount = 0;
+		} finally {
+			this.lock.unlock();
+		}
+		for (bleRequest r : pending) {
+			completeRequest(r, bleRequestStatus.failed);
+		}
+	}
+
+	@TargetApi(21)
+	private boolean sendRequest(bleRequest request) {
+		BluetoothGatt gatt = this.gatt;
+		if (gatt == null) {
+			return false;
+		}
+		if (request.operation == bleRequestOperation.mtu) {
+			// the MTU exchange is only available from API 21
+			return Build.VERSION.SDK_INT >= 21 && gatt.requestMtu(request.mtu);
+		}
+		if (request.characteristic == null) {
+			return false;
+		}
+		switch (request.operation) {
+			case rd:
+			case rdBlocking:
+				return gatt.readCharacteristic(request.characteristic);
+			case wr:
+			case wrBlocking:
+				request.characteristic.setValue(request.value);
+				return gatt.writeCharacteristic(request.characteristic);
+			case nsBlocking:
+				return sendNotifySetting(gatt, request);
+			default:
+				return false;
+		}
+	}
+
+	private boolean sendNotifySetting(BluetoothGatt gatt, bleRequest request) {
+		if (!gatt.setCharacteristicNotification(request.characteristic, request.notifyenable)) {
+			return false; // Set notification to android was wrong ...
+		}
+		BluetoothGattDescriptor clientConfig = request.characteristic
+		    .getDescriptor(GattInfo.CLIENT_CHARACTERISTIC_CONFIG);
+		if (clientConfig == null) {
+			return false;
+		}
+		if (request.notifyenable) {
+			// Log.i(TAG, "Enable notification: " +
+			// characteristic.getUuid().toString());
+			clientConfig.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+		} else {
+			// Log.i(TAG, "Disable notification: " +
+			// characteristic.getUuid().toString());
+			clientConfig.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+		}
+		// The request finishes in onDescriptorWrite
+		return gatt.writeDescriptor(clientConfig);
+	}
+}
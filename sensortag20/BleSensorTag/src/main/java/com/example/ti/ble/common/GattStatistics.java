@@ -0,0 +1,213 @@
+package com.example.ti.ble.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.example.ti.ble.common.BluetoothLeService.bleRequest;
+import com.example.ti.ble.common.BluetoothLeService.bleRequestOperation;
+
+/**
+ * Latency and outcome of the GATT requests sent by all sessions, by operation. For each operation
+ * it keeps histograms of the time from queuing to sending a request and from sending it to its
+ * callback, the number of timeouts and failures, and the GATT status codes the callbacks reported.
+ *
+ * @see BluetoothLeService#getStatistics()
+ */
+public class GattStatistics {
+
+	/**
+	 * Latencies in power of two buckets of milliseconds: below 1 ms, 1 to 2 ms, 2 to 4 ms and so
+	 * on, with the last bucket holding everything from {@link #bucketLowerMillis} of it up
+	 */
+	public static class Histogram {
+		public static final int BUCKETS = 12;
+		final long[] counts = new long[BUCKETS];
+		long total, sumNanos, maxNanos;
+
+		void record(long nanos) {
+			if (nanos < 0) nanos = 0;
+			long millis = nanos / 1000000;
+			int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+			this.counts[bucket]++;
+			this.total++;
+			this.sumNanos += nanos;
+			if (nanos > this.maxNanos) this.maxNanos = nanos;
+		}
+
+		/** Returns the lower bound of a bucket in milliseconds */
+		public static long bucketLowerMillis(int bucket) {
+			return bucket == 0 ? 0 : 1L << (bucket - 1);
+		}
+
+		public long getCount(int bucket) {
+			return this.counts[bucket];
+		}
+
+		public long getTotal() {
+			return this.total;
+		}
+
+		public double getMeanMillis() {
+			return this.total == 0 ? 0 : this.sumNanos / 1e6 / this.total;
+		}
+
+		public double getMaxMillis() {
+			return this.maxNanos / 1e6;
+		}
+
+		/**
+		 * Returns the upper bound in milliseconds of the bucket holding the given percentile, or
+		 * the maximum for the last bucket
+		 */
+		public double getPercentileMillis(double percentile) {
+			if (this.total == 0) return 0;
+			long rank = (long) Math.ceil(percentile / 100 * this.total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS - 1; i++) {
+				seen += this.counts[i];
+				if (seen >= rank) return Math.min(bucketLowerMillis(i + 1), getMaxMillis());
+			}
+			return getMaxMillis();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("n=%d mean %.1f p50 <=%.0f p95 <=%.0f max %.1f ms", this.total,
+			    getMeanMillis(), Math.ceil(getPercentileMillis(50)), Math.ceil(getPercentileMillis(95)),
+			    getMaxMillis());
+		}
+	}
+
+	/** The statistics of one operation */
+	public static class OperationStats {
+		public final bleRequestOperation operation;
+		/** from queuing a request to sending it */
+		public final Histogram queued = new Histogram();
+		/** from sending a request to the callback finishing it, for requests which got one */
+		public final Histogram callback = new Histogram();
+		long done, timeouts, failures;
+		/** number of callbacks by GATT status code */
+		final Map<Integer, Long> gattStatus = new TreeMap<Integer, Long>();
+
+		OperationStats(bleRequestOperation operation) {
+			this.operation = operation;
+		}
+
+		OperationStats copy() {
+			OperationStats s = new OperationStats(this.operation);
+			copyHistogram(this.queued, s.queued);
+			copyHistogram(this.callback, s.callback);
+			s.done = this.done;
+			s.timeouts = this.timeouts;
+			s.failures = this.failures;
+			s.gattStatus.putAll(this.gattStatus);
+			return s;
+		}
+
+		public long getDone() {
+			return this.done;
+		}
+
+		public long getTimeouts() {
+			return this.timeouts;
+		}
+
+		/** Returns the requests which could not be sent or were failed when the device went away */
+		public long getFailures() {
+			return this.failures;
+		}
+
+		public Map<Integer, Long> getGattStatusCounts() {
+			return Collections.unmodifiableMap(this.gattStatus);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder();
+			b.append(this.operation).append(": ").append(this.done).append(" done, ")
+			    .append(this.timeouts).append(" timed out, ").append(this.failures).append(" failed\n");
+			b.append("  queued   ").append(this.queued).append('\n');
+			b.append("  callback ").append(this.callback).append('\n');
+			for (Map.Entry<Integer, Long> e : this.gattStatus.entrySet()) {
+				b.append("  ").append(statusName(e.getKey())).append(": ").append(e.getValue()).append('\n');
+			}
+			return b.toString();
+		}
+	}
+
+	private final EnumMap<bleRequestOperation, OperationStats> stats =
+	    new EnumMap<bleRequestOperation, OperationStats>(bleRequestOperation.class);
+	private long since = System.currentTimeMillis();
+
+	/** Records a request which was sent and has finished */
+	synchronized void record(bleRequest req) {
+		if (req.operation == null) return;
+		OperationStats s = this.stats.get(req.operation);
+		if (s == null) {
+			s = new OperationStats(req.operation);
+			this.stats.put(req.operation, s);
+		}
+		s.queued.record(req.sendTime - req.queueTime);
+		switch (req.status) {
+			case done:
+				s.done++;
+				s.callback.record(req.finishTime - req.sendTime);
+				break;
+			case timeout:
+				s.timeouts++;
+				break;
+			default:
+				s.failures++;
+				break;
+		}
+		if (req.gattStatus != -1) {
+			Long n = s.gattStatus.get(req.gattStatus);
+			s.gattStatus.put(req.gattStatus, n == null ? 1 : n + 1);
+		}
+	}
+
+	/** Returns a copy of the statistics of all operations seen so far */
+	public synchronized List<OperationStats> snapshot() {
+		List<OperationStats> list = new ArrayList<OperationStats>(this.stats.size());
+		for (OperationStats s : this.stats.values()) {
+			list.add(s.copy());
+		}
+		return list;
+	}
+
+	/** Returns System.currentTimeMillis() of the start of the statistics */
+	public synchronized long getSince() {
+		return this.since;
+	}
+
+	public synchronized void reset() {
+		this.stats.clear();
+		this.since = System.currentTimeMillis();
+	}
+
+	/** Returns the snapshot as text, one block per operation */
+	public String format() {
+		StringBuilder b = new StringBuilder();
+		for (OperationStats s : snapshot()) {
+			b.append(s);
+		}
+		return b.length() == 0 ? "No requests\n" : b.toString();
+	}
+
+	/** Returns the name of a GATT status code */
+	public static String statusName(int status) {
+		String name = BluetoothGATTDefines.gattErrorCodeStrings.get(status);
+		return name != null ? name : String.format("GATT status 0x%02X", status);
+	}
+
+	private static void copyHistogram(Histogram from, Histogram to) {
+		System.arraycopy(from.counts, 0, to.counts, 0, Histogram.BUCKETS);
+		to.total = from.total;
+		to.sumNanos = from.sumNanos;
+		to.maxNanos = from.maxNanos;
+	}
+}
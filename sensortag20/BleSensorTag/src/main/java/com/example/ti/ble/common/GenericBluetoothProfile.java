@@ -115,36 +115,24 @@ public class GenericBluetoothProfile {
         else return false;
     }
 	public void configureService() {
-        int error = this.mBTLeService.setCharacteristicNotification(this.dataC, true);
-        if (error != 0) {
-            if (this.dataC != null)
-                printError("Sensor notification enable failed: ",this.dataC,error);
-        }
+        printErrorWhenFinished("Sensor notification enable failed: ", this.dataC,
+                this.mBTLeService.setCharacteristicNotificationAsync(this.mBTDevice.getAddress(), this.dataC, true));
 		this.isConfigured = true;
 	}
 	public void deConfigureService() {
-        int error = this.mBTLeService.setCharacteristicNotification(this.dataC, false);
-        if (error != 0) {
-            if (this.dataC != null)
-                printError("Sensor notification disable failed: ",this.dataC,error);
-        }
+        printErrorWhenFinished("Sensor notification disable failed: ", this.dataC,
+                this.mBTLeService.setCharacteristicNotificationAsync(this.mBTDevice.getAddress(), this.dataC, false));
         this.isConfigured = false;
 	}
 	public void enableService () {
-        int error = mBTLeService.writeCharacteristic(this.configC, (byte)0x01);
-        if (error != 0) {
-            if (this.configC != null)
-                printError("Sensor enable failed: ",this.configC,error);
-        }
+        printErrorWhenFinished("Sensor enable failed: ", this.configC,
+                mBTLeService.writeCharacteristicCoalesced(mBTDevice.getAddress(), this.configC, (byte)0x01));
         //this.periodWasUpdated(1000);
         this.isEnabled = true;
 	}
 	public void disableService () {
-        int error = mBTLeService.writeCharacteristic(this.configC, (byte)0x00);
-        if (error != 0) {
-            if (this.configC != null)
-                printError("Sensor disable failed: ",this.configC,error);
-        }
+        printErrorWhenFinished("Sensor disable failed: ", this.configC,
+                mBTLeService.writeCharacteristicCoalesced(mBTDevice.getAddress(), this.configC, (byte)0x00));
         this.isConfigured = false;
 	}
 	public void didWriteValueForCharacteristic(BluetoothGattCharacteristic c) {
@@ -158,10 +146,13 @@ public class GenericBluetoothProfile {
 			}
 		}
 	}
-	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
+	/**
+	 * Called with each notified value of a characteristic. Profiles use the passed value rather than
+	 * c.getValue(), which already holds later notifications when deliveries are batched.
+	 */
+	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
         /*
 		if (c.equals(this.dataC)) {
-			byte[] value = c.getValue();
 			this.didUpdateValueForCharacteristic(this.dataC.getUuid().toString(), value);
 		}
 		*/
@@ -198,14 +189,14 @@ public class GenericBluetoothProfile {
 			Log.d("GenericBluetoothProfile","Sensor period failed: " + this.periodC.getUuid().toString());
 		}
 		*/
-        int error = mBTLeService.writeCharacteristic(this.periodC, p);
-        if (error != 0) {
-            if (this.periodC != null)
-                printError("Sensor period failed: ",this.periodC,error);
-        }
+        printErrorWhenFinished("Sensor period failed: ", this.periodC,
+                mBTLeService.writeCharacteristicCoalesced(mBTDevice.getAddress(), this.periodC, p));
 		this.tRow.periodLegend.setText("Sensor period (currently : " + period + "ms)");
 	}
-    public Map<String,String> getMQTTMap() {
+    /**
+     * Returns the cloud values for the given value of the data characteristic, or null if there are none
+     */
+    public Map<String,String> getMQTTMap(byte[] value) {
         return null;
     }
 	public void onOffWasUpdated(boolean on) {
@@ -275,4 +266,19 @@ public class GenericBluetoothProfile {
             e.printStackTrace();
         }
     }
+    /**
+     * Prints an error if the given queued request fails, without waiting for it, so that
+     * enabling a profile queues all its operations at once instead of blocking on each
+     */
+    protected void printErrorWhenFinished(final String msg, final BluetoothGattCharacteristic c,
+                                          BluetoothLeService.bleRequest request) {
+        request.setRequestListener(new BluetoothLeService.RequestListener() {
+            @Override
+            public void onRequestFinished(BluetoothLeService.bleRequest finished) {
+                int error = finished.getResult();
+                if (error != 0 && c != null)
+                    printError(msg, c, error);
+            }
+        }, BluetoothLeService.DIRECT_EXECUTOR);
+    }
 }
@@ -69,6 +69,7 @@ import android.view.View;
 import android.widget.CompoundButton;
 
 import com.example.ti.ble.sensortag.R;
+import com.example.ti.util.SharedScheduler;
 
 import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
@@ -81,8 +82,6 @@ import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class IBMIoTCloudProfile extends GenericBluetoothProfile {
     final String startString = "{\n \"d\":{\n";
@@ -92,7 +91,7 @@ public class IBMIoTCloudProfile extends GenericBluetoothProfile {
     final String addrShort;
     static IBMIoTCloudProfile mThis;
     Map<String, String> valueMap = new HashMap<String, String>();
-    Timer publishTimer;
+    SharedScheduler.Handle publishTimer;
     public boolean ready;
     private WakeLock wakeLock;
     BroadcastReceiver cloudConfigUpdateReceiver;
@@ -281,9 +280,10 @@ public class IBMIoTCloudProfile extends GenericBluetoothProfile {
             e.printStackTrace();
 
         }
-        publishTimer = new Timer();
-        MQTTTimerTask task = new MQTTTimerTask();
-        publishTimer.schedule(task,1000,1000);
+        if (publishTimer != null) {
+            publishTimer.cancel();
+        }
+        publishTimer = SharedScheduler.getInstance().scheduleWithFixedDelay("MQTT publish", new MQTTTimerTask(), 1000, 1000);
         return true;
     }
 
@@ -346,7 +346,7 @@ public class IBMIoTCloudProfile extends GenericBluetoothProfile {
 
     }
     @Override
-    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
+    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
     }
     @Override
     public void didReadValueForCharacteristic(BluetoothGattCharacteristic c) {
@@ -354,7 +354,7 @@ public class IBMIoTCloudProfile extends GenericBluetoothProfile {
     public static IBMIoTCloudProfile getInstance() {
         return mThis;
     }
-    class MQTTTimerTask extends TimerTask {
+    class MQTTTimerTask implements Runnable {
         @Override
         public void run() {
             try {
@@ -379,19 +379,14 @@ public class IBMIoTCloudProfile extends GenericBluetoothProfile {
                         String pub = publishValues.substring(0, publishValues.length() - 2);
                         client.publish(config.publishTopic, jsonEncode(pub).getBytes(), 0, false);
                         //Log.d("IBMIoTCloudProfile", "Published :" + jsonEncode(pub));
-                        try {
-                            Thread.sleep(60);
-                        }
-                        catch (Exception e) {
-                            e.printStackTrace();
-                        }
                     }
-                    activity.runOnUiThread(new Runnable() {
+                    // Show the transmit icon briefly, without holding a shared scheduler thread
+                    tRow.postDelayed(new Runnable() {
                         @Override
                         public void run() {
                             ((IBMIoTCloudTableRow)tRow).setCloudConnectionStatusImage(activity.getResources().getDrawable(R.drawable.cloud_connected));
                         }
-                    });
+                    }, 60);
                 }
                 else {
                     Log.d("IBMIoTCloudProfile", "MQTTTimerTask ran, but MQTT not ready");
@@ -0,0 +1,118 @@
+package com.example.ti.ble.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.ti.util.PreferenceWR;
+
+/**
+ * The service layout of a device as last discovered, with the profiles each service maps to and
+ * the firmware revision it was seen with, persisted in the device's preferences. Services are
+ * still discovered on every connection; the cache only replaces matching each discovered service
+ * against every profile's {@code isCorrectService} with a comparison to the cached layout, and
+ * makes the firmware revision known before the device information has been read.
+ * <p>
+ * A layout is stored as {@code uuid/characteristics/profile,profile;...}. It is dropped when the
+ * device reports a different firmware revision or after a firmware update.
+ */
+public class ServiceLayoutCache {
+	static final String TAG = "ServiceLayoutCache";
+	public static final String PREF_LAYOUT = "serviceLayout";
+	public static final String PREF_LAYOUT_FW = "serviceLayoutFwRev";
+	private static final String NOT_SET = "NS"; // PreferenceWR's default
+	private static final String[] NO_PROFILES = new String[0];
+
+	/** Names the profiles which handle a service, in the order they should be created */
+	public interface ProfileMapper {
+		String[] profilesOf(BluetoothGattService service);
+	}
+
+	private final PreferenceWR prefs;
+	private boolean hit = false;
+
+	public ServiceLayoutCache(String address, Context context) {
+		this.prefs = new PreferenceWR(address, context);
+	}
+
+	/**
+	 * Returns the profiles of each of the given services, taken from the cache if the services
+	 * match the cached layout, or else from the mapper, in which case the layout is stored
+	 */
+	public List<String[]> map(List<BluetoothGattService> services, ProfileMapper mapper) {
+		List<String[]> cached = load(services);
+		this.hit = cached != null;
+		if (this.hit) {
+			Log.d(TAG, "Using cached layout of " + services.size() + " services");
+			return cached;
+		}
+		List<String[]> profiles = new ArrayList<String[]>(services.size());
+		StringBuilder b = new StringBuilder();
+		for (BluetoothGattService s : services) {
+			String[] p = mapper.profilesOf(s);
+			profiles.add(p);
+			if (b.length() > 0) b.append(';');
+			b.append(s.getUuid()).append('/').append(s.getCharacteristics().size()).append('/');
+			for (int i = 0; i < p.length; i++) {
+				if (i > 0) b.append(',');
+				b.append(p[i]);
+			}
+		}
+		this.prefs.setStringPreference(PREF_LAYOUT, b.toString());
+		return profiles;
+	}
+
+	/** Returns whether the last {@link #map} was answered from the cache */
+	public boolean wasHit() {
+		return this.hit;
+	}
+
+	/** Returns the firmware revision the layout was seen with, or null if it is not known */
+	public String getFirmwareRevision() {
+		String fwRev = this.prefs.getStringPreference(PREF_LAYOUT_FW);
+		return NOT_SET.equals(fwRev) ? null : fwRev;
+	}
+
+	/**
+	 * Records the firmware revision read from the device. A different revision than the cached one
+	 * drops the layout, which the next connection then maps again.
+	 */
+	public void firmwareRevisionRead(String fwRev) {
+		if (fwRev == null) return;
+		String cached = getFirmwareRevision();
+		if (fwRev.equals(cached)) return;
+		if (cached != null) {
+			Log.d(TAG, "Firmware revision changed from " + cached + " to " + fwRev + ", dropping layout");
+			this.prefs.setStringPreference(PREF_LAYOUT, NOT_SET);
+		}
+		this.prefs.setStringPreference(PREF_LAYOUT_FW, fwRev);
+	}
+
+	/** Drops the cached layout and firmware revision, e.g. before a firmware update */
+	public void invalidate() {
+		this.prefs.setStringPreference(PREF_LAYOUT, NOT_SET);
+		this.prefs.setStringPreference(PREF_LAYOUT_FW, NOT_SET);
+	}
+
+	/** Returns the cached profiles if the cached layout has the given services, else null */
+	private List<String[]> load(List<BluetoothGattService> services) {
+		String layout = this.prefs.getStringPreference(PREF_LAYOUT);
+		if (NOT_SET.equals(layout) || layout.length() == 0) return null;
+		String[] entries = layout.split(";");
+		if (entries.length != services.size()) return null;
+		List<String[]> profiles = new ArrayList<String[]>(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			String[] fields = entries[i].split("/", -1);
+			BluetoothGattService s = services.get(i);
+			if (fields.length != 3 || !fields[0].equals(s.getUuid().toString())
+			    || !fields[1].equals(Integer.toString(s.getCharacteristics().size()))) {
+				return null;
+			}
+			profiles.add(fields[2].length() == 0 ? NO_PROFILES : fields[2].split(","));
+		}
+		return profiles;
+	}
+}
@@ -0,0 +1,36 @@
+package com.example.ti.ble.sensortag;
+
+import android.content.Context;
+import android.content.Intent;
+
+import edu.umass.cs.camera.processing.BottleEvent;
+
+/**
+ * Reports the events detected from one SensorTag to the BlueDroid sensor service, which writes
+ * them to its event file and daily rollups and passes them on to its clients and video index.
+ * Events are dropped if BlueDroid is not recording.
+ *
+ * @see BottleEvent.REPORT
+ */
+public class BottleEventReporter implements BottleEvent.Listener {
+	private final Context context;
+	private final String address;
+
+	/**
+	 * @param address address of the SensorTag, which identifies the bottle in BlueDroid
+	 */
+	public BottleEventReporter(Context context, String address) {
+		this.context = context.getApplicationContext();
+		this.address = address;
+	}
+
+	@Override
+	public void onBottleEvent(long timestamp, int type) {
+		Intent intent = new Intent(BottleEvent.REPORT.ACTION);
+		intent.setPackage(BottleEvent.REPORT.PACKAGE);
+		intent.putExtra(BottleEvent.REPORT.EXTRA_DEVICE_ADDRESS, address);
+		intent.putExtra(BottleEvent.REPORT.EXTRA_EVENT_TIME, timestamp);
+		intent.putExtra(BottleEvent.REPORT.EXTRA_EVENT_TYPE, type);
+		context.sendBroadcast(intent);
+	}
+}
@@ -102,6 +102,7 @@ import com.example.ti.ble.sensortag.R;
 import com.example.ti.ble.ti.profiles.TILampControlProfile;
 import com.example.ti.ble.ti.profiles.TIOADProfile;
 import com.example.ti.ble.common.IBMIoTCloudProfile;
+import com.example.ti.ble.common.ServiceLayoutCache;
 import com.example.ti.util.PreferenceWR;
 
 
@@ -136,6 +137,45 @@ import com.example.ti.util.PreferenceWR;
 	//GUI
 	private List<GenericBluetoothProfile> mProfiles;
 
+	// Profiles a service can map to, as stored in the service layout cache
+	private static final String PROFILE_HUMIDITY = "humidity";
+	private static final String PROFILE_LUXOMETER = "luxometer";
+	private static final String PROFILE_SIMPLE_KEYS = "keys";
+	private static final String PROFILE_BAROMETER = "barometer";
+	private static final String PROFILE_AMBIENT_TEMPERATURE = "ambientTemperature";
+	private static final String PROFILE_IR_TEMPERATURE = "irTemperature";
+	private static final String PROFILE_MOVEMENT = "movement";
+	private static final String PROFILE_ACCELEROMETER = "accelerometer";
+	private static final String PROFILE_DISPLAY = "display";
+	private static final String PROFILE_LAMP_CONTROL = "lamp";
+	private static final String PROFILE_DEVICE_INFORMATION = "deviceInformation";
+	private static final String PROFILE_OAD = "oad";
+	private static final String PROFILE_TEST = "test";
+	private static final String PROFILE_CONN_CONTROL = "connControl";
+
+	private static final ServiceLayoutCache.ProfileMapper PROFILE_MAPPER = new ServiceLayoutCache.ProfileMapper() {
+		@Override
+		public String[] profilesOf(BluetoothGattService s) {
+			List<String> profiles = new ArrayList<String>(2);
+			if (SensorTagHumidityProfile.isCorrectService(s)) profiles.add(PROFILE_HUMIDITY);
+			if (SensorTagLuxometerProfile.isCorrectService(s)) profiles.add(PROFILE_LUXOMETER);
+			if (SensorTagSimpleKeysProfile.isCorrectService(s)) profiles.add(PROFILE_SIMPLE_KEYS);
+			if (SensorTagBarometerProfile.isCorrectService(s)) profiles.add(PROFILE_BAROMETER);
+			if (SensorTagAmbientTemperatureProfile.isCorrectService(s)) profiles.add(PROFILE_AMBIENT_TEMPERATURE);
+			if (SensorTagIRTemperatureProfile.isCorrectService(s)) profiles.add(PROFILE_IR_TEMPERATURE);
+			if (SensorTagMovementProfile.isCorrectService(s)) profiles.add(PROFILE_MOVEMENT);
+			if (SensorTagAccelerometerProfile.isCorrectService(s)) profiles.add(PROFILE_ACCELEROMETER);
+			if (SensorTagDisplayProfile.isCorrectService(s)) profiles.add(PROFILE_DISPLAY);
+			if (TILampControlProfile.isCorrectService(s)) profiles.add(PROFILE_LAMP_CONTROL);
+			if (DeviceInformationServiceProfile.isCorrectService(s)) profiles.add(PROFILE_DEVICE_INFORMATION);
+			if (TIOADProfile.isCorrectService(s)) profiles.add(PROFILE_OAD);
+			if (SensorTagTestProfile.isCorrectService(s)) profiles.add(PROFILE_TEST);
+			if ((s.getUuid().toString().compareTo("f000ccc0-0451-4000-b000-000000000000")) == 0) profiles.add(PROFILE_CONN_CONTROL);
+			return profiles.toArray(new String[profiles.size()]);
+		}
+	};
+	private ServiceLayoutCache mLayoutCache;
+
 	public DeviceActivity() {
 		mResourceFragmentPager = R.layout.fragment_pager;
 		mResourceIdPager = R.id.pager;
@@ -156,6 +196,9 @@ import com.example.ti.util.PreferenceWR;
 		mBtLeService = BluetoothLeService.getInstance();
 		mBluetoothDevice = intent.getParcelableExtra(EXTRA_DEVICE);
 		mServiceList = new ArrayList<BluetoothGattService>();
+		mLayoutCache = new ServiceLayoutCache(mBluetoothDevice.getAddress(), this);
+		String cachedFwRev = mLayoutCache.getFirmwareRevision();
+		if (cachedFwRev != null) mFwRev = cachedFwRev;
 
 		mIsSensorTag2 = false;
 		// Determine type of SensorTagGatt
@@ -200,6 +243,7 @@ import com.example.ti.util.PreferenceWR;
         }
         if (mIsReceiving) {
             unregisterReceiver(mGattUpdateReceiver);
+            mBtLeService.removeGattListener(mGattListener);
             mIsReceiving = false;
         }
         for (GenericBluetoothProfile p : mProfiles) {
@@ -236,6 +280,9 @@ import com.example.ti.util.PreferenceWR;
 		case R.id.opt_about:
 			openAboutDialog();
 			break;
+		case R.id.opt_gatt_stats:
+			new GattStatisticsDialog(this, mBtLeService).show();
+			break;
 		default:
 			return super.onOptionsItemSelected(item);
 		}
@@ -256,6 +303,7 @@ import com.example.ti.util.PreferenceWR;
 		super.onResume();
 		if (!mIsReceiving) {
 			registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
+			mBtLeService.addGattListener(mGattListener, BluetoothLeService.MAIN_THREAD_EXECUTOR);
 			mIsReceiving = true;
 		}
 		for (GenericBluetoothProfile p : mProfiles) {
@@ -274,9 +322,6 @@ import com.example.ti.util.PreferenceWR;
 	private static IntentFilter makeGattUpdateIntentFilter() {
 		final IntentFilter fi = new IntentFilter();
 		fi.addAction(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED);
-		fi.addAction(BluetoothLeService.ACTION_DATA_NOTIFY);
-		fi.addAction(BluetoothLeService.ACTION_DATA_WRITE);
-		fi.addAction(BluetoothLeService.ACTION_DATA_READ);
 		fi.addAction(DeviceInformationServiceProfile.ACTION_FW_REV_UPDATED);
         fi.addAction(TIOADProfile.ACTION_PREPARE_FOR_OAD);
 		return fi;
@@ -290,17 +335,18 @@ import com.example.ti.util.PreferenceWR;
 		setTitle(mBluetoothDevice.getName());
 
 		// Create GATT object
-		mBtGatt = BluetoothLeService.getBtGatt();
+		mBtGatt = mBtLeService.getBtGatt(mBluetoothDevice.getAddress());
 
         PreferenceWR p = new PreferenceWR(mBluetoothDevice.getAddress(),this);
         if (p.getBooleanPreference(PreferenceWR.PREFERENCEWR_NEEDS_REFRESH) == true) {
             Log.d("DeviceActivity", "Need to refresh device cache, calling refreshDeviceCache()");
+            mLayoutCache.invalidate();
             progressDialog.setTitle("Refreshing device cache ");
             boolean refresh = this.mBtLeService.refreshDeviceCache(this.mBtGatt);
             //We need a wait here, because this takes time ...
             if (refresh == true) {
                 if (!mServicesRdy && mBtGatt != null) {
-                    if (mBtLeService.getNumServices() == 0) {
+                    if (mBtLeService.getNumServices(mBluetoothDevice.getAddress()) == 0) {
                         progressDialog.setTitle("Refreshing device cache ");
                         discoverServices();
                     }
@@ -313,9 +359,11 @@ import com.example.ti.util.PreferenceWR;
         else {
             // Start service discovery
             if (!mServicesRdy && mBtGatt != null) {
-                if (mBtLeService.getNumServices() == 0)
+                if (mBtLeService.getNumServices(mBluetoothDevice.getAddress()) == 0)
                     discoverServices();
                 else {
+                    // Still connected with the services discovered, e.g. within the keep alive time
+                    setupProfiles(this);
                 }
             }
         }
@@ -382,347 +430,303 @@ import com.example.ti.util.PreferenceWR;
 	}
 
 
-	private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
-        List <BluetoothGattService> serviceList;
-        List <BluetoothGattCharacteristic> charList = new ArrayList<BluetoothGattCharacteristic>();
-
-		@Override
-		public void onReceive(final Context context, Intent intent) {
-			final String action = intent.getAction();
-			final int status = intent.getIntExtra(BluetoothLeService.EXTRA_STATUS,
-					BluetoothGatt.GATT_SUCCESS);
-
-
-			if (DeviceInformationServiceProfile.ACTION_FW_REV_UPDATED.equals(action)) {
-				mFwRev = intent.getStringExtra(DeviceInformationServiceProfile.EXTRA_FW_REV_STRING);
-				Log.d("DeviceActivity", "Got FW revision : " + mFwRev + " from DeviceInformationServiceProfile");
-				for (GenericBluetoothProfile p :mProfiles) {
-					p.didUpdateFirmwareRevision(mFwRev);
-				}
-            }
-            if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-
-                    serviceList = mBtLeService.getSupportedGattServices();
-                    if (serviceList.size() > 0) {
-                        for (int ii = 0; ii < serviceList.size(); ii++) {
-                            BluetoothGattService s = serviceList.get(ii);
-                            List<BluetoothGattCharacteristic> c = s.getCharacteristics();
-                            if (c.size() > 0) {
-                                for (int jj = 0; jj < c.size(); jj++) {
-                                    charList.add(c.get(jj));
-                                }
-                            }
-                        }
-                    }
-                    Log.d("DeviceActivity","Total characteristics " + charList.size());
-                    Thread worker = new Thread(new Runnable() {
+	/**
+	 * Creates the profiles of the discovered services on a worker thread, taking the profiles of
+	 * each service from the layout cache when the device has been seen before
+	 */
+	private void setupProfiles(final Context context) {
+        mServicesRdy = true;
+        final List<BluetoothGattService> serviceList = mBtLeService.getSupportedGattServices(mBluetoothDevice.getAddress());
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                //Iterate through the services and add GenericBluetoothServices for each service
+                int nrNotificationsOn = 0;
+                int maxNotifications;
+                int servicesDiscovered = 0;
+                int totalCharacteristics = 0;
+                //serviceList = mBtLeService.getSupportedGattServices();
+                for (BluetoothGattService s : serviceList) {
+                    List<BluetoothGattCharacteristic> chars = s.getCharacteristics();
+                    totalCharacteristics += chars.size();
+                }
+                //Special profile for Cloud service
+                mqttProfile = new IBMIoTCloudProfile(context, mBluetoothDevice, null, mBtLeService);
+                mProfiles.add(mqttProfile);
+                if (totalCharacteristics == 0) {
+                    //Something bad happened, we have a problem
+                    runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
-
-                            //Iterate through the services and add GenericBluetoothServices for each service
-                            int nrNotificationsOn = 0;
-                            int maxNotifications;
-                            int servicesDiscovered = 0;
-                            int totalCharacteristics = 0;
-                            //serviceList = mBtLeService.getSupportedGattServices();
-                            for (BluetoothGattService s : serviceList) {
-                                List<BluetoothGattCharacteristic> chars = s.getCharacteristics();
-                                totalCharacteristics += chars.size();
-                            }
-                            //Special profile for Cloud service
-                            mqttProfile = new IBMIoTCloudProfile(context, mBluetoothDevice, null, mBtLeService);
-                            mProfiles.add(mqttProfile);
-                            if (totalCharacteristics == 0) {
-                                //Something bad happened, we have a problem
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        progressDialog.hide();
-                                        progressDialog.dismiss();
-                                        AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(
-                                                context);
-                                        alertDialogBuilder.setTitle("Error !");
-                                        alertDialogBuilder.setMessage(serviceList.size() + " Services found, but no characteristics found, device will be disconnected !");
-                                        alertDialogBuilder.setPositiveButton("Retry", new DialogInterface.OnClickListener() {
-                                            @Override
-                                            public void onClick(DialogInterface dialog, int which) {
-                                                mBtLeService.refreshDeviceCache(mBtGatt);
-                                                //Try again
-                                                discoverServices();
-                                            }
-                                        });
-                                        alertDialogBuilder.setNegativeButton("Disconnect",new DialogInterface.OnClickListener() {
-                                            @Override
-                                            public void onClick(DialogInterface dialog, int which) {
-                                                mBtLeService.disconnect(mBluetoothDevice.getAddress());
-                                            }
-                                        });
-                                        AlertDialog a = alertDialogBuilder.create();
-                                        a.show();
-                                    }
-                                });
-                                return;
-                            }
-                            final int final_totalCharacteristics = totalCharacteristics;
-                            runOnUiThread(new Runnable() {
+                            progressDialog.hide();
+                            progressDialog.dismiss();
+                            AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(
+                                    context);
+                            alertDialogBuilder.setTitle("Error !");
+                            alertDialogBuilder.setMessage(serviceList.size() + " Services found, but no characteristics found, device will be disconnected !");
+                            alertDialogBuilder.setPositiveButton("Retry", new DialogInterface.OnClickListener() {
                                 @Override
-                                public void run() {
-                                    progressDialog.setIndeterminate(false);
-                                    progressDialog.setTitle("Generating GUI");
-                                    progressDialog.setMessage("Found a total of " + serviceList.size() + " services with a total of " + final_totalCharacteristics + " characteristics on this device" );
-
+                                public void onClick(DialogInterface dialog, int which) {
+                                    mBtLeService.refreshDeviceCache(mBtGatt);
+                                    //Try again
+                                    discoverServices();
                                 }
                             });
-                            if (Build.VERSION.SDK_INT > 18) maxNotifications = 7;
-                            else {
-                                maxNotifications = 4;
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                Toast.makeText(context, "Android version 4.3 detected, max 4 notifications enabled", Toast.LENGTH_LONG).show();
-                                    }
-                                });
-                            }
-                            for (int ii = 0; ii < serviceList.size(); ii++) {
-                                BluetoothGattService s = serviceList.get(ii);
-                                List<BluetoothGattCharacteristic> chars = s.getCharacteristics();
-                                if (chars.size() == 0) {
-
-                                    Log.d("DeviceActivity", "No characteristics found for this service !!!");
-                                    return;
+                            alertDialogBuilder.setNegativeButton("Disconnect",new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    mBtLeService.disconnect(mBluetoothDevice.getAddress());
                                 }
-                                servicesDiscovered++;
-                                final float serviceDiscoveredcalc = (float)servicesDiscovered;
-                                final float serviceTotalcalc = (float)serviceList.size();
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        progressDialog.setProgress((int)((serviceDiscoveredcalc / (serviceTotalcalc - 1)) * 100));
-                                    }
-                                });
-                                Log.d("DeviceActivity", "Configuring service with uuid : " + s.getUuid().toString());
-                                if (SensorTagHumidityProfile.isCorrectService(s)) {
-                                    SensorTagHumidityProfile hum = new SensorTagHumidityProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(hum);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        hum.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        hum.grayOutCell(true);
-                                    }
-                                    Log.d("DeviceActivity","Found Humidity !");
+                            });
+                            AlertDialog a = alertDialogBuilder.create();
+                            a.show();
+                        }
+                    });
+                    return;
+                }
+                final int final_totalCharacteristics = totalCharacteristics;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.setIndeterminate(false);
+                        progressDialog.setTitle("Generating GUI");
+                        progressDialog.setMessage("Found a total of " + serviceList.size() + " services with a total of " + final_totalCharacteristics + " characteristics on this device" );
+
+                    }
+                });
+                if (Build.VERSION.SDK_INT > 18) maxNotifications = 7;
+                else {
+                    maxNotifications = 4;
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                    Toast.makeText(context, "Android version 4.3 detected, max 4 notifications enabled", Toast.LENGTH_LONG).show();
+                        }
+                    });
+                }
+                List<String[]> serviceProfiles = mLayoutCache.map(serviceList, PROFILE_MAPPER);
+                for (int ii = 0; ii < serviceList.size(); ii++) {
+                    BluetoothGattService s = serviceList.get(ii);
+                    List<BluetoothGattCharacteristic> chars = s.getCharacteristics();
+                    if (chars.size() == 0) {
+
+                        Log.d("DeviceActivity", "No characteristics found for this service !!!");
+                        return;
+                    }
+                    servicesDiscovered++;
+                    final float serviceDiscoveredcalc = (float)servicesDiscovered;
+                    final float serviceTotalcalc = (float)serviceList.size();
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            progressDialog.setProgress((int)((serviceDiscoveredcalc / (serviceTotalcalc - 1)) * 100));
+                        }
+                    });
+                    Log.d("DeviceActivity", "Configuring service with uuid : " + s.getUuid().toString());
+                    for (String profile : serviceProfiles.get(ii)) {
+                        switch (profile) {
+                            case PROFILE_HUMIDITY: {
+                                SensorTagHumidityProfile hum = new SensorTagHumidityProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(hum);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    hum.configureService();
+                                    nrNotificationsOn++;
                                 }
-                                if (SensorTagLuxometerProfile.isCorrectService(s)) {
-                                    SensorTagLuxometerProfile lux = new SensorTagLuxometerProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(lux);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        lux.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        lux.grayOutCell(true);
-                                    }
+                                else {
+                                    hum.grayOutCell(true);
                                 }
-                                if (SensorTagSimpleKeysProfile.isCorrectService(s)) {
-                                    SensorTagSimpleKeysProfile key = new SensorTagSimpleKeysProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(key);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        key.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        key.grayOutCell(true);
-                                    }
-                                    Log.d("DeviceActivity","Found Simple Keys !");
+                                Log.d("DeviceActivity","Found Humidity !");
+                                break;
+                            }
+                            case PROFILE_LUXOMETER: {
+                                SensorTagLuxometerProfile lux = new SensorTagLuxometerProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(lux);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    lux.configureService();
+                                    nrNotificationsOn++;
                                 }
-                                if (SensorTagBarometerProfile.isCorrectService(s)) {
-                                    SensorTagBarometerProfile baro = new SensorTagBarometerProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(baro);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        baro.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        baro.grayOutCell(true);
-                                    }
-                                    Log.d("DeviceActivity","Found Barometer !");
+                                else {
+                                    lux.grayOutCell(true);
                                 }
-                                if (SensorTagAmbientTemperatureProfile.isCorrectService(s)) {
-                                    SensorTagAmbientTemperatureProfile irTemp = new SensorTagAmbientTemperatureProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(irTemp);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        irTemp.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        irTemp.grayOutCell(true);
-                                    }
-                                    Log.d("DeviceActivity","Found Ambient Temperature !");
+                                break;
+                            }
+                            case PROFILE_SIMPLE_KEYS: {
+                                SensorTagSimpleKeysProfile key = new SensorTagSimpleKeysProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(key);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    key.configureService();
+                                    nrNotificationsOn++;
                                 }
-                                if (SensorTagIRTemperatureProfile.isCorrectService(s)) {
-                                    SensorTagIRTemperatureProfile irTemp = new SensorTagIRTemperatureProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(irTemp);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        irTemp.configureService();
-                                    }
-                                    else {
-                                        irTemp.grayOutCell(true);
-                                    }
-                                    //No notifications add here because it is already enabled above ..
-                                    Log.d("DeviceActivity","Found IR Temperature !");
+                                else {
+                                    key.grayOutCell(true);
                                 }
-                                if (SensorTagMovementProfile.isCorrectService(s)) {
-                                    SensorTagMovementProfile mov = new SensorTagMovementProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(mov);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        mov.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        mov.grayOutCell(true);
-                                    }
-                                    Log.d("DeviceActivity","Found Motion !");
+                                Log.d("DeviceActivity","Found Simple Keys !");
+                                break;
+                            }
+                            case PROFILE_BAROMETER: {
+                                SensorTagBarometerProfile baro = new SensorTagBarometerProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(baro);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    baro.configureService();
+                                    nrNotificationsOn++;
                                 }
-                                if (SensorTagAccelerometerProfile.isCorrectService(s)) {
-                                    SensorTagAccelerometerProfile acc = new SensorTagAccelerometerProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(acc);
-                                    if (nrNotificationsOn < maxNotifications) {
-                                        acc.configureService();
-                                        nrNotificationsOn++;
-                                    }
-                                    else {
-                                        acc.grayOutCell(true);
-                                    }
-                                    Log.d("DeviceActivity","Found Motion !");
-
+                                else {
+                                    baro.grayOutCell(true);
                                 }
-                                if (SensorTagDisplayProfile.isCorrectService(s)) {
-                                    SensorTagDisplayProfile d = new SensorTagDisplayProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(d);
-                                    d.configureService();
-                                    Log.d("DeviceActivity","Found Display Control Service");
+                                Log.d("DeviceActivity","Found Barometer !");
+                                break;
+                            }
+                            case PROFILE_AMBIENT_TEMPERATURE: {
+                                SensorTagAmbientTemperatureProfile irTemp = new SensorTagAmbientTemperatureProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(irTemp);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    irTemp.configureService();
+                                    nrNotificationsOn++;
                                 }
-                                if (TILampControlProfile.isCorrectService(s)) {
-                                    TILampControlProfile lamp = new TILampControlProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(lamp);
-                                    lamp.configureService();
-                                    Log.d("DeviceActivity","Found Lamp Control Service");
+                                else {
+                                    irTemp.grayOutCell(true);
                                 }
-
-                                if (DeviceInformationServiceProfile.isCorrectService(s)) {
-                                    DeviceInformationServiceProfile devInfo = new DeviceInformationServiceProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(devInfo);
-                                    devInfo.configureService();
-                                    Log.d("DeviceActivity","Found Device Information Service");
+                                Log.d("DeviceActivity","Found Ambient Temperature !");
+                                break;
+                            }
+                            case PROFILE_IR_TEMPERATURE: {
+                                SensorTagIRTemperatureProfile irTemp = new SensorTagIRTemperatureProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(irTemp);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    irTemp.configureService();
                                 }
-                                if (TIOADProfile.isCorrectService(s)) {
-                                    TIOADProfile oad = new TIOADProfile(context,mBluetoothDevice,s,mBtLeService);
-                                    mProfiles.add(oad);
-                                    oad.configureService();
-                                    mOadService = s;
-                                    Log.d("DeviceActivity","Found TI OAD Service");
+                                else {
+                                    irTemp.grayOutCell(true);
                                 }
-                                if (SensorTagTestProfile.isCorrectService(s)) {
-                                    mTestService = s;
+                                //No notifications add here because it is already enabled above ..
+                                Log.d("DeviceActivity","Found IR Temperature !");
+                                break;
+                            }
+                            case PROFILE_MOVEMENT: {
+                                SensorTagMovementProfile mov = new SensorTagMovementProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mov.setBottleEventListener(new BottleEventReporter(context,mBluetoothDevice.getAddress()));
+                                mProfiles.add(mov);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    mov.configureService();
+                                    nrNotificationsOn++;
                                 }
-                                if ((s.getUuid().toString().compareTo("f000ccc0-0451-4000-b000-000000000000")) == 0) {
-                                    mConnControlService = s;
+                                else {
+                                    mov.grayOutCell(true);
                                 }
+                                Log.d("DeviceActivity","Found Motion !");
+                                break;
                             }
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    progressDialog.setTitle("Enabling Services");
-                                    progressDialog.setMax(mProfiles.size());
-                                    progressDialog.setProgress(0);
+                            case PROFILE_ACCELEROMETER: {
+                                SensorTagAccelerometerProfile acc = new SensorTagAccelerometerProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(acc);
+                                if (nrNotificationsOn < maxNotifications) {
+                                    acc.configureService();
+                                    nrNotificationsOn++;
                                 }
-                            });
-                            for (final GenericBluetoothProfile p : mProfiles) {
-
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        mDeviceView.addRowToTable(p.getTableRow());
-                                        p.enableService();
-                                        progressDialog.setProgress(progressDialog.getProgress() + 1);
-                                    }
-                                });
-                                p.onResume();
-                            }
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    progressDialog.hide();
-                                    progressDialog.dismiss();
-                                }
-                            });
-                        }
-                    });
-                    worker.start();
-                } else {
-                    Toast.makeText(getApplication(), "Service discovery failed",
-                            Toast.LENGTH_LONG).show();
-                    return;
-                }
-			} else if (BluetoothLeService.ACTION_DATA_NOTIFY.equals(action)) {
-				// Notification
-				byte[] value = intent.getByteArrayExtra(BluetoothLeService.EXTRA_DATA);
-				String uuidStr = intent.getStringExtra(BluetoothLeService.EXTRA_UUID);
-                //Log.d("DeviceActivity","Got Characteristic : " + uuidStr);
-                for (int ii = 0; ii < charList.size(); ii++) {
-                    BluetoothGattCharacteristic tempC = charList.get(ii);
-                    if ((tempC.getUuid().toString().equals(uuidStr))) {
-                        for (int jj = 0; jj < mProfiles.size(); jj++) {
-                            GenericBluetoothProfile p = mProfiles.get(jj);
-                            if (p.isDataC(tempC)) {
-                                p.didUpdateValueForCharacteristic(tempC);
-                                //Do MQTT
-                                Map<String,String> map = p.getMQTTMap();
-                                if (map != null) {
-                                    for (Map.Entry<String, String> e : map.entrySet()) {
-                                        if (mqttProfile != null)
-                                            mqttProfile.addSensorValueToPendingMessage(e);
-                                    }
+                                else {
+                                    acc.grayOutCell(true);
                                 }
+                                Log.d("DeviceActivity","Found Motion !");
+
+                                break;
+                            }
+                            case PROFILE_DISPLAY: {
+                                SensorTagDisplayProfile d = new SensorTagDisplayProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(d);
+                                d.configureService();
+                                Log.d("DeviceActivity","Found Display Control Service");
+                                break;
+                            }
+                            case PROFILE_LAMP_CONTROL: {
+                                TILampControlProfile lamp = new TILampControlProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(lamp);
+                                lamp.configureService();
+                                Log.d("DeviceActivity","Found Lamp Control Service");
+                                break;
+                            }
+
+                            case PROFILE_DEVICE_INFORMATION: {
+                                DeviceInformationServiceProfile devInfo = new DeviceInformationServiceProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(devInfo);
+                                devInfo.configureService();
+                                Log.d("DeviceActivity","Found Device Information Service");
+                                break;
+                            }
+                            case PROFILE_OAD: {
+                                TIOADProfile oad = new TIOADProfile(context,mBluetoothDevice,s,mBtLeService);
+                                mProfiles.add(oad);
+                                oad.configureService();
+                                mOadService = s;
+                                Log.d("DeviceActivity","Found TI OAD Service");
+                                break;
+                            }
+                            case PROFILE_TEST: {
+                                mTestService = s;
+                                break;
+                            }
+                            case PROFILE_CONN_CONTROL: {
+                                mConnControlService = s;
+                                break;
                             }
                         }
-                        //Log.d("DeviceActivity","Got Characteristic : " + tempC.getUuid().toString());
-                        break;
                     }
                 }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.setTitle("Enabling Services");
+                        progressDialog.setMax(mProfiles.size());
+                        progressDialog.setProgress(0);
+                    }
+                });
+                for (final GenericBluetoothProfile p : mProfiles) {
 
-				//onCharacteristicChanged(uuidStr, value);
-			} else if (BluetoothLeService.ACTION_DATA_WRITE.equals(action)) {
-				// Data written
-                byte[] value = intent.getByteArrayExtra(BluetoothLeService.EXTRA_DATA);
-                String uuidStr = intent.getStringExtra(BluetoothLeService.EXTRA_UUID);
-                for (int ii = 0; ii < charList.size(); ii++) {
-                    BluetoothGattCharacteristic tempC = charList.get(ii);
-                    if ((tempC.getUuid().toString().equals(uuidStr))) {
-                        for (int jj = 0; jj < mProfiles.size(); jj++) {
-                            GenericBluetoothProfile p = mProfiles.get(jj);
-                            p.didWriteValueForCharacteristic(tempC);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            mDeviceView.addRowToTable(p.getTableRow());
+                            p.enableService();
+                            progressDialog.setProgress(progressDialog.getProgress() + 1);
                         }
-                        //Log.d("DeviceActivity","Got Characteristic : " + tempC.getUuid().toString());
-                        break;
-                    }
+                    });
+                    p.onResume();
                 }
-			} else if (BluetoothLeService.ACTION_DATA_READ.equals(action)) {
-				// Data read
-                byte[] value = intent.getByteArrayExtra(BluetoothLeService.EXTRA_DATA);
-                String uuidStr = intent.getStringExtra(BluetoothLeService.EXTRA_UUID);
-                for (int ii = 0; ii < charList.size(); ii++) {
-                    BluetoothGattCharacteristic tempC = charList.get(ii);
-                    if ((tempC.getUuid().toString().equals(uuidStr))) {
-                        for (int jj = 0; jj < mProfiles.size(); jj++) {
-                            GenericBluetoothProfile p = mProfiles.get(jj);
-                            p.didReadValueForCharacteristic(tempC);
-                        }
-                        //Log.d("DeviceActivity","Got Characteristic : " + tempC.getUuid().toString());
-                        break;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.hide();
+                        progressDialog.dismiss();
                     }
+                });
+            }
+        });
+        worker.start();
+	}
+
+	private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(final Context context, Intent intent) {
+			final String action = intent.getAction();
+			final int status = intent.getIntExtra(BluetoothLeService.EXTRA_STATUS,
+					BluetoothGatt.GATT_SUCCESS);
+
+
+			if (DeviceInformationServiceProfile.ACTION_FW_REV_UPDATED.equals(action)) {
+				mFwRev = intent.getStringExtra(DeviceInformationServiceProfile.EXTRA_FW_REV_STRING);
+				Log.d("DeviceActivity", "Got FW revision : " + mFwRev + " from DeviceInformationServiceProfile");
+				mLayoutCache.firmwareRevisionRead(mFwRev);
+				for (GenericBluetoothProfile p :mProfiles) {
+					p.didUpdateFirmwareRevision(mFwRev);
+				}
+            }
+            if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    setupProfiles(context);
+                } else {
+                    Toast.makeText(getApplication(), "Service discovery failed",
+                            Toast.LENGTH_LONG).show();
+                    return;
                 }
 			}
             else {
@@ -731,16 +735,62 @@ import com.example.ti.util.PreferenceWR;
                 }
             }
 			if (status != BluetoothGatt.GATT_SUCCESS) {
-				try {
-					Log.d("DeviceActivity", "Failed UUID was " + intent.getStringExtra(BluetoothLeService.EXTRA_UUID));
-					setError("GATT error code: " + BluetoothGATTDefines.gattErrorCodeStrings.get(status));
-				}
-				catch (Exception e) {
-					e.printStackTrace();
+				showGattError(null, status);
+			}
+		}
+	};
+
+	/**
+	 * Passes characteristic values of this activity's device to the profiles on the main thread,
+	 * where they update their views
+	 */
+	private final BluetoothLeService.GattListener mGattListener = new BluetoothLeService.GattListener() {
+		@Override
+		public void onCharacteristicChanged(String address, BluetoothGattCharacteristic c, byte[] value) {
+			if (mProfiles == null || !address.equals(mBluetoothDevice.getAddress())) return;
+			for (int ii = 0; ii < mProfiles.size(); ii++) {
+				GenericBluetoothProfile p = mProfiles.get(ii);
+				if (p.isDataC(c)) {
+					p.didUpdateValueForCharacteristic(c, value);
+					//Do MQTT
+					Map<String,String> map = p.getMQTTMap(value);
+					if (map != null && mqttProfile != null) {
+						for (Map.Entry<String, String> e : map.entrySet()) {
+							mqttProfile.addSensorValueToPendingMessage(e);
+						}
+					}
 				}
 			}
 		}
+
+		@Override
+		public void onCharacteristicRead(String address, BluetoothGattCharacteristic c, byte[] value, int status) {
+			if (mProfiles == null || !address.equals(mBluetoothDevice.getAddress())) return;
+			for (int ii = 0; ii < mProfiles.size(); ii++) {
+				mProfiles.get(ii).didReadValueForCharacteristic(c);
+			}
+			if (status != BluetoothGatt.GATT_SUCCESS) showGattError(c, status);
+		}
+
+		@Override
+		public void onCharacteristicWrite(String address, BluetoothGattCharacteristic c, int status) {
+			if (mProfiles == null || !address.equals(mBluetoothDevice.getAddress())) return;
+			for (int ii = 0; ii < mProfiles.size(); ii++) {
+				mProfiles.get(ii).didWriteValueForCharacteristic(c);
+			}
+			if (status != BluetoothGatt.GATT_SUCCESS) showGattError(c, status);
+		}
 	};
+
+	private void showGattError(BluetoothGattCharacteristic c, int status) {
+		try {
+			if (c != null) Log.d("DeviceActivity", "Failed UUID was " + c.getUuid().toString());
+			setError("GATT error code: " + BluetoothGATTDefines.gattErrorCodeStrings.get(status));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
     class firmwareUpdateStart extends AsyncTask<String, Integer, Void> {
         ProgressDialog pd;
         Context con;
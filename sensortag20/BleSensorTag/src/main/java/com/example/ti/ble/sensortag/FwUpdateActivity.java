@@ -65,10 +65,7 @@ import android.app.AlertDialog;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Environment;
 import android.text.Html;
@@ -147,7 +144,6 @@ public class FwUpdateActivity extends Activity {
   // Housekeeping
   private boolean mServiceOk = false;
   private boolean mProgramming = false;
-  private IntentFilter mIntentFilter;
 
   FwUpdateActivity mThis;
 
@@ -208,7 +204,6 @@ public class FwUpdateActivity extends Activity {
     mBtnLoadA.setEnabled(mServiceOk);
     mBtnLoadB.setEnabled(mServiceOk);
     mBtnLoadC.setEnabled(mServiceOk);
-  	initIntentFilter();
       getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
   }
 
@@ -250,7 +245,7 @@ public class FwUpdateActivity extends Activity {
   {
     super.onResume();
     if (mServiceOk) {
-    	registerReceiver(mGattUpdateReceiver, mIntentFilter);
+    	mLeService.addGattListener(mGattListener, BluetoothLeService.MAIN_THREAD_EXECUTOR);
     	
       // Read target image info
       getTargetImageInfo();
@@ -266,48 +261,38 @@ public class FwUpdateActivity extends Activity {
   @Override
   protected void onPause() {
   	super.onPause();
-  	unregisterReceiver(mGattUpdateReceiver);
+  	mLeService.removeGattListener(mGattListener);
   }
 
-  private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
+  private final BluetoothLeService.GattListener mGattListener = new BluetoothLeService.GattListener() {
     @Override
-    public void onReceive(Context context, Intent intent) {
-
-      final String action = intent.getAction();
-
-      if (BluetoothLeService.ACTION_DATA_NOTIFY.equals(action)) {
-        byte [] value = intent.getByteArrayExtra(BluetoothLeService.EXTRA_DATA);
-        String uuidStr = intent.getStringExtra(BluetoothLeService.EXTRA_UUID);
-
-        if (uuidStr.equals(mCharIdentify.getUuid().toString())) {
-          // Image info notification
-          mTargImgHdr.ver = Conversion.buildUint16(value[1], value[0]);
-          mTargImgHdr.imgType = ((mTargImgHdr.ver & 1) == 1) ? 'B' : 'A';
-          mTargImgHdr.len = Conversion.buildUint16(value[3], value[2]);
-          displayImageInfo(mTargImage, mTargImgHdr);
-        }
-        if (uuidStr.equals(mCharBlock.getUuid().toString())) {
-          if (mProgramming == true) programBlock(((value[1] << 8) & 0xff00) + (value[0] & 0x00ff));
-          Log.d("FwUpdateActivity",String.format("NB: %02x%02x",value[1],value[0]));
-        }
+    public void onCharacteristicChanged(String address, BluetoothGattCharacteristic c, byte[] value) {
+      if (c.getUuid().equals(mCharIdentify.getUuid())) {
+        // Image info notification
+        mTargImgHdr.ver = Conversion.buildUint16(value[1], value[0]);
+        mTargImgHdr.imgType = ((mTargImgHdr.ver & 1) == 1) ? 'B' : 'A';
+        mTargImgHdr.len = Conversion.buildUint16(value[3], value[2]);
+        displayImageInfo(mTargImage, mTargImgHdr);
       }
-      else if (BluetoothLeService.ACTION_DATA_WRITE.equals(action)) {
-        int status = intent.getIntExtra(BluetoothLeService.EXTRA_STATUS,BluetoothGatt.GATT_SUCCESS);
-        if (status != BluetoothGatt.GATT_SUCCESS) {
-          Toast.makeText(context, "GATT error: status=" + status, Toast.LENGTH_SHORT).show();
-        }
+      if (c.getUuid().equals(mCharBlock.getUuid())) {
+        if (mProgramming == true) programBlock(((value[1] << 8) & 0xff00) + (value[0] & 0x00ff));
+        Log.d("FwUpdateActivity",String.format("NB: %02x%02x",value[1],value[0]));
+      }
+    }
+
+    @Override
+    public void onCharacteristicRead(String address, BluetoothGattCharacteristic c, byte[] value, int status) {
+    }
 
+    @Override
+    public void onCharacteristicWrite(String address, BluetoothGattCharacteristic c, int status) {
+      if (status != BluetoothGatt.GATT_SUCCESS) {
+        Toast.makeText(FwUpdateActivity.this, "GATT error: status=" + status, Toast.LENGTH_SHORT).show();
       }
     }
   };
 
 
-  private void initIntentFilter() {
-  	mIntentFilter = new IntentFilter();
-  	mIntentFilter.addAction(BluetoothLeService.ACTION_DATA_NOTIFY);
-  	mIntentFilter.addAction(BluetoothLeService.ACTION_DATA_WRITE);
-  }
-
   public void onStart(View v) {
     if (mProgramming) {
       stopProgramming();
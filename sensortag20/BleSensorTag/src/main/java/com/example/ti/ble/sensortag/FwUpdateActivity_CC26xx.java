@@ -82,6 +82,7 @@ import com.example.ti.ble.common.BluetoothLeService;
 import com.example.ti.ble.common.CloudProfileConfigurationDialogFragment;
 import com.example.ti.util.Conversion;
 import com.example.ti.util.PreferenceWR;
+import com.example.ti.util.SharedScheduler;
 import com.example.ti.util.firmwareEntriesParser;
 import com.example.ti.util.tiFirmwareEntry;
 import com.example.ti.ble.sensortag.fwSelectorView;
@@ -96,8 +97,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class FwUpdateActivity_CC26xx extends Activity {
     public final static String EXTRA_MESSAGE = "com.example.ti.ble.sensortag.MESSAGE";
@@ -155,9 +154,8 @@ public class FwUpdateActivity_CC26xx extends Activity {
     private final byte[] mOadBuffer = new byte[OAD_BUFFER_SIZE];
     private ImgHdr mFileImgHdr;
     private ImgHdr mTargImgHdr;
-    private Timer mTimer = null;
+    private SharedScheduler.Handle mTimer = null;
     private ProgInfo mProgInfo = new ProgInfo();
-    private TimerTask mTimerTask = null;
     private float firmwareRevision;
     private boolean slowAlgo = true;
     private int fastAlgoMaxPackets = BLOCKS_PER_CONNECTION;
@@ -302,8 +300,8 @@ public class FwUpdateActivity_CC26xx extends Activity {
     public void onDestroy() {
         Log.d(TAG, "onDestroy");
         super.onDestroy();
-        if (mTimerTask != null)
-            mTimerTask.cancel();
+        if (mTimer != null)
+            mTimer.cancel();
         mTimer = null;
         getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
     }
@@ -337,6 +335,7 @@ public class FwUpdateActivity_CC26xx extends Activity {
         super.onResume();
         if (mServiceOk) {
             registerReceiver(mGattUpdateReceiver, mIntentFilter);
+            mLeService.addGattListener(mGattListener, BluetoothLeService.MAIN_THREAD_EXECUTOR);
             Log.d("FwUpdateActivity_CC26xx","Current firmware revision :" + firmwareRevision);
         } else {
             Toast.makeText(this, "OAD service initialisation failed", Toast.LENGTH_LONG).show();
@@ -355,6 +354,7 @@ public class FwUpdateActivity_CC26xx extends Activity {
     protected void onPause() {
         super.onPause();
         unregisterReceiver(mGattUpdateReceiver);
+        mLeService.removeGattListener(mGattListener);
     }
 
     private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
@@ -363,57 +363,7 @@ public class FwUpdateActivity_CC26xx extends Activity {
 
             final String action = intent.getAction();
 
-            if (BluetoothLeService.ACTION_DATA_NOTIFY.equals(action)) {
-                byte [] value = intent.getByteArrayExtra(BluetoothLeService.EXTRA_DATA);
-                String uuidStr = intent.getStringExtra(BluetoothLeService.EXTRA_UUID);
-
-                if (uuidStr.equals(mCharIdentify.getUuid().toString())) {
-
-                }
-                if (uuidStr.equals(mCharBlock.getUuid().toString())) {
-                    // Block check here :
-                    String block = String.format("%02x%02x",value[1],value[0]);
-                    //Log.d("FwUpdateActivity_CC26xx :", "Received block req: " + block);
-                    if (slowAlgo == true) {
-                        programBlock();
-                    }
-                    else {
-                        if (packetsSent != 0) packetsSent--;
-                        if (packetsSent > 10) return;
-                        while (packetsSent < fastAlgoMaxPackets) {
-                            waitABit();
-                            programBlock();
-                        }
-                    }
-                }
-
-            }
-            else if (BluetoothLeService.ACTION_DATA_WRITE.equals(action)) {
-                int status = intent.getIntExtra(BluetoothLeService.EXTRA_STATUS,BluetoothGatt.GATT_SUCCESS);
-                if (status != BluetoothGatt.GATT_SUCCESS) {
-                    Toast.makeText(context, "GATT error: status=" + status, Toast.LENGTH_SHORT).show();
-                }
-            }
-            else if (BluetoothLeService.ACTION_DATA_READ.equals(action)) {
-                byte [] value = intent.getByteArrayExtra(BluetoothLeService.EXTRA_DATA);
-                String uuidStr = intent.getStringExtra(BluetoothLeService.EXTRA_UUID);
-                if (uuidStr.toString().compareTo(SensorTagGatt.UUID_TST_DATA.toString()) == 0) {
-                    // Test result data received, check data
-                    if (value.length > 0) {
-                        Log.d("FWUpdateActivity_CC26xx", "Read from " + uuidStr + " data =" + value[0]);
-                        if ((value[0] & 0x40) == 0x40) {
-                            mLog.append(Html.fromHtml(String.format("<font color=#00CC00>FLASH Self test passed !</font>")));
-                            mTestOK = true;
-                        }
-                        else {
-                            mLog.append(Html.fromHtml(String.format("<font color=#CC0000>FLASH Self test failed !</font>")));
-                            mTestOK = false;
-                        }
-                    }
-                }
-
-            }
-            else if (fwSelectorView.ACTION_FW_WAS_SELECTED.equals(action)) {
+            if (fwSelectorView.ACTION_FW_WAS_SELECTED.equals(action)) {
                 int position = intent.getIntExtra(fwSelectorView.EXTRA_SELECTED_FW_INDEX, -1);
                 if (position < fwEntries.size()) {
                     tiFirmwareEntry ent = fwEntries.get(position);
@@ -439,11 +389,54 @@ public class FwUpdateActivity_CC26xx extends Activity {
     };
 
 
+    private final BluetoothLeService.GattListener mGattListener = new BluetoothLeService.GattListener() {
+        @Override
+        public void onCharacteristicChanged(String address, BluetoothGattCharacteristic c, byte[] value) {
+            if (c.getUuid().equals(mCharBlock.getUuid())) {
+                // Block check here :
+                //Log.d("FwUpdateActivity_CC26xx :", "Received block req: " + String.format("%02x%02x",value[1],value[0]));
+                if (slowAlgo == true) {
+                    programBlock();
+                }
+                else {
+                    if (packetsSent != 0) packetsSent--;
+                    if (packetsSent > 10) return;
+                    while (packetsSent < fastAlgoMaxPackets) {
+                        waitABit();
+                        programBlock();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(String address, BluetoothGattCharacteristic c, byte[] value, int status) {
+            if (c.getUuid().equals(SensorTagGatt.UUID_TST_DATA)) {
+                // Test result data received, check data
+                if (value.length > 0) {
+                    Log.d("FWUpdateActivity_CC26xx", "Read from " + c.getUuid().toString() + " data =" + value[0]);
+                    if ((value[0] & 0x40) == 0x40) {
+                        mLog.append(Html.fromHtml(String.format("<font color=#00CC00>FLASH Self test passed !</font>")));
+                        mTestOK = true;
+                    }
+                    else {
+                        mLog.append(Html.fromHtml(String.format("<font color=#CC0000>FLASH Self test failed !</font>")));
+                        mTestOK = false;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(String address, BluetoothGattCharacteristic c, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Toast.makeText(FwUpdateActivity_CC26xx.this, "GATT error: status=" + status, Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
     private void initIntentFilter() {
         mIntentFilter = new IntentFilter();
-        mIntentFilter.addAction(BluetoothLeService.ACTION_DATA_NOTIFY);
-        mIntentFilter.addAction(BluetoothLeService.ACTION_DATA_READ);
-        mIntentFilter.addAction(BluetoothLeService.ACTION_DATA_WRITE);
         mIntentFilter.addAction(fwSelectorView.ACTION_FW_WAS_SELECTED);
     }
 
@@ -502,16 +495,13 @@ public class FwUpdateActivity_CC26xx extends Activity {
 
         // Initialize stats
         mProgInfo.reset();
-        mTimer = new Timer();
-        mTimerTask = new ProgTimerTask();
-        mTimer.scheduleAtFixedRate(mTimerTask, 0, TIMER_INTERVAL);
+        mTimer = SharedScheduler.getInstance().scheduleAtFixedRate("OAD progress", new ProgTimerTask(), 0, TIMER_INTERVAL);
     }
 
     private void stopProgramming() {
-        mTimer.cancel();
-        mTimer.purge();
-        mTimerTask.cancel();
-        mTimerTask = null;
+        if (mTimer != null)
+            mTimer.cancel();
+        mTimer = null;
 
         mProgramming = false;
         mProgressInfo.setText("");
@@ -699,7 +689,7 @@ public class FwUpdateActivity_CC26xx extends Activity {
         }
     }
 
-    private class ProgTimerTask extends TimerTask {
+    private class ProgTimerTask implements Runnable {
         @Override
         public void run() {
             mProgInfo.iTimeElapsed += TIMER_INTERVAL;
@@ -0,0 +1,91 @@
+package com.example.ti.ble.sensortag;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import android.app.Dialog;
+import android.content.Context;
+import android.os.Bundle;
+import android.view.View;
+import android.view.Window;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.example.ti.ble.common.BluetoothLeService;
+import com.example.ti.ble.common.BluetoothLeService.bleRequestPriority;
+import com.example.ti.ble.common.ConnectionTuner;
+import com.example.ti.ble.common.GattSession;
+import com.example.ti.util.SharedScheduler;
+
+/**
+ * Debug screen showing the GATT request statistics of the service, and the queue lanes and
+ * connection tuning of each session, and the timers of the app
+ */
+public class GattStatisticsDialog extends Dialog {
+  private final BluetoothLeService mBtLeService;
+  private TextView mText;
+
+  public GattStatisticsDialog(Context context, BluetoothLeService service) {
+    super(context);
+    mBtLeService = service;
+  }
+
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    requestWindowFeature(Window.FEATURE_NO_TITLE);
+    setContentView(R.layout.dialog_gatt_statistics);
+    mText = (TextView) findViewById(R.id.gatt_stats);
+
+    Button resetButton = (Button) findViewById(R.id.buttonReset);
+    resetButton.setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        mBtLeService.getStatistics().reset();
+        update();
+      }
+    });
+    Button okButton = (Button) findViewById(R.id.buttonOK);
+    okButton.setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        dismiss();
+      }
+    });
+  }
+
+  @Override
+  protected void onStart() {
+    super.onStart();
+    update();
+  }
+
+  private void update() {
+    if (mBtLeService == null) {
+      mText.setText("Service not running");
+      return;
+    }
+    StringBuilder b = new StringBuilder();
+    b.append("Since ").append(DateFormat.getTimeInstance().format(new Date(mBtLeService.getStatistics().getSince())))
+        .append("\n\n");
+    b.append(mBtLeService.getStatistics().format());
+    for (String address : mBtLeService.getSessionAddresses()) {
+      GattSession session = mBtLeService.getSession(address);
+      if (session == null) continue;
+      ConnectionTuner tuner = session.getTuner();
+      b.append('\n').append(address).append(": queue depth ").append(session.getQueueDepth())
+          .append(" (max ").append(session.getMaxQueueDepth()).append("), MTU ").append(tuner.getMtu())
+          .append(String.format(", %.0f B/s\n", tuner.getBytesPerSecond()));
+      for (bleRequestPriority p : bleRequestPriority.values()) {
+        b.append("  ").append(session.getLaneStats(p)).append('\n');
+      }
+      for (ConnectionTuner.Change c : tuner.getChanges()) {
+        b.append("  ").append(c).append('\n');
+      }
+    }
+    b.append("\nScheduled tasks\n");
+    for (SharedScheduler.TaskStats s : SharedScheduler.getInstance().getTaskStats()) {
+      b.append("  ").append(s).append('\n');
+    }
+    mText.setText(b.toString());
+  }
+}
@@ -600,7 +600,7 @@ public class MainActivity extends ViewPagerActivity {
 					setError("Disconnect Status: " + HCIDefines.hciErrorCodeStrings.get(status));
 				}
 				mConnIndex = NO_DEVICE;
-				mBluetoothLeService.close();
+				mBluetoothLeService.close(intent.getStringExtra(BluetoothLeService.EXTRA_ADDRESS));
 			} else {
 				// Log.w(TAG,"Unknown action: " + action);
 			}
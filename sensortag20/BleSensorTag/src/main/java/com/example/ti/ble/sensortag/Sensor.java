@@ -123,9 +123,9 @@ public enum Sensor {
 			// Range 8G
 			final float SCALE = (float) 4096.0;
 
-			int x = (value[7]<<8) + value[6];
-			int y = (value[9]<<8) + value[8];
-			int z = (value[11]<<8) + value[10]; 
+			int x = (value[7]<<8) | (value[6] & 0xFF);
+			int y = (value[9]<<8) | (value[8] & 0xFF);
+			int z = (value[11]<<8) | (value[10] & 0xFF); 
 			return new Point3D(((x / SCALE) * -1), y / SCALE, ((z / SCALE)*-1));
 		}
 	},
@@ -135,9 +135,9 @@ public enum Sensor {
 
 			final float SCALE = (float) 128.0;
 
-			int x = (value[1]<<8) + value[0];
-			int y = (value[3]<<8) + value[2];
-			int z = (value[5]<<8) + value[4]; 
+			int x = (value[1]<<8) | (value[0] & 0xFF);
+			int y = (value[3]<<8) | (value[2] & 0xFF);
+			int z = (value[5]<<8) | (value[4] & 0xFF); 
 			return new Point3D(x / SCALE, y / SCALE, z / SCALE);
 		}
 	},
@@ -146,9 +146,9 @@ public enum Sensor {
 		public Point3D convert(final byte[] value) {
 			final float SCALE = (float) (32768 / 4912);
 			if (value.length >= 18) {
-				int x = (value[13]<<8) + value[12];
-				int y = (value[15]<<8) + value[14];
-				int z = (value[17]<<8) + value[16]; 
+				int x = (value[13]<<8) | (value[12] & 0xFF);
+				int y = (value[15]<<8) | (value[14] & 0xFF);
+				int z = (value[17]<<8) | (value[16] & 0xFF); 
 				return new Point3D(x / SCALE, y / SCALE, z / SCALE);
 			}
 			else return new Point3D(0,0,0);
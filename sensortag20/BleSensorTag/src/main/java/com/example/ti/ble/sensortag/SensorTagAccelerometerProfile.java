@@ -121,9 +121,9 @@ public class SensorTagAccelerometerProfile extends GenericBluetoothProfile {
 		else return false;
 	}
     @Override
-	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
+	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 			if (c.equals(this.dataC)){
-				Point3D v = Sensor.ACCELEROMETER.convert(this.dataC.getValue());
+				Point3D v = Sensor.ACCELEROMETER.convert(value);
 				if (this.tRow.config == false) this.tRow.value.setText(String.format("X:%.2fG, Y:%.2fG, Z:%.2fG", v.x,v.y,v.z));
 				this.tRow.sl1.addValue((float)v.x);
 				this.tRow.sl2.addValue((float)v.y);
@@ -131,8 +131,8 @@ public class SensorTagAccelerometerProfile extends GenericBluetoothProfile {
 			}
 	}
     @Override
-    public Map<String,String> getMQTTMap() {
-        Point3D v = Sensor.ACCELEROMETER.convert(this.dataC.getValue());
+    public Map<String,String> getMQTTMap(byte[] value) {
+        Point3D v = Sensor.ACCELEROMETER.convert(value);
         Map<String,String> map = new HashMap<String, String>();
         map.put("acc_x", String.format("%.2f", v.x));
         map.put("acc_y",String.format("%.2f",v.y));
@@ -98,12 +98,12 @@ public class SensorTagAmbientTemperatureProfile extends GenericBluetoothProfile
 		this.tRow.periodBar.setProgress(100);
 	}
 	public void configureService() {
-        int error = mBTLeService.writeCharacteristic(this.configC, (byte)0x01);
+        int error = mBTLeService.writeCharacteristic(mBTDevice.getAddress(), this.configC, (byte)0x01);
         if (error != 0) {
             if (this.configC != null)
             Log.d("SensorTagAmbientTemperatureProfile","Sensor config failed: " + this.configC.getUuid().toString() + " Error: " + error);
         }
-        error = this.mBTLeService.setCharacteristicNotification(this.dataC, true);
+        error = this.mBTLeService.setCharacteristicNotification(this.mBTDevice.getAddress(), this.dataC, true);
         if (error != 0) {
             if (this.dataC != null)
             Log.d("SensorTagAmbientTemperatureProfile","Sensor notification enable failed: " + this.configC.getUuid().toString() + " Error: " + error);
@@ -112,12 +112,12 @@ public class SensorTagAmbientTemperatureProfile extends GenericBluetoothProfile
 		this.isConfigured = true;
 	}
 	public void deConfigureService() {
-        int error = mBTLeService.writeCharacteristic(this.configC, (byte)0x00);
+        int error = mBTLeService.writeCharacteristic(mBTDevice.getAddress(), this.configC, (byte)0x00);
         if (error != 0) {
             if (this.configC != null)
             Log.d("SensorTagAmbientTemperatureProfile","Sensor config failed: " + this.configC.getUuid().toString() + " Error: " + error);
         }
-        error = this.mBTLeService.setCharacteristicNotification(this.dataC, false);
+        error = this.mBTLeService.setCharacteristicNotification(this.mBTDevice.getAddress(), this.dataC, false);
         if (error != 0) {
             if (this.dataC != null)
             Log.d("SensorTagAmbientTemperatureProfile","Sensor notification enable failed: " + this.configC.getUuid().toString() + " Error: " + error);
@@ -125,8 +125,7 @@ public class SensorTagAmbientTemperatureProfile extends GenericBluetoothProfile
         this.isConfigured = false;
 	}
     @Override
-    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
-        byte[] value = c.getValue();
+    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 		if (c.equals(this.dataC)){
 			Point3D v = Sensor.IR_TEMPERATURE.convert(value);
 			if (this.tRow.config == false) { 
@@ -143,8 +142,8 @@ public class SensorTagAmbientTemperatureProfile extends GenericBluetoothProfile
 		else return false;
 	}
     @Override
-    public Map<String,String> getMQTTMap() {
-        Point3D v = Sensor.IR_TEMPERATURE.convert(this.dataC.getValue());
+    public Map<String,String> getMQTTMap(byte[] value) {
+        Point3D v = Sensor.IR_TEMPERATURE.convert(value);
         Map<String,String> map = new HashMap<String, String>();
         map.put("ambient_temp",String.format("%.2f",v.x));
         return map;
@@ -119,27 +119,20 @@ public class SensorTagBarometerProfile extends GenericBluetoothProfile {
 		else return false;
 	}
 	public void enableService() {
-		while (!(mBTLeService.checkGatt())) {
+		while (!(mBTLeService.checkGatt(mBTDevice.getAddress()))) {
 			mBTLeService.waitIdle(GATT_TIMEOUT);
 		}
 		if (!(this.isCalibrated)) {
-			// Write the calibration code to the configuration registers
-			mBTLeService.writeCharacteristic(this.configC, Sensor.CALIBRATE_SENSOR_CODE);
-			mBTLeService.waitIdle(GATT_TIMEOUT);
-			mBTLeService.readCharacteristic(this.calibC);
-			mBTLeService.waitIdle(GATT_TIMEOUT);
+			// Write the calibration code to the configuration registers, then read the
+			// coefficients; the queue sends them in order
+			mBTLeService.writeCharacteristicAsync(mBTDevice.getAddress(), this.configC, Sensor.CALIBRATE_SENSOR_CODE);
+			mBTLeService.readCharacteristicAsync(mBTDevice.getAddress(), this.calibC);
 		}
 		else {
-            int error = mBTLeService.writeCharacteristic(this.configC, (byte)0x01);
-            if (error != 0) {
-                if (this.configC != null)
-                Log.d("SensorTagBarometerProfile","Sensor config failed: " + this.configC.getUuid().toString() + " Error: " + error);
-            }
-            error = this.mBTLeService.setCharacteristicNotification(this.dataC, true);
-            if (error != 0) {
-                if (this.dataC != null)
-                Log.d("SensorTagBarometerProfile","Sensor notification enable failed: " + this.configC.getUuid().toString() + " Error: " + error);
-            }
+            printErrorWhenFinished("Sensor config failed: ", this.configC,
+                    mBTLeService.writeCharacteristicAsync(mBTDevice.getAddress(), this.configC, (byte)0x01));
+            printErrorWhenFinished("Sensor notification enable failed: ", this.dataC,
+                    this.mBTLeService.setCharacteristicNotificationAsync(this.mBTDevice.getAddress(), this.dataC, true));
 		}
         this.isEnabled = true;
 
@@ -171,22 +164,15 @@ public class SensorTagBarometerProfile extends GenericBluetoothProfile {
                 Log.d("SensorTagBarometerProfile", "Barometer calibrated !!!!!");
                 BarometerCalibrationCoefficients.INSTANCE.barometerCalibrationCoefficients = cal;
                 this.isCalibrated = true;
-                int error = mBTLeService.writeCharacteristic(this.configC, (byte)0x01);
-                if (error != 0) {
-                    if (this.configC != null)
-                    Log.d("SensorTagBarometerProfile","Sensor config failed: " + this.configC.getUuid().toString() + " Error: " + error);
-                }
-                error = this.mBTLeService.setCharacteristicNotification(this.dataC, true);
-                if (error != 0) {
-                    if (this.dataC != null)
-                    Log.d("SensorTagBarometerProfile","Sensor notification enable failed: " + this.configC.getUuid().toString() + " Error: " + error);
-                }
+                printErrorWhenFinished("Sensor config failed: ", this.configC,
+                        mBTLeService.writeCharacteristicAsync(mBTDevice.getAddress(), this.configC, (byte)0x01));
+                printErrorWhenFinished("Sensor notification enable failed: ", this.dataC,
+                        this.mBTLeService.setCharacteristicNotificationAsync(this.mBTDevice.getAddress(), this.dataC, true));
             }
         }
 	}
 	@Override 
-	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
-        byte[] value = c.getValue();
+	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 		if (c.equals(this.dataC)){
 			Point3D v;
 			v = Sensor.BAROMETER.convert(value);
@@ -210,8 +196,8 @@ public class SensorTagBarometerProfile extends GenericBluetoothProfile {
 		this.isHeightCalibrated = false;
 	}
     @Override
-    public Map<String,String> getMQTTMap() {
-        Point3D v = Sensor.BAROMETER.convert(this.dataC.getValue());
+    public Map<String,String> getMQTTMap(byte[] value) {
+        Point3D v = Sensor.BAROMETER.convert(value);
         Map<String,String> map = new HashMap<String, String>();
         map.put("air_pressure",String.format("%.2f",v.x / 100));
         return map;
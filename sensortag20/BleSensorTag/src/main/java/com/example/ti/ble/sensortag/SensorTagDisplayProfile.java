@@ -64,18 +64,17 @@ import android.widget.CompoundButton;
 
 import com.example.ti.ble.common.BluetoothLeService;
 import com.example.ti.ble.common.GenericBluetoothProfile;
+import com.example.ti.util.SharedScheduler;
 
 import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class SensorTagDisplayProfile extends GenericBluetoothProfile {
     public static final String TI_SENSORTAG_TWO_DISPLAY_SERVICE_UUID = "f000ad00-0451-4000-b000-000000000000";
     public static final String TI_SENSORTAG_TWO_DISPLAY_DATA_UUID = "f000ad01-0451-4000-b000-000000000000";
     public static final String TI_SENSORTAG_TWO_DISPLAY_CONTROL_UUID = "f000ad02-0451-4000-b000-000000000000";
     SensorTagDisplayTableRow cRow;
-    Timer displayClock;
+    SharedScheduler.Handle displayClock;
 
     public SensorTagDisplayProfile(Context con,BluetoothDevice device,BluetoothGattService service,BluetoothLeService controller) {
         super(con, device, service, controller);
@@ -101,8 +100,7 @@ public class SensorTagDisplayProfile extends GenericBluetoothProfile {
                     if (displayClock != null) {
                         displayClock.cancel();
                     }
-                    displayClock = new Timer();
-                    displayClock.schedule(new clockTask(),1000,1000);
+                    displayClock = SharedScheduler.getInstance().scheduleWithFixedDelay("Display clock", new clockTask(), 1000, 1000);
                 }
                 else {
                     if (displayClock != null) {
@@ -117,7 +115,7 @@ public class SensorTagDisplayProfile extends GenericBluetoothProfile {
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 if (configC != null) {
                     byte b = 0x05;
-                    int error = mBTLeService.writeCharacteristic(configC, b);
+                    int error = mBTLeService.writeCharacteristic(mBTDevice.getAddress(), configC, b);
                     if (error != 0) {
                         Log.d("SensorTagDisplayProfile", "Error writing config characteristic !");
                     }
@@ -139,7 +137,7 @@ public class SensorTagDisplayProfile extends GenericBluetoothProfile {
                     p[ii] = (byte) s.charAt(ii);
                 }
                 if (dataC != null) {
-                    int error = mBTLeService.writeCharacteristic(dataC, p);
+                    int error = mBTLeService.writeCharacteristic(mBTDevice.getAddress(), dataC, p);
                     if (error != 0) {
                         Log.d("SensorTagDisplayProfile", "Error writing data characteristic !");
                     }
@@ -170,8 +168,7 @@ public class SensorTagDisplayProfile extends GenericBluetoothProfile {
             if (displayClock != null) {
                 displayClock.cancel();
             }
-            displayClock = new Timer();
-            displayClock.schedule(new clockTask(),1000,1000);
+            displayClock = SharedScheduler.getInstance().scheduleWithFixedDelay("Display clock", new clockTask(), 1000, 1000);
         }
     }
     @Override
@@ -189,10 +186,10 @@ public class SensorTagDisplayProfile extends GenericBluetoothProfile {
 
     }
     @Override
-    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
+    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
     }
 
-    private class clockTask extends TimerTask {
+    private class clockTask implements Runnable {
         @Override
         public void run() {
             Date d = new Date();
@@ -210,12 +207,6 @@ public class SensorTagDisplayProfile extends GenericBluetoothProfile {
                     }
                 });
             }
-            try {
-                Thread.sleep(1000);
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
         }
     }
 
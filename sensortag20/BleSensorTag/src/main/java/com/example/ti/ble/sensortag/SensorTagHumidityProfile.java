@@ -110,8 +110,7 @@ public class SensorTagHumidityProfile extends GenericBluetoothProfile {
 			
 		}
 		@Override
-        public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
-            byte[] value = c.getValue();
+        public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 				if (c.equals(this.dataC)){
                     Point3D v;
                     if (SensorTagUtil.isSensorTag2(mBTDevice)) {
@@ -125,12 +124,12 @@ public class SensorTagHumidityProfile extends GenericBluetoothProfile {
 				}
 		}
     @Override
-    public Map<String,String> getMQTTMap() {
+    public Map<String,String> getMQTTMap(byte[] value) {
         Point3D v;
         if (SensorTagUtil.isSensorTag2(mBTDevice)) {
-            v = Sensor.HUMIDITY2.convert(this.dataC.getValue());
+            v = Sensor.HUMIDITY2.convert(value);
         }
-        else  v = Sensor.HUMIDITY.convert(this.dataC.getValue());
+        else  v = Sensor.HUMIDITY.convert(value);
         Map<String,String> map = new HashMap<String, String>();
         map.put("humidity",String.format("%.2f",v.x));
         return map;
@@ -96,8 +96,7 @@ import com.example.ti.util.Point3D;
 			this.tRow.periodBar.setProgress(100);
 		}
         @Override
-        public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
-            byte[] value = c.getValue();
+        public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 			if (c.equals(this.dataC)){
 				if (this.mBTDevice.getName().equals("CC2650 SensorTag")) {
 					Point3D v = Sensor.IR_TEMPERATURE.convert(value);
@@ -122,8 +121,8 @@ import com.example.ti.util.Point3D;
 			else return false;
 		}
         @Override
-        public Map<String,String> getMQTTMap() {
-            Point3D v = Sensor.IR_TEMPERATURE.convert(this.dataC.getValue());
+        public Map<String,String> getMQTTMap(byte[] value) {
+            Point3D v = Sensor.IR_TEMPERATURE.convert(value);
             Map<String,String> map = new HashMap<String, String>();
             if (this.mBTDevice.getName().equals("CC2650 SensorTag")) {
                 map.put("object_temp", String.format("%.2f", v.z));
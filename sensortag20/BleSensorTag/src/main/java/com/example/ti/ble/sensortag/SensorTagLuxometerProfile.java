@@ -106,8 +106,7 @@ public class SensorTagLuxometerProfile extends GenericBluetoothProfile {
 			else return false;
 		}
     @Override
-    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
-        byte[] value = c.getValue();
+    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 				if (c.equals(this.dataC)){
 					Point3D v = Sensor.LUXOMETER.convert(value);
 					if (this.tRow.config == false) this.tRow.value.setText(String.format("%.1f Lux", v.x));
@@ -115,8 +114,8 @@ public class SensorTagLuxometerProfile extends GenericBluetoothProfile {
 				}
 		}
     @Override
-    public Map<String,String> getMQTTMap() {
-        Point3D v = Sensor.LUXOMETER.convert(this.dataC.getValue());
+    public Map<String,String> getMQTTMap(byte[] value) {
+        Point3D v = Sensor.LUXOMETER.convert(value);
         Map<String,String> map = new HashMap<String, String>();
         map.put("light",String.format("%.2f",v.x));
         return map;
@@ -57,23 +57,92 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.content.Context;
 import android.text.Html;
-import android.util.Log;
 import android.widget.CompoundButton;
-import android.widget.Toast;
 
 import com.example.ti.ble.common.BluetoothLeService;
 import com.example.ti.ble.common.GattInfo;
 import com.example.ti.ble.common.GenericBluetoothProfile;
 import com.example.ti.util.Point3D;
 
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import edu.umass.cs.camera.processing.BottleEvent;
+import edu.umass.cs.camera.processing.MadgwickAhrs;
+import edu.umass.cs.camera.processing.SlidingWindow;
+import edu.umass.cs.camera.processing.TwistDetector;
+
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public class SensorTagMovementProfile extends GenericBluetoothProfile {
+
+	/** number of recent samples covered by the motion statistics */
+	public static final int WINDOW_SIZE = 32;
+
+	/** sliding windows of the accelerometer (G) and gyroscope (deg/s) magnitudes */
+	private final SlidingWindow accWindow = new SlidingWindow(WINDOW_SIZE);
+	private final SlidingWindow gyroWindow = new SlidingWindow(WINDOW_SIZE);
+
+	/** gaps between movement notifications longer than this many seconds are not integrated */
+	public static final double MAX_ORIENTATION_INTERVAL = 2.0;
+
+	/** movement period in milliseconds while twists are detected, well below {@link TwistDetector#MAX_INTERVAL} */
+	public static final int TWIST_PERIOD = 100;
+
+	/** movement period in milliseconds otherwise */
+	public static final int DEFAULT_PERIOD = 1000;
+
+	/** orientation estimate, updated on every movement notification */
+	private final MadgwickAhrs ahrs = new MadgwickAhrs(MadgwickAhrs.DEFAULT_BETA);
+	private final double[] quaternion = new double[4];
+	private final double[] eulerAngles = new double[3];
+	/** arrival time of the previous movement notification in milliseconds, or 0 if none */
+	private long lastMotionTime = 0;
+
+	/** counts per unit of the gyroscope (deg/s), accelerometer (G) and magnetometer, as in {@link Sensor} */
+	private static final double GYRO_SCALE = 128.0;
+	private static final double ACC_SCALE = 4096.0;
+	private static final double MAG_SCALE = 32768 / 4912;
+
+	/** gyroscope, accelerometer and magnetometer x, y and z of the latest notification, in counts */
+	private final double[] motionCounts = new double[9];
+
+	/** recognizes cap twists, assuming the SensorTag is mounted on the cap with its z axis pointing out of the cap */
+	private final TwistDetector twistDetector = new TwistDetector(TwistDetector.AXIS.Z, new BottleEvent.Listener() {
+		@Override
+		public void onBottleEvent(long timestamp, int type) {
+			lastEventType = type;
+			lastEventTime = timestamp;
+			if (bottleEventListener != null) bottleEventListener.onBottleEvent(timestamp, type);
+		}
+	});
+
+	/** receives the cap twist events, may be null */
+	private BottleEvent.Listener bottleEventListener;
+
+	/** type and time of the most recent event, or -1 if none */
+	private int lastEventType = -1;
+	private long lastEventTime;
+
+	/**
+	 * Feeds the motion estimates on the Bluetooth callback thread, so that each sample is stamped
+	 * when it arrives rather than when the main thread gets to it, possibly together with others
+	 */
+	private final BluetoothLeService.GattListener motionListener = new BluetoothLeService.GattListener() {
+		@Override
+		public void onCharacteristicChanged(String address, BluetoothGattCharacteristic c, byte[] value) {
+			if (!c.equals(dataC) || !address.equals(mBTDevice.getAddress())) return;
+			decodeMotion(System.currentTimeMillis(), value);
+		}
+
+		@Override
+		public void onCharacteristicRead(String address, BluetoothGattCharacteristic c, byte[] value, int status) {
+		}
+
+		@Override
+		public void onCharacteristicWrite(String address, BluetoothGattCharacteristic c, int status) {
+		}
+	};
 	
 	public SensorTagMovementProfile(Context con,BluetoothDevice device,BluetoothGattService service,BluetoothLeService controller) {
 		super(con,device,service,controller);
@@ -111,11 +180,8 @@ public class SensorTagMovementProfile extends GenericBluetoothProfile {
                 if (isChecked) {
                     b[0] = (byte)0xFF;
                 }
-                int error = mBTLeService.writeCharacteristic(configC, b);
-                if (error != 0) {
-                    if (configC != null)
-                        Log.d("SensorTagMovementProfile","Sensor config failed: " + configC.getUuid().toString() + " Error: " + error);
-                }
+                printErrorWhenFinished("Sensor config failed: ", configC,
+                        mBTLeService.writeCharacteristicCoalesced(mBTDevice.getAddress(), configC, b));
             }
         });
 		this.tRow.periodBar.setProgress(100);
@@ -132,34 +198,37 @@ public class SensorTagMovementProfile extends GenericBluetoothProfile {
         byte b[] = new byte[] {0x7F,0x00};
         SensorTagMovementTableRow row = (SensorTagMovementTableRow)this.tRow;
         if (row.WOS.isChecked()) b[0] = (byte)0xFF;
-        int error = mBTLeService.writeCharacteristic(this.configC, b);
-        if (error != 0) {
-            if (this.configC != null)
-            Log.d("SensorTagMovementProfile","Sensor config failed: " + this.configC.getUuid().toString() + " Error: " + error);
-        }
-        error = this.mBTLeService.setCharacteristicNotification(this.dataC, true);
-        if (error != 0) {
-            if (this.dataC != null)
-            Log.d("SensorTagMovementProfile","Sensor notification enable failed: " + this.configC.getUuid().toString() + " Error: " + error);
-        }
+        printErrorWhenFinished("Sensor config failed: ", this.configC,
+                mBTLeService.writeCharacteristicCoalesced(mBTDevice.getAddress(), this.configC, b));
+        printErrorWhenFinished("Sensor notification enable failed: ", this.dataC,
+                this.mBTLeService.setCharacteristicNotificationAsync(this.mBTDevice.getAddress(), this.dataC, true));
 
-		this.periodWasUpdated(1000);
+		int period;
+		synchronized (this) {
+			period = bottleEventListener != null ? TWIST_PERIOD : DEFAULT_PERIOD;
+		}
+		this.tRow.periodBar.setProgress((period - this.tRow.periodMinVal) / 10);
+		this.periodWasUpdated(period);
         this.isEnabled = true;
 	}
 	@Override 
 	public void disableService() {
-        int error = mBTLeService.writeCharacteristic(this.configC, new byte[] {0x00,0x00});
-        if (error != 0) {
-            if (this.configC != null)
-            Log.d("SensorTagMovementProfile","Sensor config failed: " + this.configC.getUuid().toString() + " Error: " + error);
-        }
-        error = this.mBTLeService.setCharacteristicNotification(this.dataC, false);
-        if (error != 0) {
-            if (this.dataC != null)
-            Log.d("SensorTagMovementProfile","Sensor notification disable failed: " + this.configC.getUuid().toString() + " Error: " + error);
-        }
+        printErrorWhenFinished("Sensor config failed: ", this.configC,
+                mBTLeService.writeCharacteristicCoalesced(mBTDevice.getAddress(), this.configC, new byte[] {0x00,0x00}));
+        printErrorWhenFinished("Sensor notification disable failed: ", this.dataC,
+                this.mBTLeService.setCharacteristicNotificationAsync(this.mBTDevice.getAddress(), this.dataC, false));
         this.isEnabled = false;
 	}
+	@Override
+	public void onResume() {
+		super.onResume();
+		mBTLeService.addGattListener(motionListener, BluetoothLeService.DIRECT_EXECUTOR);
+	}
+	@Override
+	public void onPause() {
+		mBTLeService.removeGattListener(motionListener);
+		super.onPause();
+	}
 	public void didWriteValueForCharacteristic(BluetoothGattCharacteristic c) {
 		
 	}
@@ -167,8 +236,7 @@ public class SensorTagMovementProfile extends GenericBluetoothProfile {
 		
 	}
 	@Override
-    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
-        byte[] value = c.getValue();
+    public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 			if (c.equals(this.dataC)){
 				Point3D v;
 				v = Sensor.MOVEMENT_ACC.convert(value);
@@ -187,41 +255,130 @@ public class SensorTagMovementProfile extends GenericBluetoothProfile {
 				row.sl7.addValue((float)v.x);
 				row.sl8.addValue((float)v.y);
 				row.sl9.addValue((float) v.z);
-                //Log.v("blah", "okay");
+            }
+	}
 
-                //I think I need to put an intent extra here
+	/**
+	 * Decodes the little-endian signed 16 bit axes of a movement notification into
+	 * {@link #motionCounts}, without allocating, and updates the motion estimates
+	 * @param time arrival time of the notification in milliseconds
+	 */
+	private synchronized void decodeMotion(long time, byte[] value) {
+		if (value.length < 18) return;
+		for (int i = 0; i < 9; i++) {
+			motionCounts[i] = (value[2 * i + 1] << 8) | (value[2 * i] & 0xFF);
+		}
+		double[] m = motionCounts;
+		updateMotion(time, m[0] / GYRO_SCALE, m[1] / GYRO_SCALE, m[2] / GYRO_SCALE,
+				m[3] / ACC_SCALE, m[4] / ACC_SCALE, m[5] / ACC_SCALE,
+				m[6] / MAG_SCALE, m[7] / MAG_SCALE, m[8] / MAG_SCALE);
+	}
 
-                try {
-                    FileOutputStream fileout= Context.openFileOutput("test1.txt", Context.MODE_PRIVATE);
-                    OutputStreamWriter outputWriter=new OutputStreamWriter(fileout);
-                    outputWriter.write(textmsg.getText().toString());
-                    outputWriter.close();
+	/**
+	 * Adds the accelerometer and gyroscope magnitudes of a movement sample to the sliding windows,
+	 * updates the orientation estimate and passes the gyroscope to the twist detector. All axes
+	 * are in the sensor frames, unlike {@link Sensor#MOVEMENT_ACC}, which negates x and z. Called
+	 * with the lock of this profile held.
+	 * @param time arrival time of the sample in milliseconds
+	 */
+	private void updateMotion(long time, double gx, double gy, double gz, double ax, double ay, double az,
+			double mx, double my, double mz) {
+		accWindow.add(Math.sqrt(ax * ax + ay * ay + az * az));
+		gyroWindow.add(Math.sqrt(gx * gx + gy * gy + gz * gz));
 
-                    //display file saved message
-                    Toast.makeText(getBaseContext(), "File saved successfully!",
-                            Toast.LENGTH_SHORT).show();
+		double dt = lastMotionTime == 0 ? 0 : (time - lastMotionTime) / 1000.0;
+		lastMotionTime = time;
+		if (dt < 0 || dt > MAX_ORIENTATION_INTERVAL) dt = 0;
+		// the filter expects all axes in the MPU-9250 frame; the AK8963 magnetometer has x and y
+		// swapped and z inverted relative to the MPU-9250
+		ahrs.update(Math.toRadians(gx), Math.toRadians(gy), Math.toRadians(gz),
+				ax, ay, az, my, mx, -mz, dt);
+		twistDetector.addSample(time, gx, gy, gz);
+	}
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+	/**
+	 * Sets the listener receiving {@link BottleEvent.TYPE#TWIST_OPEN} and
+	 * {@link BottleEvent.TYPE#TWIST_CLOSE} events, which is called on the Bluetooth callback thread.
+	 * While a listener is set, enabling the service sets the movement period to {@link #TWIST_PERIOD},
+	 * so it should be set before the service is enabled.
+	 */
+	public synchronized void setBottleEventListener(BottleEvent.Listener listener) {
+		this.bottleEventListener = listener;
+	}
 
-            }
+	/**
+	 * Copies the orientation quaternion (q0, q1, q2, q3) of the sensor into the given length-4 array
+	 * @see MadgwickAhrs#getQuaternion(double[])
+	 */
+	public synchronized void getOrientation(double[] out) {
+		ahrs.getQuaternion(out);
+	}
+
+	/**
+	 * Returns the angle in degrees between the sensor's z axis and the vertical
+	 * @see MadgwickAhrs#getTiltAngle()
+	 */
+	public synchronized double getTiltAngle() {
+		return ahrs.getTiltAngle();
+	}
+
+	/**
+	 * Copies the roll, pitch and yaw of the sensor in degrees into the given length-3 array
+	 */
+	public synchronized void getEulerAngles(double[] out) {
+		ahrs.getEulerAngles(out);
+	}
+
+	/** Returns the standard deviation of the accelerometer magnitude over the last {@link #WINDOW_SIZE} samples */
+	public synchronized double getAccelerationDeviation() {
+		return accWindow.getStandardDeviation();
+	}
+
+	/** Returns the mean gyroscope magnitude over the last {@link #WINDOW_SIZE} samples */
+	public synchronized double getMeanRotationRate() {
+		return gyroWindow.getMean();
 	}
     @Override
-    public Map<String,String> getMQTTMap() {
-        Point3D v = Sensor.MOVEMENT_ACC.convert(this.dataC.getValue());
+    public Map<String,String> getMQTTMap(byte[] value) {
+        Point3D v = Sensor.MOVEMENT_ACC.convert(value);
         Map<String,String> map = new HashMap<String, String>();
         map.put("acc_x",String.format("%.2f",v.x));
         map.put("acc_y",String.format("%.2f",v.y));
         map.put("acc_z",String.format("%.2f",v.z));
-        v = Sensor.MOVEMENT_GYRO.convert(this.dataC.getValue());
+        v = Sensor.MOVEMENT_GYRO.convert(value);
         map.put("gyro_x",String.format("%.2f",v.x));
         map.put("gyro_y",String.format("%.2f",v.y));
         map.put("gyro_z",String.format("%.2f",v.z));
-        v = Sensor.MOVEMENT_MAG.convert(this.dataC.getValue());
+        v = Sensor.MOVEMENT_MAG.convert(value);
         map.put("compass_x",String.format("%.2f",v.x));
         map.put("compass_y",String.format("%.2f",v.y));
         map.put("compass_z",String.format("%.2f",v.z));
+        synchronized (this) {
+            if (accWindow.size() > 0) {
+                map.put("acc_mag_mean",String.format("%.3f",accWindow.getMean()));
+                map.put("acc_mag_std",String.format("%.3f",accWindow.getStandardDeviation()));
+                map.put("acc_mag_min",String.format("%.3f",accWindow.getMin()));
+                map.put("acc_mag_max",String.format("%.3f",accWindow.getMax()));
+                map.put("acc_mag_energy",String.format("%.3f",accWindow.getEnergy()));
+                map.put("gyro_mag_mean",String.format("%.2f",gyroWindow.getMean()));
+                map.put("gyro_mag_std",String.format("%.2f",gyroWindow.getStandardDeviation()));
+                map.put("gyro_mag_max",String.format("%.2f",gyroWindow.getMax()));
+                ahrs.getQuaternion(quaternion);
+                map.put("q0",String.format("%.4f",quaternion[0]));
+                map.put("q1",String.format("%.4f",quaternion[1]));
+                map.put("q2",String.format("%.4f",quaternion[2]));
+                map.put("q3",String.format("%.4f",quaternion[3]));
+                ahrs.getEulerAngles(eulerAngles);
+                map.put("roll",String.format("%.1f",eulerAngles[0]));
+                map.put("pitch",String.format("%.1f",eulerAngles[1]));
+                map.put("yaw",String.format("%.1f",eulerAngles[2]));
+                map.put("tilt",String.format("%.1f",ahrs.getTiltAngle()));
+            }
+            if (lastEventType >= 0) {
+                map.put("event",BottleEvent.getName(lastEventType));
+                map.put("event_time",String.valueOf(lastEventTime));
+            }
+        }
         return map;
     }
 }
@@ -108,10 +108,9 @@ public class SensorTagSimpleKeysProfile extends GenericBluetoothProfile {
 		this.isEnabled = false;
 	}
 	@Override
-	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c) {
+	public void didUpdateValueForCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
 		SensorTagSimpleKeysTableRow tmpRow = (SensorTagSimpleKeysTableRow) this.tRow;
 		if (c.equals(this.dataC)){
-            byte[] value = c.getValue();
 			switch(value[0]) {
 			case 0x1:
 				tmpRow.leftKeyPressStateImage.setImageResource(R.drawable.leftkeyon_300);
@@ -158,8 +157,7 @@ public class SensorTagSimpleKeysProfile extends GenericBluetoothProfile {
 		}
 	}
     @Override
-    public Map<String,String> getMQTTMap() {
-        byte[] value = this.dataC.getValue();
+    public Map<String,String> getMQTTMap(byte[] value) {
         Map<String,String> map = new HashMap<String, String>();
         map.put("key_1",String.format("%d",value[0] & 0x1));
         map.put("key_2",String.format("%d",value[0] & 0x2));
@@ -173,7 +173,7 @@ public class TILampControlProfile extends GenericBluetoothProfile {
             if (compoundCharacteristic != null) {
                 byte[] p = {(byte)R,(byte)G,(byte)B,(byte)W};
                 if ((p[0] == oldR) && (p[1] == oldG) && (p[2] == oldB) && (p[3] == oldW)) return;
-                int error = mBTLeService.writeCharacteristic(compoundCharacteristic, p);
+                int error = mBTLeService.writeCharacteristic(mBTDevice.getAddress(), compoundCharacteristic, p);
                 if (error != 0) {
                     Log.d("TILampControlProfile","Error writing compound color characteristic !");
                 }
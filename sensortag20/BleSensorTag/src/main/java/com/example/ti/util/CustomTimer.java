@@ -52,13 +52,10 @@
  **************************************************************************************************/
 package com.example.ti.util;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import android.widget.ProgressBar;
 
 public class CustomTimer {
-  private Timer mTimer;
+  private volatile SharedScheduler.Handle mTimer;
   private CustomTimerCallback mCb = null;
   private ProgressBar mProgressBar;
   private int mTimeout;
@@ -66,10 +63,9 @@ public class CustomTimer {
   public CustomTimer(ProgressBar progressBar, int timeout, CustomTimerCallback cb) {
     mTimeout = timeout;
     mProgressBar = progressBar;
-    mTimer = new Timer();
-    ProgressTask t = new ProgressTask();
-    mTimer.schedule(t, 0, 1000); // One second tick
     mCb = cb;
+    ProgressTask t = new ProgressTask();
+    mTimer = SharedScheduler.getInstance().scheduleWithFixedDelay("CustomTimer", t, 0, 1000); // One second tick
   }
 
   public void stop() {
@@ -79,17 +75,21 @@ public class CustomTimer {
     }
   }
 
-  private class ProgressTask extends TimerTask {
+  private class ProgressTask implements Runnable {
     int i = 0;
 
     @Override
     public void run() {
+      if (i >= mTimeout) {
+        // Ran before the handle was stored, so stop() could not cancel it yet
+        stop();
+        return;
+      }
       i++;
       if (mProgressBar != null)
         mProgressBar.setProgress(i);
       if (i >= mTimeout) {
-        mTimer.cancel();
-        mTimer = null;
+        stop();
         if (mCb != null)
           mCb.onTimeout();
       } else {
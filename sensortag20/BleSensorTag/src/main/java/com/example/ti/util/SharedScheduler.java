@@ -0,0 +1,260 @@
+package com.example.ti.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * The one scheduler for the timers of the app, replacing a java.util.Timer thread per timer. Tasks
+ * are scheduled under a name, return a {@link Handle} to cancel them, and are counted per name for
+ * {@link #getTaskStats()}. Tasks run on a small pool of daemon threads, so they must not block for
+ * long; a task which throws is logged and, if periodic, keeps running.
+ */
+public class SharedScheduler {
+    private static final String TAG = "SharedScheduler";
+    private static final int THREADS = 2;
+    private static SharedScheduler mInstance = null;
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final HashMap<String, TaskStats> mStats = new HashMap<String, TaskStats>();
+
+    public static synchronized SharedScheduler getInstance() {
+        if (mInstance == null) {
+            mInstance = new SharedScheduler();
+        }
+        return mInstance;
+    }
+
+    private SharedScheduler() {
+        mExecutor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SharedScheduler " + mCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Runs the task once after the given delay */
+    public Handle schedule(String name, Runnable task, long delayMs) {
+        Handle h = new Handle(name, task, 0, delayMs, false);
+        h.mFuture = mExecutor.schedule(h, delayMs, TimeUnit.MILLISECONDS);
+        return h;
+    }
+
+    /** Runs the task after the initial delay and then every period, until it is cancelled */
+    public Handle scheduleAtFixedRate(String name, Runnable task, long initialDelayMs, long periodMs) {
+        Handle h = new Handle(name, task, periodMs, initialDelayMs, false);
+        h.mFuture = mExecutor.scheduleAtFixedRate(h, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+        return h;
+    }
+
+    /**
+     * Runs the task after the initial delay and then each time the delay has passed since the
+     * previous run ended, until it is cancelled, like {@link java.util.Timer#schedule(java.util.TimerTask, long, long)}
+     */
+    public Handle scheduleWithFixedDelay(String name, Runnable task, long initialDelayMs, long delayMs) {
+        Handle h = new Handle(name, task, delayMs, initialDelayMs, true);
+        h.mFuture = mExecutor.scheduleWithFixedDelay(h, initialDelayMs, delayMs, TimeUnit.MILLISECONDS);
+        return h;
+    }
+
+    /** Returns a copy of the statistics of every task name, sorted by name */
+    public List<TaskStats> getTaskStats() {
+        List<TaskStats> list = new ArrayList<TaskStats>();
+        synchronized (mStats) {
+            for (TaskStats s : mStats.values()) {
+                list.add(s.copy());
+            }
+        }
+        Collections.sort(list, new Comparator<TaskStats>() {
+            @Override
+            public int compare(TaskStats a, TaskStats b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+        return list;
+    }
+
+    private TaskStats stats(String name) {
+        synchronized (mStats) {
+            TaskStats s = mStats.get(name);
+            if (s == null) {
+                s = new TaskStats(name);
+                mStats.put(name, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * A scheduled task, which can be cancelled
+     */
+    public class Handle implements Runnable {
+        private final String mName;
+        private final Runnable mTask;
+        private final long mPeriodNanos;
+        private final boolean mFixedDelay;
+        private final TaskStats mTaskStats;
+        private final AtomicBoolean mFinished = new AtomicBoolean(false);
+        private long mDueNanos;
+        volatile ScheduledFuture<?> mFuture;
+
+        Handle(String name, Runnable task, long periodMs, long delayMs, boolean fixedDelay) {
+            mName = name;
+            mTask = task;
+            mPeriodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+            mFixedDelay = fixedDelay;
+            mDueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+            mTaskStats = stats(name);
+            synchronized (mTaskStats) {
+                mTaskStats.scheduled++;
+                mTaskStats.active++;
+            }
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                mTask.run();
+            } catch (RuntimeException e) {
+                failed = true;
+                Log.e(TAG, "Task " + mName + " failed", e);
+            }
+            long end = System.nanoTime();
+            synchronized (mTaskStats) {
+                mTaskStats.runs++;
+                if (failed) mTaskStats.errors++;
+                mTaskStats.runNanos += end - start;
+                mTaskStats.maxRunNanos = Math.max(mTaskStats.maxRunNanos, end - start);
+                mTaskStats.maxLateNanos = Math.max(mTaskStats.maxLateNanos, start - mDueNanos);
+            }
+            if (mPeriodNanos > 0) {
+                mDueNanos = (mFixedDelay ? end : mDueNanos) + mPeriodNanos;
+            } else {
+                finish();
+            }
+        }
+
+        /**
+         * Cancels the task; a run in progress completes
+         *
+         * @return false if the task had already run or been cancelled
+         */
+        public boolean cancel() {
+            ScheduledFuture<?> f = mFuture;
+            if (f == null || !f.cancel(false)) {
+                return false;
+            }
+            synchronized (mTaskStats) {
+                mTaskStats.cancelled++;
+            }
+            finish();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            ScheduledFuture<?> f = mFuture;
+            return f != null && f.isCancelled();
+        }
+
+        /** Returns whether the task has run, if it runs once, or has been cancelled */
+        public boolean isDone() {
+            return mFinished.get();
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        private void finish() {
+            if (mFinished.compareAndSet(false, true)) {
+                synchronized (mTaskStats) {
+                    mTaskStats.active--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts of the tasks scheduled under one name
+     */
+    public static class TaskStats {
+        public final String name;
+        long scheduled, runs, cancelled, errors, active;
+        long runNanos, maxRunNanos, maxLateNanos;
+
+        TaskStats(String name) {
+            this.name = name;
+        }
+
+        synchronized TaskStats copy() {
+            TaskStats s = new TaskStats(name);
+            s.scheduled = scheduled;
+            s.runs = runs;
+            s.cancelled = cancelled;
+            s.errors = errors;
+            s.active = active;
+            s.runNanos = runNanos;
+            s.maxRunNanos = maxRunNanos;
+            s.maxLateNanos = maxLateNanos;
+            return s;
+        }
+
+        public long getScheduled() {
+            return scheduled;
+        }
+
+        public long getRuns() {
+            return runs;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /** Returns the tasks scheduled and neither run, if they run once, nor cancelled */
+        public long getActive() {
+            return active;
+        }
+
+        public double getMeanRunMillis() {
+            return runs == 0 ? 0 : runNanos / 1e6 / runs;
+        }
+
+        public double getMaxRunMillis() {
+            return maxRunNanos / 1e6;
+        }
+
+        /** Returns the longest a run started after it was due */
+        public double getMaxLateMillis() {
+            return maxLateNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d active, %d scheduled, %d runs, %d cancelled, %d errors, run %.2f ms (max %.2f ms), late max %.1f ms",
+                    name, active, scheduled, runs, cancelled, errors, getMeanRunMillis(), getMaxRunMillis(),
+                    getMaxLateMillis());
+        }
+    }
+}
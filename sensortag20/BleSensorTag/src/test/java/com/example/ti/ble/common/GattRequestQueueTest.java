@@ -0,0 +1,205 @@
+package com.example.ti.ble.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GattRequestQueueTest {
+
+	private static final long AGING = 200;
+
+	/** a request on a characteristic, identified by its name */
+	private static class Request {
+		final String characteristic;
+		final long queueTime;
+
+		Request(String characteristic, long queueTime) {
+			this.characteristic = characteristic;
+			this.queueTime = queueTime;
+		}
+	}
+
+	private final GattRequestQueue<Request, String> queue = new GattRequestQueue<Request, String>(4, AGING) {
+		@Override
+		String keyOf(Request request) {
+			return request.characteristic;
+		}
+
+		@Override
+		long queueTimeOf(Request request) {
+			return request.queueTime;
+		}
+	};
+
+	@Test
+	public void takesRequestsOfALaneInOrder() {
+		Request a = new Request("a", 0), b = new Request("b", 1), c = new Request("a", 2);
+		queue.add(a, 2);
+		queue.add(b, 2);
+		queue.add(c, 2);
+		assertEquals(3, queue.size());
+		assertEquals(3, queue.laneSize(2));
+		assertEquals(a, queue.take(10));
+		assertEquals(b, queue.take(10));
+		assertEquals(c, queue.take(10));
+		assertEquals(0, queue.size());
+		assertNull(queue.take(10));
+	}
+
+	@Test
+	public void clearReturnsQueuedAndSentRequests() {
+		Request a = new Request("a", 0), b = new Request(null, 0), c = new Request("c", 0);
+		queue.add(a, 0);
+		queue.add(b, 0);
+		queue.add(c, 3);
+		queue.sent(queue.take(0));
+		queue.sent(queue.take(0));
+		List<Request> pending = queue.clear();
+		assertEquals(3, pending.size());
+		assertEquals(Arrays.asList(c), pending.subList(0, 1));
+		assertEquals(0, queue.size());
+		assertEquals(0, queue.laneSize(3));
+		assertNull(queue.take(0));
+	}
+
+	@Test
+	public void callbacksFindTheOldestRequestOnTheirCharacteristic() {
+		Request a1 = new Request("a", 0), b = new Request("b", 1), a2 = new Request("a", 2), mtu = new Request(null, 3);
+		for (Request r : new Request[]{a1, b, a2, mtu}) {
+			queue.add(r, 0);
+			queue.sent(queue.take(10));
+		}
+		assertEquals(4, queue.outstandingSize());
+		assertEquals(a1, queue.peekOutstanding("a"));
+		assertEquals(b, queue.peekOutstanding("b"));
+		assertEquals(mtu, queue.peekOutstanding(null));
+		assertNull(queue.peekOutstanding("c"));
+
+		queue.finish(a1);
+		assertEquals(a2, queue.peekOutstanding("a"));
+		// finishing a request on another characteristic leaves them untouched
+		queue.finish(b);
+		assertNull(queue.peekOutstanding("b"));
+		assertEquals(a2, queue.peekOutstanding("a"));
+		queue.finish(a2);
+		assertNull(queue.peekOutstanding("a"));
+		assertEquals(1, queue.outstandingSize());
+		// a late callback for a finished request changes nothing
+		queue.finish(a2);
+		assertEquals(1, queue.outstandingSize());
+		queue.finish(mtu);
+		assertEquals(0, queue.outstandingSize());
+	}
+
+	@Test
+	public void finishingAnyButTheOldestRequestKeepsTheOrder() {
+		Request a1 = new Request("a", 0), a2 = new Request("a", 1), a3 = new Request("a", 2);
+		for (Request r : new Request[]{a1, a2, a3}) {
+			queue.add(r, 1);
+			queue.sent(queue.take(10));
+		}
+		queue.finish(a2);
+		assertEquals(a1, queue.peekOutstanding("a"));
+		queue.finish(a1);
+		assertEquals(a3, queue.peekOutstanding("a"));
+		assertEquals(1, queue.outstandingSize());
+	}
+
+	@Test
+	public void writesCoalesceIntoThePendingWrite() {
+		Request first = new Request("period", 0);
+		assertNull(queue.coalesce(first));
+		queue.add(first, 1);
+		Request second = new Request("period", 1), third = new Request("period", 2);
+		assertEquals(first, queue.coalesce(second));
+		assertEquals(first, queue.coalesce(third));
+		// other characteristics and requests without one do not coalesce
+		assertNull(queue.coalesce(new Request("config", 3)));
+		assertNull(queue.coalesce(new Request(null, 4)));
+		assertEquals(1, queue.size());
+
+		assertEquals(first, queue.take(10));
+		queue.sent(first);
+		assertEquals(Arrays.asList(second, third), queue.finish(first));
+		assertEquals(0, queue.outstandingSize());
+	}
+
+	@Test
+	public void sentWritesNoLongerTakeValues() {
+		Request first = new Request("period", 0);
+		assertNull(queue.coalesce(first));
+		queue.add(first, 1);
+		queue.sent(queue.take(10));
+		// the value of the sent write is fixed, so a new write starts a new pending write
+		Request second = new Request("period", 1);
+		assertNull(queue.coalesce(second));
+		queue.add(second, 1);
+		Request third = new Request("period", 2);
+		assertEquals(second, queue.coalesce(third));
+		assertNull(queue.finish(first));
+		assertEquals(Arrays.asList(third), queue.finish(second));
+	}
+
+	@Test
+	public void finishedWritesNoLongerTakeValues() {
+		Request first = new Request("period", 0);
+		assertNull(queue.coalesce(first));
+		queue.add(first, 1);
+		Request second = new Request("period", 1);
+		assertEquals(first, queue.coalesce(second));
+		// the session closes and fails the queued write, and with it the coalesced one
+		assertEquals(Arrays.asList(first), queue.clear());
+		assertEquals(Arrays.asList(second), queue.finish(first));
+		assertNull(queue.coalesce(new Request("period", 2)));
+	}
+
+	@Test
+	public void moreUrgentLanesGoFirst() {
+		Request background = new Request("a", 0), bulk = new Request("b", 0), control = new Request("c", 0);
+		queue.add(background, 3);
+		queue.add(bulk, 2);
+		queue.add(control, 0);
+		assertEquals(control, queue.take(0));
+		assertEquals(bulk, queue.take(0));
+		assertEquals(background, queue.take(0));
+	}
+
+	@Test
+	public void waitingCountsAsUrgency() {
+		// the bulk request has waited two aging times longer, which makes up for two lanes
+		Request bulk = new Request("a", 0), control = new Request("b", 2 * AGING + 1);
+		queue.add(bulk, 2);
+		queue.add(control, 0);
+		assertEquals(bulk, queue.take(2 * AGING + 1));
+		assertEquals(control, queue.take(2 * AGING + 1));
+
+		// at equal rank the more urgent lane goes first
+		bulk = new Request("a", 0);
+		control = new Request("b", 2 * AGING);
+		queue.add(bulk, 2);
+		queue.add(control, 0);
+		assertEquals(control, queue.take(2 * AGING));
+		assertEquals(bulk, queue.take(2 * AGING));
+	}
+
+	@Test
+	public void busyLanesDoNotStarveTheOthers() {
+		Request background = new Request("a", 0);
+		queue.add(background, 3);
+		// a control request arrives for every one sent, one every aging time
+		long now = 0;
+		queue.add(new Request("b", now), 0);
+		int sent = 0;
+		while (queue.take(now) != background && sent < 10) {
+			sent++;
+			now += AGING;
+			queue.add(new Request("b", now), 0);
+		}
+		// it has waited out its three lanes after three, and goes first after the tie at the fourth
+		assertEquals(4, sent);
+	}
+}